@@ -9,6 +9,7 @@ buildscript {
 plugins {
     kotlin("jvm") version "1.8.0" apply false
     id("com.vanniktech.maven.publish") version "0.24.0" apply false
+    id("me.champeau.jmh") version "0.7.2" apply false
 }
 
 allprojects {
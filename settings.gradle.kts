@@ -2,3 +2,4 @@ rootProject.name = "solon-gradle-plugin"
 
 include(":solon-plugin")
 include(":solon-native-plugin")
+include(":solon-plugin-benchmarks")
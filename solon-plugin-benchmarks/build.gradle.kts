@@ -0,0 +1,35 @@
+plugins {
+    java
+    id("me.champeau.jmh")
+}
+
+group = "org.noear"
+version = "0.0.2"
+description = "Solon Gradle Plugin Benchmarks"
+
+dependencies {
+    jmh(project(":solon-plugin"))
+    jmh(gradleApi())
+    jmh("org.ow2.asm:asm:9.5")
+}
+
+tasks.withType<JavaCompile> {
+    sourceCompatibility = "1.8"
+    targetCompatibility = "1.8"
+}
+
+jmh {
+    // e.g. ./gradlew :solon-plugin-benchmarks:jmh -PjmhIncludes=MainClassFinder
+    if (project.hasProperty("jmhIncludes")) {
+        includes.add(project.property("jmhIncludes").toString())
+    }
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    if (JavaVersion.current().isJava9Compatible) {
+        // ProjectBuilder defines classes in java.lang
+        jvmArgsAppend.add("--add-opens=java.base/java.lang=ALL-UNNAMED")
+    }
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("reports/jmh/results-${project.version}.json"))
+}
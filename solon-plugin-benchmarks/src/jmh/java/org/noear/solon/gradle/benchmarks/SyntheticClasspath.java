@@ -0,0 +1,242 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.benchmarks;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Generates the class trees and jars that the benchmarks run against. The generated
+ * classes are shaped like those of a typical application: most of them are small and
+ * have nothing to do with a main method, one in a hundred declares a {@code main} method
+ * that is not {@code public}, and a single class annotated with {@code @SolonMain}
+ * is placed in the deepest package so that a search has to visit every class.
+ */
+public final class SyntheticClasspath {
+
+    /**
+     * The name of the annotation on the generated main class.
+     */
+    public static final String SOLON_MAIN_ANNOTATION_NAME = "org.noear.solon.annotation.SolonMain";
+
+    /**
+     * The internal name of the generated main class.
+     */
+    public static final String MAIN_CLASS_NAME = "com/example/app/module/boot/Application";
+
+    private static final int CLASSES_PER_PACKAGE = 50;
+
+    private static final int PACKAGES_PER_MODULE = 20;
+
+    private SyntheticClasspath() {
+    }
+
+    /**
+     * Writes the given number of classes, including the main class, beneath the given
+     * directory.
+     *
+     * @param root       the root of the class tree
+     * @param classCount the number of classes to write
+     * @throws IOException on IO error
+     */
+    public static void writeClasses(Path root, int classCount) throws IOException {
+        for (int i = 0; i < classCount - 1; i++) {
+            write(root, className(i), createClass(className(i), i % 100 == 0));
+        }
+        write(root, MAIN_CLASS_NAME, createMainClass());
+    }
+
+    /**
+     * Writes a jar with the given number of classes, including the main class, beneath
+     * the given location.
+     *
+     * @param jar             the jar to write
+     * @param classesLocation the location of the classes within the jar, for example
+     *                        {@code ""} or {@code "BOOT-INF/classes/"}
+     * @param classCount      the number of classes to write
+     * @throws IOException on IO error
+     */
+    public static void writeJar(Path jar, String classesLocation, int classCount) throws IOException {
+        Files.createDirectories(jar.getParent());
+        try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(jar))) {
+            for (int i = 0; i < classCount - 1; i++) {
+                writeEntry(output, classesLocation + className(i) + ".class", createClass(className(i), i % 100 == 0));
+            }
+            writeEntry(output, classesLocation + MAIN_CLASS_NAME + ".class", createMainClass());
+        }
+    }
+
+    /**
+     * Writes the given number of dependency jars, each holding {@code classesPerJar}
+     * classes.
+     *
+     * @param directory     the directory to write the jars to
+     * @param jarCount      the number of jars
+     * @param classesPerJar the number of classes in each jar
+     * @return the jars that were written
+     * @throws IOException on IO error
+     */
+    public static List<File> writeDependencyJars(Path directory, int jarCount, int classesPerJar)
+            throws IOException {
+        Files.createDirectories(directory);
+        List<File> jars = new ArrayList<>();
+        for (int jarIndex = 0; jarIndex < jarCount; jarIndex++) {
+            Path jar = directory.resolve("library-" + jarIndex + ".jar");
+            try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(jar))) {
+                for (int i = 0; i < classesPerJar; i++) {
+                    String className = "org/library" + jarIndex + "/" + className(i);
+                    writeEntry(output, className + ".class", createClass(className, false));
+                }
+            }
+            jars.add(jar.toFile());
+        }
+        return jars;
+    }
+
+    /**
+     * Writes the given number of files that are not zips, like the properties and
+     * other plain files that can end up on a classpath.
+     *
+     * @param directory the directory to write the files to
+     * @param count     the number of files
+     * @return the files that were written
+     * @throws IOException on IO error
+     */
+    public static List<File> writePlainFiles(Path directory, int count) throws IOException {
+        Files.createDirectories(directory);
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path file = directory.resolve("resource-" + i + ".properties");
+            try (OutputStream output = Files.newOutputStream(file)) {
+                output.write(("key" + i + "=value" + i + "\n").getBytes("UTF-8"));
+            }
+            files.add(file.toFile());
+        }
+        return Collections.unmodifiableList(files);
+    }
+
+    /**
+     * Deletes the given directory and everything beneath it.
+     *
+     * @param root the directory to delete
+     * @throws IOException on IO error
+     */
+    public static void delete(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+        });
+    }
+
+    private static String className(int index) {
+        int packageIndex = index / CLASSES_PER_PACKAGE;
+        return "com/example/module" + (packageIndex / PACKAGES_PER_MODULE) + "/package" + packageIndex
+                + "/Component" + index;
+    }
+
+    private static void write(Path root, String className, byte[] bytes) throws IOException {
+        Path file = root.resolve(className + ".class");
+        Files.createDirectories(file.getParent());
+        Files.write(file, bytes);
+    }
+
+    private static void writeEntry(JarOutputStream output, String name, byte[] bytes) throws IOException {
+        output.putNextEntry(new JarEntry(name));
+        output.write(bytes);
+        output.closeEntry();
+    }
+
+    private static byte[] createClass(String className, boolean withPrivateMainMethod) {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, className, null, "java/lang/Object",
+                null);
+        writer.visitField(Opcodes.ACC_PRIVATE, "name", "Ljava/lang/String;", null, null).visitEnd();
+        writeConstructor(writer);
+        MethodVisitor getter = writer.visitMethod(Opcodes.ACC_PUBLIC, "getName", "()Ljava/lang/String;", null,
+                null);
+        getter.visitCode();
+        getter.visitVarInsn(Opcodes.ALOAD, 0);
+        getter.visitFieldInsn(Opcodes.GETFIELD, className, "name", "Ljava/lang/String;");
+        getter.visitInsn(Opcodes.ARETURN);
+        getter.visitMaxs(1, 1);
+        getter.visitEnd();
+        if (withPrivateMainMethod) {
+            writeMainMethod(writer, Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC);
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static byte[] createMainClass() {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, MAIN_CLASS_NAME, null,
+                "java/lang/Object", null);
+        writer.visitAnnotation("L" + SOLON_MAIN_ANNOTATION_NAME.replace('.', '/') + ";", true).visitEnd();
+        writeConstructor(writer);
+        writeMainMethod(writer, Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC);
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static void writeConstructor(ClassWriter writer) {
+        MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(1, 1);
+        constructor.visitEnd();
+    }
+
+    private static void writeMainMethod(ClassWriter writer, int access) {
+        MethodVisitor main = writer.visitMethod(access, "main", "([Ljava/lang/String;)V", null, null);
+        main.visitCode();
+        main.visitInsn(Opcodes.RETURN);
+        main.visitMaxs(0, 1);
+        main.visitEnd();
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import org.gradle.api.JavaVersion;
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.noear.solon.gradle.benchmarks.SyntheticClasspath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the copy of a {@link SolonJar} whose classpath is made of a class
+ * output directory and twenty dependency jars. A quarter of the classes are in the
+ * directory and the rest are spread evenly across the jars.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SolonJarBenchmark {
+
+    private static final int DEPENDENCY_JAR_COUNT = 20;
+
+    @Param({"1000", "10000", "50000", "200000"})
+    private int classCount;
+
+    private Path workingDirectory;
+
+    private SolonJar solonJar;
+
+    @Setup(Level.Trial)
+    public void createProject() throws IOException {
+        this.workingDirectory = Files.createTempDirectory("solon-jar");
+        Path classes = this.workingDirectory.resolve("classes");
+        SyntheticClasspath.writeClasses(classes, this.classCount / 4);
+        List<File> dependencies = SyntheticClasspath.writeDependencyJars(this.workingDirectory.resolve("libs"),
+                DEPENDENCY_JAR_COUNT, (this.classCount - this.classCount / 4) / DEPENDENCY_JAR_COUNT);
+        Project project = ProjectBuilder.builder()
+                .withProjectDir(this.workingDirectory.resolve("project").toFile())
+                .build();
+        this.solonJar = project.getTasks().create("solonJar", SolonJar.class);
+        this.solonJar.getMainClass().set(SyntheticClasspath.MAIN_CLASS_NAME.replace('/', '.'));
+        this.solonJar.getTargetJavaVersion().set(JavaVersion.current());
+        this.solonJar.getArchiveFileName().set("application.jar");
+        this.solonJar.getDestinationDirectory()
+                .set(Files.createDirectories(this.workingDirectory.resolve("output")).toFile());
+        this.solonJar.classpath(classes.toFile(), dependencies);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteProject() throws IOException {
+        SyntheticClasspath.delete(this.workingDirectory);
+    }
+
+    @Benchmark
+    public long copy() {
+        this.solonJar.copy();
+        return this.solonJar.getArchiveFile().get().getAsFile().length();
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import org.gradle.api.JavaVersion;
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.noear.solon.gradle.benchmarks.SyntheticClasspath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Benchmarks for the part of the startup of an application that loads its classes from
+ * a flat {@link SolonJar}, with the classes deflated, as by default, or stored and, for
+ * those of at least a page, aligned. Each invocation opens the jar in a new class
+ * loader and loads every class without initializing it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SolonJarStartupBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    private int classCount;
+
+    @Param({"DEFLATED", "STORED"})
+    private String classes;
+
+    private Path workingDirectory;
+
+    private URL jar;
+
+    private List<String> classNames;
+
+    @Setup(Level.Trial)
+    public void createJar() throws IOException {
+        this.workingDirectory = Files.createTempDirectory("solon-jar-startup");
+        Path classesDirectory = this.workingDirectory.resolve("classes");
+        SyntheticClasspath.writeClasses(classesDirectory, this.classCount);
+        Project project = ProjectBuilder.builder()
+                .withProjectDir(this.workingDirectory.resolve("project").toFile())
+                .build();
+        SolonJar solonJar = project.getTasks().create("solonJar", SolonJar.class);
+        solonJar.getMainClass().set(SyntheticClasspath.MAIN_CLASS_NAME.replace('/', '.'));
+        solonJar.getTargetJavaVersion().set(JavaVersion.current());
+        solonJar.getArchiveFileName().set("application.jar");
+        solonJar.getDestinationDirectory()
+                .set(Files.createDirectories(this.workingDirectory.resolve("output")).toFile());
+        solonJar.classpath(classesDirectory.toFile());
+        if ("STORED".equals(this.classes)) {
+            solonJar.getStoredEntryGroups().add(EntryGroup.CLASSES);
+        }
+        solonJar.copy();
+        File archive = solonJar.getArchiveFile().get().getAsFile();
+        this.jar = archive.toURI().toURL();
+        this.classNames = new ArrayList<>();
+        try (JarFile jarFile = new JarFile(archive)) {
+            for (JarEntry entry : Collections.list(jarFile.entries())) {
+                String name = entry.getName();
+                if (name.endsWith(".class")) {
+                    this.classNames.add(name.substring(0, name.length() - 6).replace('/', '.'));
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJar() throws IOException {
+        SyntheticClasspath.delete(this.workingDirectory);
+    }
+
+    @Benchmark
+    public int loadClasses() throws Exception {
+        int loaded = 0;
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] { this.jar },
+                ClassLoader.getSystemClassLoader().getParent())) {
+            for (String className : this.classNames) {
+                loaded += Class.forName(className, false, classLoader).getName().length();
+            }
+        }
+        return loaded;
+    }
+
+}
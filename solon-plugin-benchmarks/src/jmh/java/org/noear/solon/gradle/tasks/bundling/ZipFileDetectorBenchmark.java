@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import org.gradle.api.services.BuildServiceParameters;
+import org.noear.solon.gradle.benchmarks.SyntheticClasspath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the {@link ZipFileDetector} over a classpath of dependency jars and
+ * plain files, as used for every classpath entry of a {@link SolonJar} whose artifact
+ * type is not known: once with a new detector, which reads the header of each file, and
+ * once with a detector that has already seen the files, as for the later tasks of a
+ * build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ZipFileDetectorBenchmark {
+
+    @Param({"100", "1000"})
+    private int jarCount;
+
+    private Path workingDirectory;
+
+    private final List<File> classpath = new ArrayList<>();
+
+    private final ZipFileDetector detector = createDetector();
+
+    @Setup(Level.Trial)
+    public void createClasspath() throws IOException {
+        this.workingDirectory = Files.createTempDirectory("solon-archive-support");
+        this.classpath.addAll(SyntheticClasspath.writeDependencyJars(this.workingDirectory.resolve("libs"),
+                this.jarCount, 10));
+        this.classpath.addAll(SyntheticClasspath.writePlainFiles(this.workingDirectory.resolve("resources"),
+                this.jarCount / 10));
+        countZips(this.detector);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteClasspath() throws IOException {
+        SyntheticClasspath.delete(this.workingDirectory);
+    }
+
+    @Benchmark
+    public int isZip() {
+        return countZips(createDetector());
+    }
+
+    @Benchmark
+    public int isZipMemoized() {
+        return countZips(this.detector);
+    }
+
+    private int countZips(ZipFileDetector detector) {
+        int zips = 0;
+        for (File file : this.classpath) {
+            if (detector.isZip(file)) {
+                zips++;
+            }
+        }
+        return zips;
+    }
+
+    private static ZipFileDetector createDetector() {
+        return new ZipFileDetector() {
+
+            @Override
+            public BuildServiceParameters.None getParameters() {
+                return null;
+            }
+
+        };
+    }
+
+}
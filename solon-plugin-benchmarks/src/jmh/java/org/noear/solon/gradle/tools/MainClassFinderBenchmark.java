@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tools;
+
+import org.noear.solon.gradle.benchmarks.SyntheticClasspath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+
+/**
+ * Benchmarks for {@link MainClassFinder} over a class output directory and over a jar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MainClassFinderBenchmark {
+
+    private static final String MAIN_CLASS_NAME = SyntheticClasspath.MAIN_CLASS_NAME.replace('/', '.');
+
+    @Param({"1000", "10000", "50000", "200000"})
+    private int classCount;
+
+    private Path workingDirectory;
+
+    private File classesDirectory;
+
+    private File jar;
+
+    private File indexFile;
+
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void createClasspath() throws IOException {
+        this.workingDirectory = Files.createTempDirectory("main-class-finder");
+        Path classes = this.workingDirectory.resolve("classes");
+        SyntheticClasspath.writeClasses(classes, this.classCount);
+        this.classesDirectory = classes.toFile();
+        Path jar = this.workingDirectory.resolve("application.jar");
+        SyntheticClasspath.writeJar(jar, "", this.classCount);
+        this.jar = jar.toFile();
+        this.indexFile = this.workingDirectory.resolve("main-class.idx").toFile();
+        MainClassIndex index = MainClassIndex.empty();
+        check(MainClassFinder.findSingleMainClass(this.classesDirectory,
+                SyntheticClasspath.SOLON_MAIN_ANNOTATION_NAME, SearchScope.ALL, null, index));
+        index.save(this.indexFile);
+        this.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteClasspath() throws IOException {
+        this.pool.shutdown();
+        SyntheticClasspath.delete(this.workingDirectory);
+    }
+
+    @Benchmark
+    public String scanDirectory() throws IOException {
+        return check(MainClassFinder.findSingleMainClass(this.classesDirectory,
+                SyntheticClasspath.SOLON_MAIN_ANNOTATION_NAME, SearchScope.ALL, null, null));
+    }
+
+    @Benchmark
+    public String scanDirectoryInParallel() throws IOException {
+        return check(MainClassFinder.findSingleMainClass(this.classesDirectory,
+                SyntheticClasspath.SOLON_MAIN_ANNOTATION_NAME, SearchScope.ALL, this.pool, null));
+    }
+
+    @Benchmark
+    public String scanDirectoryWithIndex() throws IOException {
+        return check(MainClassFinder.findSingleMainClass(this.classesDirectory,
+                SyntheticClasspath.SOLON_MAIN_ANNOTATION_NAME, SearchScope.ALL, null,
+                MainClassIndex.load(this.indexFile)));
+    }
+
+    @Benchmark
+    public String scanJar() throws IOException {
+        return check(MainClassFinder.findSingleMainClassInJar(this.jar, "",
+                SyntheticClasspath.SOLON_MAIN_ANNOTATION_NAME, SearchScope.ALL));
+    }
+
+    @Benchmark
+    public String scanJarFile() throws IOException {
+        try (JarFile jarFile = new JarFile(this.jar)) {
+            return check(MainClassFinder.findSingleMainClass(jarFile, "",
+                    SyntheticClasspath.SOLON_MAIN_ANNOTATION_NAME));
+        }
+    }
+
+    private static String check(String mainClass) {
+        if (!MAIN_CLASS_NAME.equals(mainClass)) {
+            throw new IllegalStateException("Expected " + MAIN_CLASS_NAME + " but found " + mainClass);
+        }
+        return mainClass;
+    }
+
+}
@@ -0,0 +1,52 @@
+package org.noear.solon.gradle.dsl;
+
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+
+import javax.inject.Inject;
+
+/**
+ * Limits where the main class is searched for when it has not been configured.
+ *
+ * <pre>
+ * solon {
+ *     mainClassSearch {
+ *         basePackages = ["com.example.demo"]
+ *         maxDepth = 2
+ *     }
+ * }
+ * </pre>
+ */
+public class MainClassSearch {
+
+    private final ListProperty<String> basePackages;
+
+    private final Property<Integer> maxDepth;
+
+    @Inject
+    public MainClassSearch(ObjectFactory objects) {
+        this.basePackages = objects.listProperty(String.class);
+        this.maxDepth = objects.property(Integer.class);
+    }
+
+    /**
+     * Returns the packages, along with their sub-packages, that are searched for the main
+     * class. When empty, all packages are searched.
+     *
+     * @return the base packages
+     */
+    public ListProperty<String> getBasePackages() {
+        return this.basePackages;
+    }
+
+    /**
+     * Returns how many levels of sub-packages below each base package are searched, with
+     * {@code 0} meaning the base packages only. When not set, there is no limit.
+     *
+     * @return the maximum depth
+     */
+    public Property<Integer> getMaxDepth() {
+        return this.maxDepth;
+    }
+}
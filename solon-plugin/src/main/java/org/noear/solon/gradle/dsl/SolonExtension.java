@@ -1,5 +1,6 @@
 package org.noear.solon.gradle.dsl;
 
+import org.gradle.api.Action;
 import org.gradle.api.Project;
 import org.gradle.api.provider.Property;
 
@@ -7,11 +8,36 @@ public class SolonExtension {
 
     private final Property<String> mainClass;
 
+    private final MainClassSearch mainClassSearch;
+
+    private final Property<Boolean> mainClassIndex;
+
     public SolonExtension(Project project) {
         this.mainClass = project.getObjects().property(String.class);
+        this.mainClassSearch = project.getObjects().newInstance(MainClassSearch.class);
+        this.mainClassIndex = project.getObjects().property(Boolean.class).convention(true);
     }
 
     public Property<String> getMainClass() {
         return this.mainClass;
     }
+
+    public MainClassSearch getMainClassSearch() {
+        return this.mainClassSearch;
+    }
+
+    public void mainClassSearch(Action<? super MainClassSearch> action) {
+        action.execute(this.mainClassSearch);
+    }
+
+    /**
+     * Whether an annotation processor should record the {@code @SolonMain} class at
+     * compile time, so that it doesn't have to be found by scanning the compiled classes.
+     * Defaults to {@code true}.
+     *
+     * @return the main class index property
+     */
+    public Property<Boolean> getMainClassIndex() {
+        return this.mainClassIndex;
+    }
 }
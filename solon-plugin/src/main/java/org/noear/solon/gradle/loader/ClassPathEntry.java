@@ -0,0 +1,237 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.loader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLStreamHandler;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * An entry of the class path of a nested jar: either the directory of the application's
+ * classes or one of the dependency jars that are stored in the executable jar.
+ */
+final class ClassPathEntry {
+
+    /**
+     * The directory of the versioned entries of a multi-release jar.
+     */
+    static final String VERSIONS_LOCATION = "META-INF/versions/";
+
+    private static final String MULTI_RELEASE_ATTRIBUTE = "Multi-Release";
+
+    private static final int FIRST_VERSIONED_RELEASE = 9;
+
+    private static final int[] NO_RELEASES = new int[0];
+
+    private static final int RUNTIME_RELEASE = getRuntimeRelease();
+
+    private final String location;
+
+    private final ZipContent content;
+
+    private final String prefix;
+
+    private final URLStreamHandler handler;
+
+    private final String urlBase;
+
+    private final URL url;
+
+    private volatile NestedJarFile jarFile;
+
+    private volatile ProtectionDomain protectionDomain;
+
+    private volatile int[] releases;
+
+    /**
+     * Creates a new entry.
+     *
+     * @param location the name of the directory or jar in the executable jar
+     * @param content the content that holds the entries: the executable jar for a
+     * directory or the nested jar
+     * @param prefix the prefix of the names of the entries in the content
+     * @param handler the handler of the URLs of the entries
+     * @throws MalformedURLException if the URL of the entry cannot be created
+     */
+    ClassPathEntry(String location, ZipContent content, String prefix, URLStreamHandler handler)
+            throws MalformedURLException {
+        this.location = location;
+        this.content = content;
+        this.prefix = prefix;
+        this.handler = handler;
+        this.urlBase = content.getFile().toURI() + "!/" + location + "!/";
+        this.url = new URL("jar", null, -1, this.urlBase, handler);
+    }
+
+    String getLocation() {
+        return this.location;
+    }
+
+    ZipContent getContent() {
+        return this.content;
+    }
+
+    /**
+     * Returns the URL of the root of the entry, for example
+     * {@code jar:file:/app.jar!/SOLON-INF/lib/a.jar!/}.
+     *
+     * @return the URL
+     */
+    URL getUrl() {
+        return this.url;
+    }
+
+    /**
+     * Returns the URL of the resource with the given name.
+     *
+     * @param name the name of the resource
+     * @return the URL
+     * @throws MalformedURLException if the URL cannot be created
+     */
+    URL getUrl(String name) throws MalformedURLException {
+        return new URL("jar", null, -1, this.urlBase + name, this.handler);
+    }
+
+    /**
+     * Returns the entry with the given name, relative to this class path entry, or
+     * {@code null}.
+     *
+     * @param name the name of the entry
+     * @return the entry or {@code null}
+     */
+    ZipContent.Entry getEntry(String name) {
+        return this.content.getEntry(this.prefix + name);
+    }
+
+    /**
+     * Returns the name of the given entry relative to this class path entry, or
+     * {@code null} if the entry does not belong to it.
+     *
+     * @param entry the entry
+     * @return the relative name or {@code null}
+     */
+    String getName(ZipContent.Entry entry) {
+        String name = entry.getName();
+        return name.startsWith(this.prefix) ? name.substring(this.prefix.length()) : null;
+    }
+
+    /**
+     * Returns whether the class path entry contains a file or directory with the given
+     * name.
+     *
+     * @param name the name of the file or directory
+     * @return {@code true} if the file or directory exists
+     */
+    boolean contains(String name) {
+        if (name.isEmpty() || getEntry(name) != null) {
+            return true;
+        }
+        String directory = this.prefix + (name.endsWith("/") ? name : name + "/");
+        return this.content.hasDirectory(directory);
+    }
+
+    Manifest getManifest() throws IOException {
+        ZipContent.Entry entry = getEntry(JarFile.MANIFEST_NAME);
+        if (entry == null) {
+            return null;
+        }
+        try (InputStream input = this.content.openStream(entry)) {
+            return new Manifest(input);
+        }
+    }
+
+    /**
+     * Returns the Java releases, newest first, whose {@link #VERSIONS_LOCATION versioned
+     * entries} apply to the running JVM, or an empty array unless the entry is a jar with
+     * a {@code Multi-Release: true} manifest attribute.
+     *
+     * @return the releases of the versioned entries
+     */
+    int[] getReleases() {
+        int[] releases = this.releases;
+        if (releases == null) {
+            releases = findReleases();
+            this.releases = releases;
+        }
+        return releases;
+    }
+
+    private int[] findReleases() {
+        Manifest manifest;
+        try {
+            manifest = getManifest();
+        }
+        catch (IOException ex) {
+            return NO_RELEASES;
+        }
+        if (manifest == null
+                || !"true".equalsIgnoreCase(manifest.getMainAttributes().getValue(MULTI_RELEASE_ATTRIBUTE))) {
+            return NO_RELEASES;
+        }
+        int[] releases = new int[Math.max(0, RUNTIME_RELEASE - FIRST_VERSIONED_RELEASE + 1)];
+        int count = 0;
+        for (int release = RUNTIME_RELEASE; release >= FIRST_VERSIONED_RELEASE; release--) {
+            if (contains(VERSIONS_LOCATION + release + "/")) {
+                releases[count++] = release;
+            }
+        }
+        return Arrays.copyOf(releases, count);
+    }
+
+    NestedJarFile getJarFile() throws IOException {
+        NestedJarFile jarFile = this.jarFile;
+        if (jarFile == null) {
+            synchronized (this) {
+                jarFile = this.jarFile;
+                if (jarFile == null) {
+                    jarFile = new NestedJarFile(this);
+                    this.jarFile = jarFile;
+                }
+            }
+        }
+        return jarFile;
+    }
+
+    ProtectionDomain getProtectionDomain(ClassLoader classLoader) {
+        ProtectionDomain protectionDomain = this.protectionDomain;
+        if (protectionDomain == null) {
+            CodeSource codeSource = new CodeSource(this.url, (Certificate[]) null);
+            protectionDomain = new ProtectionDomain(codeSource, null, classLoader, null);
+            this.protectionDomain = protectionDomain;
+        }
+        return protectionDomain;
+    }
+
+    private static int getRuntimeRelease() {
+        String version = System.getProperty("java.specification.version", "1.8");
+        try {
+            return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+        }
+        catch (NumberFormatException ex) {
+            return 8;
+        }
+    }
+
+}
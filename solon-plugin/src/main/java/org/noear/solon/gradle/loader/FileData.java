@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.loader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Random access to the data of the executable jar. A {@link RandomAccessFile} is used
+ * rather than a file channel, as a channel is closed for good when a thread that reads
+ * from it is interrupted, which would break class loading for the whole application.
+ */
+final class FileData implements Closeable {
+
+    private final File file;
+
+    private final RandomAccessFile randomAccessFile;
+
+    FileData(File file) throws IOException {
+        this.file = file;
+        this.randomAccessFile = new RandomAccessFile(file, "r");
+    }
+
+    File getFile() {
+        return this.file;
+    }
+
+    long getLength() throws IOException {
+        return this.randomAccessFile.length();
+    }
+
+    /**
+     * Reads up to {@code length} bytes at the given position of the file.
+     *
+     * @param position the position in the file
+     * @param bytes the array to read into
+     * @param offset the offset in the array
+     * @param length the maximum number of bytes to read
+     * @return the number of bytes read or {@code -1} at the end of the file
+     * @throws IOException if the file cannot be read
+     */
+    int read(long position, byte[] bytes, int offset, int length) throws IOException {
+        synchronized (this.randomAccessFile) {
+            this.randomAccessFile.seek(position);
+            return this.randomAccessFile.read(bytes, offset, length);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.randomAccessFile.close();
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.loader;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.Enumeration;
+
+/**
+ * A {@link URLClassLoader} of a jar with the flat layout that only looks in the jar for
+ * the classes and resources that its {@link PackageIndex} lists. Lookups of classes and
+ * resources that the jar does not have, which are common when frameworks probe for
+ * optional classes, cost a binary search of the index rather than a search of the jar.
+ * The classes of the launcher are loaded by the launcher's own class loader so that the
+ * application shares them, and with them the index, which {@link PackageIndex#load}
+ * returns.
+ */
+final class IndexedJarClassLoader extends URLClassLoader {
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private static final String LOADER_PACKAGE = IndexedJarClassLoader.class.getName().substring(0,
+            IndexedJarClassLoader.class.getName().lastIndexOf('.') + 1);
+
+    private final PackageIndex packageIndex;
+
+    /**
+     * Creates a new class loader.
+     *
+     * @param jar the URL of the jar
+     * @param packageIndex the package index of the jar
+     * @param parent the parent class loader
+     */
+    IndexedJarClassLoader(URL jar, PackageIndex packageIndex, ClassLoader parent) {
+        super(new URL[] { jar }, parent);
+        this.packageIndex = packageIndex;
+    }
+
+    PackageIndex getPackageIndex() {
+        return this.packageIndex;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (name.startsWith(LOADER_PACKAGE)) {
+            return IndexedJarClassLoader.class.getClassLoader().loadClass(name);
+        }
+        return super.loadClass(name, resolve);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        if (!this.packageIndex.contains(name.replace('.', '/').concat(".class"))) {
+            throw new ClassNotFoundException(name);
+        }
+        return super.findClass(name);
+    }
+
+    @Override
+    public URL findResource(String name) {
+        return isIndexed(name) ? super.findResource(name) : null;
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException {
+        return isIndexed(name) ? super.findResources(name) : Collections.emptyEnumeration();
+    }
+
+    private boolean isIndexed(String name) {
+        if (name.endsWith("/") || name.isEmpty()) {
+            return this.packageIndex.hasDirectory(name);
+        }
+        return this.packageIndex.contains(name) || this.packageIndex.hasDirectory(name + "/");
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.loader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * The {@code Main-Class} of a jar with the nested layout. It creates a
+ * {@link NestedJarClassLoader} of the application's classes and of the dependency jars
+ * that are stored, unmodified, in the jar, and then calls the {@code main} method of the
+ * {@code Start-Class}. It can also launch a jar with the flat layout and a
+ * {@link #PACKAGE_INDEX package index}, through an {@link IndexedJarClassLoader}.
+ */
+public final class JarLauncher {
+
+    /**
+     * The name of the manifest attribute of the application's main class.
+     */
+    public static final String START_CLASS_ATTRIBUTE = "Start-Class";
+
+    /**
+     * The directory of the application's classes and resources.
+     */
+    public static final String CLASSES_LOCATION = "SOLON-INF/classes/";
+
+    /**
+     * The directory of the dependency jars.
+     */
+    public static final String LIB_LOCATION = "SOLON-INF/lib/";
+
+    /**
+     * The index of the class path: one line for the directory of the application's
+     * classes or a dependency jar, in search order.
+     */
+    public static final String CLASSPATH_INDEX = "SOLON-INF/classpath.idx";
+
+    /**
+     * The index of the directories: one line per directory, such as
+     * {@code com/example/=0,3}, with the positions in the class path index of the entries
+     * that contain the directory, directly or in a subdirectory. The root directory has
+     * an empty name.
+     */
+    public static final String DIRECTORY_INDEX = "SOLON-INF/directories.idx";
+
+    /**
+     * The index of the layers of a layered jar, which lists the files and directories of
+     * each layer, from the least to the most likely to change.
+     *
+     * @see LayerExtractor
+     */
+    public static final String LAYERS_INDEX = "SOLON-INF/layers.idx";
+
+    /**
+     * The binary index of the files of a jar with the flat layout, by directory.
+     *
+     * @see PackageIndex
+     */
+    public static final String PACKAGE_INDEX = "SOLON-INF/packages.idx";
+
+    /**
+     * The name of the system property that selects a mode of the launcher other than
+     * launching the application. The {@code extract} mode extracts the layers of the jar
+     * into the directory given as first argument, or the working directory.
+     */
+    public static final String JAR_MODE_PROPERTY = "solon.jarmode";
+
+    private JarLauncher() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String jarMode = System.getProperty(JAR_MODE_PROPERTY);
+        if (jarMode != null) {
+            runJarMode(jarMode, args);
+            return;
+        }
+        File jar = getJarFile();
+        try (JarFile jarFile = new JarFile(jar)) {
+            JarEntry packageIndex = jarFile.getJarEntry(PACKAGE_INDEX);
+            if (packageIndex != null && jarFile.getJarEntry(CLASSPATH_INDEX) == null) {
+                startFlat(jar, jarFile, packageIndex, args);
+                return;
+            }
+        }
+        FileData data = new FileData(jar);
+        ZipContent content = ZipContent.open(data);
+        String startClass = getStartClass(content);
+        NestedJarURLStreamHandler handler = new NestedJarURLStreamHandler();
+        List<ClassPathEntry> classPathEntries = readClassPath(content, handler);
+        handler.registerAsDefault();
+        ClassLoader classLoader = new NestedJarClassLoader(classPathEntries, readDirectoryIndex(content),
+                JarLauncher.class.getClassLoader());
+        launch(classLoader, startClass, args);
+    }
+
+    private static void startFlat(File jar, JarFile jarFile, JarEntry packageIndex, String[] args) throws Exception {
+        String startClass = getStartClass(jarFile.getManifest(), jar);
+        PackageIndex index;
+        try (InputStream input = jarFile.getInputStream(packageIndex)) {
+            index = PackageIndex.read(input);
+        }
+        // The application's classes are also on the system class path, so they are only
+        // loaded from the jar by the indexed class loader if it skips the system class loader
+        ClassLoader classLoader = new IndexedJarClassLoader(jar.toURI().toURL(), index,
+                ClassLoader.getSystemClassLoader().getParent());
+        launch(classLoader, startClass, args);
+    }
+
+    private static void launch(ClassLoader classLoader, String startClass, String[] args) throws Exception {
+        Thread.currentThread().setContextClassLoader(classLoader);
+        Method mainMethod = Class.forName(startClass, false, classLoader).getMethod("main", String[].class);
+        try {
+            mainMethod.invoke(null, (Object) args);
+        }
+        catch (InvocationTargetException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw ex;
+        }
+    }
+
+    private static void runJarMode(String jarMode, String[] args) throws Exception {
+        if (!"extract".equals(jarMode)) {
+            throw new IllegalStateException("Unsupported " + JAR_MODE_PROPERTY + " '" + jarMode + "'");
+        }
+        LayerExtractor.extract(getJarFile(), new File((args.length > 0) ? args[0] : "."));
+    }
+
+    /**
+     * Reads the {@link #CLASSPATH_INDEX class path index} of a jar with the nested layout
+     * and registers its entries with the given handler.
+     *
+     * @param content the content of the jar
+     * @param handler the handler of the URLs of the entries
+     * @return the class path entries in search order
+     * @throws IOException if the index or a nested jar cannot be read
+     */
+    static List<ClassPathEntry> readClassPath(ZipContent content, NestedJarURLStreamHandler handler)
+            throws IOException {
+        List<ClassPathEntry> classPathEntries = new ArrayList<>();
+        for (String location : readLines(content, CLASSPATH_INDEX)) {
+            ClassPathEntry classPathEntry = createClassPathEntry(content, location, handler);
+            handler.register(classPathEntry);
+            classPathEntries.add(classPathEntry);
+        }
+        return classPathEntries;
+    }
+
+    private static ClassPathEntry createClassPathEntry(ZipContent content, String location,
+                                                       NestedJarURLStreamHandler handler) throws IOException {
+        if (location.endsWith("/")) {
+            return new ClassPathEntry(location, content, location, handler);
+        }
+        ZipContent.Entry entry = content.getEntry(location);
+        if (entry == null) {
+            throw new IllegalStateException("Class path entry '" + location + "' not found in " + content.getFile());
+        }
+        return new ClassPathEntry(location, content.openNested(entry), "", handler);
+    }
+
+    private static String getStartClass(ZipContent content) throws IOException {
+        ZipContent.Entry entry = content.getEntry(JarFile.MANIFEST_NAME);
+        if (entry == null) {
+            return getStartClass(null, content.getFile());
+        }
+        try (InputStream input = content.openStream(entry)) {
+            return getStartClass(new Manifest(input), content.getFile());
+        }
+    }
+
+    private static String getStartClass(Manifest manifest, File jar) {
+        String startClass = (manifest != null) ? manifest.getMainAttributes().getValue(START_CLASS_ATTRIBUTE) : null;
+        if (startClass == null) {
+            throw new IllegalStateException("No '" + START_CLASS_ATTRIBUTE + "' manifest attribute in " + jar);
+        }
+        return startClass;
+    }
+
+    /**
+     * Reads the {@link #DIRECTORY_INDEX directory index} of a jar with the nested layout.
+     *
+     * @param content the content of the jar
+     * @return the positions of the class path entries that contain each directory
+     * @throws IOException if the index cannot be read
+     */
+    static Map<String, int[]> readDirectoryIndex(ZipContent content) throws IOException {
+        List<String> lines = readLines(content, DIRECTORY_INDEX);
+        Map<String, int[]> index = new HashMap<>(lines.size() * 4 / 3 + 1);
+        for (String line : lines) {
+            int separator = line.lastIndexOf('=');
+            String[] positions = line.substring(separator + 1).split(",");
+            int[] candidates = new int[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                candidates[i] = Integer.parseInt(positions[i]);
+            }
+            index.put(line.substring(0, separator), candidates);
+        }
+        return index;
+    }
+
+    private static List<String> readLines(ZipContent content, String name) throws IOException {
+        ZipContent.Entry entry = content.getEntry(name);
+        if (entry == null) {
+            throw new IllegalStateException("'" + name + "' not found in " + content.getFile());
+        }
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(content.openStream(entry), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static File getJarFile() throws URISyntaxException {
+        CodeSource codeSource = JarLauncher.class.getProtectionDomain().getCodeSource();
+        File file = (codeSource != null) ? new File(codeSource.getLocation().toURI()) : null;
+        if (file == null || !file.isFile()) {
+            throw new IllegalStateException("Unable to determine the jar of " + JarLauncher.class.getName());
+        }
+        return file;
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.loader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts a jar with a {@link JarLauncher#LAYERS_INDEX layers index} into one directory
+ * per layer, each of which holds the layer's files at their location in the jar. Copying
+ * the directories in the order of the index, for example as the layers of a container
+ * image, rebuilds the exploded jar. Files that the index does not list are extracted to
+ * the last layer.
+ */
+public final class LayerExtractor {
+
+    private static final String LAYER_PREFIX = "- \"";
+
+    private static final String NAME_PREFIX = "  - \"";
+
+    private final List<String> layers = new ArrayList<>();
+
+    private final Map<String, String> locations = new HashMap<>();
+
+    private LayerExtractor() {
+    }
+
+    /**
+     * Extracts the given jar into the given destination.
+     *
+     * @param jar the jar to extract
+     * @param destination the directory in which to create the layer directories
+     * @throws IOException if the jar cannot be read or the files cannot be written
+     */
+    public static void extract(File jar, File destination) throws IOException {
+        try (FileData data = new FileData(jar)) {
+            ZipContent content = ZipContent.open(data);
+            ZipContent.Entry index = content.getEntry(JarLauncher.LAYERS_INDEX);
+            if (index == null) {
+                throw new IllegalStateException("'" + JarLauncher.LAYERS_INDEX + "' not found in " + jar
+                        + ". Is the jar layered?");
+            }
+            LayerExtractor extractor = new LayerExtractor();
+            try (InputStream input = content.openStream(index)) {
+                extractor.readIndex(input);
+            }
+            extractor.extract(content, destination.getCanonicalFile());
+        }
+    }
+
+    private void readIndex(InputStream input) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith(NAME_PREFIX) && !this.layers.isEmpty()) {
+                this.locations.put(unquote(line, NAME_PREFIX), this.layers.get(this.layers.size() - 1));
+            }
+            else if (line.startsWith(LAYER_PREFIX)) {
+                this.layers.add(unquote(line, LAYER_PREFIX));
+            }
+        }
+        if (this.layers.isEmpty()) {
+            throw new IllegalStateException("'" + JarLauncher.LAYERS_INDEX + "' does not list any layers");
+        }
+    }
+
+    private String unquote(String line, String prefix) {
+        int end = line.lastIndexOf('"');
+        if (end < prefix.length()) {
+            throw new IllegalStateException("Malformed line '" + line + "' in '" + JarLauncher.LAYERS_INDEX + "'");
+        }
+        return line.substring(prefix.length(), end);
+    }
+
+    private void extract(ZipContent content, File destination) throws IOException {
+        for (String layer : this.layers) {
+            mkdirs(new File(destination, layer));
+        }
+        for (ZipContent.Entry entry : content.getEntries()) {
+            if (entry.isDirectory()) {
+                continue;
+            }
+            File layerDirectory = new File(destination, getLayer(entry.getName()));
+            File file = new File(layerDirectory, entry.getName()).getCanonicalFile();
+            if (!file.toPath().startsWith(layerDirectory.toPath())) {
+                throw new IllegalStateException("Entry '" + entry.getName() + "' is outside of the layer directory");
+            }
+            mkdirs(file.getParentFile());
+            try (InputStream input = content.openStream(entry)) {
+                Files.copy(input, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            file.setLastModified(entry.getTime());
+        }
+    }
+
+    private String getLayer(String name) {
+        String layer = this.locations.get(name);
+        int end = name.length() - 1;
+        while (layer == null && (end = name.lastIndexOf('/', end - 1)) != -1) {
+            layer = this.locations.get(name.substring(0, end + 1));
+        }
+        return (layer != null) ? layer : this.layers.get(this.layers.size() - 1);
+    }
+
+    private void mkdirs(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+    }
+
+}
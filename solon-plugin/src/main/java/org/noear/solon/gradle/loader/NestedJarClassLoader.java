@@ -0,0 +1,192 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.loader;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * A {@link ClassLoader} of the application's classes and the dependency jars that are
+ * stored in the executable jar. Lookups go through an index of the directories of each
+ * class path entry that is built with the jar, so finding a class or resource only looks
+ * at the entries that have its directory, and a miss costs a single map lookup. The
+ * classes of a multi-release jar are loaded from its versioned entries of the newest
+ * release that the JVM supports, so a class that is missed is also looked up in those of
+ * each multi-release jar.
+ */
+final class NestedJarClassLoader extends ClassLoader {
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private static final int[] NO_ENTRIES = new int[0];
+
+    private final List<ClassPathEntry> classPathEntries;
+
+    private final Map<String, int[]> directoryIndex;
+
+    private final int[] multiReleaseCandidates;
+
+    /**
+     * Creates a new class loader.
+     *
+     * @param classPathEntries the class path entries in search order
+     * @param directoryIndex the positions of the class path entries that contain each
+     * directory, directly or in a subdirectory, keyed by the name of the directory with a
+     * trailing {@code /}, or {@code ""} for the root
+     * @param parent the parent class loader
+     */
+    NestedJarClassLoader(List<ClassPathEntry> classPathEntries, Map<String, int[]> directoryIndex,
+                         ClassLoader parent) {
+        super(parent);
+        this.classPathEntries = classPathEntries;
+        this.directoryIndex = directoryIndex;
+        int[] multiReleaseCandidates = directoryIndex.get(ClassPathEntry.VERSIONS_LOCATION);
+        this.multiReleaseCandidates = (multiReleaseCandidates != null) ? multiReleaseCandidates : NO_ENTRIES;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        String path = name.replace('.', '/').concat(".class");
+        for (int position : getCandidates(path)) {
+            ClassPathEntry classPathEntry = this.classPathEntries.get(position);
+            ZipContent.Entry entry = getVersionedEntry(classPathEntry, path);
+            if (entry == null) {
+                entry = classPathEntry.getEntry(path);
+            }
+            if (entry != null) {
+                return defineClass(name, classPathEntry, entry);
+            }
+        }
+        // A multi-release jar may have a class only as a versioned entry
+        for (int position : this.multiReleaseCandidates) {
+            ClassPathEntry classPathEntry = this.classPathEntries.get(position);
+            ZipContent.Entry entry = getVersionedEntry(classPathEntry, path);
+            if (entry != null) {
+                return defineClass(name, classPathEntry, entry);
+            }
+        }
+        throw new ClassNotFoundException(name);
+    }
+
+    private ZipContent.Entry getVersionedEntry(ClassPathEntry classPathEntry, String path) {
+        for (int release : classPathEntry.getReleases()) {
+            ZipContent.Entry entry = classPathEntry.getEntry(ClassPathEntry.VERSIONS_LOCATION + release + "/" + path);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private Class<?> defineClass(String name, ClassPathEntry classPathEntry, ZipContent.Entry entry)
+            throws ClassNotFoundException {
+        byte[] bytes;
+        try {
+            bytes = classPathEntry.getContent().read(entry);
+        }
+        catch (IOException ex) {
+            throw new ClassNotFoundException(name, ex);
+        }
+        int lastDot = name.lastIndexOf('.');
+        if (lastDot != -1) {
+            definePackageIfNecessary(name.substring(0, lastDot), classPathEntry);
+        }
+        return defineClass(name, bytes, 0, bytes.length, classPathEntry.getProtectionDomain(this));
+    }
+
+    @SuppressWarnings("deprecation")
+    private void definePackageIfNecessary(String packageName, ClassPathEntry classPathEntry) {
+        if (getPackage(packageName) != null) {
+            return;
+        }
+        Attributes attributes = null;
+        try {
+            Manifest manifest = classPathEntry.getJarFile().getManifest();
+            attributes = (manifest != null) ? manifest.getMainAttributes() : null;
+        }
+        catch (IOException ex) {
+            // Define the package without the details of the manifest
+        }
+        try {
+            if (attributes != null) {
+                definePackage(packageName, attributes.getValue(Attributes.Name.SPECIFICATION_TITLE),
+                        attributes.getValue(Attributes.Name.SPECIFICATION_VERSION),
+                        attributes.getValue(Attributes.Name.SPECIFICATION_VENDOR),
+                        attributes.getValue(Attributes.Name.IMPLEMENTATION_TITLE),
+                        attributes.getValue(Attributes.Name.IMPLEMENTATION_VERSION),
+                        attributes.getValue(Attributes.Name.IMPLEMENTATION_VENDOR), null);
+            }
+            else {
+                definePackage(packageName, null, null, null, null, null, null, null);
+            }
+        }
+        catch (IllegalArgumentException ex) {
+            // Defined concurrently by another thread
+        }
+    }
+
+    @Override
+    protected URL findResource(String name) {
+        for (int position : getCandidates(name)) {
+            ClassPathEntry classPathEntry = this.classPathEntries.get(position);
+            if (classPathEntry.contains(name)) {
+                return getUrl(classPathEntry, name);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(String name) {
+        List<URL> urls = new ArrayList<>();
+        for (int position : getCandidates(name)) {
+            ClassPathEntry classPathEntry = this.classPathEntries.get(position);
+            if (classPathEntry.contains(name)) {
+                urls.add(getUrl(classPathEntry, name));
+            }
+        }
+        return Collections.enumeration(urls);
+    }
+
+    private URL getUrl(ClassPathEntry classPathEntry, String name) {
+        try {
+            return classPathEntry.getUrl(name);
+        }
+        catch (MalformedURLException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private int[] getCandidates(String name) {
+        int end = name.endsWith("/") ? name.length() - 1 : name.length();
+        int lastSlash = name.lastIndexOf('/', end - 1);
+        String directory = (lastSlash != -1) ? name.substring(0, lastSlash + 1) : "";
+        int[] candidates = this.directoryIndex.get(directory);
+        return (candidates != null) ? candidates : NO_ENTRIES;
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.loader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+/**
+ * A {@link JarFile} view of a {@link ClassPathEntry}, for code that expects a
+ * {@link java.net.JarURLConnection} to provide a jar file, for example to enumerate the
+ * classes of a package. The underlying {@link JarFile} is the executable jar itself, but
+ * all access to entries is served from the nested content.
+ */
+final class NestedJarFile extends JarFile {
+
+    private final ClassPathEntry classPathEntry;
+
+    private final List<JarEntry> entries;
+
+    private volatile Manifest manifest;
+
+    NestedJarFile(ClassPathEntry classPathEntry) throws IOException {
+        super(classPathEntry.getContent().getFile(), false);
+        this.classPathEntry = classPathEntry;
+        List<JarEntry> entries = new ArrayList<>();
+        for (ZipContent.Entry entry : classPathEntry.getContent().getEntries()) {
+            String name = classPathEntry.getName(entry);
+            if (name != null && !name.isEmpty()) {
+                entries.add(createJarEntry(name, entry));
+            }
+        }
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    @Override
+    public Enumeration<JarEntry> entries() {
+        return Collections.enumeration(this.entries);
+    }
+
+    @Override
+    public Stream<JarEntry> stream() {
+        return this.entries.stream();
+    }
+
+    @Override
+    public int size() {
+        return this.entries.size();
+    }
+
+    @Override
+    public JarEntry getJarEntry(String name) {
+        return (JarEntry) getEntry(name);
+    }
+
+    @Override
+    public ZipEntry getEntry(String name) {
+        ZipContent.Entry entry = this.classPathEntry.getEntry(name);
+        if (entry == null && !name.endsWith("/")) {
+            entry = this.classPathEntry.getEntry(name + "/");
+        }
+        return (entry != null) ? createJarEntry(this.classPathEntry.getName(entry), entry) : null;
+    }
+
+    @Override
+    public InputStream getInputStream(ZipEntry zipEntry) throws IOException {
+        ZipContent.Entry entry = this.classPathEntry.getEntry(zipEntry.getName());
+        if (entry == null) {
+            return null;
+        }
+        return entry.isDirectory() ? new ByteArrayInputStream(new byte[0])
+                : this.classPathEntry.getContent().openStream(entry);
+    }
+
+    @Override
+    public Manifest getManifest() throws IOException {
+        Manifest manifest = this.manifest;
+        if (manifest == null) {
+            manifest = this.classPathEntry.getManifest();
+            this.manifest = manifest;
+        }
+        return manifest;
+    }
+
+    private JarEntry createJarEntry(String name, ZipContent.Entry entry) {
+        JarEntry jarEntry = new JarEntry(name);
+        jarEntry.setTime(entry.getTime());
+        if (!entry.isDirectory()) {
+            jarEntry.setMethod(entry.getMethod());
+            jarEntry.setSize(entry.getSize());
+            jarEntry.setCompressedSize(entry.getCompressedSize());
+            jarEntry.setCrc(entry.getCrc());
+        }
+        return jarEntry;
+    }
+
+}
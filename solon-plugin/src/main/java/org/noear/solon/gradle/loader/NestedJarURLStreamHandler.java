@@ -0,0 +1,206 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.loader;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * The {@link URLStreamHandler} of the URLs of classes and resources in nested jars, such
+ * as {@code jar:file:/app.jar!/SOLON-INF/lib/a.jar!/a/A.class}. The handler is attached
+ * to each URL that the {@link NestedJarClassLoader} creates, so such URLs can be opened,
+ * and resolved against, without a handler being registered with the JVM.
+ * <p>
+ * A URL that is created again from its external form, for example with
+ * {@code new URL(String)} or {@link java.net.URI#toURL()}, only gets the handler if it is
+ * {@link #registerAsDefault() registered} as the JVM's handler of {@code jar} URLs. Once
+ * registered, it delegates the {@code jar} URLs of other files to the JVM's own handler.
+ */
+final class NestedJarURLStreamHandler extends URLStreamHandler {
+
+    private static final String PROTOCOL = "jar";
+
+    private static final String SEPARATOR = "!/";
+
+    private final Map<String, ClassPathEntry> classPathEntries = new ConcurrentHashMap<>();
+
+    private volatile URL fallbackContext;
+
+    /**
+     * Registers the given class path entry, whose URLs this handler can then open.
+     *
+     * @param classPathEntry the class path entry
+     */
+    void register(ClassPathEntry classPathEntry) {
+        this.classPathEntries.put(classPathEntry.getUrl().getFile(), classPathEntry);
+    }
+
+    /**
+     * Registers this handler as the JVM's handler of {@code jar} URLs through a
+     * {@link URL#setURLStreamHandlerFactory URLStreamHandlerFactory}. Does nothing if
+     * the JVM already has a factory, which can only be set once.
+     *
+     * @return whether the handler was registered
+     */
+    boolean registerAsDefault() {
+        URL fallbackContext;
+        try {
+            // Created before the factory is set so that it keeps the JVM's handler
+            fallbackContext = new URL(PROTOCOL + ":file:/" + SEPARATOR);
+        }
+        catch (MalformedURLException ex) {
+            throw new IllegalStateException(ex);
+        }
+        try {
+            URL.setURLStreamHandlerFactory((protocol) -> PROTOCOL.equals(protocol) ? this : null);
+        }
+        catch (Error ex) {
+            return false;
+        }
+        this.fallbackContext = fallbackContext;
+        return true;
+    }
+
+    @Override
+    protected URLConnection openConnection(URL url) throws IOException {
+        String file = url.getFile();
+        int first = file.indexOf(SEPARATOR);
+        int second = (first != -1) ? file.indexOf(SEPARATOR, first + SEPARATOR.length()) : -1;
+        ClassPathEntry classPathEntry = (second != -1)
+                ? this.classPathEntries.get(file.substring(0, second + SEPARATOR.length())) : null;
+        if (classPathEntry != null) {
+            return new Connection(url, classPathEntry, file.substring(second + SEPARATOR.length()));
+        }
+        URL fallbackContext = this.fallbackContext;
+        if (fallbackContext != null) {
+            // A URL with the same protocol as its context gets the context's handler
+            return new URL(fallbackContext, url.toExternalForm()).openConnection();
+        }
+        if (second == -1) {
+            throw new MalformedURLException("Not a nested jar URL: " + url);
+        }
+        throw new FileNotFoundException(url.toString());
+    }
+
+    /**
+     * A {@link JarURLConnection} to an entry of a {@link ClassPathEntry}.
+     */
+    private static final class Connection extends JarURLConnection {
+
+        private final ClassPathEntry classPathEntry;
+
+        private final String entryName;
+
+        private ZipContent.Entry entry;
+
+        Connection(URL url, ClassPathEntry classPathEntry, String entryName) throws MalformedURLException {
+            super(url);
+            this.classPathEntry = classPathEntry;
+            this.entryName = entryName;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (this.connected) {
+                return;
+            }
+            if (!this.entryName.isEmpty()) {
+                this.entry = this.classPathEntry.getEntry(this.entryName);
+                if (this.entry == null && !this.classPathEntry.contains(this.entryName)) {
+                    throw new FileNotFoundException(getURL().toString());
+                }
+            }
+            this.connected = true;
+        }
+
+        @Override
+        public String getEntryName() {
+            return this.entryName.isEmpty() ? null : this.entryName;
+        }
+
+        @Override
+        public JarFile getJarFile() throws IOException {
+            connect();
+            return this.classPathEntry.getJarFile();
+        }
+
+        @Override
+        public JarEntry getJarEntry() throws IOException {
+            connect();
+            return this.entryName.isEmpty() ? null : getJarFile().getJarEntry(this.entryName);
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            if (this.entryName.isEmpty()) {
+                throw new IOException("No entry name specified");
+            }
+            if (this.entry == null || this.entry.isDirectory()) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            return this.classPathEntry.getContent().openStream(this.entry);
+        }
+
+        @Override
+        public int getContentLength() {
+            long length = getContentLengthLong();
+            return (length <= Integer.MAX_VALUE) ? (int) length : -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            try {
+                connect();
+            }
+            catch (IOException ex) {
+                return -1;
+            }
+            return (this.entry != null) ? this.entry.getSize() : -1;
+        }
+
+        @Override
+        public long getLastModified() {
+            try {
+                connect();
+            }
+            catch (IOException ex) {
+                return 0;
+            }
+            return (this.entry != null) ? this.entry.getTime() : 0;
+        }
+
+        @Override
+        public String getContentType() {
+            String type = this.entryName.isEmpty() ? null : guessContentTypeFromName(this.entryName);
+            return (type != null) ? type : "content/unknown";
+        }
+
+    }
+
+}
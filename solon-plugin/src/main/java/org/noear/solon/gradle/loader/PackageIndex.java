@@ -0,0 +1,300 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.loader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@link JarLauncher#PACKAGE_INDEX package index} of a jar with the flat layout,
+ * which lists the files of each directory of the jar. It is written when the jar is
+ * built so that finding a file, or the files of a package, is a binary search rather
+ * than a walk of all of the jar's entries. Directories that only contain other
+ * directories are not listed but are found by prefix.
+ * <p>
+ * The index is binary and big-endian, and is searched as it is read, without creating
+ * an object per entry: a magic number, a version, the number of directories and of
+ * files, the offsets of the names of the directories, the position of the first file of
+ * each directory, the offsets of the names of the files, and the length of the names
+ * followed by the names themselves, in UTF-8. Each table has an extra element that marks
+ * its end. Directories, such as {@code com/example/} or {@code ""} for the root, are
+ * sorted by name, as are the files of each directory, whose names are relative to it.
+ * Names are compared as unsigned bytes.
+ */
+public final class PackageIndex {
+
+    /**
+     * The magic number at the start of a package index.
+     */
+    public static final int MAGIC = 0x534F4C50;
+
+    /**
+     * The version of the format of the package index.
+     */
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 16;
+
+    private final ByteBuffer index;
+
+    private final int directoryCount;
+
+    private final int directoryNamesPosition;
+
+    private final int firstFilesPosition;
+
+    private final int fileNamesPosition;
+
+    private final int namesPosition;
+
+    private PackageIndex(ByteBuffer index) throws IOException {
+        this.index = index;
+        try {
+            if (index.getInt(0) != MAGIC) {
+                throw new IOException("'" + JarLauncher.PACKAGE_INDEX + "' is not a package index");
+            }
+            int version = index.getInt(4);
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of '" + JarLauncher.PACKAGE_INDEX + "'");
+            }
+            this.directoryCount = index.getInt(8);
+            int fileCount = index.getInt(12);
+            this.directoryNamesPosition = HEADER_SIZE;
+            this.firstFilesPosition = this.directoryNamesPosition + (this.directoryCount + 1) * 4;
+            this.fileNamesPosition = this.firstFilesPosition + (this.directoryCount + 1) * 4;
+            this.namesPosition = this.fileNamesPosition + (fileCount + 1) * 4 + 4;
+            if (this.namesPosition + index.getInt(this.namesPosition - 4) != index.limit()) {
+                throw new IOException("'" + JarLauncher.PACKAGE_INDEX + "' is truncated");
+            }
+        }
+        catch (IndexOutOfBoundsException | BufferUnderflowException ex) {
+            throw new IOException("'" + JarLauncher.PACKAGE_INDEX + "' is truncated", ex);
+        }
+    }
+
+    /**
+     * Returns the package index of the jar of the given class loader, or {@code null} if
+     * it has none. If the class loader is, or has as an ancestor, the class loader that
+     * the {@link JarLauncher} created for the jar, the index that the launcher read is
+     * returned. Otherwise the index is read from the class loader's resources. An
+     * application can list the files of a package with the index of its context class
+     * loader:
+     * <pre class="code">
+     * PackageIndex index = PackageIndex.load(Thread.currentThread().getContextClassLoader());
+     * List&lt;String&gt; files = index.getFiles("com/example/", true);
+     * </pre>
+     *
+     * @param classLoader the class loader
+     * @return the package index or {@code null}
+     * @throws IOException if the index cannot be read
+     */
+    public static PackageIndex load(ClassLoader classLoader) throws IOException {
+        for (ClassLoader candidate = classLoader; candidate != null; candidate = candidate.getParent()) {
+            if (candidate instanceof IndexedJarClassLoader) {
+                return ((IndexedJarClassLoader) candidate).getPackageIndex();
+            }
+        }
+        InputStream input = classLoader.getResourceAsStream(JarLauncher.PACKAGE_INDEX);
+        if (input == null) {
+            return null;
+        }
+        try {
+            return read(input);
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Reads a package index from the given stream, which is not closed.
+     *
+     * @param input the stream
+     * @return the package index
+     * @throws IOException if the index cannot be read or is not a package index
+     */
+    public static PackageIndex read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(64 * 1024);
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return new PackageIndex(ByteBuffer.wrap(output.toByteArray()));
+    }
+
+    /**
+     * Returns whether the jar contains the file with the given name.
+     *
+     * @param name the name of the file, such as {@code com/example/App.class}
+     * @return {@code true} if the jar contains the file
+     */
+    public boolean contains(String name) {
+        int lastSlash = name.lastIndexOf('/');
+        int directory = findDirectory(encode(name.substring(0, lastSlash + 1)));
+        if (directory < 0) {
+            return false;
+        }
+        byte[] file = encode(name.substring(lastSlash + 1));
+        int low = getFirstFile(directory);
+        int high = getFirstFile(directory + 1) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(getFileName(middle), getFileName(middle + 1), file);
+            if (comparison == 0) {
+                return true;
+            }
+            if (comparison < 0) {
+                low = middle + 1;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the jar contains the directory with the given name, directly or
+     * through one of its subdirectories.
+     *
+     * @param directory the name of the directory with a trailing {@code /}, such as
+     * {@code com/example/}, or {@code ""} for the root
+     * @return {@code true} if the jar contains the directory
+     */
+    public boolean hasDirectory(String directory) {
+        byte[] name = encode(directory);
+        int index = findDirectory(name);
+        if (index >= 0) {
+            return true;
+        }
+        int next = -index - 1;
+        return next < this.directoryCount && startsWith(next, name);
+    }
+
+    /**
+     * Returns the directories that contain files, sorted by name.
+     *
+     * @return the names of the directories, with a trailing {@code /}
+     */
+    public List<String> getDirectories() {
+        List<String> directories = new ArrayList<>(this.directoryCount);
+        for (int i = 0; i < this.directoryCount; i++) {
+            directories.add(getDirectory(i));
+        }
+        return directories;
+    }
+
+    /**
+     * Returns the names of the files of the given directory, sorted.
+     *
+     * @param directory the name of the directory with a trailing {@code /}, or
+     * {@code ""} for the root
+     * @param recursive whether to include the files of the subdirectories
+     * @return the names of the files, such as {@code com/example/App.class}
+     */
+    public List<String> getFiles(String directory, boolean recursive) {
+        List<String> names = new ArrayList<>();
+        byte[] name = encode(directory);
+        int index = findDirectory(name);
+        if (index < 0 && !recursive) {
+            return names;
+        }
+        int end = recursive ? this.directoryCount : index + 1;
+        for (int i = (index >= 0) ? index : -index - 1; i < end && startsWith(i, name); i++) {
+            String prefix = getDirectory(i);
+            for (int file = getFirstFile(i); file < getFirstFile(i + 1); file++) {
+                names.add(prefix + decode(getFileName(file), getFileName(file + 1)));
+            }
+        }
+        return names;
+    }
+
+    private int findDirectory(byte[] name) {
+        int low = 0;
+        int high = this.directoryCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(getDirectoryName(middle), getDirectoryName(middle + 1), name);
+            if (comparison == 0) {
+                return middle;
+            }
+            if (comparison < 0) {
+                low = middle + 1;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private boolean startsWith(int directory, byte[] prefix) {
+        int start = getDirectoryName(directory);
+        if (getDirectoryName(directory + 1) - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (this.index.get(this.namesPosition + start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int compare(int start, int end, byte[] name) {
+        int length = Math.min(end - start, name.length);
+        for (int i = 0; i < length; i++) {
+            int comparison = (this.index.get(this.namesPosition + start + i) & 0xFF) - (name[i] & 0xFF);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return (end - start) - name.length;
+    }
+
+    private String getDirectory(int directory) {
+        return decode(getDirectoryName(directory), getDirectoryName(directory + 1));
+    }
+
+    private int getDirectoryName(int directory) {
+        return this.index.getInt(this.directoryNamesPosition + directory * 4);
+    }
+
+    private int getFirstFile(int directory) {
+        return this.index.getInt(this.firstFilesPosition + directory * 4);
+    }
+
+    private int getFileName(int file) {
+        return this.index.getInt(this.fileNamesPosition + file * 4);
+    }
+
+    private String decode(int start, int end) {
+        return new String(this.index.array(), this.namesPosition + start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encode(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
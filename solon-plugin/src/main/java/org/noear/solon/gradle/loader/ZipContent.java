@@ -0,0 +1,467 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.loader;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * The content of a zip archive that occupies a region of a file: either the whole of the
+ * executable jar or a jar that is stored, uncompressed, inside it. Entries are read from
+ * the central directory and their data is read from the file directly, so a nested jar
+ * never has to be extracted.
+ */
+final class ZipContent {
+
+    static final int STORED = 0;
+
+    static final int DEFLATED = 8;
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+
+    private static final int MAXIMUM_COMMENT_SIZE = 0xFFFF;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private final FileData data;
+
+    private final long offset;
+
+    private final long length;
+
+    private final Map<String, Entry> entries;
+
+    private final List<Entry> orderedEntries;
+
+    private final Set<String> directories;
+
+    private ZipContent(FileData data, long offset, long length) throws IOException {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        this.orderedEntries = Collections.unmodifiableList(readCentralDirectory());
+        this.entries = new HashMap<>(this.orderedEntries.size() * 4 / 3 + 1);
+        this.directories = new HashSet<>();
+        for (Entry entry : this.orderedEntries) {
+            this.entries.putIfAbsent(entry.getName(), entry);
+            addDirectories(entry.getName());
+        }
+    }
+
+    /**
+     * Reads the content of the whole of the given file.
+     *
+     * @param data the data of the file
+     * @return the content
+     * @throws IOException if the file is not a valid zip archive
+     */
+    static ZipContent open(FileData data) throws IOException {
+        return new ZipContent(data, 0, data.getLength());
+    }
+
+    /**
+     * Reads the content of a jar that is stored, uncompressed, as the given entry.
+     *
+     * @param entry the entry
+     * @return the content of the nested jar
+     * @throws IOException if the entry is not an uncompressed, valid zip archive
+     */
+    ZipContent openNested(Entry entry) throws IOException {
+        if (entry.getMethod() != STORED) {
+            throw new ZipException("Nested jar '" + entry.getName() + "' in " + getFile() + " must be stored");
+        }
+        return new ZipContent(this.data, this.offset + getDataOffset(entry), entry.getSize());
+    }
+
+    File getFile() {
+        return this.data.getFile();
+    }
+
+    /**
+     * Returns the entry with the given name or {@code null}.
+     *
+     * @param name the name of the entry
+     * @return the entry or {@code null}
+     */
+    Entry getEntry(String name) {
+        return this.entries.get(name);
+    }
+
+    /**
+     * Returns all entries in the order of the central directory.
+     *
+     * @return the entries
+     */
+    List<Entry> getEntries() {
+        return this.orderedEntries;
+    }
+
+    /**
+     * Returns whether the archive has a directory with the given name, either as an
+     * entry of its own or as the parent of another entry.
+     *
+     * @param name the name of the directory, ending with {@code /}
+     * @return {@code true} if the directory exists
+     */
+    boolean hasDirectory(String name) {
+        return this.directories.contains(name);
+    }
+
+    /**
+     * Opens a stream of the uncompressed data of the given entry.
+     *
+     * @param entry the entry
+     * @return the stream
+     * @throws IOException if the entry cannot be read
+     */
+    InputStream openStream(Entry entry) throws IOException {
+        InputStream data = new RegionInputStream(getDataOffset(entry), entry.getCompressedSize());
+        if (entry.getMethod() == STORED) {
+            return data;
+        }
+        if (entry.getMethod() != DEFLATED) {
+            throw new ZipException("Unsupported compression method of '" + entry.getName() + "' in " + getFile());
+        }
+        Inflater inflater = new Inflater(true);
+        int bufferSize = (int) Math.min(Math.max(entry.getCompressedSize(), 64), 8192);
+        return new InflaterInputStream(data, inflater, bufferSize) {
+
+            private boolean eof;
+
+            private boolean closed;
+
+            @Override
+            protected void fill() throws IOException {
+                if (this.eof) {
+                    throw new EOFException("Unexpected end of '" + entry.getName() + "'");
+                }
+                this.len = this.in.read(this.buf, 0, this.buf.length);
+                if (this.len == -1) {
+                    this.buf[0] = 0;
+                    this.len = 1;
+                    this.eof = true;
+                }
+                this.inf.setInput(this.buf, 0, this.len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!this.closed) {
+                    this.closed = true;
+                    super.close();
+                    inflater.end();
+                }
+            }
+
+        };
+    }
+
+    /**
+     * Reads the uncompressed data of the given entry.
+     *
+     * @param entry the entry
+     * @return the data
+     * @throws IOException if the entry cannot be read
+     */
+    byte[] read(Entry entry) throws IOException {
+        if (entry.getSize() > Integer.MAX_VALUE - 8) {
+            throw new ZipException("Entry '" + entry.getName() + "' is too large to be read");
+        }
+        byte[] data = new byte[(int) entry.getSize()];
+        try (InputStream input = openStream(entry)) {
+            int position = 0;
+            while (position < data.length) {
+                int read = input.read(data, position, data.length - position);
+                if (read == -1) {
+                    throw new EOFException("Unexpected end of '" + entry.getName() + "'");
+                }
+                position += read;
+            }
+        }
+        return data;
+    }
+
+    private void addDirectories(String name) {
+        int end = name.lastIndexOf('/', name.length() - 2);
+        while (end > 0 && this.directories.add(name.substring(0, end + 1))) {
+            end = name.lastIndexOf('/', end - 1);
+        }
+        if (name.endsWith("/")) {
+            this.directories.add(name);
+        }
+    }
+
+    private long getDataOffset(Entry entry) throws IOException {
+        long dataOffset = entry.dataOffset;
+        if (dataOffset < 0) {
+            ByteBuffer header = read(entry.localHeaderOffset, 30);
+            if (header.getInt(0) != LOCAL_FILE_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid local header of '" + entry.getName() + "' in " + getFile());
+            }
+            dataOffset = entry.localHeaderOffset + 30 + (header.getShort(26) & 0xFFFF)
+                    + (header.getShort(28) & 0xFFFF);
+            entry.dataOffset = dataOffset;
+        }
+        return dataOffset;
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        long endOffset = findEndOfCentralDirectory();
+        ByteBuffer end = read(endOffset, END_OF_CENTRAL_DIRECTORY_SIZE);
+        long entryCount = end.getShort(10) & 0xFFFF;
+        long directorySize = end.getInt(12) & ZIP64_MAGIC;
+        long directoryOffset = end.getInt(16) & ZIP64_MAGIC;
+        if (endOffset >= ZIP64_LOCATOR_SIZE) {
+            ByteBuffer locator = read(endOffset - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE);
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                ByteBuffer zip64End = read(locator.getLong(8), 56);
+                if (zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                    throw new ZipException("Invalid zip64 end of central directory in " + getFile());
+                }
+                entryCount = zip64End.getLong(32);
+                directorySize = zip64End.getLong(40);
+                directoryOffset = zip64End.getLong(48);
+            }
+        }
+        if (directorySize > Integer.MAX_VALUE) {
+            throw new ZipException("Central directory of " + getFile() + " is too large");
+        }
+        ByteBuffer directory = read(directoryOffset, (int) directorySize);
+        List<Entry> entries = new ArrayList<>((int) Math.min(entryCount, 0xFFFF));
+        int position = 0;
+        for (long i = 0; i < entryCount; i++) {
+            if (position + 46 > directory.limit() || directory.getInt(position) != CENTRAL_DIRECTORY_SIGNATURE) {
+                throw new ZipException("Invalid central directory entry in " + getFile());
+            }
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            byte[] name = new byte[nameLength];
+            directory.position(position + 46);
+            directory.get(name);
+            Entry entry = new Entry(new String(name, StandardCharsets.UTF_8));
+            entry.method = directory.getShort(position + 10) & 0xFFFF;
+            entry.dosTime = directory.getInt(position + 12);
+            entry.crc = directory.getInt(position + 16) & ZIP64_MAGIC;
+            entry.compressedSize = directory.getInt(position + 20) & ZIP64_MAGIC;
+            entry.size = directory.getInt(position + 24) & ZIP64_MAGIC;
+            entry.localHeaderOffset = directory.getInt(position + 42) & ZIP64_MAGIC;
+            readZip64Extra(directory, position + 46 + nameLength, extraLength, entry);
+            entries.add(entry);
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    private void readZip64Extra(ByteBuffer directory, int start, int length, Entry entry) {
+        int position = start;
+        while (position + 4 <= start + length) {
+            int id = directory.getShort(position) & 0xFFFF;
+            int size = directory.getShort(position + 2) & 0xFFFF;
+            if (id == 0x0001) {
+                int field = position + 4;
+                if (entry.size == ZIP64_MAGIC) {
+                    entry.size = directory.getLong(field);
+                    field += 8;
+                }
+                if (entry.compressedSize == ZIP64_MAGIC) {
+                    entry.compressedSize = directory.getLong(field);
+                    field += 8;
+                }
+                if (entry.localHeaderOffset == ZIP64_MAGIC) {
+                    entry.localHeaderOffset = directory.getLong(field);
+                }
+                return;
+            }
+            position += 4 + size;
+        }
+    }
+
+    private long findEndOfCentralDirectory() throws IOException {
+        int size = (int) Math.min(this.length, END_OF_CENTRAL_DIRECTORY_SIZE + MAXIMUM_COMMENT_SIZE);
+        if (size < END_OF_CENTRAL_DIRECTORY_SIZE) {
+            throw new ZipException("Invalid zip archive in " + getFile());
+        }
+        long start = this.length - size;
+        ByteBuffer tail = read(start, size);
+        for (int position = size - END_OF_CENTRAL_DIRECTORY_SIZE; position >= 0; position--) {
+            if (tail.getInt(position) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                return start + position;
+            }
+        }
+        throw new ZipException("End of central directory not found in " + getFile());
+    }
+
+    private ByteBuffer read(long position, int size) throws IOException {
+        byte[] bytes = new byte[size];
+        int read = 0;
+        while (read < size) {
+            int count = this.data.read(this.offset + position + read, bytes, read, size - read);
+            if (count < 0) {
+                throw new EOFException("Unexpected end of " + getFile());
+            }
+            read += count;
+        }
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * An entry of a {@link ZipContent}.
+     */
+    static final class Entry {
+
+        private final String name;
+
+        private int method;
+
+        private int dosTime;
+
+        private long crc;
+
+        private long compressedSize;
+
+        private long size;
+
+        private long localHeaderOffset;
+
+        private volatile long dataOffset = -1;
+
+        Entry(String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return this.name;
+        }
+
+        boolean isDirectory() {
+            return this.name.endsWith("/");
+        }
+
+        int getMethod() {
+            return this.method;
+        }
+
+        long getCrc() {
+            return this.crc;
+        }
+
+        long getCompressedSize() {
+            return this.compressedSize;
+        }
+
+        long getSize() {
+            return this.size;
+        }
+
+        /**
+         * Returns the last modified time of the entry in milliseconds since the epoch, in
+         * the default time zone.
+         *
+         * @return the time
+         */
+        long getTime() {
+            int date = this.dosTime >>> 16;
+            int time = this.dosTime & 0xFFFF;
+            Calendar calendar = Calendar.getInstance();
+            calendar.clear();
+            calendar.set(((date >> 9) & 0x7F) + 1980, ((date >> 5) & 0xF) - 1, date & 0x1F, (time >> 11) & 0x1F,
+                    (time >> 5) & 0x3F, (time & 0x1F) << 1);
+            return calendar.getTimeInMillis();
+        }
+
+    }
+
+    /**
+     * An {@link InputStream} of a region of the file.
+     */
+    private final class RegionInputStream extends InputStream {
+
+        private long position;
+
+        private long remaining;
+
+        RegionInputStream(long position, long length) {
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return (read(single, 0, 1) == 1) ? (single[0] & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            int read = ZipContent.this.data.read(ZipContent.this.offset + this.position, bytes, off,
+                    (int) Math.min(len, this.remaining));
+            if (read < 0) {
+                throw new EOFException("Unexpected end of " + getFile());
+            }
+            this.position += read;
+            this.remaining -= read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, this.remaining));
+            this.position += skipped;
+            this.remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(this.remaining, Integer.MAX_VALUE);
+        }
+
+    }
+
+}
@@ -2,22 +2,30 @@ package org.noear.solon.gradle.plugin;
 
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFile;
 import org.gradle.api.plugins.*;
 import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.SourceSetContainer;
 import org.gradle.api.tasks.TaskProvider;
 import org.gradle.api.tasks.bundling.Jar;
 import org.gradle.api.tasks.compile.CompileOptions;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.compile.JavaCompile;
+import org.gradle.jvm.toolchain.JavaLauncher;
+import org.gradle.jvm.toolchain.JavaToolchainService;
 import org.jetbrains.annotations.NotNull;
+import org.noear.solon.gradle.dsl.MainClassSearch;
 import org.noear.solon.gradle.dsl.SolonExtension;
+import org.noear.solon.gradle.tasks.bundling.ExtractLayers;
 import org.noear.solon.gradle.tasks.bundling.SolonJar;
+import org.noear.solon.gradle.tasks.cds.SolonCds;
+import org.noear.solon.gradle.tasks.training.RecordClassLoadOrder;
 
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Callable;
-import java.util.stream.Collectors;
 
 final class JavaPluginAction implements PluginApplicationAction {
 
@@ -41,8 +49,16 @@ final class JavaPluginAction implements PluginApplicationAction {
         TaskProvider<ResolveMainClassName> resolveMainClassName = configureResolveMainClassNameTask(project);
         TaskProvider<SolonJar> solonJar = configureSolonJarTask(project, resolveMainClassName);
         configureArtifactPublication(solonJar);
-        project.afterEvaluate(this::configureUtf8Encoding);
+        configureExtractLayersTask(project, solonJar);
+        configureCdsTask(project, solonJar);
+        configureClassLoadOrderTask(project, solonJar);
+        configureUtf8Encoding(project);
         configureParametersCompilerArg(project);
+        configureMainClassIndexProcessor(project);
+    }
+
+    private void configureMainClassIndexProcessor(Project project) {
+        MainClassIndexSupport.addProcessor(project, JavaPlugin.ANNOTATION_PROCESSOR_CONFIGURATION_NAME);
     }
 
     private void configureBuildTask(Project project) {
@@ -70,8 +86,13 @@ final class JavaPluginAction implements PluginApplicationAction {
                         SolonExtension extension = project.getExtensions().findByType(SolonExtension.class);
                         return Objects.requireNonNull(extension).getMainClass().getOrNull();
                     }));
+                    MainClassSearch mainClassSearch = extensions.getByType(SolonExtension.class).getMainClassSearch();
+                    resolveMainClassName.getBasePackages().convention(mainClassSearch.getBasePackages());
+                    resolveMainClassName.getMaxDepth().convention(mainClassSearch.getMaxDepth());
                     resolveMainClassName.getOutputFile()
                             .set(project.getLayout().getBuildDirectory().file("resolvedMainClassName"));
+                    resolveMainClassName.getIndexFile().set(project.getLayout().getBuildDirectory()
+                            .file("tmp/" + resolveMainClassName.getName() + "/main-class.idx"));
                 });
     }
 
@@ -96,8 +117,71 @@ final class JavaPluginAction implements PluginApplicationAction {
         this.singlePublishedArtifact.addJarCandidate(bootJar);
     }
 
-    private void configureUtf8Encoding(Project evaluatedProject) {
-        evaluatedProject.getTasks().withType(JavaCompile.class).configureEach(this::configureUtf8Encoding);
+    private void configureExtractLayersTask(Project project, TaskProvider<SolonJar> solonJar) {
+        project.getTasks().register(SolonPlugin.EXTRACT_SOLON_JAR_LAYERS_TASK_NAME, ExtractLayers.class,
+                (extractLayers) -> {
+                    extractLayers.setDescription("Extracts the layers of the executable jar archive.");
+                    extractLayers.setGroup(BasePlugin.BUILD_GROUP);
+                    extractLayers.getArchiveFile().set(solonJar.flatMap(SolonJar::getArchiveFile));
+                    extractLayers.getDestinationDirectory()
+                            .convention(project.getLayout().getBuildDirectory().dir("solon-layers"));
+                });
+    }
+
+    private void configureCdsTask(Project project, TaskProvider<SolonJar> solonJar) {
+        project.getTasks().register(SolonPlugin.SOLON_CDS_TASK_NAME, SolonCds.class, (solonCds) -> {
+            solonCds.setDescription("Creates a class data sharing archive of the executable jar archive.");
+            solonCds.setGroup(BasePlugin.BUILD_GROUP);
+            solonCds.getArchiveFile().set(solonJar.flatMap(SolonJar::getArchiveFile));
+            solonCds.getCdsArchiveFile().convention(solonJar.flatMap(this::cdsArchiveFile));
+            solonCds.getJavaLauncher().convention(javaLauncher(project));
+        });
+    }
+
+    /**
+     * Registers the task that records the class load order of the {@code solonJar} and
+     * makes the recorded order that of the {@code solonJar}. The jar is given the file
+     * rather than the task's output, so that building it does not run the training run of
+     * the jar that it is an input of.
+     *
+     * @param project the project
+     * @param solonJar the {@code solonJar} task
+     */
+    private void configureClassLoadOrderTask(Project project, TaskProvider<SolonJar> solonJar) {
+        RegularFile classLoadOrder = project.getLayout().getProjectDirectory()
+                .file(SolonPlugin.CLASS_LOAD_ORDER_FILE_NAME);
+        project.getTasks().register(SolonPlugin.RECORD_SOLON_JAR_CLASS_LOAD_ORDER_TASK_NAME,
+                RecordClassLoadOrder.class, (recordClassLoadOrder) -> {
+                    recordClassLoadOrder.setDescription(
+                            "Records the order in which the executable jar archive loads its classes.");
+                    recordClassLoadOrder.setGroup(BasePlugin.BUILD_GROUP);
+                    recordClassLoadOrder.getArchiveFile().set(solonJar.flatMap(SolonJar::getArchiveFile));
+                    recordClassLoadOrder.getClassLoadOrderFile().convention(classLoadOrder);
+                    recordClassLoadOrder.getJavaLauncher().convention(javaLauncher(project));
+                });
+        solonJar.configure((jar) -> jar.getEntryOrder().from(classLoadOrder));
+    }
+
+    private Provider<JavaLauncher> javaLauncher(Project project) {
+        JavaToolchainService toolchainService = project.getExtensions().getByType(JavaToolchainService.class);
+        return toolchainService.launcherFor(javaPluginExtension(project).getToolchain());
+    }
+
+    private Provider<RegularFile> cdsArchiveFile(SolonJar solonJar) {
+        return solonJar.getDestinationDirectory().file(solonJar.getArchiveFileName()
+                .map((name) -> (name.endsWith(".jar") ? name.substring(0, name.length() - 4) : name) + ".jsa"));
+    }
+
+    /**
+     * Defaults the encoding of the {@link JavaCompile} tasks to UTF-8. The action runs
+     * when each task is configured, before the actions of the build script, so an
+     * encoding that the build script sets wins without the plugin waiting for the
+     * project to be evaluated.
+     *
+     * @param project the project
+     */
+    private void configureUtf8Encoding(Project project) {
+        project.getTasks().withType(JavaCompile.class).configureEach(this::configureUtf8Encoding);
     }
 
     private void configureUtf8Encoding(JavaCompile compile) {
@@ -120,12 +204,13 @@ final class JavaPluginAction implements PluginApplicationAction {
         SourceSet mainSourceSet = javaPluginExtension(project).getSourceSets()
                 .getByName(SourceSet.MAIN_SOURCE_SET_NAME);
 
-        Callable<List<Object>> classpath = () -> mainSourceSet.getRuntimeClasspath().getFiles().stream().map(file -> file.isDirectory() ? file : project.zipTree(file)).collect(Collectors.toList());
-
         return project.getTasks().register(SolonPlugin.SOLON_JAR_TASK_NAME, SolonJar.class, (bootJar) -> {
             bootJar.setDescription("Assembles an executable jar archive containing the main classes and their dependencies.");
             bootJar.setGroup(BasePlugin.BUILD_GROUP);
-            bootJar.classpath(classpath);
+            bootJar.classpath(mainSourceSet.getRuntimeClasspath());
+            Configuration runtimeClasspath = project.getConfigurations()
+                    .getByName(mainSourceSet.getRuntimeClasspathConfigurationName());
+            bootJar.resolvedArtifacts(runtimeClasspath.getIncoming().getArtifacts().getResolvedArtifacts());
 
             bootJar.getMainClass().convention(resolveMainClassName.flatMap((resolver) -> resolveMainClassName.get().readMainClassName()));
 
@@ -38,6 +38,12 @@ class KotlinPluginAction implements PluginApplicationAction {
         configureKotlinVersionProperty(project);
         enableJavaParametersOption(project);
         repairDamageToAotCompileConfigurations(project);
+        configureMainClassIndexProcessor(project);
+    }
+
+    private void configureMainClassIndexProcessor(Project project) {
+        project.getPlugins().withId("org.jetbrains.kotlin.kapt",
+                (kapt) -> MainClassIndexSupport.addProcessor(project, "kapt"));
     }
 
     private void configureKotlinVersionProperty(Project project) {
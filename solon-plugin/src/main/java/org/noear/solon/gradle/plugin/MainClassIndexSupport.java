@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.plugin;
+
+import org.gradle.api.Project;
+import org.gradle.api.artifacts.Dependency;
+import org.noear.solon.gradle.dsl.SolonExtension;
+import org.noear.solon.gradle.processing.SolonMainIndexProcessor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Support for adding the {@link SolonMainIndexProcessor} to a project's annotation
+ * processor configurations.
+ * <p>
+ * The processor is not taken from the plugin's own jar, which would put the plugin and
+ * its Gradle API linked classes on the processor path. Instead, a jar that contains the
+ * processor class and its service registrations only is written to the Gradle user
+ * home, in a directory named after the hash of the processor class. It is therefore
+ * written once per version of the plugin and kept by {@code clean}.
+ */
+final class MainClassIndexSupport {
+
+    private static final String PROCESSOR_CLASS_ENTRY = SolonMainIndexProcessor.class.getName().replace('.', '/')
+            + ".class";
+
+    private static final String PROCESSOR_JAR_NAME = "solon-main-index-processor.jar";
+
+    private static final long ENTRY_TIME = 315532800000L; // 1980-01-01, as in reproducible archives
+
+    private MainClassIndexSupport() {
+    }
+
+    /**
+     * Adds the processor to the configuration with the given name, unless the
+     * {@code solon} extension's {@code mainClassIndex} property is {@code false}.
+     *
+     * @param project           the project
+     * @param configurationName the name of the annotation processor configuration
+     */
+    static void addProcessor(Project project, String configurationName) {
+        SolonExtension extension = project.getExtensions().getByType(SolonExtension.class);
+        File cacheDirectory = new File(project.getGradle().getGradleUserHomeDir(), "caches/solon-gradle-plugin");
+        project.getConfigurations().getByName(configurationName).getDependencies()
+                .addAllLater(project.provider(() -> processorDependencies(project, extension, cacheDirectory)));
+    }
+
+    private static List<Dependency> processorDependencies(Project project, SolonExtension extension,
+                                                          File cacheDirectory) {
+        if (!extension.getMainClassIndex().get()) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(
+                project.getDependencies().create(project.files(processorJar(cacheDirectory))));
+    }
+
+    /**
+     * Returns the jar that contains the processor, writing it first if it does not exist.
+     *
+     * @param cacheDirectory the directory in which processor jars are kept
+     * @return the processor jar
+     */
+    static File processorJar(File cacheDirectory) {
+        try {
+            byte[] processorClass = readProcessorClass();
+            File jar = new File(new File(cacheDirectory, hash(processorClass)), PROCESSOR_JAR_NAME);
+            if (!jar.isFile()) {
+                writeProcessorJar(jar.toPath(), processorClass);
+            }
+            return jar;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to write the " + SolonMainIndexProcessor.class.getName()
+                    + " jar to '" + cacheDirectory + "'", ex);
+        }
+    }
+
+    private static byte[] readProcessorClass() throws IOException {
+        try (InputStream input = MainClassIndexSupport.class.getClassLoader()
+                .getResourceAsStream(PROCESSOR_CLASS_ENTRY)) {
+            if (input == null) {
+                throw new IllegalStateException("Unable to locate " + SolonMainIndexProcessor.class.getName());
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        }
+    }
+
+    private static void writeProcessorJar(Path jar, byte[] processorClass) throws IOException {
+        Files.createDirectories(jar.getParent());
+        // Written aside and moved into place, as another build may be writing it too
+        Path temp = Files.createTempFile(jar.getParent(), PROCESSOR_JAR_NAME, ".tmp");
+        try {
+            Manifest manifest = new Manifest();
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            try (JarOutputStream output = new JarOutputStream(Files.newOutputStream(temp))) {
+                writeEntry(output, "META-INF/MANIFEST.MF", manifest::write);
+                writeEntry(output, PROCESSOR_CLASS_ENTRY, (stream) -> stream.write(processorClass));
+                writeEntry(output, "META-INF/services/javax.annotation.processing.Processor",
+                        (stream) -> stream.write(text(SolonMainIndexProcessor.class.getName())));
+                writeEntry(output, "META-INF/gradle/incremental.annotation.processors",
+                        (stream) -> stream.write(text(SolonMainIndexProcessor.class.getName() + ",aggregating")));
+            }
+            try {
+                Files.move(temp, jar, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException ex) {
+                // Written by another build in the meantime
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeEntry(JarOutputStream output, String name, EntryContent content) throws IOException {
+        JarEntry entry = new JarEntry(name);
+        entry.setTime(ENTRY_TIME);
+        output.putNextEntry(entry);
+        content.writeTo(output);
+        output.closeEntry();
+    }
+
+    private static byte[] text(String line) {
+        return (line + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String hash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder hash = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                hash.append(String.format("%02x", digest[i]));
+            }
+            return hash.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @FunctionalInterface
+    private interface EntryContent {
+
+        void writeTo(OutputStream output) throws IOException;
+
+    }
+
+}
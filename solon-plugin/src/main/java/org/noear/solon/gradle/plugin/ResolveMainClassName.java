@@ -20,44 +20,79 @@ import org.gradle.api.*;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.file.RegularFile;
 import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.*;
-import org.gradle.work.DisableCachingByDefault;
 import org.jetbrains.annotations.Nullable;
+import org.noear.solon.gradle.processing.SolonMainIndexProcessor;
 import org.noear.solon.gradle.tools.MainClassFinder;
+import org.noear.solon.gradle.tools.MainClassIndex;
+import org.noear.solon.gradle.tools.SearchScope;
 import org.noear.solon.gradle.util.Assert;
 
+import javax.inject.Inject;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 
 /**
- * {@link Task} for resolving the name of the application's main class.
+ * {@link Task} for resolving the name of the application's main class. The results of
+ * scanning each class file are kept in a {@link #getIndexFile() local index} so that
+ * only changed class files are parsed again when the classpath changes.
  *
  * @author Andy Wilkinson
  */
-@DisableCachingByDefault(because = "Not worth caching")
+@CacheableTask
 public class ResolveMainClassName extends DefaultTask {
 
-    private static final String SOLON_APPLICATION_CLASS_NAME = "org.noear.solon.annotation.SolonMain";
+    private static final String SOLON_APPLICATION_CLASS_NAME = SolonMainIndexProcessor.SOLON_MAIN_ANNOTATION_NAME;
 
     private final RegularFileProperty outputFile;
 
+    private final RegularFileProperty indexFile;
+
     private final Property<String> configuredMainClass;
 
+    private final ListProperty<String> basePackages;
+
+    private final Property<Integer> maxDepth;
+
+    private final Property<Integer> scanParallelism;
+
+    private final ObjectFactory objects;
+
     private @Nullable FileCollection classpath;
 
     /**
      * Creates a new instance of the {@code ResolveMainClassName} task.
+     *
+     * @param objects the factory of the task's properties
      */
-    public ResolveMainClassName() {
-        this.outputFile = getProject().getObjects().fileProperty();
-        this.configuredMainClass = getProject().getObjects().property(String.class);
+    @Inject
+    public ResolveMainClassName(ObjectFactory objects) {
+        this.objects = objects;
+        this.outputFile = objects.fileProperty();
+        this.indexFile = objects.fileProperty();
+        this.configuredMainClass = objects.property(String.class);
+        this.basePackages = objects.listProperty(String.class);
+        this.maxDepth = objects.property(Integer.class);
+        this.scanParallelism = objects.property(Integer.class);
+        this.scanParallelism.convention(Runtime.getRuntime().availableProcessors());
     }
 
     /**
@@ -88,7 +123,7 @@ public class ResolveMainClassName extends DefaultTask {
      * @param classpath the classpath
      */
     public void setClasspath(Object classpath) {
-        this.classpath = getProject().files(classpath);
+        this.classpath = this.objects.fileCollection().from(classpath);
     }
 
     /**
@@ -102,6 +137,17 @@ public class ResolveMainClassName extends DefaultTask {
         return this.outputFile;
     }
 
+    /**
+     * Returns the property for the file in which the per-class scan results are kept
+     * between executions. When not set, every class file is parsed on each execution.
+     *
+     * @return the index file
+     */
+    @LocalState
+    public RegularFileProperty getIndexFile() {
+        return this.indexFile;
+    }
+
     /**
      * Returns the property for the explicitly configured main class name that should be
      * used in favor of resolving the main class name from the classpath.
@@ -114,6 +160,45 @@ public class ResolveMainClassName extends DefaultTask {
         return this.configuredMainClass;
     }
 
+    /**
+     * Returns the property for the packages, along with their sub-packages, that are
+     * searched for the main class. When empty, all packages are searched. Once a main
+     * class annotated with {@code @SolonMain} is found in a restricted search, the search
+     * ends.
+     *
+     * @return the base packages property
+     */
+    @Input
+    public ListProperty<String> getBasePackages() {
+        return this.basePackages;
+    }
+
+    /**
+     * Returns the property for how many levels of sub-packages below each base package
+     * are searched for the main class, {@code 0} meaning the base packages only.
+     *
+     * @return the maximum depth property
+     */
+    @Input
+    @Optional
+    public Property<Integer> getMaxDepth() {
+        return this.maxDepth;
+    }
+
+    /**
+     * Returns the property for the number of threads used to scan the classpath's
+     * directories for a main class. The directories, and the packages within them, are
+     * then scanned concurrently. A value of {@code 1} scans one directory after another
+     * on the task's own thread. The property defaults to the number of available
+     * processors.
+     *
+     * @return the scan parallelism property
+     */
+    @Internal
+    public Property<Integer> getScanParallelism() {
+        return this.scanParallelism;
+    }
+
     @TaskAction
     void resolveAndStoreMainClassName() throws IOException {
         File outputFile = this.outputFile.getAsFile().get();
@@ -128,37 +213,164 @@ public class ResolveMainClassName extends DefaultTask {
         if (configuredMainClass != null) {
             return configuredMainClass;
         }
-        return getClasspath().filter(File::isDirectory)
-                .getFiles()
-                .stream()
-                .map(this::findMainClass)
-                .filter(Objects::nonNull)
-                .findFirst()
-                .orElse("");
+        SearchScope scope = SearchScope.of(this.basePackages.get(), this.maxDepth.getOrNull());
+        String indexedMainClass = findIndexedMainClass(getClasspath().filter(File::isDirectory), scope);
+        if (indexedMainClass != null) {
+            return indexedMainClass;
+        }
+        File indexFile = this.indexFile.getAsFile().getOrNull();
+        MainClassIndex index = (indexFile != null) ? MainClassIndex.load(indexFile) : null;
+        int parallelism = this.scanParallelism.get();
+        ForkJoinPool pool = (parallelism > 1) ? new ForkJoinPool(parallelism) : null;
+        String mainClassName;
+        try {
+            List<File> directories = new ArrayList<>(getClasspath().filter(File::isDirectory).getFiles());
+            mainClassName = (pool != null && directories.size() > 1)
+                    ? findMainClassConcurrently(directories, scope, pool, index)
+                    : findMainClass(directories, scope, pool, index);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+        if (index != null) {
+            try {
+                index.save(indexFile);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Failed to write main class index '" + indexFile + "'", ex);
+            }
+        }
+        return mainClassName;
+    }
+
+    /**
+     * Returns the main class recorded by the {@link SolonMainIndexProcessor} in the first
+     * of the given {@code directories} that has an index, provided that exactly one is
+     * recorded, that it is within the given {@code scope} and that it is still an
+     * annotated main class.
+     *
+     * @param directories the class directories of the classpath
+     * @param scope the packages to search
+     * @return the indexed main class or {@code null}
+     */
+    static @Nullable String findIndexedMainClass(Iterable<File> directories, SearchScope scope) {
+        for (File directory : directories) {
+            File index = new File(directory, SolonMainIndexProcessor.INDEX_LOCATION);
+            if (index.isFile()) {
+                try {
+                    List<String> mainClasses = Files.readAllLines(index.toPath(), StandardCharsets.UTF_8)
+                            .stream()
+                            .map(String::trim)
+                            .filter((line) -> !line.isEmpty())
+                            .collect(Collectors.toList());
+                    if (mainClasses.size() == 1 && isIndexedMainClass(directories, mainClasses.get(0), scope)) {
+                        return mainClasses.get(0);
+                    }
+                } catch (IOException ex) {
+                    // Fall back to scanning
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isIndexedMainClass(Iterable<File> directories, String className, SearchScope scope)
+            throws IOException {
+        if (!scope.includesClass(className.replace('.', '/') + ".class")) {
+            return false;
+        }
+        for (File directory : directories) {
+            if (MainClassFinder.isMainClass(directory, className, SOLON_APPLICATION_CLASS_NAME)) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private @Nullable String findMainClass(File file) {
+    private String findMainClass(List<File> directories, SearchScope scope, @Nullable ForkJoinPool pool,
+                                 @Nullable MainClassIndex index) {
+        for (File directory : directories) {
+            String mainClass = findMainClass(directory, scope, pool, index, () -> false);
+            if (mainClass != null) {
+                return mainClass;
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Scans all of the given directories at once. The main class of the first directory
+     * in classpath order that has one wins, so the result is the same as that of a
+     * sequential scan. Once a directory has a main class, the scans of the directories
+     * that follow it on the classpath are stopped.
+     */
+    private String findMainClassConcurrently(List<File> directories, SearchScope scope, ForkJoinPool pool,
+                                             @Nullable MainClassIndex index) {
+        AtomicInteger firstFound = new AtomicInteger(directories.size());
+        List<ForkJoinTask<String>> scans = new ArrayList<>(directories.size());
+        for (int i = 0; i < directories.size(); i++) {
+            int position = i;
+            scans.add(pool.submit(() -> {
+                String mainClass = findMainClass(directories.get(position), scope, pool, index,
+                        () -> firstFound.get() < position);
+                if (mainClass != null) {
+                    firstFound.accumulateAndGet(position, Math::min);
+                }
+                return mainClass;
+            }));
+        }
+        try {
+            for (ForkJoinTask<String> scan : scans) {
+                String mainClass = scan.join();
+                if (mainClass != null) {
+                    return mainClass;
+                }
+            }
+            return "";
+        } finally {
+            // let stopped scans finish before the index is saved
+            for (ForkJoinTask<String> scan : scans) {
+                scan.quietlyJoin();
+            }
+        }
+    }
+
+    private @Nullable String findMainClass(File directory, SearchScope scope, @Nullable ForkJoinPool pool,
+                                           @Nullable MainClassIndex index, BooleanSupplier cancelled) {
+        long start = System.nanoTime();
         try {
-            return MainClassFinder.findSingleMainClass(file, SOLON_APPLICATION_CLASS_NAME);
+            String mainClass = MainClassFinder.findSingleMainClass(directory, SOLON_APPLICATION_CLASS_NAME, scope,
+                    pool, index, cancelled);
+            getLogger().info("Scanned '{}' for a main class in {} ms, found {}", directory, elapsedMillis(start),
+                    (mainClass != null) ? mainClass : "none");
+            return mainClass;
+        } catch (CancellationException ex) {
+            getLogger().info("Stopped scanning '{}' for a main class after {} ms as an earlier classpath "
+                    + "directory has one", directory, elapsedMillis(start));
+            return null;
         } catch (IOException ex) {
+            getLogger().warn("Failed to scan '{}' for a main class after {} ms", directory, elapsedMillis(start),
+                    ex);
             return null;
         }
     }
 
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
     Provider<String> readMainClassName() {
-        String classpath = getClasspath().filter(File::isDirectory)
-                .getFiles()
-                .stream()
-                .map(File::getAbsolutePath)
-                .collect(Collectors.joining(File.pathSeparator));
-        return this.outputFile.map(new ClassNameReader(classpath));
+        // The classpath is only resolved if the main class name is missing, so that the
+        // configuration does not depend on which of its directories exist
+        return this.outputFile.map(new ClassNameReader(getClasspath()));
     }
 
     private static final class ClassNameReader implements Transformer<String, RegularFile> {
 
-        private final String classpath;
+        private final FileCollection classpath;
 
-        private ClassNameReader(String classpath) {
+        private ClassNameReader(FileCollection classpath) {
             this.classpath = classpath;
         }
 
@@ -167,7 +379,7 @@ public class ResolveMainClassName extends DefaultTask {
             if (file.getAsFile().length() == 0) {
                 throw new InvalidUserDataException(
                         "Main class name has not been configured and it could not be resolved from classpath "
-                                + this.classpath);
+                                + this.classpath.filter(File::isDirectory).getAsPath());
             }
             Path output = file.getAsFile().toPath();
             try {
@@ -17,6 +17,30 @@ public class SolonPlugin implements Plugin<Project> {
     public static final String SOLON_JAR_TASK_NAME = "solonJar";
     public static final String SOLON_WAR_TASK_NAME = "solonWar";
 
+    /**
+     * The name of the {@link org.noear.solon.gradle.tasks.bundling.ExtractLayers} task
+     * of the {@code solonJar}.
+     */
+    public static final String EXTRACT_SOLON_JAR_LAYERS_TASK_NAME = "extractSolonJarLayers";
+
+    /**
+     * The name of the {@link org.noear.solon.gradle.tasks.cds.SolonCds} task of the
+     * {@code solonJar}.
+     */
+    public static final String SOLON_CDS_TASK_NAME = "solonCds";
+
+    /**
+     * The name of the {@link org.noear.solon.gradle.tasks.training.RecordClassLoadOrder}
+     * task of the {@code solonJar}.
+     */
+    public static final String RECORD_SOLON_JAR_CLASS_LOAD_ORDER_TASK_NAME = "recordSolonJarClassLoadOrder";
+
+    /**
+     * The name of the file, in the project directory, of the class load order that the
+     * {@code solonJar} is ordered by.
+     */
+    public static final String CLASS_LOAD_ORDER_FILE_NAME = "solon-class-load-order.txt";
+
     public static final String SOLON_ARCHIVES_CONFIGURATION_NAME = "solonArchives";
 
     static final String SOLON_RUN_TASK_NAME = "solonRun";
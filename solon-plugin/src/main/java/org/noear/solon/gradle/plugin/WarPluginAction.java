@@ -4,6 +4,7 @@ import org.gradle.api.Action;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.Transformer;
+import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.ConfigurationContainer;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.plugins.BasePlugin;
@@ -65,6 +66,9 @@ class WarPluginAction implements PluginApplicationAction {
                             + " content, and the main classes and their dependencies.");
                     bootWar.providedClasspath(providedRuntimeConfiguration(project));
                     bootWar.setClasspath(classpath);
+                    Configuration runtimeClasspath = project.getConfigurations()
+                            .getByName(mainSourceSet.getRuntimeClasspathConfigurationName());
+                    bootWar.resolvedArtifacts(runtimeClasspath.getIncoming().getArtifacts().getResolvedArtifacts());
 
                     bootWar.getMainClass()
                             .convention(resolveMainClassName.flatMap((resolver) -> resolveMainClassName.get().readMainClassName()));
@@ -53,11 +53,11 @@ public abstract class ProcessAot extends JavaExec {
     public abstract Property<String> getNativeBuildArgs();
 
     public ProcessAot() {
-        this.sourcesDir = getProject().getObjects().directoryProperty();
-        this.resourcesDir = getProject().getObjects().directoryProperty();
-        this.classesDir = getProject().getObjects().directoryProperty();
-        this.groupId = getProject().getObjects().property(String.class);
-        this.artifactId = getProject().getObjects().property(String.class);
+        this.sourcesDir = getObjectFactory().directoryProperty();
+        this.resourcesDir = getObjectFactory().directoryProperty();
+        this.classesDir = getObjectFactory().directoryProperty();
+        this.groupId = getObjectFactory().property(String.class);
+        this.artifactId = getObjectFactory().property(String.class);
         getMainClass().set("org.noear.solon.aot.SolonAotProcessor");
     }
 
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of what each source of a {@link SolonArchive}, that is the project, the
+ * launcher and each resolved artifact, contributes to it: its entries, their size before
+ * and after compression, the duplicates of its entries that were dropped, and the time
+ * spent adding them. Writes it as a JSON report and a text summary, and checks it
+ * against the size budget of the archive.
+ * <p>
+ * Each dependency is a source of its own, even when its description or file name is the
+ * same as that of another dependency, whose name is then qualified by its path.
+ */
+final class ArchiveComposition {
+
+    /**
+     * The source of the entries that are not attributed to another source, such as the
+     * directories and the indexes of the archive.
+     */
+    static final String ARCHIVE_SOURCE = "the archive";
+
+    private static final Logger logger = Logging.getLogger(ArchiveComposition.class);
+
+    private final File report;
+
+    private final File summary;
+
+    private final Long maximumArchiveSize;
+
+    private final Long maximumDependencySize;
+
+    private final Map<String, Source> sources = new LinkedHashMap<>();
+
+    private final Map<File, Source> dependencySources = new HashMap<>();
+
+    private final Map<File, String> descriptions = new HashMap<>();
+
+    private final Map<String, String> entrySources = new LinkedHashMap<>();
+
+    private File archive;
+
+    private String archiveName;
+
+    private long archiveSize;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param report the file of the JSON report
+     * @param summary the file of the text summary
+     * @param maximumArchiveSize the maximum size of the archive, or {@code null}
+     * @param maximumDependencySize the maximum compressed size of the entries of a
+     * dependency, or {@code null}
+     */
+    ArchiveComposition(File report, File summary, Long maximumArchiveSize, Long maximumDependencySize) {
+        this.report = report;
+        this.summary = summary;
+        this.maximumArchiveSize = maximumArchiveSize;
+        this.maximumDependencySize = maximumDependencySize;
+    }
+
+    /**
+     * Describes the given dependency, whose entries are attributed to the given
+     * description of its artifact rather than to its file name.
+     *
+     * @param dependency the dependency
+     * @param description the description of its artifact
+     */
+    void describe(File dependency, String description) {
+        this.descriptions.put(dependency, description);
+    }
+
+    /**
+     * Attributes the entry with the given name to the given dependency whatever the
+     * source that writes it, as for the dependency jars that a war copies as they are.
+     *
+     * @param name the name of the entry
+     * @param dependency the dependency
+     */
+    void addDependencyEntry(String name, File dependency) {
+        this.entrySources.put(name, getSource(dependency));
+    }
+
+    /**
+     * Returns the source of the entries of the given dependency.
+     *
+     * @param dependency the dependency
+     * @return the source
+     */
+    String getSource(File dependency) {
+        return this.dependencySources.computeIfAbsent(dependency, (key) -> {
+            String name = this.descriptions.getOrDefault(dependency, dependency.getName());
+            if (this.sources.containsKey(name)) {
+                name = name + " (" + dependency.getPath() + ")";
+            }
+            return source(name, dependency);
+        }).name;
+    }
+
+    /**
+     * Adds the given time to that spent adding the entries of the given source.
+     *
+     * @param source the source
+     * @param nanos the time in nanoseconds
+     */
+    void addTime(String source, long nanos) {
+        source(source, null).nanos += nanos;
+    }
+
+    /**
+     * Records that an entry of the given source was dropped as a duplicate.
+     *
+     * @param source the source
+     */
+    void addDropped(String source) {
+        source(source, null).dropped++;
+    }
+
+    /**
+     * Attributes the entries of the given archive, which has been written, to their
+     * sources.
+     *
+     * @param archive the archive
+     * @param sources the source of each entry of the archive, by name
+     * @throws IOException if the archive cannot be read
+     */
+    void analyze(File archive, Map<String, String> sources) throws IOException {
+        this.archive = archive;
+        this.archiveName = archive.getName();
+        this.archiveSize = archive.length();
+        try (DependencyJar jar = DependencyJar.open(archive)) {
+            for (DependencyJar.Entry entry : jar.getEntries()) {
+                String source = this.entrySources.get(entry.getName());
+                source = (source != null) ? source : sources.get(entry.getName());
+                Source composition = source((source != null) ? source : ARCHIVE_SOURCE, null);
+                composition.entries++;
+                composition.size += entry.getSize();
+                composition.compressedSize += entry.getCompressedSize();
+            }
+        }
+    }
+
+    /**
+     * Writes the report and the summary, then, if the archive exceeds its size budget,
+     * deletes it and fails, so that an archive over budget is never left in place to be
+     * used by a later build.
+     */
+    void finish() {
+        List<String> violations = getViolations();
+        write(this.report, toJson(violations));
+        write(this.summary, toSummary(violations));
+        if (!violations.isEmpty()) {
+            if (this.archive != null && !this.archive.delete() && this.archive.exists()) {
+                logger.warn("Failed to delete the archive {} that exceeds its size budget", this.archive);
+            }
+            throw new GradleException("The archive '" + this.archiveName + "' exceeds its size budget: "
+                    + String.join("; ", violations) + ". See the report at " + this.summary);
+        }
+    }
+
+    private List<String> getViolations() {
+        List<String> violations = new ArrayList<>();
+        if (this.maximumArchiveSize != null && this.archiveSize > this.maximumArchiveSize) {
+            violations.add("the archive is " + this.archiveSize + " bytes, more than the maximum of "
+                    + this.maximumArchiveSize);
+        }
+        if (this.maximumDependencySize != null) {
+            for (Source source : this.sources.values()) {
+                if (source.dependency != null && source.compressedSize > this.maximumDependencySize) {
+                    violations.add(source.name + " is " + source.compressedSize
+                            + " bytes, more than the maximum of " + this.maximumDependencySize);
+                }
+            }
+        }
+        return violations;
+    }
+
+    private String toJson(List<String> violations) {
+        long entries = 0;
+        long size = 0;
+        long nanos = 0;
+        for (Source source : this.sources.values()) {
+            entries += source.entries;
+            size += source.size;
+            nanos += source.nanos;
+        }
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"archive\": ").append(quote(this.archiveName)).append(",\n");
+        json.append("  \"compressedBytes\": ").append(this.archiveSize).append(",\n");
+        json.append("  \"uncompressedBytes\": ").append(size).append(",\n");
+        json.append("  \"entries\": ").append(entries).append(",\n");
+        json.append("  \"timeMillis\": ").append(TimeUnit.NANOSECONDS.toMillis(nanos)).append(",\n");
+        json.append("  \"sources\": [");
+        String separator = "\n";
+        for (Source source : this.sources.values()) {
+            json.append(separator).append("    {\n");
+            json.append("      \"name\": ").append(quote(source.name)).append(",\n");
+            if (source.dependency != null) {
+                json.append("      \"file\": ").append(quote(source.dependency.getAbsolutePath())).append(",\n");
+            }
+            json.append("      \"entries\": ").append(source.entries).append(",\n");
+            json.append("      \"compressedBytes\": ").append(source.compressedSize).append(",\n");
+            json.append("      \"uncompressedBytes\": ").append(source.size).append(",\n");
+            json.append("      \"duplicatesDropped\": ").append(source.dropped).append(",\n");
+            json.append("      \"timeMillis\": ").append(TimeUnit.NANOSECONDS.toMillis(source.nanos)).append('\n');
+            json.append("    }");
+            separator = ",\n";
+        }
+        json.append("\n  ],\n");
+        json.append("  \"budget\": {\n");
+        json.append("    \"maximumArchiveSize\": ").append(this.maximumArchiveSize).append(",\n");
+        json.append("    \"maximumDependencySize\": ").append(this.maximumDependencySize).append(",\n");
+        json.append("    \"violations\": [");
+        separator = "";
+        for (String violation : violations) {
+            json.append(separator).append(quote(violation));
+            separator = ", ";
+        }
+        json.append("]\n");
+        json.append("  }\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private String toSummary(List<String> violations) {
+        List<Source> sources = new ArrayList<>(this.sources.values());
+        sources.sort(Comparator.comparingLong((Source source) -> source.compressedSize).reversed());
+        StringBuilder summary = new StringBuilder();
+        summary.append(this.archiveName).append(": ").append(this.archiveSize).append(" bytes\n\n");
+        summary.append(String.format("%14s %14s %8s %10s %8s  %s%n", "compressed", "uncompressed", "entries",
+                "duplicates", "ms", "source"));
+        for (Source source : sources) {
+            summary.append(String.format("%14d %14d %8d %10d %8d  %s%n", source.compressedSize, source.size,
+                    source.entries, source.dropped, TimeUnit.NANOSECONDS.toMillis(source.nanos), source.name));
+        }
+        if (!violations.isEmpty()) {
+            summary.append("\nSize budget exceeded:\n");
+            for (String violation : violations) {
+                summary.append("  ").append(violation).append('\n');
+            }
+        }
+        return summary.toString();
+    }
+
+    private Source source(String name, File dependency) {
+        return this.sources.computeIfAbsent(name, (key) -> new Source(name, dependency));
+    }
+
+    private static void write(File file, String content) {
+        try {
+            Files.createDirectories(file.toPath().toAbsolutePath().getParent());
+            Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException("Failed to write the composition report", ex);
+        }
+        logger.debug("Wrote the composition report {}", file);
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * What a source contributes to the archive.
+     */
+    private static final class Source {
+
+        private final String name;
+
+        private final File dependency;
+
+        private long entries;
+
+        private long size;
+
+        private long compressedSize;
+
+        private long dropped;
+
+        private long nanos;
+
+        Source(String name, File dependency) {
+            this.name = name;
+            this.dependency = dependency;
+        }
+
+    }
+
+}
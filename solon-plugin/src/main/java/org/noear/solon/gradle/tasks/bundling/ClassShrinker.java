@@ -0,0 +1,448 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.objectweb.asm.ClassReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Shrinks the dependencies of a {@link SolonJar} with the {@link JarLayout#FLAT flat
+ * layout} by dropping those of their classes that cannot be reached from the
+ * application. The roots of the analysis are the main class, the classes of the project
+ * and of its project dependencies, the classes that are named in
+ * {@code META-INF/services/} and in Solon's {@code META-INF/solon/*.properties}, and the
+ * classes that match a keep rule.
+ * <p>
+ * A class reaches every class that is named in its constant pool, which ASM reads
+ * without parsing the rest of the class. That covers the classes that its code uses,
+ * those in the descriptors and signatures of its members and in its annotations, and
+ * those named by its string constants, in binary or internal form, as they are often
+ * loaded by reflection. Classes that are only loaded by a name built at runtime need a
+ * keep rule.
+ */
+final class ClassShrinker {
+
+    private static final Logger logger = Logging.getLogger(ClassShrinker.class);
+
+    private static final String DOT_CLASS = ".class";
+
+    private static final String VERSIONS_LOCATION = "META-INF/versions/";
+
+    private static final String SERVICES_LOCATION = "META-INF/services/";
+
+    private static final String SOLON_LOCATION = "META-INF/solon/";
+
+    private static final int CONSTANT_UTF8 = 1;
+
+    /**
+     * The major version, that of Java 8, of the class files that ASM is given.
+     */
+    private static final int PARSED_MAJOR_VERSION = 52;
+
+    private final Set<File> keptDependencies;
+
+    private final List<String> keepRules = new ArrayList<>();
+
+    private final File report;
+
+    private final Set<String> rootNames = new HashSet<>();
+
+    private final Map<File, List<ClassEntry>> dependencyClasses = new LinkedHashMap<>();
+
+    private final Map<String, Set<String>> references = new HashMap<>();
+
+    private final Set<String> reachable = new HashSet<>();
+
+    /**
+     * Creates a new shrinker.
+     *
+     * @param mainClass the name of the main class
+     * @param keepRules the rules of the classes to keep: a class name such as
+     * {@code com.example.Foo}, a package such as {@code com.example.*}, or a package and
+     * its subpackages such as {@code com.example.**}
+     * @param keptDependencies the dependencies whose classes are all kept
+     * @param report the file of the report
+     */
+    ClassShrinker(String mainClass, Collection<String> keepRules, Set<File> keptDependencies, File report) {
+        this.rootNames.add(mainClass.replace('.', '/'));
+        for (String keepRule : keepRules) {
+            this.keepRules.add(keepRule.trim().replace('.', '/'));
+        }
+        this.keptDependencies = keptDependencies;
+        this.report = report;
+    }
+
+    /**
+     * Returns whether the project's entry with the given name contributes to the roots of
+     * the analysis, and should be passed to {@link #addProjectEntry(String, byte[])}.
+     *
+     * @param name the name of the entry
+     * @return {@code true} if the entry contributes to the roots
+     */
+    boolean isRootSource(String name) {
+        return name.endsWith(DOT_CLASS) || isNamingResource(name);
+    }
+
+    /**
+     * Adds the classes that the given entry of the project reaches, or names, to the
+     * roots of the analysis.
+     *
+     * @param name the name of the entry
+     * @param content the content of the entry
+     */
+    void addProjectEntry(String name, byte[] content) {
+        if (name.endsWith(DOT_CLASS)) {
+            addReferences(content, this.rootNames);
+        }
+        else {
+            addNamedClasses(name, content);
+        }
+    }
+
+    /**
+     * Analyzes the given dependencies and works out which of their classes are
+     * reachable.
+     *
+     * @param dependencies the dependencies, in classpath order, each mapped to the jar of
+     * its entries
+     * @throws IOException if a dependency cannot be read
+     */
+    void shrink(Map<File, File> dependencies) throws IOException {
+        Set<String> classNames = new HashSet<>();
+        for (Map.Entry<File, File> dependency : dependencies.entrySet()) {
+            List<ClassEntry> classes = new ArrayList<>();
+            try (DependencyJar jar = DependencyJar.open(dependency.getValue())) {
+                for (DependencyJar.Entry entry : jar.getEntries()) {
+                    String className = getClassName(entry.getName());
+                    if (className != null) {
+                        classes.add(new ClassEntry(className, entry.getSize()));
+                        classNames.add(className);
+                    }
+                }
+            }
+            this.dependencyClasses.put(dependency.getKey(), classes);
+        }
+        for (Map.Entry<File, File> dependency : dependencies.entrySet()) {
+            analyze(dependency.getKey(), dependency.getValue(), classNames);
+        }
+        for (String className : classNames) {
+            if (isKept(className)) {
+                this.rootNames.add(className);
+            }
+        }
+        Deque<String> pending = new ArrayDeque<>();
+        for (String rootName : this.rootNames) {
+            if (classNames.contains(rootName) && this.reachable.add(rootName)) {
+                pending.add(rootName);
+            }
+        }
+        while (!pending.isEmpty()) {
+            Set<String> references = this.references.get(pending.remove());
+            if (references != null) {
+                for (String reference : references) {
+                    if (this.reachable.add(reference)) {
+                        pending.add(reference);
+                    }
+                }
+            }
+        }
+        this.references.clear();
+    }
+
+    private void analyze(File dependency, File jarFile, Set<String> classNames) throws IOException {
+        boolean kept = this.keptDependencies.contains(dependency);
+        try (DependencyJar jar = DependencyJar.open(jarFile)) {
+            for (DependencyJar.Entry entry : jar.getEntries()) {
+                String name = entry.getName();
+                String className = getClassName(name);
+                if (className != null) {
+                    if (kept) {
+                        this.rootNames.add(className);
+                    }
+                    Set<String> candidates = new HashSet<>();
+                    addReferences(read(jar, entry), candidates);
+                    candidates.retainAll(classNames);
+                    candidates.remove(className);
+                    if (!candidates.isEmpty()) {
+                        this.references.computeIfAbsent(className, (key) -> new HashSet<>()).addAll(candidates);
+                    }
+                }
+                else if (isNamingResource(name)) {
+                    addNamedClasses(name, read(jar, entry));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns whether the given entry of the given dependency is removed.
+     *
+     * @param dependency the dependency
+     * @param name the name of the entry
+     * @return {@code true} if the entry is a class that is not reachable
+     */
+    boolean isRemoved(File dependency, String name) {
+        String className = getClassName(name);
+        return className != null && !this.keptDependencies.contains(dependency)
+                && !this.reachable.contains(className);
+    }
+
+    /**
+     * Writes the report of the classes that were removed from each dependency.
+     */
+    void writeReport() {
+        StringBuilder report = new StringBuilder();
+        long removedClasses = 0;
+        long removedBytes = 0;
+        for (Map.Entry<File, List<ClassEntry>> dependency : this.dependencyClasses.entrySet()) {
+            List<ClassEntry> removed = new ArrayList<>();
+            long bytes = 0;
+            if (!this.keptDependencies.contains(dependency.getKey())) {
+                for (ClassEntry entry : dependency.getValue()) {
+                    if (!this.reachable.contains(entry.className)) {
+                        removed.add(entry);
+                        bytes += entry.size;
+                    }
+                }
+            }
+            report.append(dependency.getKey().getName()).append(": removed ").append(removed.size()).append(" of ")
+                    .append(dependency.getValue().size()).append(" classes (").append(bytes).append(" bytes)\n");
+            for (ClassEntry entry : removed) {
+                report.append("  ").append(entry.className.replace('/', '.')).append('\n');
+            }
+            removedClasses += removed.size();
+            removedBytes += bytes;
+        }
+        logger.lifecycle("Removed {} unreachable classes ({} bytes) from the dependencies. See the report at {}",
+                removedClasses, removedBytes, this.report);
+        try {
+            Files.createDirectories(this.report.toPath().toAbsolutePath().getParent());
+            Files.write(this.report.toPath(), report.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException("Failed to write the report of the removed classes", ex);
+        }
+    }
+
+    private boolean isKept(String className) {
+        for (String keepRule : this.keepRules) {
+            if (keepRule.equals("**") || keepRule.equals(className)) {
+                return true;
+            }
+            if (keepRule.endsWith("/**")
+                    && className.startsWith(keepRule.substring(0, keepRule.length() - 2))) {
+                return true;
+            }
+            if (keepRule.endsWith("/*") && className.startsWith(keepRule.substring(0, keepRule.length() - 1))
+                    && className.indexOf('/', keepRule.length() - 1) == -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isNamingResource(String name) {
+        return (name.startsWith(SERVICES_LOCATION) && name.length() > SERVICES_LOCATION.length()
+                && name.indexOf('/', SERVICES_LOCATION.length()) == -1)
+                || (name.startsWith(SOLON_LOCATION) && name.endsWith(".properties"));
+    }
+
+    private void addNamedClasses(String name, byte[] content) {
+        if (name.startsWith(SERVICES_LOCATION)) {
+            this.rootNames.add(name.substring(SERVICES_LOCATION.length()).replace('.', '/'));
+            for (String line : new String(content, StandardCharsets.UTF_8).split("\n")) {
+                int comment = line.indexOf('#');
+                String className = ((comment != -1) ? line.substring(0, comment) : line).trim();
+                if (!className.isEmpty()) {
+                    this.rootNames.add(className.replace('.', '/'));
+                }
+            }
+            return;
+        }
+        Properties properties = new Properties();
+        try {
+            properties.load(new ByteArrayInputStream(content));
+        }
+        catch (IOException | IllegalArgumentException ex) {
+            logger.debug("Failed to read the classes named in '{}'", name, ex);
+            return;
+        }
+        for (String value : properties.stringPropertyNames()) {
+            for (String className : properties.getProperty(value).split("[,;\\s]+")) {
+                if (!className.isEmpty()) {
+                    this.rootNames.add(className.replace('.', '/'));
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the internal names of the classes that the given class file may reach to the
+     * given candidates: all of the strings of its constant pool, the class names in its
+     * descriptors and signatures, and its string constants in internal form.
+     *
+     * @param classFile the class file
+     * @param candidates the candidates
+     */
+    private static void addReferences(byte[] classFile, Collection<String> candidates) {
+        ClassReader reader;
+        try {
+            reader = new ClassReader(withSupportedVersion(classFile));
+        }
+        catch (RuntimeException ex) {
+            logger.debug("Failed to read class file", ex);
+            return;
+        }
+        char[] buffer = new char[reader.getMaxStringLength()];
+        for (int item = 1; item < reader.getItemCount(); item++) {
+            int offset = reader.getItem(item);
+            if (offset > 0 && reader.readByte(offset - 1) == CONSTANT_UTF8) {
+                addCandidates(readUtf8(reader, offset, buffer), candidates);
+            }
+        }
+    }
+
+    /**
+     * Returns the given class file or, if it is more recent than Java 8, a copy of it
+     * with the version of Java 8, so that it can be read whatever the latest version that
+     * ASM supports. Only the constant pool is read, whose format does not depend on the
+     * version.
+     *
+     * @param classFile the class file
+     * @return a class file that ASM can read
+     */
+    private static byte[] withSupportedVersion(byte[] classFile) {
+        if (classFile.length < 8 || (((classFile[6] & 0xFF) << 8) | (classFile[7] & 0xFF)) <= PARSED_MAJOR_VERSION) {
+            return classFile;
+        }
+        byte[] copy = classFile.clone();
+        copy[6] = (byte) (PARSED_MAJOR_VERSION >> 8);
+        copy[7] = (byte) PARSED_MAJOR_VERSION;
+        return copy;
+    }
+
+    private static String readUtf8(ClassReader reader, int offset, char[] buffer) {
+        int position = offset + 2;
+        int end = position + reader.readUnsignedShort(offset);
+        int length = 0;
+        while (position < end) {
+            int current = reader.readByte(position++);
+            if ((current & 0x80) == 0) {
+                buffer[length++] = (char) (current & 0x7F);
+            }
+            else if ((current & 0xE0) == 0xC0) {
+                buffer[length++] = (char) (((current & 0x1F) << 6) + (reader.readByte(position++) & 0x3F));
+            }
+            else {
+                buffer[length++] = (char) (((current & 0xF) << 12) + ((reader.readByte(position++) & 0x3F) << 6)
+                        + (reader.readByte(position++) & 0x3F));
+            }
+        }
+        return new String(buffer, 0, length);
+    }
+
+    private static void addCandidates(String value, Collection<String> candidates) {
+        candidates.add(value);
+        if (value.indexOf('.') > 0 && value.indexOf('/') == -1) {
+            candidates.add(value.replace('.', '/'));
+        }
+        for (int start = value.indexOf('L'); start != -1; start = value.indexOf('L', start + 1)) {
+            int end = start + 1;
+            while (end < value.length() && !isDescriptorDelimiter(value.charAt(end))) {
+                end++;
+            }
+            if (end < value.length() && end > start + 1 && (value.charAt(end) == ';' || value.charAt(end) == '<')) {
+                candidates.add(value.substring(start + 1, end));
+            }
+        }
+    }
+
+    private static boolean isDescriptorDelimiter(char c) {
+        return c == ';' || c == '<' || c == '(' || c == ')' || c == '[' || Character.isWhitespace(c);
+    }
+
+    /**
+     * Returns the internal name of the class of the given entry, or {@code null} if the
+     * entry is not a class that can be removed. {@code module-info} and
+     * {@code package-info} are always kept, and the classes of a multi-release jar are
+     * named after their base class.
+     *
+     * @param name the name of the entry
+     * @return the internal name of the class or {@code null}
+     */
+    private static String getClassName(String name) {
+        if (!name.endsWith(DOT_CLASS) || name.endsWith("module-info.class") || name.endsWith("package-info.class")) {
+            return null;
+        }
+        String className = name.substring(0, name.length() - DOT_CLASS.length());
+        if (className.startsWith(VERSIONS_LOCATION)) {
+            int slash = className.indexOf('/', VERSIONS_LOCATION.length());
+            return (slash != -1) ? className.substring(slash + 1) : null;
+        }
+        return className;
+    }
+
+    private static byte[] read(DependencyJar jar, DependencyJar.Entry entry) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream((int) Math.min(entry.getSize(), 1 << 20));
+        try (InputStream input = jar.openStream(entry)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * A class of a dependency.
+     */
+    private static final class ClassEntry {
+
+        private final String className;
+
+        private final long size;
+
+        ClassEntry(String className, long size) {
+            this.className = className;
+            this.size = size;
+        }
+
+    }
+
+}
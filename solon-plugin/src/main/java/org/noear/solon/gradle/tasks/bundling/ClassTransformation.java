@@ -0,0 +1,301 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.RecordComponentVisitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Applies the {@link ClassTransformer ClassTransformers} of a {@link SolonJar} to the
+ * classes of its dependencies as they are cached by the {@link DependencyEntryCache}, and
+ * reports the bytes that they saved. A class is rewritten with a new constant pool, so
+ * that the constants that only the stripped attributes used are dropped too, unless it
+ * has attributes that ASM does not know, whose content may refer to the original
+ * constant pool. A class that ASM cannot read, such as one of a class file version that
+ * is newer than ASM, or that would not be smaller, is left as it is.
+ */
+final class ClassTransformation {
+
+    private static final Logger logger = Logging.getLogger(ClassTransformation.class);
+
+    private final List<ClassTransformer> transformers;
+
+    private final File report;
+
+    private final String key;
+
+    private final Map<String, Result> results = new LinkedHashMap<>();
+
+    /**
+     * Creates a new transformation.
+     *
+     * @param transformers the transformers, in the order in which they are applied
+     * @param report the report of the bytes that were saved
+     */
+    ClassTransformation(List<ClassTransformer> transformers, File report) {
+        this.transformers = new ArrayList<>(transformers);
+        this.report = report;
+        this.key = computeKey(this.transformers);
+    }
+
+    private static String computeKey(List<ClassTransformer> transformers) {
+        try {
+            ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+            try (ObjectOutputStream output = new ObjectOutputStream(serialized)) {
+                output.writeObject(new ArrayList<>(transformers));
+            }
+            StringBuilder key = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(serialized.toByteArray())) {
+                key.append(String.format("%02x", b & 0xFF));
+            }
+            return key.toString();
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException("Failed to serialize the class transformers", ex);
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Returns the key of the transformers, which changes when they do.
+     *
+     * @return the key
+     */
+    String getKey() {
+        return this.key;
+    }
+
+    /**
+     * Returns whether the entry with the given name is a class that is transformed.
+     * Module descriptors are not.
+     *
+     * @param name the name of the entry
+     * @return {@code true} if the entry is transformed
+     */
+    boolean canTransform(String name) {
+        return name.endsWith(".class") && !name.endsWith("module-info.class");
+    }
+
+    /**
+     * Transforms the given class file.
+     *
+     * @param name the name of the entry of the class
+     * @param classFile the class file
+     * @return the transformed class file, or {@code null} if it is left as it is
+     */
+    byte[] transform(String name, byte[] classFile) {
+        try {
+            ClassReader reader = new ClassReader(classFile);
+            UnknownAttributeDetector detector = new UnknownAttributeDetector();
+            reader.accept(detector, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            ClassWriter writer = detector.found ? new ClassWriter(reader, 0) : new ClassWriter(0);
+            ClassVisitor visitor = writer;
+            for (int i = this.transformers.size() - 1; i >= 0; i--) {
+                visitor = this.transformers.get(i).transform(visitor);
+            }
+            reader.accept(visitor, 0);
+            byte[] transformed = writer.toByteArray();
+            return (transformed.length < classFile.length) ? transformed : null;
+        }
+        catch (RuntimeException ex) {
+            logger.debug("Left '{}' as it is as it could not be transformed", name, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Adds the result of the transformation of the classes of the given dependency.
+     *
+     * @param source the description of the dependency
+     * @param result the result
+     */
+    void addResult(String source, Result result) {
+        this.results.put(source, result);
+    }
+
+    void writeReport() {
+        Result total = new Result();
+        StringBuilder dependencies = new StringBuilder();
+        for (Map.Entry<String, Result> result : this.results.entrySet()) {
+            Result dependency = result.getValue();
+            total.add(dependency);
+            dependencies.append(result.getKey()).append(": ").append(dependency).append('\n');
+        }
+        StringBuilder report = new StringBuilder();
+        report.append("Transformers: ")
+                .append(this.transformers.stream().map(String::valueOf).collect(Collectors.joining(", ")))
+                .append('\n');
+        report.append("Dependencies: ").append(total).append("\n\n");
+        report.append(dependencies);
+        logger.lifecycle("Transformed {} classes of the dependencies, saving {} bytes. See the report at {}",
+                total.transformedClasses, total.originalSize - total.transformedSize, this.report);
+        try {
+            Files.createDirectories(this.report.toPath().toAbsolutePath().getParent());
+            Files.write(this.report.toPath(), report.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException("Failed to write the report of the transformed classes", ex);
+        }
+    }
+
+    /**
+     * The result of the transformation of the classes of a dependency. It is kept by the
+     * {@link DependencyEntryCache} along with the transformed dependency, in the form of
+     * its {@link #toStamp() stamp}.
+     */
+    static final class Result {
+
+        private int classes;
+
+        private int transformedClasses;
+
+        private long originalSize;
+
+        private long transformedSize;
+
+        /**
+         * Adds a class.
+         *
+         * @param originalSize the size of the class file
+         * @param transformedSize the size of the transformed class file, which is the
+         * same if it was left as it is
+         */
+        void add(long originalSize, long transformedSize) {
+            this.classes++;
+            if (transformedSize != originalSize) {
+                this.transformedClasses++;
+            }
+            this.originalSize += originalSize;
+            this.transformedSize += transformedSize;
+        }
+
+        private void add(Result result) {
+            this.classes += result.classes;
+            this.transformedClasses += result.transformedClasses;
+            this.originalSize += result.originalSize;
+            this.transformedSize += result.transformedSize;
+        }
+
+        String toStamp() {
+            return this.classes + ":" + this.transformedClasses + ":" + this.originalSize + ":"
+                    + this.transformedSize;
+        }
+
+        static Result fromStamp(String stamp) {
+            Result result = new Result();
+            String[] values = (stamp != null) ? stamp.split(":") : new String[0];
+            if (values.length == 4) {
+                result.classes = Integer.parseInt(values[0]);
+                result.transformedClasses = Integer.parseInt(values[1]);
+                result.originalSize = Long.parseLong(values[2]);
+                result.transformedSize = Long.parseLong(values[3]);
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            long saved = this.originalSize - this.transformedSize;
+            double percent = (this.originalSize > 0) ? saved * 100.0 / this.originalSize : 0;
+            return String.format("saved %d of %d bytes (%.1f%%), transformed %d of %d classes", saved,
+                    this.originalSize, percent, this.transformedClasses, this.classes);
+        }
+
+    }
+
+    /**
+     * A {@link ClassVisitor} that finds whether a class has attributes that ASM does not
+     * know, as their content is copied as it is.
+     */
+    private static final class UnknownAttributeDetector extends ClassVisitor {
+
+        private boolean found;
+
+        UnknownAttributeDetector() {
+            super(Opcodes.ASM9);
+        }
+
+        @Override
+        public void visitAttribute(Attribute attribute) {
+            this.found = true;
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            return new FieldVisitor(Opcodes.ASM9) {
+
+                @Override
+                public void visitAttribute(Attribute attribute) {
+                    UnknownAttributeDetector.this.found = true;
+                }
+
+            };
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                         String[] exceptions) {
+            return new MethodVisitor(Opcodes.ASM9) {
+
+                @Override
+                public void visitAttribute(Attribute attribute) {
+                    UnknownAttributeDetector.this.found = true;
+                }
+
+            };
+        }
+
+        @Override
+        public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+            return new RecordComponentVisitor(Opcodes.ASM9) {
+
+                @Override
+                public void visitAttribute(Attribute attribute) {
+                    UnknownAttributeDetector.this.found = true;
+                }
+
+            };
+        }
+
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import org.objectweb.asm.ClassVisitor;
+
+import java.io.Serializable;
+
+/**
+ * Transforms the classes of the dependencies of a {@link SolonJar}, with the flat layout,
+ * as they are copied into the jar, for example to strip the attributes that are only
+ * read by debuggers and tools so that the classes are smaller to load and to hold in
+ * metaspace. The classes of the project are not transformed. Transformers are inputs of
+ * the task, so implementations must be serializable, and they key the cache of the
+ * transformed dependencies, so a serialized transformer should change whenever its
+ * output does.
+ *
+ * @see SolonJar#getClassTransformers()
+ */
+public interface ClassTransformer extends Serializable {
+
+    /**
+     * Returns a visitor that transforms the class that it visits and passes the result
+     * to the given visitor.
+     *
+     * @param visitor the visitor of the transformed class
+     * @return the visitor of the class to transform
+     */
+    ClassVisitor transform(ClassVisitor visitor);
+
+    /**
+     * Returns a transformer that strips the {@code LocalVariableTable} and
+     * {@code LocalVariableTypeTable} attributes, which hold the names and types of local
+     * variables for debuggers. Libraries that read parameter names from the bytecode
+     * rather than from the {@code MethodParameters} attribute need them.
+     *
+     * @return the transformer
+     */
+    static ClassTransformer stripLocalVariables() {
+        return StandardClassTransformer.LOCAL_VARIABLES;
+    }
+
+    /**
+     * Returns a transformer that strips the {@code SourceDebugExtension} attribute, which
+     * maps the lines of inlined code, such as that of Kotlin inline functions, to their
+     * source for debuggers.
+     *
+     * @return the transformer
+     */
+    static ClassTransformer stripSourceDebugExtension() {
+        return StandardClassTransformer.SOURCE_DEBUG_EXTENSION;
+    }
+
+    /**
+     * Returns a transformer that strips the {@code LineNumberTable} attribute, after
+     * which stack traces no longer show the line numbers of the dependencies' code.
+     *
+     * @return the transformer
+     */
+    static ClassTransformer stripLineNumbers() {
+        return StandardClassTransformer.LINE_NUMBERS;
+    }
+
+    /**
+     * Returns a transformer that strips the {@code kotlin.Metadata} annotation, which
+     * describes Kotlin declarations to the Kotlin compiler and to {@code kotlin-reflect}.
+     * {@link SolonJar} keeps it when {@code kotlin-reflect} is a dependency.
+     *
+     * @return the transformer
+     */
+    static ClassTransformer stripKotlinMetadata() {
+        return StandardClassTransformer.KOTLIN_METADATA;
+    }
+
+}
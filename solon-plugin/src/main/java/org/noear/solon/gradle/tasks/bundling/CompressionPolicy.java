@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import org.gradle.api.tasks.bundling.ZipEntryCompression;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * How the files of a {@link SolonArchive} are compressed: the compression of the task,
+ * the level and number of threads of deflation, the extensions of the files that are
+ * stored, rather than deflated, because their content is already compressed, and the
+ * {@link EntryGroup groups} of entries that are stored and aligned.
+ */
+final class CompressionPolicy {
+
+    /**
+     * The extensions of the files that are stored by default.
+     */
+    static final Set<String> DEFAULT_STORED_EXTENSIONS = Collections.unmodifiableSet(new HashSet<>(
+            Arrays.asList("jar", "war", "zip", "gz", "tgz", "bz2", "xz", "zst", "7z", "png", "jpg", "jpeg", "gif",
+                    "webp", "ico", "woff", "woff2", "mp3", "mp4")));
+
+    /**
+     * The alignment of the entries of the stored groups by default: the usual size of a
+     * page.
+     */
+    static final int DEFAULT_ALIGNMENT = 4096;
+
+    private static final Set<String> NATIVE_LIBRARY_EXTENSIONS = Collections
+            .unmodifiableSet(new HashSet<>(Arrays.asList("so", "dll", "dylib", "jnilib")));
+
+    private static final long LARGE_RESOURCE_SIZE = 1024 * 1024;
+
+    private final ZipEntryCompression compression;
+
+    private final int level;
+
+    private final int threads;
+
+    private final Set<String> storedExtensions = new HashSet<>();
+
+    private final Set<EntryGroup> storedGroups;
+
+    private final int alignment;
+
+    /**
+     * Creates a new policy.
+     *
+     * @param compression the compression of the task
+     * @param level the level of deflation, from {@code 0} to {@code 9}, or {@code -1}
+     * for the default level
+     * @param threads the number of threads that deflate entries
+     * @param storedExtensions the extensions of the files that are stored
+     */
+    CompressionPolicy(ZipEntryCompression compression, int level, int threads, Set<String> storedExtensions) {
+        this(compression, level, threads, storedExtensions, Collections.emptySet(), 1);
+    }
+
+    /**
+     * Creates a new policy.
+     *
+     * @param compression the compression of the task
+     * @param level the level of deflation, from {@code 0} to {@code 9}, or {@code -1}
+     * for the default level
+     * @param threads the number of threads that deflate entries
+     * @param storedExtensions the extensions of the files that are stored
+     * @param storedGroups the groups of entries that are stored and aligned
+     * @param alignment the alignment of the entries of the stored groups that are at
+     * least that large, a power of two
+     */
+    CompressionPolicy(ZipEntryCompression compression, int level, int threads, Set<String> storedExtensions,
+                      Set<EntryGroup> storedGroups, int alignment) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between -1 and 9, but was " + level);
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("Compression threads must be at least 1, but was " + threads);
+        }
+        if (alignment < 1 || alignment > 0x8000 || Integer.bitCount(alignment) != 1) {
+            throw new IllegalArgumentException("Alignment must be a power of two of at most 32768, but was "
+                    + alignment);
+        }
+        this.compression = compression;
+        this.level = level;
+        this.threads = threads;
+        for (String extension : storedExtensions) {
+            this.storedExtensions.add(extension.toLowerCase(Locale.ROOT));
+        }
+        this.storedGroups = (storedGroups.isEmpty()) ? Collections.emptySet() : EnumSet.copyOf(storedGroups);
+        this.alignment = alignment;
+    }
+
+    ZipEntryCompression getCompression() {
+        return this.compression;
+    }
+
+    int getLevel() {
+        return this.level;
+    }
+
+    int getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * Returns whether the file with the given name is stored rather than deflated.
+     *
+     * @param name the name of the file
+     * @return {@code true} if the file is stored
+     */
+    boolean isStored(String name) {
+        if (this.compression == ZipEntryCompression.STORED) {
+            return true;
+        }
+        return this.storedExtensions.contains(getExtension(name));
+    }
+
+    /**
+     * Returns whether the file with the given name and size belongs to one of the groups
+     * of entries that are stored and aligned.
+     *
+     * @param name the name of the file
+     * @param size the size of the file
+     * @param project whether the file belongs to the project rather than to a dependency
+     * @return {@code true} if the file belongs to a stored group
+     */
+    boolean isInStoredGroup(String name, long size, boolean project) {
+        if (this.storedGroups.isEmpty()) {
+            return false;
+        }
+        boolean nativeLibrary = NATIVE_LIBRARY_EXTENSIONS.contains(getExtension(name));
+        if (nativeLibrary && this.storedGroups.contains(EntryGroup.NATIVE_LIBRARIES)) {
+            return true;
+        }
+        if (!project) {
+            return false;
+        }
+        if (name.endsWith(".class")) {
+            return this.storedGroups.contains(EntryGroup.CLASSES);
+        }
+        return !nativeLibrary && size >= LARGE_RESOURCE_SIZE && this.storedGroups.contains(EntryGroup.LARGE_RESOURCES);
+    }
+
+    /**
+     * Returns the alignment of the data of a file of a stored group with the given size.
+     * Files smaller than the alignment are not aligned, as the padding could more than
+     * double their size.
+     *
+     * @param size the size of the file
+     * @return the alignment, or {@code 1} if the file is not aligned
+     */
+    int getAlignment(long size) {
+        return (size >= this.alignment) ? this.alignment : 1;
+    }
+
+    private static String getExtension(String name) {
+        int dot = name.lastIndexOf('.');
+        return (dot > name.lastIndexOf('/')) ? name.substring(dot + 1).toLowerCase(Locale.ROOT) : "";
+    }
+
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.tasks.bundling.ZipEntryCompression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+/**
+ * A cache of the dependency jars of a {@link SolonJar} in the form in which their entries
+ * are written to the jar: without directories and the files that describe the jar
+ * itself, with the compression and timestamps of the task, and with their classes
+ * transformed by the task's {@link ClassTransformation}, if any. The file entries of a
+ * cached jar are consecutive, so runs of them can be
+ * {@link SolonJarWriter#writeSplicedEntries spliced} into the jar with a single copy.
+ * Cached jars are named after the SHA-256 of the content of the dependency and of the
+ * settings that affect them. So that an unchanged dependency is not hashed again, the
+ * hash is kept along with the length and last modified time of the dependency, as is the
+ * result of the transformation of its classes.
+ */
+final class DependencyEntryCache {
+
+    private static final Logger logger = Logging.getLogger(DependencyEntryCache.class);
+
+    private static final String FORMAT_VERSION = "2";
+
+    private static final String STAMPS_NAME = "stamps.properties";
+
+    private static final String CACHED_JAR_EXTENSION = ".jar";
+
+    private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+
+    private static final String INDEX_NAME = "META-INF/INDEX.LIST";
+
+    private static final String[] SIGNATURE_FILE_EXTENSIONS = { ".SF", ".DSA", ".RSA", ".EC" };
+
+    private final File directory;
+
+    private final ZipEntryCompression compression;
+
+    private final boolean preserveFileTimestamps;
+
+    private final ClassTransformation transformation;
+
+    private final Properties stamps = new Properties();
+
+    private final Properties usedStamps = new Properties();
+
+    private final Set<String> usedNames = new HashSet<>();
+
+    private final Map<File, String> cachedNames = new HashMap<>();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param directory the directory of the cache
+     * @param compression the compression of the entries of the jar
+     * @param preserveFileTimestamps whether the timestamps of the entries are preserved
+     * @param transformation the transformation of the classes, or {@code null}
+     * @throws IOException if the cache cannot be read
+     */
+    DependencyEntryCache(File directory, ZipEntryCompression compression, boolean preserveFileTimestamps,
+                         ClassTransformation transformation) throws IOException {
+        this.directory = directory;
+        this.compression = compression;
+        this.preserveFileTimestamps = preserveFileTimestamps;
+        this.transformation = transformation;
+        Files.createDirectories(directory.toPath());
+        File stampsFile = new File(directory, STAMPS_NAME);
+        if (stampsFile.isFile()) {
+            try (InputStream input = new FileInputStream(stampsFile)) {
+                this.stamps.load(input);
+            }
+        }
+    }
+
+    /**
+     * Returns the cached form of the given dependency jar, creating it if needed.
+     *
+     * @param dependency the dependency jar
+     * @return the cached jar
+     * @throws IOException if the dependency cannot be read or the cached jar cannot be
+     * written
+     */
+    File get(File dependency) throws IOException {
+        String name = getCachedJarName(dependency);
+        File cached = new File(this.directory, name);
+        this.cachedNames.put(dependency, name);
+        if (!this.usedNames.add(name) || cached.isFile()) {
+            String result = this.stamps.getProperty(name);
+            if (result != null && !this.usedStamps.containsKey(name)) {
+                this.usedStamps.setProperty(name, result);
+            }
+            return cached;
+        }
+        logger.debug("Caching the entries of '{}' as '{}'", dependency, cached);
+        File temporary = File.createTempFile(name, ".tmp", this.directory);
+        try {
+            ClassTransformation.Result result = write(dependency, temporary);
+            move(temporary, cached);
+            if (this.transformation != null) {
+                this.usedStamps.setProperty(name, result.toStamp());
+            }
+        }
+        finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+        return cached;
+    }
+
+    /**
+     * Returns the result of the transformation of the classes of the given dependency,
+     * which must have been {@link #get(File) cached}.
+     *
+     * @param dependency the dependency jar
+     * @return the result of the transformation
+     */
+    ClassTransformation.Result getTransformationResult(File dependency) {
+        return ClassTransformation.Result.fromStamp(this.usedStamps.getProperty(this.cachedNames.get(dependency)));
+    }
+
+    private String getCachedJarName(File dependency) throws IOException {
+        String path = dependency.getAbsolutePath();
+        String stamp = dependency.length() + ":" + dependency.lastModified() + ":" + getSettings();
+        String previous = this.stamps.getProperty(path);
+        String hash = (previous != null && previous.startsWith(stamp)) ? previous.substring(stamp.length())
+                : hash(dependency);
+        this.usedStamps.setProperty(path, stamp + hash);
+        return hash + CACHED_JAR_EXTENSION;
+    }
+
+    private String hash(File dependency) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        digest.update((FORMAT_VERSION + ":" + getSettings()).getBytes(StandardCharsets.UTF_8));
+        try (InputStream input = new FileInputStream(dependency)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hash = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hash.append(String.format("%02x", b & 0xFF));
+        }
+        return hash.toString();
+    }
+
+    private String getSettings() {
+        return this.compression + ":" + this.preserveFileTimestamps + ":"
+                + ((this.transformation != null) ? this.transformation.getKey() : "") + ":";
+    }
+
+    private ClassTransformation.Result write(File dependency, File target) throws IOException {
+        ClassTransformation.Result result = new ClassTransformation.Result();
+        try (DependencyJar jar = DependencyJar.open(dependency);
+                SolonJarWriter writer = new SolonJarWriter(target, false)) {
+            for (DependencyJar.Entry entry : jar.getEntries()) {
+                if (entry.isDirectory() || isExcluded(entry.getName())) {
+                    continue;
+                }
+                if (entry.isEncrypted() || (entry.getMethod() != DependencyJar.STORED
+                        && entry.getMethod() != DependencyJar.DEFLATED)) {
+                    throw new ZipException("Entry '" + entry.getName() + "' of '" + dependency + "' uses an "
+                            + "unsupported compression method or is encrypted");
+                }
+                int dosTime = this.preserveFileTimestamps ? entry.getDosTime() : SolonJarWriter.CONSTANT_DOS_TIME;
+                int unixMode = entry.getUnixMode();
+                int mode = (unixMode != -1) ? unixMode : SolonJarCopyAction.DEFAULT_FILE_MODE;
+                if (this.transformation != null && this.transformation.canTransform(entry.getName())
+                        && writeTransformedClass(writer, jar, entry, dosTime, mode, result)) {
+                    continue;
+                }
+                if (entry.getMethod() == DependencyJar.DEFLATED && this.compression == ZipEntryCompression.STORED) {
+                    writer.writeStoredFile(entry.getName(), dosTime, mode, entry.getCrc(), entry.getSize(),
+                            (output) -> jar.copyTo(entry, output));
+                }
+                else {
+                    writer.writeRawEntry(entry.getName(), jar, entry, dosTime, mode);
+                }
+            }
+        }
+        return result;
+    }
+
+    private boolean writeTransformedClass(SolonJarWriter writer, DependencyJar jar, DependencyJar.Entry entry,
+                                          int dosTime, int mode, ClassTransformation.Result result) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream((int) entry.getSize());
+        jar.copyTo(entry, output);
+        byte[] transformed = this.transformation.transform(entry.getName(), output.toByteArray());
+        if (transformed == null) {
+            result.add(entry.getSize(), entry.getSize());
+            return false;
+        }
+        result.add(entry.getSize(), transformed.length);
+        if (this.compression == ZipEntryCompression.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(transformed);
+            writer.writeStoredFile(entry.getName(), dosTime, mode, crc.getValue(), transformed.length,
+                    (stream) -> stream.write(transformed));
+        }
+        else {
+            writer.writeDeflatedFile(entry.getName(), dosTime, mode, transformed);
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the dependency entry with the given name is never copied. The
+     * manifest, index and signature files of a dependency describe that dependency
+     * alone. Other entries, including {@code META-INF} and {@code module-info.class},
+     * are copied.
+     *
+     * @param name the name of the entry
+     * @return whether the entry is excluded
+     */
+    private boolean isExcluded(String name) {
+        return name.equals(MANIFEST_NAME) || name.equals(INDEX_NAME) || isSignatureFile(name);
+    }
+
+    private boolean isSignatureFile(String name) {
+        if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) != -1) {
+            return false;
+        }
+        for (String extension : SIGNATURE_FILE_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void move(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException ex) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Deletes the cached jars that were not used since the cache was created and saves
+     * the stamps of those that were.
+     *
+     * @throws IOException if the cache cannot be written
+     */
+    void retainUsed() throws IOException {
+        File[] files = this.directory.listFiles();
+        for (File file : (files != null) ? files : new File[0]) {
+            if (!file.getName().equals(STAMPS_NAME) && !this.usedNames.contains(file.getName())) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        try (OutputStream output = Files.newOutputStream(new File(this.directory, STAMPS_NAME).toPath())) {
+            this.usedStamps.store(output, null);
+        }
+    }
+
+}
@@ -0,0 +1,491 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A dependency jar whose entries are read from its central directory so that their
+ * data can be copied into another archive as-is, without being inflated and deflated
+ * again.
+ */
+final class DependencyJar implements Closeable {
+
+    static final int STORED = 0;
+
+    static final int DEFLATED = 8;
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+
+    private static final int MAXIMUM_COMMENT_SIZE = 0xFFFF;
+
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final int ENCRYPTED_FLAG = 0x1;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private final File file;
+
+    private final FileChannel channel;
+
+    private final List<Entry> entries;
+
+    private DependencyJar(File file, FileChannel channel) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.entries = readCentralDirectory();
+    }
+
+    /**
+     * Opens the given jar and reads its central directory.
+     *
+     * @param file the jar file
+     * @return the opened jar
+     * @throws IOException if the jar cannot be read
+     */
+    static DependencyJar open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return new DependencyJar(file, channel);
+        }
+        catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns the entries of the jar in the order of its central directory.
+     *
+     * @return the entries
+     */
+    List<Entry> getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * Transfers the data of the given entry, as it is stored in the jar, to the given
+     * channel.
+     *
+     * @param entry the entry
+     * @param target the channel to write to
+     * @throws IOException if the data cannot be transferred
+     */
+    void transferRawTo(Entry entry, WritableByteChannel target) throws IOException {
+        transferTo(getDataOffset(entry), entry.getCompressedSize(), target);
+    }
+
+    /**
+     * Transfers the given range of the jar file to the given channel.
+     *
+     * @param position the position of the range
+     * @param length the length of the range
+     * @param target the channel to write to
+     * @throws IOException if the range cannot be transferred
+     */
+    void transferTo(long position, long length, WritableByteChannel target) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            long transferred = this.channel.transferTo(position, remaining, target);
+            if (transferred <= 0) {
+                throw new ZipException("Unexpected end of " + this.file);
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    /**
+     * Returns the position in the jar file just after the data of the given entry. The
+     * entry must not be followed by a data descriptor.
+     *
+     * @param entry the entry
+     * @return the position after the data of the entry
+     * @throws IOException if the local header of the entry cannot be read
+     */
+    long getDataEnd(Entry entry) throws IOException {
+        return getDataOffset(entry) + entry.getCompressedSize();
+    }
+
+    /**
+     * Opens a stream of the uncompressed data of the given entry.
+     *
+     * @param entry the entry
+     * @return the stream, which must be closed by the caller
+     * @throws IOException if the entry cannot be read
+     */
+    InputStream openStream(Entry entry) throws IOException {
+        if (entry.isEncrypted()) {
+            throw new ZipException("Encrypted entry '" + entry.getName() + "' in " + this.file + " is not supported");
+        }
+        InputStream raw = new BoundedInputStream(this.channel, getDataOffset(entry), entry.getCompressedSize());
+        if (entry.getMethod() == STORED) {
+            return raw;
+        }
+        if (entry.getMethod() == DEFLATED) {
+            Inflater inflater = new Inflater(true);
+            return new InflaterInputStream(raw, inflater, 8192) {
+
+                private boolean eof;
+
+                @Override
+                protected void fill() throws IOException {
+                    if (this.eof) {
+                        throw new EOFException("Unexpected end of '" + entry.getName() + "' in " + getFile());
+                    }
+                    this.len = this.in.read(this.buf, 0, this.buf.length);
+                    if (this.len == -1) {
+                        // The inflater may need a dummy byte to finish when wrapping is off
+                        this.buf[0] = 0;
+                        this.len = 1;
+                        this.eof = true;
+                    }
+                    this.inf.setInput(this.buf, 0, this.len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inflater.end();
+                }
+
+            };
+        }
+        throw new ZipException("Unsupported compression method " + entry.getMethod() + " of '" + entry.getName()
+                + "' in " + this.file);
+    }
+
+    /**
+     * Copies the uncompressed data of the given entry to the given stream.
+     *
+     * @param entry the entry
+     * @param output the stream to write to
+     * @throws IOException if the entry cannot be copied
+     */
+    void copyTo(Entry entry, OutputStream output) throws IOException {
+        try (InputStream input = openStream(entry)) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private long getDataOffset(Entry entry) throws IOException {
+        if (entry.dataOffset < 0) {
+            ByteBuffer header = read(entry.localHeaderOffset, LOCAL_FILE_HEADER_SIZE);
+            if (header.getInt(0) != LOCAL_FILE_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid local header of '" + entry.getName() + "' in " + this.file);
+            }
+            int nameLength = header.getShort(26) & 0xFFFF;
+            int extraLength = header.getShort(28) & 0xFFFF;
+            entry.dataOffset = entry.localHeaderOffset + LOCAL_FILE_HEADER_SIZE + nameLength + extraLength;
+        }
+        return entry.dataOffset;
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        long size = this.channel.size();
+        long endOffset = findEndOfCentralDirectory(size);
+        ByteBuffer end = read(endOffset, END_OF_CENTRAL_DIRECTORY_SIZE);
+        long entryCount = end.getShort(10) & 0xFFFF;
+        long directorySize = end.getInt(12) & ZIP64_MAGIC;
+        long directoryOffset = end.getInt(16) & ZIP64_MAGIC;
+        long directoryEnd = endOffset;
+        if (endOffset >= ZIP64_LOCATOR_SIZE) {
+            ByteBuffer locator = read(endOffset - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE);
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                long zip64EndOffset = locator.getLong(8);
+                ByteBuffer zip64End = read(zip64EndOffset, 56);
+                if (zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                    throw new ZipException("Invalid zip64 end of central directory in " + this.file);
+                }
+                entryCount = zip64End.getLong(32);
+                directorySize = zip64End.getLong(40);
+                directoryOffset = zip64End.getLong(48);
+                directoryEnd = zip64EndOffset;
+            }
+        }
+        // Data prepended to the archive, such as a launch script, shifts every offset
+        long prefix = directoryEnd - directorySize - directoryOffset;
+        if (prefix < 0 || directorySize > Integer.MAX_VALUE) {
+            throw new ZipException("Invalid central directory in " + this.file);
+        }
+        ByteBuffer directory = read(directoryOffset + prefix, (int) directorySize);
+        List<Entry> entries = new ArrayList<>((int) Math.min(entryCount, 0xFFFF));
+        int position = 0;
+        for (long i = 0; i < entryCount; i++) {
+            Entry entry = readEntry(directory, position, prefix);
+            entries.add(entry);
+            position += 46 + entry.nameLength + entry.extraLength + entry.commentLength;
+        }
+        return Collections.unmodifiableList(entries);
+    }
+
+    private Entry readEntry(ByteBuffer directory, int position, long prefix) throws ZipException {
+        if (position + 46 > directory.limit() || directory.getInt(position) != CENTRAL_DIRECTORY_SIGNATURE) {
+            throw new ZipException("Invalid central directory entry in " + this.file);
+        }
+        Entry entry = new Entry();
+        entry.versionMadeBy = directory.getShort(position + 4) & 0xFFFF;
+        entry.flags = directory.getShort(position + 8) & 0xFFFF;
+        entry.method = directory.getShort(position + 10) & 0xFFFF;
+        entry.dosTime = directory.getInt(position + 12);
+        entry.crc = directory.getInt(position + 16) & ZIP64_MAGIC;
+        entry.compressedSize = directory.getInt(position + 20) & ZIP64_MAGIC;
+        entry.size = directory.getInt(position + 24) & ZIP64_MAGIC;
+        entry.nameLength = directory.getShort(position + 28) & 0xFFFF;
+        entry.extraLength = directory.getShort(position + 30) & 0xFFFF;
+        entry.commentLength = directory.getShort(position + 32) & 0xFFFF;
+        entry.externalAttributes = directory.getInt(position + 38);
+        entry.localHeaderOffset = directory.getInt(position + 42) & ZIP64_MAGIC;
+        byte[] name = new byte[entry.nameLength];
+        directory.position(position + 46);
+        directory.get(name);
+        entry.name = new String(name, StandardCharsets.UTF_8);
+        readZip64Extra(directory, position + 46 + entry.nameLength, entry);
+        entry.localHeaderOffset += prefix;
+        return entry;
+    }
+
+    private void readZip64Extra(ByteBuffer directory, int start, Entry entry) {
+        int end = start + entry.extraLength;
+        int position = start;
+        while (position + 4 <= end) {
+            int id = directory.getShort(position) & 0xFFFF;
+            int length = directory.getShort(position + 2) & 0xFFFF;
+            if (id == ZIP64_EXTRA_ID) {
+                int field = position + 4;
+                if (entry.size == ZIP64_MAGIC) {
+                    entry.size = directory.getLong(field);
+                    field += 8;
+                }
+                if (entry.compressedSize == ZIP64_MAGIC) {
+                    entry.compressedSize = directory.getLong(field);
+                    field += 8;
+                }
+                if (entry.localHeaderOffset == ZIP64_MAGIC) {
+                    entry.localHeaderOffset = directory.getLong(field);
+                }
+                return;
+            }
+            position += 4 + length;
+        }
+    }
+
+    private long findEndOfCentralDirectory(long size) throws IOException {
+        int length = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + MAXIMUM_COMMENT_SIZE);
+        if (length < END_OF_CENTRAL_DIRECTORY_SIZE) {
+            throw new ZipException(this.file + " is not a valid zip file");
+        }
+        long start = size - length;
+        ByteBuffer tail = read(start, length);
+        for (int position = length - END_OF_CENTRAL_DIRECTORY_SIZE; position >= 0; position--) {
+            if (tail.getInt(position) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                return start + position;
+            }
+        }
+        throw new ZipException("End of central directory not found in " + this.file);
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of " + this.file);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * An entry of a {@link DependencyJar}, as described by its central directory.
+     */
+    static final class Entry {
+
+        private String name;
+
+        private int versionMadeBy;
+
+        private int flags;
+
+        private int method;
+
+        private int dosTime;
+
+        private long crc;
+
+        private long compressedSize;
+
+        private long size;
+
+        private int nameLength;
+
+        private int extraLength;
+
+        private int commentLength;
+
+        private int externalAttributes;
+
+        private long localHeaderOffset;
+
+        private long dataOffset = -1;
+
+        String getName() {
+            return this.name;
+        }
+
+        boolean isDirectory() {
+            return this.name.endsWith("/");
+        }
+
+        boolean isEncrypted() {
+            return (this.flags & ENCRYPTED_FLAG) != 0;
+        }
+
+        int getMethod() {
+            return this.method;
+        }
+
+        /**
+         * Returns the last modified date and time of the entry in MS-DOS format, with
+         * the date in the high and the time in the low 16 bits.
+         *
+         * @return the date and time
+         */
+        int getDosTime() {
+            return this.dosTime;
+        }
+
+        long getCrc() {
+            return this.crc;
+        }
+
+        long getCompressedSize() {
+            return this.compressedSize;
+        }
+
+        long getSize() {
+            return this.size;
+        }
+
+        long getLocalHeaderOffset() {
+            return this.localHeaderOffset;
+        }
+
+        /**
+         * Returns the Unix mode of the entry, or {@code -1} if the jar that contains it
+         * was not created on a Unix-like system.
+         *
+         * @return the mode or {@code -1}
+         */
+        int getUnixMode() {
+            int mode = (this.externalAttributes >>> 16) & 0xFFF;
+            return ((this.versionMadeBy >> 8) == 3 && mode != 0) ? mode : -1;
+        }
+
+    }
+
+    /**
+     * An {@link InputStream} of a range of a {@link FileChannel}.
+     */
+    private static final class BoundedInputStream extends InputStream {
+
+        private final FileChannel channel;
+
+        private long position;
+
+        private long remaining;
+
+        BoundedInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return (read(single, 0, 1) == 1) ? (single[0] & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, (int) Math.min(length, this.remaining));
+            int read = this.channel.read(buffer, this.position);
+            if (read < 0) {
+                throw new ZipException("Unexpected end of entry data");
+            }
+            this.position += read;
+            this.remaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(this.remaining, Integer.MAX_VALUE);
+        }
+
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import org.noear.solon.gradle.loader.JarLauncher;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Builds the {@link JarLauncher#DIRECTORY_INDEX directory index} of a jar with the
+ * {@link JarLayout#NESTED nested layout}, which records which class path entries contain
+ * each directory so that the launcher's class loader does not have to search every jar.
+ */
+final class DirectoryIndex {
+
+    private final SortedMap<String, List<Integer>> directories = new TreeMap<>();
+
+    /**
+     * Adds the file or directory with the given name to the index.
+     *
+     * @param position the position of the class path entry that contains the file
+     * @param name the name of the file, or of the directory with a trailing {@code /},
+     * relative to the class path entry
+     */
+    void add(int position, String name) {
+        String directory = name.endsWith("/") ? name : getParent(name);
+        while (true) {
+            List<Integer> positions = this.directories.computeIfAbsent(directory, (key) -> new ArrayList<>(1));
+            if (!positions.isEmpty() && positions.get(positions.size() - 1) == position) {
+                // The parents have been recorded along with this directory
+                return;
+            }
+            positions.add(position);
+            if (directory.isEmpty()) {
+                return;
+            }
+            directory = getParent(directory);
+        }
+    }
+
+    private String getParent(String name) {
+        int lastSlash = name.lastIndexOf('/', name.length() - 2);
+        return (lastSlash != -1) ? name.substring(0, lastSlash + 1) : "";
+    }
+
+    void writeTo(OutputStream output) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (Map.Entry<String, List<Integer>> entry : this.directories.entrySet()) {
+            line.setLength(0);
+            line.append(entry.getKey()).append('=');
+            for (int i = 0; i < entry.getValue().size(); i++) {
+                line.append((i > 0) ? "," : "").append(entry.getValue().get(i));
+            }
+            output.write(line.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+}
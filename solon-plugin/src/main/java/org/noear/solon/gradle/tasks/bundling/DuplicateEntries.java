@@ -0,0 +1,197 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps track of the entries of a {@link SolonArchive} that have the same name, applies
+ * the {@link DuplicateEntryPolicy} to those with a different content, and writes a
+ * report of all of them. Module descriptors and the license and notice files of
+ * {@code META-INF/}, which almost every dependency has, are expected to differ. The
+ * first of them is kept and the others are reported without applying the policy.
+ */
+final class DuplicateEntries {
+
+    private static final Logger logger = Logging.getLogger(DuplicateEntries.class);
+
+    private static final String META_INF = "META-INF/";
+
+    private static final String VERSIONS_LOCATION = META_INF + "versions/";
+
+    private static final String MODULE_DESCRIPTOR = "module-info.class";
+
+    private final DuplicateEntryPolicy policy;
+
+    private final File report;
+
+    private final Map<String, List<String>> identical = new TreeMap<>();
+
+    private final Map<String, List<String>> merged = new TreeMap<>();
+
+    private final Map<String, List<String>> conflicts = new TreeMap<>();
+
+    private final Map<String, List<String>> expectedConflicts = new TreeMap<>();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param policy the policy for entries with a different content
+     * @param report the file of the report
+     */
+    DuplicateEntries(DuplicateEntryPolicy policy, File report) {
+        this.policy = policy;
+        this.report = report;
+    }
+
+    /**
+     * Records that an entry was dropped as it has the same content as the one that was
+     * kept.
+     *
+     * @param name the name of the entry
+     * @param kept the source of the entry that was kept
+     * @param dropped the source of the entry that was dropped
+     */
+    void identical(String name, String kept, String dropped) {
+        logger.debug("Skipped '{}' from {} as it is the same as the one from {}", name, dropped, kept);
+        add(this.identical, name, kept, dropped);
+    }
+
+    /**
+     * Records that the entries with the given name were merged.
+     *
+     * @param name the name of the entry
+     * @param sources the sources of the entries
+     */
+    void merged(String name, List<String> sources) {
+        logger.debug("Merged '{}' from {}", name, sources);
+        this.merged.put(name, new ArrayList<>(sources));
+    }
+
+    /**
+     * Records that an entry was dropped as the one that was kept has a different
+     * content.
+     *
+     * @param name the name of the entry
+     * @param kept the source of the entry that was kept
+     * @param dropped the source of the entry that was dropped
+     */
+    void conflict(String name, String kept, String dropped) {
+        if (isExpectedConflict(name)) {
+            logger.debug("'{}' from {} differs from the one from {}, which is kept", name, dropped, kept);
+            add(this.expectedConflicts, name, kept, dropped);
+            return;
+        }
+        if (this.policy == DuplicateEntryPolicy.WARN) {
+            logger.warn("'{}' from {} differs from the one from {}, which is kept", name, dropped, kept);
+        }
+        else {
+            logger.info("'{}' from {} differs from the one from {}, which is kept", name, dropped, kept);
+        }
+        add(this.conflicts, name, kept, dropped);
+    }
+
+    /**
+     * Returns whether entries with the given name are expected to have a different
+     * content in each dependency, and keeping the first of them is harmless.
+     *
+     * @param name the name of the entry
+     * @return whether a conflict is expected
+     */
+    static boolean isExpectedConflict(String name) {
+        if (name.equals(MODULE_DESCRIPTOR)
+                || (name.startsWith(VERSIONS_LOCATION) && name.endsWith("/" + MODULE_DESCRIPTOR))) {
+            return true;
+        }
+        if (!name.startsWith(META_INF) || name.indexOf('/', META_INF.length()) != -1) {
+            return false;
+        }
+        String fileName = name.substring(META_INF.length()).toUpperCase(Locale.ROOT);
+        return fileName.startsWith("LICENSE") || fileName.startsWith("NOTICE");
+    }
+
+    private void add(Map<String, List<String>> entries, String name, String kept, String dropped) {
+        List<String> sources = entries.computeIfAbsent(name, (key) -> {
+            List<String> list = new ArrayList<>();
+            list.add(kept);
+            return list;
+        });
+        sources.add(dropped);
+    }
+
+    /**
+     * Fails if there are conflicts and the policy is {@link DuplicateEntryPolicy#FAIL}.
+     * The report is written separately, so that it can be written along with the other
+     * reports of the archive before the build fails.
+     *
+     * @see #writeReport()
+     */
+    void finish() {
+        if (!this.conflicts.isEmpty() && this.policy == DuplicateEntryPolicy.FAIL) {
+            throw new GradleException(this.conflicts.size() + " entries have the same name but a different "
+                    + "content: " + this.conflicts.keySet() + ". See the report at " + this.report);
+        }
+        if (!this.conflicts.isEmpty()) {
+            logger.info("Kept the first of {} entries that have the same name but a different content. See the "
+                    + "report at {}", this.conflicts.size(), this.report);
+        }
+    }
+
+    /**
+     * Writes the report of the duplicate entries.
+     */
+    void writeReport() {
+        StringBuilder report = new StringBuilder();
+        appendSection(report, "Conflicting entries, of which the first was kept", this.conflicts);
+        appendSection(report, "Expected conflicting entries, of which the first was kept",
+                this.expectedConflicts);
+        appendSection(report, "Merged entries", this.merged);
+        appendSection(report, "Identical entries, of which the first was kept", this.identical);
+        try {
+            Files.createDirectories(this.report.toPath().toAbsolutePath().getParent());
+            Files.write(this.report.toPath(), report.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException("Failed to write the report of duplicate entries", ex);
+        }
+    }
+
+    private void appendSection(StringBuilder report, String title, Map<String, List<String>> entries) {
+        report.append(title).append(" (").append(entries.size()).append("):\n");
+        for (Map.Entry<String, List<String>> entry : entries.entrySet()) {
+            report.append("  ").append(entry.getKey()).append('\n');
+            for (String source : entry.getValue()) {
+                report.append("    ").append(source).append('\n');
+            }
+        }
+        report.append('\n');
+    }
+
+}
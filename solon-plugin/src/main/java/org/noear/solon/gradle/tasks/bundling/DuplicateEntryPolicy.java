@@ -0,0 +1,45 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+/**
+ * The policies for entries of a {@link SolonArchive} that have the same name but a
+ * different content, and that no {@link EntryMerger} can merge. Entries with the same
+ * name and the same content are always written once. Module descriptors and the license
+ * and notice files of {@code META-INF/} are expected to differ between dependencies, so
+ * the policy does not apply to them: the first is kept and the others are reported.
+ */
+public enum DuplicateEntryPolicy {
+
+    /**
+     * The first entry is kept and the others are listed in the report of the duplicate
+     * entries.
+     */
+    FIRST,
+
+    /**
+     * As {@link #FIRST}, and a warning is logged for each entry.
+     */
+    WARN,
+
+    /**
+     * The build fails once the archive has been written and the report lists all of the
+     * entries.
+     */
+    FAIL
+
+}
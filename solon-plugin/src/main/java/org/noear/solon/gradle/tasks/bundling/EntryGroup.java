@@ -0,0 +1,45 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+/**
+ * Groups of the entries of a {@link SolonJar} that can be stored uncompressed, so that
+ * they are not inflated when they are read at startup, with those of at least one page
+ * aligned to a page boundary, so that they can be mapped in place.
+ *
+ * @see SolonJar#getStoredEntryGroups()
+ */
+public enum EntryGroup {
+
+    /**
+     * The classes of the project.
+     */
+    CLASSES,
+
+    /**
+     * The native libraries, such as {@code .so}, {@code .dll}, {@code .dylib} and
+     * {@code .jnilib} files, of the project and, with the {@link JarLayout#FLAT flat
+     * layout}, of its dependencies.
+     */
+    NATIVE_LIBRARIES,
+
+    /**
+     * The resources of the project that are 1 MB or larger.
+     */
+    LARGE_RESOURCES
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Merges the content of entries of a {@link SolonJar} that have the same name, such as
+ * the service files of the dependencies whose content is merged into the root of the
+ * jar. Mergers are inputs of the task, so implementations must be serializable.
+ *
+ * @see SolonJar#getEntryMergers()
+ */
+public interface EntryMerger extends Serializable {
+
+    /**
+     * Returns whether this merger merges the entries with the given name.
+     *
+     * @param name the name of the entries
+     * @return {@code true} if the entries are merged
+     */
+    boolean canMerge(String name);
+
+    /**
+     * Merges the given contents of the entries with the given name.
+     *
+     * @param name the name of the entries
+     * @param contents the contents, in the order in which the entries were added to the
+     * jar
+     * @return the merged content or {@code null} if the contents cannot be merged, in
+     * which case the entries are handled as per the {@link DuplicateEntryPolicy}
+     * @throws IOException if the contents cannot be read
+     */
+    byte[] merge(String name, List<byte[]> contents) throws IOException;
+
+    /**
+     * Returns a merger of the {@code META-INF/services/} files of the
+     * {@link java.util.ServiceLoader}, which lists each provider once, in the order of
+     * the files.
+     *
+     * @return the merger
+     */
+    static EntryMerger serviceFiles() {
+        return new ServiceFileMerger();
+    }
+
+    /**
+     * Returns a merger of the {@code META-INF/solon/*.properties} files that declare
+     * Solon plugins, which combines their properties. Files that set a property to
+     * different values cannot be merged.
+     *
+     * @return the merger
+     */
+    static EntryMerger solonProperties() {
+        return new SolonPropertiesMerger();
+    }
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+/**
+ * The layouts of the jar that is built by {@link SolonJar}.
+ */
+public enum JarLayout {
+
+    /**
+     * The classes and resources of the project and of all of its dependencies are merged
+     * into the root of the jar, which is run with {@code java -jar} like any other jar.
+     */
+    FLAT,
+
+    /**
+     * The classes and resources of the project are stored in {@code SOLON-INF/classes/}
+     * and the dependency jars are stored, unmodified, in {@code SOLON-INF/lib/}. The
+     * {@code Main-Class} is a launcher that loads classes from the nested jars directly
+     * and then calls the {@code Start-Class}, which is the application's main class.
+     */
+    NESTED
+
+}
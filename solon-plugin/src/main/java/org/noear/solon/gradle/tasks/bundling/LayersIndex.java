@@ -0,0 +1,139 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import org.noear.solon.gradle.loader.JarLauncher;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Builds the {@link JarLauncher#LAYERS_INDEX layers index} of a {@link SolonJar}, which
+ * assigns each file of the jar to a layer so that the jar can be extracted into one
+ * directory per layer, for example to build a container image whose layers change as
+ * rarely as possible. Layers are listed from the least to the most likely to change. A
+ * directory whose files all belong to the same layer is listed once, rather than file by
+ * file.
+ */
+final class LayersIndex {
+
+    /**
+     * The layer of the dependencies with a release version and of the launcher.
+     */
+    static final String DEPENDENCIES = "dependencies";
+
+    /**
+     * The layer of the dependencies with a snapshot version.
+     */
+    static final String SNAPSHOT_DEPENDENCIES = "snapshot-dependencies";
+
+    /**
+     * The layer of the resources of the project.
+     */
+    static final String RESOURCES = "resources";
+
+    /**
+     * The layer of the classes of the project, of the project dependencies and of the
+     * jar's metadata.
+     */
+    static final String APPLICATION = "application";
+
+    static final List<String> LAYERS = Collections
+            .unmodifiableList(Arrays.asList(DEPENDENCIES, SNAPSHOT_DEPENDENCIES, RESOURCES, APPLICATION));
+
+    private final Node root = new Node();
+
+    /**
+     * Adds the file with the given name to the given layer.
+     *
+     * @param name the name of the file in the jar
+     * @param layer the layer
+     */
+    void add(String name, String layer) {
+        Node node = this.root;
+        int start = 0;
+        int slash;
+        while ((slash = name.indexOf('/', start)) != -1) {
+            node = node.child(name.substring(start, slash + 1));
+            start = slash + 1;
+        }
+        node.child(name.substring(start)).layer = layer;
+    }
+
+    void writeTo(OutputStream output) throws IOException {
+        this.root.computeLayer();
+        StringBuilder index = new StringBuilder();
+        for (String layer : LAYERS) {
+            index.append("- \"").append(layer).append("\":\n");
+            for (Map.Entry<String, Node> child : this.root.children.entrySet()) {
+                appendNames(index, child.getKey(), child.getValue(), layer);
+            }
+        }
+        output.write(index.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void appendNames(StringBuilder index, String name, Node node, String layer) {
+        if (layer.equals(node.layer)) {
+            index.append("  - \"").append(name).append("\"\n");
+        }
+        else if (node.layer == null) {
+            for (Map.Entry<String, Node> child : node.children.entrySet()) {
+                appendNames(index, name + child.getKey(), child.getValue(), layer);
+            }
+        }
+    }
+
+    /**
+     * A file or directory of the jar. The layer of a directory is that of all of its
+     * files, or {@code null} if they belong to different layers.
+     */
+    private static final class Node {
+
+        private final Map<String, Node> children = new TreeMap<>();
+
+        private String layer;
+
+        Node child(String name) {
+            return this.children.computeIfAbsent(name, (key) -> new Node());
+        }
+
+        String computeLayer() {
+            if (this.children.isEmpty()) {
+                return this.layer;
+            }
+            String common = null;
+            boolean mixed = false;
+            for (Node child : this.children.values()) {
+                String childLayer = child.computeLayer();
+                if (childLayer == null || (common != null && !common.equals(childLayer))) {
+                    mixed = true;
+                }
+                common = (common != null) ? common : childLayer;
+            }
+            this.layer = mixed ? null : common;
+            return this.layer;
+        }
+
+    }
+
+}
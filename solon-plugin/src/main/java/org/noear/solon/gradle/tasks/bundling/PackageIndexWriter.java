@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import org.noear.solon.gradle.loader.JarLauncher;
+import org.noear.solon.gradle.loader.PackageIndex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the {@link JarLauncher#PACKAGE_INDEX package index} of a jar with the
+ * {@link JarLayout#FLAT flat layout}, in the format that {@link PackageIndex} reads.
+ */
+final class PackageIndexWriter {
+
+    private static final Comparator<byte[]> UNSIGNED_ORDER = PackageIndexWriter::compare;
+
+    private final Map<String, List<String>> directories = new HashMap<>();
+
+    /**
+     * Adds the entry with the given name to the index. Directories are ignored.
+     *
+     * @param name the name of the entry
+     */
+    void add(String name) {
+        if (name.endsWith("/")) {
+            return;
+        }
+        int lastSlash = name.lastIndexOf('/');
+        this.directories.computeIfAbsent(name.substring(0, lastSlash + 1), (key) -> new ArrayList<>())
+                .add(name.substring(lastSlash + 1));
+    }
+
+    void writeTo(OutputStream output) throws IOException {
+        List<byte[]> directoryNames = new ArrayList<>();
+        Map<byte[], List<String>> filesByDirectory = new HashMap<>();
+        for (Map.Entry<String, List<String>> directory : this.directories.entrySet()) {
+            byte[] name = encode(directory.getKey());
+            directoryNames.add(name);
+            filesByDirectory.put(name, directory.getValue());
+        }
+        directoryNames.sort(UNSIGNED_ORDER);
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        int[] directoryOffsets = new int[directoryNames.size() + 1];
+        for (int i = 0; i < directoryNames.size(); i++) {
+            directoryOffsets[i] = names.size();
+            names.write(directoryNames.get(i));
+        }
+        directoryOffsets[directoryNames.size()] = names.size();
+        int[] firstFiles = new int[directoryNames.size() + 1];
+        List<Integer> fileOffsets = new ArrayList<>();
+        for (int i = 0; i < directoryNames.size(); i++) {
+            firstFiles[i] = fileOffsets.size();
+            List<byte[]> fileNames = new ArrayList<>();
+            for (String file : filesByDirectory.get(directoryNames.get(i))) {
+                fileNames.add(encode(file));
+            }
+            fileNames.sort(UNSIGNED_ORDER);
+            for (byte[] fileName : fileNames) {
+                fileOffsets.add(names.size());
+                names.write(fileName);
+            }
+        }
+        firstFiles[directoryNames.size()] = fileOffsets.size();
+        fileOffsets.add(names.size());
+        DataOutputStream data = new DataOutputStream(output);
+        data.writeInt(PackageIndex.MAGIC);
+        data.writeInt(PackageIndex.VERSION);
+        data.writeInt(directoryNames.size());
+        data.writeInt(fileOffsets.size() - 1);
+        for (int offset : directoryOffsets) {
+            data.writeInt(offset);
+        }
+        for (int firstFile : firstFiles) {
+            data.writeInt(firstFile);
+        }
+        for (int offset : fileOffsets) {
+            data.writeInt(offset);
+        }
+        data.writeInt(names.size());
+        names.writeTo(data);
+        data.flush();
+    }
+
+    private static byte[] encode(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int comparison = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return a.length - b.length;
+    }
+
+}
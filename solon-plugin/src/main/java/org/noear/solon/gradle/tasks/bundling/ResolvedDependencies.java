@@ -18,18 +18,28 @@ package org.noear.solon.gradle.tasks.bundling;
 
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.component.ComponentArtifactIdentifier;
+import org.gradle.api.artifacts.component.ComponentIdentifier;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.artifacts.component.ProjectComponentIdentifier;
 import org.gradle.api.artifacts.result.ResolvedArtifactResult;
+import org.gradle.api.artifacts.type.ArtifactTypeDefinition;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.Classpath;
 import org.gradle.api.tasks.Input;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
- * Maps from {@link File} to {@link ComponentArtifactIdentifier}.
+ * Maps from {@link File} to {@link ComponentArtifactIdentifier} and to the type of the
+ * artifact, which tells whether the file is a zip file without reading it.
  *
  * @author Madhura Bhave
  * @author Scott Frederick
@@ -39,14 +49,21 @@ import java.util.stream.Collectors;
  */
 class ResolvedDependencies {
 
+    private static final Set<String> ZIP_ARTIFACT_TYPES = new HashSet<>(
+            Arrays.asList(ArtifactTypeDefinition.JAR_TYPE, ArtifactTypeDefinition.ZIP_TYPE, "war", "ear"));
 
     private final ListProperty<ComponentArtifactIdentifier> artifactIds;
 
     private final ListProperty<File> artifactFiles;
 
+    private final ListProperty<String> artifactTypes;
+
+    private Map<File, Integer> positions;
+
     ResolvedDependencies(Project project) {
         this.artifactIds = project.getObjects().listProperty(ComponentArtifactIdentifier.class);
         this.artifactFiles = project.getObjects().listProperty(File.class);
+        this.artifactTypes = project.getObjects().listProperty(String.class);
     }
 
     @Input
@@ -59,11 +76,86 @@ class ResolvedDependencies {
         return this.artifactFiles;
     }
 
+    @Input
+    ListProperty<String> getArtifactTypes() {
+        return this.artifactTypes;
+    }
+
+    /**
+     * Returns the identifier of the component of the given artifact file, or
+     * {@code null} if the file is not a resolved artifact, for example because it was
+     * added to the classpath as a plain file.
+     *
+     * @param file the artifact file
+     * @return the component identifier or {@code null}
+     */
+    ComponentIdentifier find(File file) {
+        ComponentArtifactIdentifier id = findArtifactId(file);
+        return (id != null) ? id.getComponentIdentifier() : null;
+    }
+
+    /**
+     * Returns the description of the given artifact file, such as
+     * {@code foo-1.0.jar (com.example:foo:1.0)}, or its name if it is not a resolved
+     * artifact.
+     *
+     * @param file the artifact file
+     * @return the description
+     */
+    String describe(File file) {
+        ComponentArtifactIdentifier id = findArtifactId(file);
+        return (id != null) ? id.getDisplayName() : file.getName();
+    }
+
+    /**
+     * Returns whether the given file is known to be a zip file from the type of its
+     * artifact. Only the types of the artifacts of modules and of projects are trusted, as
+     * those of plain files are derived from their extension.
+     *
+     * @param file the artifact file
+     * @return {@code true} if the file is a zip file, {@code false} if it is not or if it
+     * is not known
+     */
+    boolean isKnownZip(File file) {
+        ComponentIdentifier component = find(file);
+        if (!(component instanceof ModuleComponentIdentifier) && !(component instanceof ProjectComponentIdentifier)) {
+            return false;
+        }
+        List<String> types = this.artifactTypes.get();
+        int position = getPositions().get(file);
+        return position < types.size() && ZIP_ARTIFACT_TYPES.contains(types.get(position));
+    }
+
+    private ComponentArtifactIdentifier findArtifactId(File file) {
+        Integer position = getPositions().get(file);
+        List<ComponentArtifactIdentifier> ids = this.artifactIds.get();
+        return (position != null && position < ids.size()) ? ids.get(position) : null;
+    }
+
+    private Map<File, Integer> getPositions() {
+        if (this.positions == null) {
+            List<File> files = this.artifactFiles.get();
+            Map<File, Integer> positions = new HashMap<>(files.size() * 4 / 3 + 1);
+            for (int i = files.size() - 1; i >= 0; i--) {
+                positions.put(files.get(i), i);
+            }
+            this.positions = positions;
+        }
+        return this.positions;
+    }
+
     void resolvedArtifacts(Provider<Set<ResolvedArtifactResult>> resolvedArtifacts) {
         this.artifactFiles.addAll(
                 resolvedArtifacts.map((artifacts) -> artifacts.stream().map(ResolvedArtifactResult::getFile).collect(Collectors.toList())));
         this.artifactIds.addAll(
                 resolvedArtifacts.map((artifacts) -> artifacts.stream().map(ResolvedArtifactResult::getId).collect(Collectors.toList())));
+        this.artifactTypes.addAll(
+                resolvedArtifacts.map((artifacts) -> artifacts.stream().map(ResolvedDependencies::artifactType).collect(Collectors.toList())));
+    }
+
+    private static String artifactType(ResolvedArtifactResult artifact) {
+        String type = artifact.getVariant().getAttributes().getAttribute(ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE);
+        return (type != null) ? type : "";
     }
 
 }
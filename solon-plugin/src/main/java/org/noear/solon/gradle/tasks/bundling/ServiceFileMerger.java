@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link EntryMerger} of the provider-configuration files in {@code META-INF/services/}.
+ * Comments and blank lines are dropped.
+ */
+final class ServiceFileMerger implements EntryMerger {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String LOCATION = "META-INF/services/";
+
+    @Override
+    public boolean canMerge(String name) {
+        return name.startsWith(LOCATION) && name.length() > LOCATION.length()
+                && name.indexOf('/', LOCATION.length()) == -1;
+    }
+
+    @Override
+    public byte[] merge(String name, List<byte[]> contents) throws IOException {
+        Set<String> providers = new LinkedHashSet<>();
+        for (byte[] content : contents) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int comment = line.indexOf('#');
+                    String provider = ((comment != -1) ? line.substring(0, comment) : line).trim();
+                    if (!provider.isEmpty()) {
+                        providers.add(provider);
+                    }
+                }
+            }
+        }
+        StringBuilder merged = new StringBuilder();
+        for (String provider : providers) {
+            merged.append(provider).append('\n');
+        }
+        return merged.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+}
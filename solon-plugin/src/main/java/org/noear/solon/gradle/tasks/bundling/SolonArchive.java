@@ -21,11 +21,15 @@ import org.gradle.api.Project;
 import org.gradle.api.Task;
 import org.gradle.api.artifacts.result.ResolvedArtifactResult;
 import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.SetProperty;
 import org.gradle.api.tasks.Classpath;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
 
 import java.util.Set;
 
@@ -87,6 +91,97 @@ public interface SolonArchive extends Task {
     @Optional
     Property<JavaVersion> getTargetJavaVersion();
 
+    /**
+     * Returns the policy for entries that have the same name but a different content.
+     * Defaults to {@link DuplicateEntryPolicy#FIRST}.
+     *
+     * @return the policy
+     */
+    @Input
+    Property<DuplicateEntryPolicy> getDuplicateEntryPolicy();
+
+    /**
+     * Returns the report of the entries that have the same name, which lists the
+     * entries that were dropped or merged and where each of them came from. Defaults to
+     * {@code build/reports/<task name>/duplicate-entries.txt}.
+     *
+     * @return the report file
+     */
+    @OutputFile
+    RegularFileProperty getDuplicateEntriesReport();
+
+    /**
+     * Returns the JSON report of the composition of the archive, which lists, for the
+     * project and for each resolved artifact, the number of its entries, their
+     * compressed and uncompressed size, the number of its entries that were dropped as
+     * duplicates, and the time spent adding them. Defaults to
+     * {@code build/reports/<task name>/composition.json}.
+     *
+     * @return the report file
+     */
+    @OutputFile
+    RegularFileProperty getCompositionReport();
+
+    /**
+     * Returns the text summary of the {@link #getCompositionReport() composition report},
+     * with the sources from the largest to the smallest. Defaults to
+     * {@code build/reports/<task name>/composition.txt}.
+     *
+     * @return the summary file
+     */
+    @OutputFile
+    RegularFileProperty getCompositionSummary();
+
+    /**
+     * Returns the maximum size in bytes of the archive, above which the build fails and
+     * the archive is deleted. Defaults to no maximum.
+     *
+     * @return the maximum size of the archive
+     */
+    @Input
+    @Optional
+    Property<Long> getMaximumArchiveSize();
+
+    /**
+     * Returns the maximum compressed size in bytes of the entries of any one dependency
+     * in the archive, above which the build fails and the archive is deleted. Defaults to
+     * no maximum.
+     *
+     * @return the maximum size of a dependency
+     */
+    @Input
+    @Optional
+    Property<Long> getMaximumDependencySize();
+
+    /**
+     * Returns the level, from {@code 0} to {@code 9}, at which the files of the project
+     * are deflated. Defaults to {@code -1}, the default level of {@link java.util.zip.Deflater}.
+     *
+     * @return the compression level
+     */
+    @Input
+    Property<Integer> getCompressionLevel();
+
+    /**
+     * Returns the number of threads that deflate the files of the project. The archive
+     * is the same whatever the number of threads. Defaults to the number of available
+     * processors.
+     *
+     * @return the number of compression threads
+     */
+    @Internal
+    Property<Integer> getCompressionThreads();
+
+    /**
+     * Returns the extensions of the files of the project that are stored rather than
+     * deflated, because their content is already compressed. Defaults to archives,
+     * images, fonts and media such as {@code jar}, {@code png} and {@code woff2}.
+     *
+     * @return the extensions of the stored files
+     */
+    @Input
+    SetProperty<String> getStoredExtensions();
+
     /**
      * Registers the given lazily provided {@code resolvedArtifacts}. They are used to map
      * from the files in the {@link #getClasspath classpath} to their dependency
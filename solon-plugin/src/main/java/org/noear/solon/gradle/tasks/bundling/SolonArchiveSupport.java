@@ -21,11 +21,6 @@ import org.gradle.api.file.FileCopyDetails;
 import org.gradle.api.java.archives.Attributes;
 import org.gradle.api.java.archives.Manifest;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-
 /**
  * Support class for implementations of {@link SolonArchive}.
  *
@@ -36,7 +31,6 @@ import java.io.InputStream;
  */
 class SolonArchiveSupport {
 
-    private static final byte[] ZIP_FILE_HEADER = new byte[]{'P', 'K', 3, 4};
     private static final String UNSPECIFIED_VERSION = "unspecified";
 
     SolonArchiveSupport() {
@@ -63,23 +57,17 @@ class SolonArchiveSupport {
         return (version != null) ? version : "unknown";
     }
 
-    boolean isZip(File file) {
-        try {
-            try (FileInputStream fileInputStream = new FileInputStream(file)) {
-                return isZip(fileInputStream);
-            }
-        } catch (IOException ex) {
-            return false;
-        }
-    }
-
-    private boolean isZip(InputStream inputStream) throws IOException {
-        for (byte headerByte : ZIP_FILE_HEADER) {
-            if (inputStream.read() != headerByte) {
-                return false;
-            }
-        }
-        return true;
+    /**
+     * Creates the {@link ArchiveComposition} of the given archive, with its report files
+     * and size budget.
+     *
+     * @param archive the archive
+     * @return the composition
+     */
+    ArchiveComposition createComposition(SolonArchive archive) {
+        return new ArchiveComposition(archive.getCompositionReport().get().getAsFile(),
+                archive.getCompositionSummary().get().getAsFile(), archive.getMaximumArchiveSize().getOrNull(),
+                archive.getMaximumDependencySize().getOrNull());
     }
 
     void moveModuleInfoToRoot(CopySpec spec) {
@@ -1,23 +1,52 @@
 package org.noear.solon.gradle.tasks.bundling;
 
+import groovy.lang.Closure;
 import org.gradle.api.Action;
+import org.gradle.api.GradleException;
 import org.gradle.api.Project;
+import org.gradle.api.artifacts.component.ComponentIdentifier;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.artifacts.component.ProjectComponentIdentifier;
 import org.gradle.api.artifacts.result.ResolvedArtifactResult;
+import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.CopySpec;
 import org.gradle.api.file.DuplicatesStrategy;
 import org.gradle.api.file.FileCollection;
-import org.gradle.api.file.FileTree;
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.internal.file.copy.CopyAction;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.SetProperty;
 import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.AbstractCopyTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.bundling.Jar;
+import org.gradle.api.tasks.util.PatternSet;
+import org.noear.solon.gradle.loader.JarLauncher;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.zip.Deflater;
 
 public abstract class SolonJar extends Jar implements SolonArchive {
     private final SolonArchiveSupport support;
@@ -28,19 +57,50 @@ public abstract class SolonJar extends Jar implements SolonArchive {
 
     private final ResolvedDependencies resolvedDependencies;
 
+    private final PatternSet dependencyEntrySpecs = new PatternSet();
+
     private FileCollection classpath;
 
     public SolonJar() {
         this.support = new SolonArchiveSupport();
+        // Duplicates reach the copy action, which drops, merges or reports them
         setDuplicatesStrategy(DuplicatesStrategy.INCLUDE);
 
         Project project = getProject();
         this.projectName = project.provider(project::getName);
         this.projectVersion = project.provider(project::getVersion);
+        getLayout().convention(JarLayout.FLAT);
+        getLayered().convention(true);
+        getLauncher().convention(false);
+        getStoredEntryGroups().convention(Collections.emptySet());
+        getStoredEntryAlignment().convention(CompressionPolicy.DEFAULT_ALIGNMENT);
+        getEntryMergers().convention(Arrays.asList(EntryMerger.serviceFiles(), EntryMerger.solonProperties()));
+        getDuplicateEntryPolicy().convention(DuplicateEntryPolicy.FIRST);
+        getDuplicateEntriesReport().convention(project.getLayout().getBuildDirectory()
+                .file("reports/" + getName() + "/duplicate-entries.txt"));
+        getCompositionReport().convention(project.getLayout().getBuildDirectory()
+                .file("reports/" + getName() + "/composition.json"));
+        getCompositionSummary().convention(project.getLayout().getBuildDirectory()
+                .file("reports/" + getName() + "/composition.txt"));
+        getCompressionLevel().convention(Deflater.DEFAULT_COMPRESSION);
+        getCompressionThreads().convention(Runtime.getRuntime().availableProcessors());
+        getStoredExtensions().convention(CompressionPolicy.DEFAULT_STORED_EXTENSIONS);
+        getShrink().convention(false);
+        getShrinkKeepRules().convention(Collections.emptySet());
+        getShrinkReport().convention(project.getLayout().getBuildDirectory()
+                .file("reports/" + getName() + "/shrink.txt"));
+        getClassTransformers().convention(Collections.emptyList());
+        getClassTransformsReport().convention(project.getLayout().getBuildDirectory()
+                .file("reports/" + getName() + "/class-transforms.txt"));
         CopySpec copySpec = project.copySpec();
         configureBootInfSpec(copySpec);
         getMainSpec().with(copySpec);
         this.resolvedDependencies = new ResolvedDependencies(project);
+        Provider<ZipFileDetector> zipFileDetector = project.getGradle().getSharedServices()
+                .registerIfAbsent(ZipFileDetector.NAME, ZipFileDetector.class, (spec) -> {
+                });
+        getZipFileDetector().set(zipFileDetector);
+        usesService(zipFileDetector);
     }
 
     @Override
@@ -48,11 +108,172 @@ public abstract class SolonJar extends Jar implements SolonArchive {
         this.resolvedDependencies.resolvedArtifacts(resolvedArtifacts);
     }
 
+    /**
+     * Returns the layout of the jar. Defaults to {@link JarLayout#FLAT}.
+     *
+     * @return the layout
+     */
+    @Input
+    public abstract Property<JarLayout> getLayout();
+
+    /**
+     * Returns whether the jar is layered, that is whether it has an index that assigns
+     * each of its files to the {@code dependencies}, {@code snapshot-dependencies},
+     * {@code resources} or {@code application} layer, so that it can be extracted into
+     * one directory per layer. Defaults to {@code true}.
+     *
+     * @return whether the jar is layered
+     * @see ExtractLayers
+     */
+    @Input
+    public abstract Property<Boolean> getLayered();
+
+    /**
+     * Returns whether a jar with the {@link JarLayout#FLAT flat layout} is launched by
+     * the {@link JarLauncher}, which loads the application through the jar's package
+     * index so that classes and resources that the jar does not have are not searched
+     * for. A jar with the nested layout is always launched by the launcher. Defaults to
+     * {@code false}.
+     *
+     * @return whether the jar is launched by the launcher
+     */
+    @Input
+    public abstract Property<Boolean> getLauncher();
+
+    /**
+     * Returns the groups of entries that are stored uncompressed, whatever the
+     * {@link #getEntryCompression() entry compression}, so that they are not inflated
+     * at startup, with those of at least the {@link #getStoredEntryAlignment() alignment}
+     * aligned so that they can be mapped in place. This trades the size of the jar for
+     * its startup time. Defaults to none.
+     *
+     * @return the stored entry groups
+     */
+    @Input
+    public abstract SetProperty<EntryGroup> getStoredEntryGroups();
+
+    /**
+     * Returns the alignment, a power of two, of the data of the entries of the
+     * {@link #getStoredEntryGroups() stored entry groups}. Defaults to {@code 4096}.
+     *
+     * @return the alignment of the stored entries
+     */
+    @Input
+    public abstract Property<Integer> getStoredEntryAlignment();
+
+    /**
+     * Returns whether the classes of the dependencies that cannot be reached from the
+     * application are left out of a jar with the {@link JarLayout#FLAT flat layout}. The
+     * main class, the project's classes, the classes of project dependencies and the
+     * classes named in {@code META-INF/services/} and {@code META-INF/solon/*.properties}
+     * are kept, along with the classes that they name, transitively. Classes that are
+     * only loaded by a name built at runtime need a {@link #getShrinkKeepRules() keep
+     * rule}. Defaults to {@code false}.
+     * <p>
+     * <strong>Warning:</strong> classes of the dependencies that are only found by
+     * Solon's package scanning, such as the components of a package that is passed to
+     * {@code beanScan}, are removed unless they are in a project dependency or a keep
+     * rule, such as {@code com.example.**}, covers them.
+     *
+     * @return whether the dependencies are shrunk
+     */
+    @Input
+    public abstract Property<Boolean> getShrink();
+
+    /**
+     * Returns the rules of the classes of the dependencies that are kept when they are
+     * {@link #getShrink() shrunk}: a class name such as {@code com.example.Foo}, a package
+     * such as {@code com.example.*}, or a package and its subpackages such as
+     * {@code com.example.**}. Defaults to none.
+     *
+     * @return the keep rules
+     */
+    @Input
+    public abstract SetProperty<String> getShrinkKeepRules();
+
+    /**
+     * Returns the report of the classes that were removed from each dependency when they
+     * are {@link #getShrink() shrunk}. Defaults to
+     * {@code build/reports/<task name>/shrink.txt}.
+     *
+     * @return the report file
+     */
+    @OutputFile
+    public abstract RegularFileProperty getShrinkReport();
+
+    /**
+     * Returns the files of the order of the entries that are read when the application
+     * starts, such as the classes that a
+     * {@link org.noear.solon.gradle.tasks.training.RecordClassLoadOrder training run}
+     * loaded. Each line is the name of an entry, such as {@code com/example/App.class};
+     * blank lines and lines that start with {@code #} are ignored. With the
+     * {@link JarLayout#FLAT flat layout}, the entries that are listed are written
+     * contiguously and in that order, after the project's other files and before the
+     * other entries of the dependencies, so that they are read sequentially. Files that
+     * do not exist are ignored, so that the jar can be built before its order is
+     * recorded. Defaults to none.
+     *
+     * @return the entry order files
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract ConfigurableFileCollection getEntryOrder();
+
+    /**
+     * Returns the transformers of the classes of the dependencies, with the
+     * {@link JarLayout#FLAT flat layout}, in the order in which they are applied, such as
+     * {@link ClassTransformer#stripLocalVariables()} and
+     * {@link ClassTransformer#stripSourceDebugExtension()}. The classes of the project are
+     * not transformed. Defaults to none.
+     *
+     * @return the class transformers
+     */
+    @Input
+    public abstract ListProperty<ClassTransformer> getClassTransformers();
+
+    /**
+     * Returns the report of the bytes that the {@link #getClassTransformers() class
+     * transformers} saved in each dependency. Defaults to
+     * {@code build/reports/<task name>/class-transforms.txt}.
+     *
+     * @return the report file
+     */
+    @OutputFile
+    public abstract RegularFileProperty getClassTransformsReport();
+
+    /**
+     * Returns the mergers of the entries of the jar that have the same name. Defaults to
+     * {@link EntryMerger#serviceFiles()} and {@link EntryMerger#solonProperties()}.
+     *
+     * @return the mergers
+     */
+    @Input
+    public abstract ListProperty<EntryMerger> getEntryMergers();
+
+    /**
+     * Returns the detector of the zip files of the classpath whose artifact type is not
+     * known.
+     *
+     * @return the zip file detector
+     */
+    @Internal
+    public abstract Property<ZipFileDetector> getZipFileDetector();
+
+    @Nested
+    ResolvedDependencies getResolvedDependencies() {
+        return this.resolvedDependencies;
+    }
+
     @Override
     public void copy() {
+        String mainClass = getMainClass().get();
+        if (getLayout().get() == JarLayout.NESTED || getLauncher().get()) {
+            getManifest().getAttributes().putIfAbsent(JarLauncher.START_CLASS_ATTRIBUTE, mainClass);
+            mainClass = JarLauncher.class.getName();
+        }
         this.support.configureManifest(
                 getManifest(),
-                getMainClass().get(),
+                mainClass,
                 this.getTargetJavaVersion().get().toString(),
                 this.projectName.get(),
                 this.projectVersion.get()
@@ -60,21 +281,171 @@ public abstract class SolonJar extends Jar implements SolonArchive {
         super.copy();
     }
 
-    private void configureBootInfSpec(CopySpec bootInfSpec) {
-        bootInfSpec.into("", fromCallTo(this::classpathDirectories));
-        bootInfSpec.into("", fromCallTo(() -> {
-            FileCollection files = getProject().files(this.classpathFiles())
-                    .filter(support::isZip);
-
-            List<FileTree> list = new ArrayList<>();
-            for (File file : files) {
-                list.add(getProject().zipTree(file));
+    @Override
+    protected CopyAction createCopyAction() {
+        List<File> dependencies = classpathDependencies();
+        ArchiveComposition composition = this.support.createComposition(this);
+        for (File dependency : dependencies) {
+            composition.describe(dependency, this.resolvedDependencies.describe(dependency));
+        }
+        return SolonJarCopyAction.builder(getArchiveFile().get().getAsFile(), compressionPolicy(),
+                        new DuplicateEntries(getDuplicateEntryPolicy().get(),
+                                getDuplicateEntriesReport().get().getAsFile()), composition)
+                .preserveFileTimestamps(isPreserveFileTimestamps())
+                .layout(getLayout().get())
+                .packageIndex(true)
+                .launcher(getLauncher().get())
+                .dependencies(dependencies, dependencyEntryFilter(), getTemporaryDir())
+                .dependencyLayers(getLayered().get() ? dependencyLayers(dependencies) : null)
+                .mergers(getEntryMergers().get())
+                .shrinker(classShrinker(dependencies))
+                .entryOrder(entryOrder())
+                .classTransformation(classTransformation(dependencies))
+                .build();
+    }
+
+    /**
+     * Returns the filter that the entries of flattened dependencies must satisfy. It
+     * applies the task's include and exclude patterns as well as any include and
+     * exclude specs, such as those configured with closures, that the task records as
+     * they are added.
+     * @return the dependency entry filter
+     */
+    private Spec<FileTreeElement> dependencyEntryFilter() {
+        PatternSet patterns = new PatternSet();
+        patterns.setCaseSensitive(isCaseSensitive());
+        patterns.setIncludes(getIncludes());
+        patterns.setExcludes(getExcludes());
+        for (Spec<FileTreeElement> spec : this.dependencyEntrySpecs.getIncludeSpecs()) {
+            patterns.include(spec);
+        }
+        for (Spec<FileTreeElement> spec : this.dependencyEntrySpecs.getExcludeSpecs()) {
+            patterns.exclude(spec);
+        }
+        return patterns.getAsSpec();
+    }
+
+    private ClassTransformation classTransformation(List<File> dependencies) {
+        File report = getClassTransformsReport().get().getAsFile();
+        List<ClassTransformer> transformers = new ArrayList<>(getClassTransformers().get());
+        if (transformers.contains(ClassTransformer.stripKotlinMetadata()) && hasKotlinReflect(dependencies)) {
+            getLogger().warn("The Kotlin metadata of the dependencies of {} is kept as kotlin-reflect reads it",
+                    getPath());
+            transformers.remove(ClassTransformer.stripKotlinMetadata());
+        }
+        if (transformers.isEmpty()) {
+            report.delete();
+            return null;
+        }
+        if (getLayout().get() != JarLayout.FLAT) {
+            getLogger().warn("The classes of the dependencies of {} are not transformed as its layout is {}",
+                    getPath(), getLayout().get());
+            report.delete();
+            return null;
+        }
+        return new ClassTransformation(transformers, report);
+    }
+
+    private boolean hasKotlinReflect(List<File> dependencies) {
+        for (File dependency : dependencies) {
+            ComponentIdentifier component = this.resolvedDependencies.find(dependency);
+            if (component instanceof ModuleComponentIdentifier
+                    && "org.jetbrains.kotlin".equals(((ModuleComponentIdentifier) component).getGroup())
+                    && "kotlin-reflect".equals(((ModuleComponentIdentifier) component).getModule())) {
+                return true;
             }
-            return list;
-        }));
+        }
+        return false;
+    }
+
+    private List<String> entryOrder() {
+        Set<String> names = new LinkedHashSet<>();
+        for (File file : getEntryOrder().getFiles()) {
+            if (!file.isFile()) {
+                continue;
+            }
+            try {
+                for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                    String name = line.trim();
+                    if (!name.isEmpty() && !name.startsWith("#")) {
+                        names.add(name);
+                    }
+                }
+            }
+            catch (IOException ex) {
+                throw new GradleException("Failed to read the entry order '" + file + "'", ex);
+            }
+        }
+        if (!names.isEmpty() && getLayout().get() != JarLayout.FLAT) {
+            getLogger().warn("The entries of {} are not ordered as its layout is {}", getPath(), getLayout().get());
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(names);
+    }
+
+    private ClassShrinker classShrinker(List<File> dependencies) {
+        File report = getShrinkReport().get().getAsFile();
+        if (!getShrink().get()) {
+            report.delete();
+            return null;
+        }
+        if (getLayout().get() != JarLayout.FLAT) {
+            getLogger().warn("The dependencies of {} are not shrunk as its layout is {}", getPath(),
+                    getLayout().get());
+            report.delete();
+            return null;
+        }
+        Set<File> projectDependencies = new HashSet<>();
+        for (File dependency : dependencies) {
+            if (this.resolvedDependencies.find(dependency) instanceof ProjectComponentIdentifier) {
+                projectDependencies.add(dependency);
+            }
+        }
+        return new ClassShrinker(getMainClass().get(), getShrinkKeepRules().get(), projectDependencies, report);
+    }
+
+    private CompressionPolicy compressionPolicy() {
+        return new CompressionPolicy(getEntryCompression(), getCompressionLevel().get(),
+                getCompressionThreads().get(), getStoredExtensions().get(), getStoredEntryGroups().get(),
+                getStoredEntryAlignment().get());
+    }
+
+    private Map<File, String> dependencyLayers(List<File> dependencies) {
+        Map<File, String> layers = new HashMap<>();
+        for (File dependency : dependencies) {
+            layers.put(dependency, dependencyLayer(this.resolvedDependencies.find(dependency)));
+        }
+        return layers;
+    }
+
+    private String dependencyLayer(ComponentIdentifier component) {
+        if (component instanceof ProjectComponentIdentifier) {
+            return LayersIndex.APPLICATION;
+        }
+        if (component instanceof ModuleComponentIdentifier
+                && ((ModuleComponentIdentifier) component).getVersion().endsWith("-SNAPSHOT")) {
+            return LayersIndex.SNAPSHOT_DEPENDENCIES;
+        }
+        return LayersIndex.DEPENDENCIES;
+    }
+
+    /**
+     * Configures the spec of the project's own classes and resources, which go to the
+     * root of the jar or, with the nested layout, to {@code SOLON-INF/classes/}, along
+     * with their {@code META-INF} so that the launcher's class loader finds it. The
+     * content of the dependency jars is not part of the spec: it is streamed into the jar
+     * by {@link SolonJarCopyAction}.
+     *
+     * @param bootInfSpec the spec to configure
+     */
+    private void configureBootInfSpec(CopySpec bootInfSpec) {
+        bootInfSpec.into(callTo(this::classesLocation), fromCallTo(this::classpathDirectories));
 
         this.support.moveModuleInfoToRoot(bootInfSpec);
-        moveMetaInfToRoot(bootInfSpec);
+    }
+
+    private String classesLocation() {
+        return (getLayout().get() == JarLayout.NESTED) ? JarLauncher.CLASSES_LOCATION : "";
     }
 
 
@@ -82,14 +453,50 @@ public abstract class SolonJar extends Jar implements SolonArchive {
         return classpathEntries(File::isDirectory);
     }
 
-    private Iterable<File> classpathFiles() {
-        return classpathEntries(File::isFile);
+    /**
+     * Returns the zip files of the classpath, classified by the type of their resolved
+     * artifact or, for those whose type is not known, by their header.
+     *
+     * @return the dependency jars
+     */
+    private List<File> classpathDependencies() {
+        List<File> dependencies = new ArrayList<>();
+        for (File file : classpathEntries(File::isFile)) {
+            if (this.resolvedDependencies.isKnownZip(file) || getZipFileDetector().get().isZip(file)) {
+                dependencies.add(file);
+            }
+        }
+        return dependencies;
     }
 
     private Iterable<File> classpathEntries(Spec<File> filter) {
         return (this.classpath != null) ? this.classpath.filter(filter) : Collections.emptyList();
     }
 
+    @Override
+    public AbstractCopyTask include(Spec<FileTreeElement> includeSpec) {
+        this.dependencyEntrySpecs.include(includeSpec);
+        return super.include(includeSpec);
+    }
+
+    @Override
+    public AbstractCopyTask include(Closure includeSpec) {
+        this.dependencyEntrySpecs.include(includeSpec);
+        return super.include(includeSpec);
+    }
+
+    @Override
+    public AbstractCopyTask exclude(Spec<FileTreeElement> excludeSpec) {
+        this.dependencyEntrySpecs.exclude(excludeSpec);
+        return super.exclude(excludeSpec);
+    }
+
+    @Override
+    public AbstractCopyTask exclude(Closure excludeSpec) {
+        this.dependencyEntrySpecs.exclude(excludeSpec);
+        return super.exclude(excludeSpec);
+    }
+
     @Override
     public FileCollection getClasspath() {
         return this.classpath;
@@ -98,27 +505,18 @@ public abstract class SolonJar extends Jar implements SolonArchive {
     @Override
     public void classpath(Object... classpath) {
         FileCollection existingClasspath = this.classpath;
-        this.classpath = getProject().files((existingClasspath != null) ? existingClasspath : Collections.emptyList(), classpath);
+        this.classpath = getObjectFactory().fileCollection()
+                .from((existingClasspath != null) ? existingClasspath : Collections.emptyList(), classpath);
     }
 
     @Override
     public void setClasspath(Object classpath) {
-        this.classpath = getProject().files(classpath);
+        this.classpath = getObjectFactory().fileCollection().from(classpath);
     }
 
     @Override
     public void setClasspath(FileCollection classpath) {
-        this.classpath = getProject().files(classpath);
-    }
-
-    private void moveMetaInfToRoot(CopySpec spec) {
-        spec.eachFile((file) -> {
-            String path = file.getRelativeSourcePath().getPathString();
-            if (path.startsWith("META-INF/") && !path.equals("META-INF/aop.xml") && !path.endsWith(".kotlin_module")
-                    && !path.startsWith("META-INF/services/")) {
-                this.support.moveToRoot(file);
-            }
-        });
+        this.classpath = getObjectFactory().fileCollection().from(classpath);
     }
 
     /**
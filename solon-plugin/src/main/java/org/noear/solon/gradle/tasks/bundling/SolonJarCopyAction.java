@@ -0,0 +1,1199 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.file.FileCopyDetails;
+import org.gradle.api.file.FilePermissions;
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.file.RelativePath;
+import org.gradle.api.internal.file.copy.CopyAction;
+import org.gradle.api.internal.file.copy.CopyActionProcessingStream;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.specs.Specs;
+import org.gradle.api.tasks.WorkResult;
+import org.gradle.api.tasks.WorkResults;
+import org.noear.solon.gradle.loader.JarLauncher;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+/**
+ * A {@link CopyAction} that streams the content of a {@link SolonJar} into the archive.
+ * <p>
+ * The manifest, classes and resources of the project are written first, in the order of
+ * the task's copy spec. The first entry with a given name wins, so the project's own
+ * classes and resources take precedence over those of its dependencies. Later entries
+ * with the same name are dropped if their content is the same, and are otherwise handled
+ * as per the {@link DuplicateEntryPolicy}.
+ * <p>
+ * With the {@link JarLayout#FLAT flat layout}, the project's files are followed by the
+ * entries of each dependency jar, in classpath order. Dependency entries are copied from
+ * the {@link DependencyEntryCache}, which holds each dependency in the form in which its
+ * entries are written, so runs of them are copied with their local headers rather than
+ * entry by entry. Their classes are transformed by the {@link ClassTransformation}, if
+ * any, as they are cached, and those that a {@link ClassShrinker} finds unreachable are
+ * left out. A jar with the flat layout also contains the launcher's classes if it is
+ * launched by the launcher, and ends with its {@link PackageIndexWriter package index}.
+ * <p>
+ * With the {@link JarLayout#NESTED nested layout}, the project's files are followed by
+ * the launcher's classes, the dependency jars, which are stored unmodified, and the
+ * launcher's indexes.
+ * <p>
+ * The project's files and the merged entries are stored or deflated as per the
+ * {@link CompressionPolicy}. Those that are small enough are read into memory so that
+ * they can be deflated in parallel. Those of the stored {@link EntryGroup groups}, and
+ * the native libraries of the dependencies if they are one of the groups, are stored
+ * and aligned.
+ * <p>
+ * Entries that an {@link EntryMerger} can merge, such as service files, are collected
+ * from all sources and written once, merged, after the others.
+ * <p>
+ * When a jar with the flat layout has an entry order, such as the order in which a
+ * training run loaded its classes, the entries that it lists are written first,
+ * contiguously and in that order, after the manifest and the launcher's classes, so that
+ * they are read sequentially at startup. The project's other files are held back until
+ * the listed entries are written, unless they are too large to be held in memory.
+ * <p>
+ * Once the jar is written, its entries are attributed to their sources in the
+ * {@link ArchiveComposition}.
+ */
+final class SolonJarCopyAction implements CopyAction {
+
+    static final int DEFAULT_FILE_MODE = 0644;
+
+    static final int DEFAULT_DIRECTORY_MODE = 0755;
+
+    private static final Logger logger = Logging.getLogger(SolonJarCopyAction.class);
+
+    private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+
+    private static final String PROJECT_SOURCE = "the project";
+
+    private static final String LOADER_SOURCE = "the launcher";
+
+    private static final long MAXIMUM_IN_MEMORY_SIZE = 16 * 1024 * 1024;
+
+    private final File output;
+
+    private final boolean preserveFileTimestamps;
+
+    private final CompressionPolicy compressionPolicy;
+
+    private final JarLayout layout;
+
+    private final boolean packageIndex;
+
+    private final boolean launcher;
+
+    private final List<File> dependencies;
+
+    private final Spec<FileTreeElement> dependencyEntryFilter;
+
+    private final Map<File, String> dependencyLayers;
+
+    private final LayersIndex layersIndex;
+
+    private final List<EntryMerger> mergers;
+
+    private final DuplicateEntries duplicates;
+
+    private final ArchiveComposition composition;
+
+    private final File dependencyCacheDirectory;
+
+    private final File extractedEntriesDirectory;
+
+    private final ClassShrinker shrinker;
+
+    private final List<String> entryOrder;
+
+    private final Set<String> orderedNames;
+
+    private final ClassTransformation classTransformation;
+
+    private final List<ProjectEntry> heldProjectEntries = new ArrayList<>();
+
+    private final Map<String, File> orderedDependencyEntries = new HashMap<>();
+
+    private final Map<String, String> sources = new HashMap<>();
+
+    private final Map<String, MergedEntry> mergedEntries = new LinkedHashMap<>();
+
+    private SolonJarCopyAction(Builder builder) {
+        this.output = builder.output;
+        this.preserveFileTimestamps = builder.preserveFileTimestamps;
+        this.compressionPolicy = builder.compressionPolicy;
+        this.layout = builder.layout;
+        this.packageIndex = builder.packageIndex && builder.layout == JarLayout.FLAT;
+        this.launcher = builder.launcher;
+        this.dependencies = new ArrayList<>(builder.dependencies);
+        this.dependencyEntryFilter = builder.dependencyEntryFilter;
+        this.dependencyLayers = builder.dependencyLayers;
+        this.layersIndex = (builder.dependencyLayers != null) ? new LayersIndex() : null;
+        this.mergers = new ArrayList<>(builder.mergers);
+        this.duplicates = builder.duplicates;
+        this.composition = builder.composition;
+        this.dependencyCacheDirectory = (builder.temporaryDirectory != null)
+                ? new File(builder.temporaryDirectory, "dependencies") : null;
+        this.extractedEntriesDirectory = (builder.temporaryDirectory != null)
+                ? new File(builder.temporaryDirectory, "entries") : null;
+        boolean flat = builder.layout == JarLayout.FLAT;
+        this.shrinker = flat ? builder.shrinker : null;
+        this.entryOrder = flat ? new ArrayList<>(builder.entryOrder) : Collections.emptyList();
+        this.orderedNames = new HashSet<>(this.entryOrder);
+        this.classTransformation = flat ? builder.classTransformation : null;
+    }
+
+    /**
+     * Returns a builder of a copy action that writes the given jar file. Unless
+     * configured otherwise, the jar has the {@link JarLayout#FLAT flat layout}, no
+     * dependencies, no package index, no layers index and no mergers, and is not launched
+     * by the launcher.
+     *
+     * @param output the jar file to write
+     * @param compressionPolicy the compression of the project's files and merged entries
+     * @param duplicates the duplicate entries
+     * @param composition the composition of the jar
+     * @return the builder
+     */
+    static Builder builder(File output, CompressionPolicy compressionPolicy, DuplicateEntries duplicates,
+                           ArchiveComposition composition) {
+        return new Builder(output, compressionPolicy, duplicates, composition);
+    }
+
+    @Override
+    public WorkResult execute(CopyActionProcessingStream stream) {
+        try (SolonJarWriter writer = new SolonJarWriter(this.output, true, this.compressionPolicy.getLevel(),
+                this.compressionPolicy.getThreads())) {
+            if (this.layout == JarLayout.NESTED) {
+                DirectoryIndex directoryIndex = new DirectoryIndex();
+                long start = System.nanoTime();
+                stream.process((details) -> {
+                    writeProjectEntry(writer, new ProjectEntry(details, getDosTime(details.getLastModified())));
+                    addToDirectoryIndex(directoryIndex, details);
+                });
+                this.composition.addTime(PROJECT_SOURCE, System.nanoTime() - start);
+                writeLoaderClasses(writer);
+                writeNestedDependencies(writer, directoryIndex);
+            }
+            else {
+                long start = System.nanoTime();
+                stream.process((details) -> {
+                    addToShrinker(details);
+                    ProjectEntry entry = new ProjectEntry(details, getDosTime(details.getLastModified()));
+                    if (isHeldBack(entry)) {
+                        this.heldProjectEntries.add(entry.read());
+                    }
+                    else {
+                        writeProjectEntry(writer, entry);
+                    }
+                });
+                this.composition.addTime(PROJECT_SOURCE, System.nanoTime() - start);
+                if (this.launcher) {
+                    writeLoaderClasses(writer);
+                }
+                DependencyEntryCache cache = null;
+                Map<File, File> cachedDependencies = new LinkedHashMap<>();
+                if (!this.dependencies.isEmpty()) {
+                    cache = new DependencyEntryCache(this.dependencyCacheDirectory,
+                            this.compressionPolicy.getCompression(), this.preserveFileTimestamps,
+                            this.classTransformation);
+                    for (File dependency : this.dependencies) {
+                        long dependencyStart = System.nanoTime();
+                        cachedDependencies.put(dependency, cache.get(dependency));
+                        this.composition.addTime(this.composition.getSource(dependency),
+                                System.nanoTime() - dependencyStart);
+                        if (this.classTransformation != null) {
+                            this.classTransformation.addResult(this.composition.getSource(dependency),
+                                    cache.getTransformationResult(dependency));
+                        }
+                    }
+                    if (this.shrinker != null) {
+                        this.shrinker.shrink(cachedDependencies);
+                    }
+                }
+                writeOrderedEntries(writer, cachedDependencies);
+                start = System.nanoTime();
+                for (ProjectEntry entry : this.heldProjectEntries) {
+                    if (!entry.ordered) {
+                        writeProjectEntry(writer, entry);
+                    }
+                }
+                this.composition.addTime(PROJECT_SOURCE, System.nanoTime() - start);
+                for (Map.Entry<File, File> dependency : cachedDependencies.entrySet()) {
+                    long dependencyStart = System.nanoTime();
+                    writeDependency(writer, dependency.getKey(), dependency.getValue());
+                    this.composition.addTime(this.composition.getSource(dependency.getKey()),
+                            System.nanoTime() - dependencyStart);
+                }
+                if (cache != null) {
+                    cache.retainUsed();
+                }
+            }
+            writeMergedEntries(writer);
+            if (this.packageIndex) {
+                addToLayer(JarLauncher.PACKAGE_INDEX, LayersIndex.APPLICATION);
+            }
+            writeLayersIndex(writer);
+            if (this.packageIndex) {
+                writePackageIndex(writer);
+            }
+        }
+        catch (IOException ex) {
+            throw new GradleException("Failed to create jar file '" + this.output + "'", ex);
+        }
+        finally {
+            deleteExtractedEntries();
+        }
+        try {
+            this.composition.analyze(this.output, this.sources);
+        }
+        catch (IOException ex) {
+            throw new GradleException("Failed to read the composition of jar file '" + this.output + "'", ex);
+        }
+        // Every report is written before a size budget or a conflict fails the build
+        this.duplicates.writeReport();
+        if (this.shrinker != null) {
+            this.shrinker.writeReport();
+        }
+        if (this.classTransformation != null) {
+            this.classTransformation.writeReport();
+        }
+        this.composition.finish();
+        this.duplicates.finish();
+        return WorkResults.didWork(true);
+    }
+
+    /**
+     * Deletes the dependency entries that were extracted for the specs of the task's
+     * {@link #dependencyEntryFilter filter}.
+     */
+    private void deleteExtractedEntries() {
+        if (this.extractedEntriesDirectory == null || !this.extractedEntriesDirectory.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(this.extractedEntriesDirectory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+        catch (IOException ex) {
+            logger.debug("Failed to delete '{}'", this.extractedEntriesDirectory, ex);
+        }
+    }
+
+    private void writeProjectEntry(SolonJarWriter writer, ProjectEntry entry) {
+        String name = entry.name;
+        int dosTime = entry.dosTime;
+        int mode = entry.mode;
+        try {
+            if (entry.directory) {
+                writer.writeDirectory(name + "/", dosTime, mode);
+            }
+            else if (getMerger(name) != null) {
+                addMergedContent(name, PROJECT_SOURCE, dosTime, mode, getProjectLayer(name), entry.content);
+            }
+            else if (writer.contains(name)) {
+                CRC32 crc = new CRC32();
+                entry.content.writeTo(new CrcOutputStream(crc));
+                addDuplicate(writer, name, crc.getValue(), entry.size, PROJECT_SOURCE);
+            }
+            else if (this.compressionPolicy.isInStoredGroup(name, entry.size, true)) {
+                writeStoredProjectEntry(writer, entry, this.compressionPolicy.getAlignment(entry.size));
+            }
+            else if (this.compressionPolicy.isStored(name)) {
+                writeStoredProjectEntry(writer, entry, 1);
+            }
+            else if (entry.size <= MAXIMUM_IN_MEMORY_SIZE) {
+                if (writer.writeDeflatedFile(name, dosTime, mode, entry.getBytes())) {
+                    addWritten(name, PROJECT_SOURCE, getProjectLayer(name));
+                }
+            }
+            else if (writer.writeDeflatedFile(name, dosTime, mode, entry.content)) {
+                addWritten(name, PROJECT_SOURCE, getProjectLayer(name));
+            }
+        }
+        catch (IOException ex) {
+            throw new GradleException("Failed to add '" + name + "' to jar file '" + this.output + "'", ex);
+        }
+    }
+
+    /**
+     * Returns whether the given project entry is held back to be written with the other
+     * entries of the {@link #entryOrder}. Only the entries that the order lists are held
+     * back, other than the manifest and files that are too large to be held in memory,
+     * which are written as they come.
+     *
+     * @param entry the project entry
+     * @return whether the entry is held back
+     */
+    private boolean isHeldBack(ProjectEntry entry) {
+        return !entry.directory && this.orderedNames.contains(entry.name) && !entry.name.equals(MANIFEST_NAME)
+                && entry.size <= MAXIMUM_IN_MEMORY_SIZE;
+    }
+
+    private void writeOrderedEntries(SolonJarWriter writer, Map<File, File> cachedDependencies) throws IOException {
+        if (this.entryOrder.isEmpty()) {
+            return;
+        }
+        Map<String, ProjectEntry> projectEntries = new HashMap<>();
+        for (ProjectEntry entry : this.heldProjectEntries) {
+            projectEntries.putIfAbsent(entry.name, entry);
+        }
+        List<DependencyJar> jars = new ArrayList<>();
+        try {
+            Map<String, OrderedDependencyEntry> dependencyEntries = new HashMap<>();
+            for (Map.Entry<File, File> dependency : cachedDependencies.entrySet()) {
+                DependencyJar jar = DependencyJar.open(dependency.getValue());
+                jars.add(jar);
+                for (DependencyJar.Entry entry : jar.getEntries()) {
+                    if (this.orderedNames.contains(entry.getName())) {
+                        dependencyEntries.putIfAbsent(entry.getName(),
+                                new OrderedDependencyEntry(dependency.getKey(), jar, entry));
+                    }
+                }
+            }
+            int ordered = 0;
+            for (String name : this.entryOrder) {
+                if (writer.contains(name) || getMerger(name) != null) {
+                    continue;
+                }
+                ProjectEntry projectEntry = projectEntries.get(name);
+                if (projectEntry != null) {
+                    writeProjectEntry(writer, projectEntry);
+                    projectEntry.ordered = true;
+                    ordered++;
+                }
+                else if (writeOrderedDependencyEntry(writer, dependencyEntries.get(name))) {
+                    ordered++;
+                }
+            }
+            logger.info("Wrote {} of the {} entries of the entry order first", ordered, this.entryOrder.size());
+        }
+        finally {
+            for (DependencyJar jar : jars) {
+                jar.close();
+            }
+        }
+    }
+
+    private boolean writeOrderedDependencyEntry(SolonJarWriter writer, OrderedDependencyEntry ordered)
+            throws IOException {
+        if (ordered == null) {
+            return false;
+        }
+        DependencyJar.Entry entry = ordered.entry;
+        String name = entry.getName();
+        // Entries that are excluded, removed or aligned are left to the dependency's own pass
+        if (entry.isDirectory() || !this.dependencyEntryFilter.isSatisfiedBy(
+                new DependencyEntryElement(ordered.jar, entry, this.extractedEntriesDirectory))
+                || (this.shrinker != null && this.shrinker.isRemoved(ordered.dependency, name))
+                || this.compressionPolicy.isInStoredGroup(name, entry.getSize(), false)) {
+            return false;
+        }
+        int mode = (entry.getUnixMode() != -1) ? entry.getUnixMode() : DEFAULT_FILE_MODE;
+        if (!writer.writeRawEntry(name, ordered.jar, entry, entry.getDosTime(), mode)) {
+            return false;
+        }
+        addWritten(name, this.composition.getSource(ordered.dependency), getDependencyLayer(ordered.dependency));
+        this.orderedDependencyEntries.put(name, ordered.dependency);
+        return true;
+    }
+
+    private void addToShrinker(FileCopyDetails details) {
+        String name = details.getRelativePath().getPathString();
+        if (this.shrinker != null && !details.isDirectory() && this.shrinker.isRootSource(name)) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream((int) Math.min(details.getSize(),
+                    MAXIMUM_IN_MEMORY_SIZE));
+            details.copyTo(content);
+            this.shrinker.addProjectEntry(name, content.toByteArray());
+        }
+    }
+
+    private void writeStoredProjectEntry(SolonJarWriter writer, ProjectEntry entry, int alignment)
+            throws IOException {
+        CRC32 crc = new CRC32();
+        entry.content.writeTo(new CrcOutputStream(crc));
+        if (writer.writeStoredFile(entry.name, entry.dosTime, entry.mode, crc.getValue(), entry.size, entry.content,
+                alignment)) {
+            addWritten(entry.name, PROJECT_SOURCE, getProjectLayer(entry.name));
+        }
+    }
+
+    private void addToDirectoryIndex(DirectoryIndex directoryIndex, FileCopyDetails details) {
+        String name = details.getRelativePath().getPathString() + (details.isDirectory() ? "/" : "");
+        if (name.startsWith(JarLauncher.CLASSES_LOCATION) && name.length() > JarLauncher.CLASSES_LOCATION.length()) {
+            directoryIndex.add(0, name.substring(JarLauncher.CLASSES_LOCATION.length()));
+        }
+    }
+
+    private void writeLoaderClasses(SolonJarWriter writer) throws IOException {
+        String prefix = JarLauncher.class.getPackage().getName().replace('.', '/') + "/";
+        File location = getLoaderLocation();
+        if (location.isDirectory()) {
+            SortedMap<String, File> classes = new TreeMap<>();
+            File[] files = new File(location, prefix).listFiles((file) -> file.getName().endsWith(".class"));
+            for (File file : (files != null) ? files : new File[0]) {
+                classes.put(prefix + file.getName(), file);
+            }
+            for (Map.Entry<String, File> entry : classes.entrySet()) {
+                writer.writeDeflatedFile(entry.getKey(), getDosTime(entry.getValue().lastModified()),
+                        DEFAULT_FILE_MODE, (output) -> Files.copy(entry.getValue().toPath(), output));
+                addWritten(entry.getKey(), LOADER_SOURCE, LayersIndex.DEPENDENCIES);
+            }
+            return;
+        }
+        try (JarFile jarFile = new JarFile(location)) {
+            SortedMap<String, JarEntry> classes = new TreeMap<>();
+            for (JarEntry entry : Collections.list(jarFile.entries())) {
+                String name = entry.getName();
+                if (name.startsWith(prefix) && name.indexOf('/', prefix.length()) == -1 && name.endsWith(".class")) {
+                    classes.put(name, entry);
+                }
+            }
+            for (Map.Entry<String, JarEntry> entry : classes.entrySet()) {
+                writer.writeDeflatedFile(entry.getKey(), getDosTime(entry.getValue().getTime()), DEFAULT_FILE_MODE,
+                        (output) -> copy(jarFile.getInputStream(entry.getValue()), output));
+                addWritten(entry.getKey(), LOADER_SOURCE, LayersIndex.DEPENDENCIES);
+            }
+        }
+    }
+
+    private File getLoaderLocation() {
+        try {
+            return new File(JarLauncher.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        }
+        catch (URISyntaxException ex) {
+            throw new IllegalStateException("Unable to locate " + JarLauncher.class.getName(), ex);
+        }
+    }
+
+    private void writeNestedDependencies(SolonJarWriter writer, DirectoryIndex directoryIndex) throws IOException {
+        List<String> classPath = new ArrayList<>();
+        classPath.add(JarLauncher.CLASSES_LOCATION);
+        for (File dependency : this.dependencies) {
+            long start = System.nanoTime();
+            String location = getLibLocation(writer, dependency);
+            writer.writeStoredFile(location, getDosTime(dependency.lastModified()), DEFAULT_FILE_MODE, dependency);
+            addWritten(location, this.composition.getSource(dependency), getDependencyLayer(dependency));
+            try (DependencyJar jar = DependencyJar.open(dependency)) {
+                for (DependencyJar.Entry entry : jar.getEntries()) {
+                    directoryIndex.add(classPath.size(), entry.getName());
+                }
+            }
+            classPath.add(location);
+            this.composition.addTime(this.composition.getSource(dependency), System.nanoTime() - start);
+        }
+        int dosTime = SolonJarWriter.CONSTANT_DOS_TIME;
+        writer.writeDeflatedFile(JarLauncher.CLASSPATH_INDEX, dosTime, DEFAULT_FILE_MODE, (output) -> {
+            for (String location : classPath) {
+                output.write((location + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        writer.writeDeflatedFile(JarLauncher.DIRECTORY_INDEX, dosTime, DEFAULT_FILE_MODE, directoryIndex::writeTo);
+        addToLayer(JarLauncher.CLASSPATH_INDEX, LayersIndex.APPLICATION);
+        addToLayer(JarLauncher.DIRECTORY_INDEX, LayersIndex.APPLICATION);
+    }
+
+    private void writeMergedEntries(SolonJarWriter writer) throws IOException {
+        for (Map.Entry<String, MergedEntry> entry : this.mergedEntries.entrySet()) {
+            String name = entry.getKey();
+            MergedEntry mergedEntry = entry.getValue();
+            byte[] content = merge(name, mergedEntry);
+            boolean written;
+            if (this.compressionPolicy.isStored(name)) {
+                CRC32 crc = new CRC32();
+                crc.update(content);
+                written = writer.writeStoredFile(name, mergedEntry.dosTime, mergedEntry.mode, crc.getValue(),
+                        content.length, (output) -> output.write(content));
+            }
+            else {
+                written = writer.writeDeflatedFile(name, mergedEntry.dosTime, mergedEntry.mode, content);
+            }
+            if (written) {
+                addWritten(name, mergedEntry.sources.get(0), mergedEntry.layer);
+            }
+        }
+    }
+
+    private byte[] merge(String name, MergedEntry entry) throws IOException {
+        List<byte[]> contents = entry.contents;
+        byte[] first = contents.get(0);
+        boolean identical = true;
+        for (int i = 1; i < contents.size() && identical; i++) {
+            identical = Arrays.equals(first, contents.get(i));
+        }
+        byte[] merged = identical ? null : getMerger(name).merge(name, contents);
+        if (merged != null) {
+            this.duplicates.merged(name, entry.sources);
+            return merged;
+        }
+        for (int i = 1; i < contents.size(); i++) {
+            if (Arrays.equals(first, contents.get(i))) {
+                this.duplicates.identical(name, entry.sources.get(0), entry.sources.get(i));
+            }
+            else {
+                this.duplicates.conflict(name, entry.sources.get(0), entry.sources.get(i));
+            }
+        }
+        return first;
+    }
+
+    private EntryMerger getMerger(String name) {
+        for (EntryMerger merger : this.mergers) {
+            if (merger.canMerge(name)) {
+                return merger;
+            }
+        }
+        return null;
+    }
+
+    private void addMergedContent(String name, String source, int dosTime, int mode, String layer,
+                                  SolonJarWriter.EntryContent content) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        content.writeTo(output);
+        this.mergedEntries.computeIfAbsent(name, (key) -> new MergedEntry(dosTime, mode))
+                .add(source, output.toByteArray(), layer);
+    }
+
+    private void addDuplicate(SolonJarWriter writer, String name, long crc, long size, String source) {
+        String kept = this.sources.get(name);
+        this.composition.addDropped(source);
+        if (writer.containsContent(name, crc, size)) {
+            this.duplicates.identical(name, kept, source);
+        }
+        else {
+            this.duplicates.conflict(name, kept, source);
+        }
+    }
+
+    private void addWritten(String name, String source, String layer) {
+        this.sources.put(name, source);
+        addToLayer(name, layer);
+    }
+
+    private void writeLayersIndex(SolonJarWriter writer) throws IOException {
+        if (this.layersIndex != null) {
+            addToLayer(JarLauncher.LAYERS_INDEX, LayersIndex.APPLICATION);
+            writer.writeDeflatedFile(JarLauncher.LAYERS_INDEX, SolonJarWriter.CONSTANT_DOS_TIME, DEFAULT_FILE_MODE,
+                    this.layersIndex::writeTo);
+        }
+    }
+
+    private void writePackageIndex(SolonJarWriter writer) throws IOException {
+        PackageIndexWriter index = new PackageIndexWriter();
+        for (String name : writer.getNames()) {
+            index.add(name);
+        }
+        index.add(JarLauncher.PACKAGE_INDEX);
+        writer.writeDeflatedFile(JarLauncher.PACKAGE_INDEX, SolonJarWriter.CONSTANT_DOS_TIME, DEFAULT_FILE_MODE,
+                index::writeTo);
+    }
+
+    private void addToLayer(String name, String layer) {
+        if (this.layersIndex != null) {
+            this.layersIndex.add(name, layer);
+        }
+    }
+
+    private String getProjectLayer(String name) {
+        return (name.endsWith(".class") || name.equals(MANIFEST_NAME)) ? LayersIndex.APPLICATION
+                : LayersIndex.RESOURCES;
+    }
+
+    private String getDependencyLayer(File dependency) {
+        String layer = (this.dependencyLayers != null) ? this.dependencyLayers.get(dependency) : null;
+        return (layer != null) ? layer : LayersIndex.DEPENDENCIES;
+    }
+
+    private String getLibLocation(SolonJarWriter writer, File dependency) {
+        String name = dependency.getName();
+        int extension = name.lastIndexOf('.');
+        String baseName = (extension != -1) ? name.substring(0, extension) : name;
+        String extensionName = (extension != -1) ? name.substring(extension) : "";
+        String location = JarLauncher.LIB_LOCATION + name;
+        int suffix = 2;
+        while (writer.contains(location)) {
+            location = JarLauncher.LIB_LOCATION + baseName + "-" + suffix++ + extensionName;
+        }
+        if (suffix > 2) {
+            logger.info("Storing '{}' as '{}' as another dependency has the same name", dependency, location);
+        }
+        return location;
+    }
+
+    private static void copy(InputStream input, OutputStream output) throws IOException {
+        try (InputStream in = input) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private void writeDependency(SolonJarWriter writer, File dependency, File cachedDependency)
+            throws IOException {
+        String source = this.composition.getSource(dependency);
+        String layer = getDependencyLayer(dependency);
+        try (DependencyJar jar = DependencyJar.open(cachedDependency)) {
+            List<DependencyJar.Entry> run = new ArrayList<>();
+            for (DependencyJar.Entry entry : jar.getEntries()) {
+                String name = entry.getName();
+                boolean queued = false;
+                if (!this.dependencyEntryFilter.isSatisfiedBy(
+                        new DependencyEntryElement(jar, entry, this.extractedEntriesDirectory))) {
+                    logger.debug("Excluded '{}' of '{}'", name, dependency);
+                }
+                else if (this.shrinker != null && this.shrinker.isRemoved(dependency, name)) {
+                    logger.debug("Removed unreachable '{}' of '{}'", name, dependency);
+                }
+                else if (dependency.equals(this.orderedDependencyEntries.get(name))) {
+                    logger.debug("'{}' of '{}' was written in the entry order", name, dependency);
+                }
+                else if (getMerger(name) != null) {
+                    addMergedContent(name, source, entry.getDosTime(), entry.getUnixMode(), layer,
+                            (output) -> jar.copyTo(entry, output));
+                }
+                else if (writer.contains(name)) {
+                    addDuplicate(writer, name, entry.getCrc(), entry.getSize(), source);
+                }
+                else if (this.compressionPolicy.isInStoredGroup(name, entry.getSize(), false)) {
+                    writeRun(writer, jar, run, source, layer);
+                    writeStoredDependencyEntry(writer, jar, entry, source, layer);
+                }
+                else {
+                    run.add(entry);
+                    queued = true;
+                }
+                if (!queued) {
+                    writeRun(writer, jar, run, source, layer);
+                }
+            }
+            writeRun(writer, jar, run, source, layer);
+        }
+        catch (ZipException ex) {
+            throw new GradleException("Failed to copy the content of '" + dependency + "' to jar file '"
+                    + this.output + "'", ex);
+        }
+    }
+
+    private void writeStoredDependencyEntry(SolonJarWriter writer, DependencyJar jar, DependencyJar.Entry entry,
+                                            String source, String layer) throws IOException {
+        int mode = (entry.getUnixMode() != -1) ? entry.getUnixMode() : DEFAULT_FILE_MODE;
+        if (writer.writeStoredFile(entry.getName(), entry.getDosTime(), mode, entry.getCrc(), entry.getSize(),
+                (output) -> jar.copyTo(entry, output), this.compressionPolicy.getAlignment(entry.getSize()))) {
+            addWritten(entry.getName(), source, layer);
+        }
+    }
+
+    private void writeRun(SolonJarWriter writer, DependencyJar jar, List<DependencyJar.Entry> run, String source,
+                          String layer) throws IOException {
+        if (run.isEmpty()) {
+            return;
+        }
+        writer.writeSplicedEntries(jar, run);
+        for (DependencyJar.Entry entry : run) {
+            addWritten(entry.getName(), source, layer);
+        }
+        run.clear();
+    }
+
+    private int getDosTime(long lastModified) {
+        return this.preserveFileTimestamps ? SolonJarWriter.toDosTime(lastModified)
+                : SolonJarWriter.CONSTANT_DOS_TIME;
+    }
+
+    /**
+     * Builder of a {@link SolonJarCopyAction}.
+     */
+    static final class Builder {
+
+        private final File output;
+
+        private final CompressionPolicy compressionPolicy;
+
+        private final DuplicateEntries duplicates;
+
+        private final ArchiveComposition composition;
+
+        private boolean preserveFileTimestamps = true;
+
+        private JarLayout layout = JarLayout.FLAT;
+
+        private boolean packageIndex;
+
+        private boolean launcher;
+
+        private List<File> dependencies = Collections.emptyList();
+
+        private Spec<FileTreeElement> dependencyEntryFilter = Specs.satisfyAll();
+
+        private Map<File, String> dependencyLayers;
+
+        private List<EntryMerger> mergers = Collections.emptyList();
+
+        private File temporaryDirectory;
+
+        private ClassShrinker shrinker;
+
+        private List<String> entryOrder = Collections.emptyList();
+
+        private ClassTransformation classTransformation;
+
+        private Builder(File output, CompressionPolicy compressionPolicy, DuplicateEntries duplicates,
+                        ArchiveComposition composition) {
+            this.output = output;
+            this.compressionPolicy = compressionPolicy;
+            this.duplicates = duplicates;
+            this.composition = composition;
+        }
+
+        /**
+         * Sets whether the timestamps of the files are preserved. Defaults to
+         * {@code true}.
+         *
+         * @param preserveFileTimestamps whether to preserve the timestamps of the files
+         * @return this builder
+         */
+        Builder preserveFileTimestamps(boolean preserveFileTimestamps) {
+            this.preserveFileTimestamps = preserveFileTimestamps;
+            return this;
+        }
+
+        /**
+         * Sets the layout of the jar. Defaults to {@link JarLayout#FLAT}.
+         *
+         * @param layout the layout of the jar
+         * @return this builder
+         */
+        Builder layout(JarLayout layout) {
+            this.layout = layout;
+            return this;
+        }
+
+        /**
+         * Sets whether a package index is written, for the flat layout.
+         *
+         * @param packageIndex whether to write a package index
+         * @return this builder
+         */
+        Builder packageIndex(boolean packageIndex) {
+            this.packageIndex = packageIndex;
+            return this;
+        }
+
+        /**
+         * Sets whether the jar is launched by the launcher, for the flat layout.
+         *
+         * @param launcher whether the jar is launched by the launcher
+         * @return this builder
+         */
+        Builder launcher(boolean launcher) {
+            this.launcher = launcher;
+            return this;
+        }
+
+        /**
+         * Sets the dependency jars, along with the filter of their entries, for the flat
+         * layout, and the directory in which the copy action keeps its working files,
+         * such as the {@link DependencyEntryCache}.
+         *
+         * @param dependencies the dependency jars in classpath order
+         * @param dependencyEntryFilter the filter of the entries of the dependency jars
+         * @param temporaryDirectory the directory of the working files
+         * @return this builder
+         */
+        Builder dependencies(List<File> dependencies, Spec<FileTreeElement> dependencyEntryFilter,
+                             File temporaryDirectory) {
+            this.dependencies = dependencies;
+            this.dependencyEntryFilter = dependencyEntryFilter;
+            this.temporaryDirectory = temporaryDirectory;
+            return this;
+        }
+
+        /**
+         * Sets the layer of each dependency jar, which makes the jar layered.
+         *
+         * @param dependencyLayers the layer of each dependency jar, or {@code null} if the
+         * jar should not be layered
+         * @return this builder
+         */
+        Builder dependencyLayers(Map<File, String> dependencyLayers) {
+            this.dependencyLayers = dependencyLayers;
+            return this;
+        }
+
+        /**
+         * Sets the mergers of entries with the same name.
+         *
+         * @param mergers the mergers
+         * @return this builder
+         */
+        Builder mergers(List<EntryMerger> mergers) {
+            this.mergers = mergers;
+            return this;
+        }
+
+        /**
+         * Sets the shrinker of the dependencies, for the flat layout.
+         *
+         * @param shrinker the shrinker, or {@code null} if the dependencies should not be
+         * shrunk
+         * @return this builder
+         */
+        Builder shrinker(ClassShrinker shrinker) {
+            this.shrinker = shrinker;
+            return this;
+        }
+
+        /**
+         * Sets the names of the entries to write contiguously and in order, after the
+         * other project entries and before those of the dependencies, for the flat layout.
+         *
+         * @param entryOrder the names of the entries, or an empty list
+         * @return this builder
+         */
+        Builder entryOrder(List<String> entryOrder) {
+            this.entryOrder = entryOrder;
+            return this;
+        }
+
+        /**
+         * Sets the transformation of the classes of the dependencies, for the flat
+         * layout.
+         *
+         * @param classTransformation the transformation, or {@code null} if the classes
+         * should not be transformed
+         * @return this builder
+         */
+        Builder classTransformation(ClassTransformation classTransformation) {
+            this.classTransformation = classTransformation;
+            return this;
+        }
+
+        /**
+         * Builds the copy action.
+         *
+         * @return the copy action
+         */
+        SolonJarCopyAction build() {
+            return new SolonJarCopyAction(this);
+        }
+
+    }
+
+    /**
+     * The contents of the entries with the same name that an {@link EntryMerger} may
+     * merge. The merged entry has the date, time and mode of the first entry, and the
+     * layer of the entry that is the most likely to change.
+     */
+    private static final class MergedEntry {
+
+        private final int dosTime;
+
+        private final int mode;
+
+        private final List<String> sources = new ArrayList<>();
+
+        private final List<byte[]> contents = new ArrayList<>();
+
+        private String layer;
+
+        MergedEntry(int dosTime, int mode) {
+            this.dosTime = dosTime;
+            this.mode = mode;
+        }
+
+        void add(String source, byte[] content, String layer) {
+            this.sources.add(source);
+            this.contents.add(content);
+            if (this.layer == null || LayersIndex.LAYERS.indexOf(layer) > LayersIndex.LAYERS.indexOf(this.layer)) {
+                this.layer = layer;
+            }
+        }
+
+    }
+
+    /**
+     * A file or directory of the project, from the task's copy spec. The content of a file
+     * is either read from the spec when it is written or, once {@link #read() read}, held
+     * in memory.
+     */
+    private static final class ProjectEntry {
+
+        private final String name;
+
+        private final boolean directory;
+
+        private final int dosTime;
+
+        private final int mode;
+
+        private final long size;
+
+        private final SolonJarWriter.EntryContent content;
+
+        private final byte[] bytes;
+
+        private boolean ordered;
+
+        ProjectEntry(FileCopyDetails details, int dosTime) {
+            this(details.getRelativePath().getPathString(), details.isDirectory(), dosTime,
+                    details.getPermissions().toUnixNumeric(), details.isDirectory() ? 0 : details.getSize(),
+                    details::copyTo, null);
+        }
+
+        private ProjectEntry(String name, boolean directory, int dosTime, int mode, long size,
+                             SolonJarWriter.EntryContent content, byte[] bytes) {
+            this.name = name;
+            this.directory = directory;
+            this.dosTime = dosTime;
+            this.mode = mode;
+            this.size = size;
+            this.content = content;
+            this.bytes = bytes;
+        }
+
+        byte[] getBytes() throws IOException {
+            if (this.bytes != null) {
+                return this.bytes;
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream((int) this.size);
+            this.content.writeTo(output);
+            return output.toByteArray();
+        }
+
+        /**
+         * Returns a copy of this entry whose content is held in memory, as the content of
+         * the copy spec can only be read while it is processed.
+         *
+         * @return the entry with its content in memory
+         */
+        ProjectEntry read() {
+            try {
+                byte[] bytes = getBytes();
+                return new ProjectEntry(this.name, false, this.dosTime, this.mode, bytes.length,
+                        (output) -> output.write(bytes), bytes);
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+    }
+
+    /**
+     * The first entry with a name of the entry order in the dependencies.
+     */
+    private static final class OrderedDependencyEntry {
+
+        private final File dependency;
+
+        private final DependencyJar jar;
+
+        private final DependencyJar.Entry entry;
+
+        OrderedDependencyEntry(File dependency, DependencyJar jar, DependencyJar.Entry entry) {
+            this.dependency = dependency;
+            this.jar = jar;
+            this.entry = entry;
+        }
+
+    }
+
+    /**
+     * An {@link OutputStream} that only computes the CRC-32 of what is written to it.
+     */
+    private static final class CrcOutputStream extends OutputStream {
+
+        private final CRC32 crc;
+
+        CrcOutputStream(CRC32 crc) {
+            this.crc = crc;
+        }
+
+        @Override
+        public void write(int b) {
+            this.crc.update(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            this.crc.update(bytes, offset, length);
+        }
+
+    }
+
+    /**
+     * A {@link FileTreeElement} of a dependency entry, so that the task's include and
+     * exclude patterns and specs can be applied to it. Its content is read from the
+     * dependency jar and, only if its {@link #getFile() file} is needed, extracted to the
+     * given directory.
+     */
+    private static final class DependencyEntryElement implements FileTreeElement {
+
+        private final DependencyJar jar;
+
+        private final DependencyJar.Entry entry;
+
+        private final File extractedEntriesDirectory;
+
+        private final RelativePath relativePath;
+
+        private File file;
+
+        DependencyEntryElement(DependencyJar jar, DependencyJar.Entry entry, File extractedEntriesDirectory) {
+            this.jar = jar;
+            this.entry = entry;
+            this.extractedEntriesDirectory = extractedEntriesDirectory;
+            String name = entry.getName();
+            this.relativePath = RelativePath.parse(!entry.isDirectory(),
+                    entry.isDirectory() ? name.substring(0, name.length() - 1) : name);
+        }
+
+        @Override
+        public File getFile() {
+            if (this.file == null) {
+                File file = new File(this.extractedEntriesDirectory, this.relativePath.getPathString());
+                if (!file.toPath().normalize().startsWith(this.extractedEntriesDirectory.toPath().normalize())) {
+                    throw new GradleException("Entry '" + this.entry.getName() + "' of '" + this.jar.getFile()
+                            + "' is outside of the jar");
+                }
+                copyTo(file);
+                this.file = file;
+            }
+            return this.file;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return this.entry.isDirectory();
+        }
+
+        @Override
+        public long getLastModified() {
+            return SolonJarWriter.toJavaTime(this.entry.getDosTime());
+        }
+
+        @Override
+        public long getSize() {
+            return this.entry.getSize();
+        }
+
+        @Override
+        public InputStream open() {
+            if (this.entry.isDirectory()) {
+                throw new UnsupportedOperationException("Cannot open directory '" + this.entry.getName() + "'");
+            }
+            try {
+                return this.jar.openStream(this.entry);
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        public void copyTo(OutputStream output) {
+            try {
+                this.jar.copyTo(this.entry, output);
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        public boolean copyTo(File target) {
+            try {
+                if (this.entry.isDirectory()) {
+                    Files.createDirectories(target.toPath());
+                }
+                else {
+                    Files.createDirectories(target.toPath().getParent());
+                    try (InputStream input = open()) {
+                        Files.copy(input, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                target.setLastModified(getLastModified());
+                return true;
+            }
+            catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        public String getName() {
+            return this.relativePath.getLastName();
+        }
+
+        @Override
+        public String getPath() {
+            return this.relativePath.getPathString();
+        }
+
+        @Override
+        public RelativePath getRelativePath() {
+            return this.relativePath;
+        }
+
+        // Not an override, as Gradle 9 no longer declares it, but still required by Gradle 8
+        public int getMode() {
+            return getPermissions().toUnixNumeric();
+        }
+
+        @Override
+        public FilePermissions getPermissions() {
+            int mode = this.entry.getUnixMode();
+            if (mode != -1) {
+                return new UnixFilePermissions(mode);
+            }
+            return new UnixFilePermissions(this.entry.isDirectory() ? DEFAULT_DIRECTORY_MODE : DEFAULT_FILE_MODE);
+        }
+
+    }
+
+}
@@ -0,0 +1,902 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Writes the entries of a {@link SolonJar} straight to a {@link FileChannel}.
+ * <p>
+ * Entries of the project are deflated as they are written. Entries of dependency jars
+ * are copied with the data they already have in the jar, so they are neither inflated
+ * nor deflated again, and runs of them can be {@link #writeSplicedEntries spliced} in a
+ * single copy. Stored entries can be aligned, with an extra field that pads their local
+ * header.
+ * <p>
+ * Files whose content is in memory can be deflated on a pool of threads. They are
+ * queued, along with the directories that are written after them, and written in the
+ * order in which they were added once their deflated data is ready, so the archive is
+ * the same whatever the number of threads.
+ * <p>
+ * An entry is written at most once. Later entries with the name of an entry that has
+ * already been written are skipped. The CRC-32 and size of each file are kept so that a
+ * skipped entry can be compared with the one that was written.
+ */
+final class SolonJarWriter implements Closeable {
+
+    /**
+     * The date and time of entries whose timestamps are not preserved, as used by
+     * Gradle for reproducible archives: 1980-02-01 00:00 in MS-DOS format.
+     */
+    static final int CONSTANT_DOS_TIME = (2 << 21) | (1 << 16);
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int VERSION_MADE_BY_UNIX = (3 << 8) | 20;
+
+    private static final int VERSION_NEEDED = 20;
+
+    private static final int VERSION_NEEDED_ZIP64 = 45;
+
+    private static final int DATA_DESCRIPTOR_FLAG = 0x8;
+
+    private static final int UTF8_FLAG = 0x800;
+
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private static final int UNIX_FILE_TYPE = 0100000;
+
+    private static final int UNIX_DIRECTORY_TYPE = 040000;
+
+    private static final int MS_DOS_DIRECTORY_ATTRIBUTE = 0x10;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int ALIGNMENT_EXTRA_ID = 0xD935;
+
+    private static final int ALIGNMENT_EXTRA_SIZE = 6;
+
+    private static final int PENDING_ENTRIES_PER_THREAD = 16;
+
+    private static final long MAXIMUM_PENDING_BYTES = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private final byte[] deflateBuffer = new byte[BUFFER_SIZE];
+
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream(64 * 1024);
+
+    private final Set<String> names = new HashSet<>();
+
+    private final Map<String, Checksum> checksums = new HashMap<>();
+
+    private final int level;
+
+    private final Deflater deflater;
+
+    private final CRC32 crc = new CRC32();
+
+    private final OutputStream deflatingStream = new DeflatingOutputStream();
+
+    private final OutputStream storingStream = new StoringOutputStream();
+
+    private final boolean parentDirectories;
+
+    private final ExecutorService executor;
+
+    private final int maximumPendingEntries;
+
+    private final Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
+
+    private final List<Deflater> workerDeflaters = Collections.synchronizedList(new ArrayList<>());
+
+    private final ThreadLocal<Deflater> workerDeflater;
+
+    private long pendingBytes;
+
+    private long position;
+
+    private long entryCount;
+
+    SolonJarWriter(File file) throws IOException {
+        this(file, true);
+    }
+
+    SolonJarWriter(File file, boolean parentDirectories) throws IOException {
+        this(file, parentDirectories, Deflater.DEFAULT_COMPRESSION, 1);
+    }
+
+    /**
+     * Creates a new writer.
+     *
+     * @param file the file to write
+     * @param parentDirectories whether to write an entry for the parent directories of
+     * each entry that is written. Without them, the file entries of the archive are
+     * consecutive so that they can be {@link #writeSplicedEntries spliced} into another
+     * archive.
+     * @param level the level of deflation
+     * @param threads the number of threads that deflate the files whose content is in
+     * memory, or {@code 1} to deflate them as they are written
+     * @throws IOException if the file cannot be opened
+     */
+    SolonJarWriter(File file, boolean parentDirectories, int level, int threads) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.parentDirectories = parentDirectories;
+        this.level = level;
+        this.deflater = new Deflater(level, true);
+        this.executor = (threads > 1) ? Executors.newFixedThreadPool(threads, new DeflaterThreadFactory()) : null;
+        this.maximumPendingEntries = threads * PENDING_ENTRIES_PER_THREAD;
+        this.workerDeflater = ThreadLocal.withInitial(() -> {
+            Deflater deflater = new Deflater(this.level, true);
+            this.workerDeflaters.add(deflater);
+            return deflater;
+        });
+    }
+
+    /**
+     * Returns whether an entry with the given name has already been written.
+     *
+     * @param name the name of the entry
+     * @return {@code true} if the entry has been written
+     */
+    boolean contains(String name) {
+        return this.names.contains(name);
+    }
+
+    /**
+     * Returns the names of the entries that have been written, or that will be written
+     * when the writer is closed.
+     *
+     * @return the names of the entries
+     */
+    Set<String> getNames() {
+        return Collections.unmodifiableSet(this.names);
+    }
+
+    /**
+     * Returns whether a file with the given name has been written with the given CRC-32
+     * and size.
+     *
+     * @param name the name of the file
+     * @param crc the CRC-32 of the content
+     * @param size the size of the content
+     * @return {@code true} if the file has been written with that content
+     */
+    boolean containsContent(String name, long crc, long size) {
+        Checksum checksum = this.checksums.get(name);
+        return checksum != null && checksum.crc == crc && checksum.size == size;
+    }
+
+    /**
+     * Writes a directory entry, along with any of its parents that have not been written
+     * yet.
+     *
+     * @param name the name of the directory, ending with {@code /}
+     * @param dosTime the date and time of the entry in MS-DOS format
+     * @param mode the Unix mode of the entry
+     * @return {@code true} if the entry was written
+     * @throws IOException if the entry cannot be written
+     */
+    boolean writeDirectory(String name, int dosTime, int mode) throws IOException {
+        if (contains(name)) {
+            return false;
+        }
+        writeParentDirectories(name, dosTime);
+        this.names.add(name);
+        if (this.pendingEntries.isEmpty()) {
+            writeDirectoryEntry(name, dosTime, mode);
+        }
+        else {
+            this.pendingEntries.add(new PendingEntry(name, dosTime, mode, 0, 0, null));
+        }
+        return true;
+    }
+
+    private void writeDirectoryEntry(String name, int dosTime, int mode) throws IOException {
+        byte[] encodedName = encodeName(name);
+        long offset = this.position;
+        writeLocalFileHeader(encodedName, 0, DependencyJar.STORED, dosTime, 0, 0, 0);
+        writeCentralDirectoryRecord(encodedName, 0, DependencyJar.STORED, dosTime, 0, 0, 0,
+                (UNIX_DIRECTORY_TYPE | mode) << 16 | MS_DOS_DIRECTORY_ATTRIBUTE, offset);
+    }
+
+    /**
+     * Writes a file entry whose content, which is in memory, is deflated, on one of the
+     * writer's threads if it has more than one. The entry may be written after this
+     * method returns, but before any entry that is added after it.
+     *
+     * @param name the name of the entry
+     * @param dosTime the date and time of the entry in MS-DOS format
+     * @param mode the Unix mode of the entry
+     * @param content the content of the entry
+     * @return {@code true} if the entry was written
+     * @throws IOException if the entry cannot be written
+     */
+    boolean writeDeflatedFile(String name, int dosTime, int mode, byte[] content) throws IOException {
+        if (contains(name)) {
+            return false;
+        }
+        writeParentDirectories(name, dosTime);
+        this.names.add(name);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        this.checksums.put(name, new Checksum(crc.getValue(), content.length));
+        if (this.executor == null) {
+            writeDeflatedEntry(name, dosTime, mode, crc.getValue(), content.length,
+                    deflate(this.deflater, this.deflateBuffer, content));
+            return true;
+        }
+        Future<byte[]> deflated = this.executor
+                .submit(() -> deflate(this.workerDeflater.get(), new byte[BUFFER_SIZE], content));
+        this.pendingEntries.add(new PendingEntry(name, dosTime, mode, crc.getValue(), content.length, deflated));
+        this.pendingBytes += content.length;
+        while (this.pendingEntries.size() > this.maximumPendingEntries || this.pendingBytes > MAXIMUM_PENDING_BYTES) {
+            writePendingEntry();
+        }
+        return true;
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] buffer, byte[] content) {
+        deflater.reset();
+        deflater.setInput(content);
+        deflater.finish();
+        ByteArrayOutputStream output = new ByteArrayOutputStream(content.length / 2 + 64);
+        while (!deflater.finished()) {
+            output.write(buffer, 0, deflater.deflate(buffer));
+        }
+        return output.toByteArray();
+    }
+
+    private void writeDeflatedEntry(String name, int dosTime, int mode, long crc, long size, byte[] deflated)
+            throws IOException {
+        checkSize(name, Math.max(size, deflated.length));
+        byte[] encodedName = encodeName(name);
+        long offset = this.position;
+        writeLocalFileHeader(encodedName, 0, DependencyJar.DEFLATED, dosTime, crc, deflated.length, size);
+        write(deflated, 0, deflated.length);
+        writeCentralDirectoryRecord(encodedName, 0, DependencyJar.DEFLATED, dosTime, crc, deflated.length, size,
+                (UNIX_FILE_TYPE | mode) << 16, offset);
+    }
+
+    private void writePendingEntries() throws IOException {
+        while (!this.pendingEntries.isEmpty()) {
+            writePendingEntry();
+        }
+    }
+
+    private void writePendingEntry() throws IOException {
+        PendingEntry entry = this.pendingEntries.remove();
+        if (entry.deflated == null) {
+            writeDirectoryEntry(entry.name, entry.dosTime, entry.mode);
+            return;
+        }
+        byte[] deflated;
+        try {
+            deflated = entry.deflated.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while deflating '" + entry.name + "'", ex);
+        }
+        catch (ExecutionException ex) {
+            throw new IOException("Failed to deflate '" + entry.name + "'", ex.getCause());
+        }
+        this.pendingBytes -= entry.size;
+        writeDeflatedEntry(entry.name, entry.dosTime, entry.mode, entry.crc, entry.size, deflated);
+    }
+
+    /**
+     * Writes a file entry whose content is deflated as it is written. As the size and CRC
+     * of the content are not known up front, they follow the data in a data descriptor.
+     *
+     * @param name the name of the entry
+     * @param dosTime the date and time of the entry in MS-DOS format
+     * @param mode the Unix mode of the entry
+     * @param content the content of the entry
+     * @return {@code true} if the entry was written
+     * @throws IOException if the entry cannot be written
+     */
+    boolean writeDeflatedFile(String name, int dosTime, int mode, EntryContent content) throws IOException {
+        if (contains(name)) {
+            return false;
+        }
+        writePendingEntries();
+        writeParentDirectories(name, dosTime);
+        this.names.add(name);
+        byte[] encodedName = encodeName(name);
+        long offset = this.position;
+        int flags = DATA_DESCRIPTOR_FLAG;
+        writeLocalFileHeader(encodedName, flags, DependencyJar.DEFLATED, dosTime, 0, 0, 0);
+        long dataStart = this.position;
+        this.crc.reset();
+        this.deflater.reset();
+        content.writeTo(this.deflatingStream);
+        this.deflater.finish();
+        while (!this.deflater.finished()) {
+            deflate();
+        }
+        long compressedSize = this.position - dataStart;
+        long size = this.deflater.getBytesRead();
+        long crc = this.crc.getValue();
+        checkSize(name, Math.max(size, compressedSize));
+        ensureCapacity(16);
+        this.buffer.putInt(DATA_DESCRIPTOR_SIGNATURE).putInt((int) crc).putInt((int) compressedSize)
+                .putInt((int) size);
+        this.position += 16;
+        writeCentralDirectoryRecord(encodedName, flags, DependencyJar.DEFLATED, dosTime, crc, compressedSize, size,
+                (UNIX_FILE_TYPE | mode) << 16, offset);
+        this.checksums.put(name, new Checksum(crc, size));
+        return true;
+    }
+
+    /**
+     * Writes a file entry that is stored uncompressed, whose size and CRC are known up
+     * front.
+     *
+     * @param name the name of the entry
+     * @param dosTime the date and time of the entry in MS-DOS format
+     * @param mode the Unix mode of the entry
+     * @param crc the CRC-32 of the content
+     * @param size the size of the content
+     * @param content the content of the entry
+     * @return {@code true} if the entry was written
+     * @throws IOException if the entry cannot be written
+     */
+    boolean writeStoredFile(String name, int dosTime, int mode, long crc, long size, EntryContent content)
+            throws IOException {
+        return writeStoredFile(name, dosTime, mode, crc, size, content, 1);
+    }
+
+    /**
+     * Writes a file entry that is stored uncompressed, whose size and CRC are known up
+     * front, with its data aligned to a multiple of the given alignment from the start
+     * of the archive. The local header is padded with an extra field, as {@code zipalign}
+     * does, so that the data can be mapped in place.
+     *
+     * @param name the name of the entry
+     * @param dosTime the date and time of the entry in MS-DOS format
+     * @param mode the Unix mode of the entry
+     * @param crc the CRC-32 of the content
+     * @param size the size of the content
+     * @param content the content of the entry
+     * @param alignment the alignment of the data, or {@code 1}
+     * @return {@code true} if the entry was written
+     * @throws IOException if the entry cannot be written
+     */
+    boolean writeStoredFile(String name, int dosTime, int mode, long crc, long size, EntryContent content,
+                            int alignment) throws IOException {
+        if (contains(name)) {
+            return false;
+        }
+        checkSize(name, size);
+        writePendingEntries();
+        writeParentDirectories(name, dosTime);
+        this.names.add(name);
+        byte[] encodedName = encodeName(name);
+        long offset = this.position;
+        writeLocalFileHeader(encodedName, 0, DependencyJar.STORED, dosTime, crc, size, size, alignment);
+        long dataStart = this.position;
+        content.writeTo(this.storingStream);
+        if (this.position - dataStart != size) {
+            throw new ZipException("Content of '" + name + "' does not have the expected size of " + size);
+        }
+        writeCentralDirectoryRecord(encodedName, 0, DependencyJar.STORED, dosTime, crc, size, size,
+                (UNIX_FILE_TYPE | mode) << 16, offset);
+        this.checksums.put(name, new Checksum(crc, size));
+        return true;
+    }
+
+    /**
+     * Writes a file entry that is stored uncompressed, with the content of the given
+     * file. The file is read twice: once for its CRC and once to transfer its content.
+     *
+     * @param name the name of the entry
+     * @param dosTime the date and time of the entry in MS-DOS format
+     * @param mode the Unix mode of the entry
+     * @param file the file
+     * @return {@code true} if the entry was written
+     * @throws IOException if the entry cannot be written
+     */
+    boolean writeStoredFile(String name, int dosTime, int mode, File file) throws IOException {
+        if (contains(name)) {
+            return false;
+        }
+        writePendingEntries();
+        try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = source.size();
+            checkSize(name, size);
+            this.crc.reset();
+            ByteBuffer crcBuffer = ByteBuffer.wrap(this.deflateBuffer);
+            long position = 0;
+            while (position < size) {
+                crcBuffer.clear();
+                int read = source.read(crcBuffer, position);
+                if (read < 0) {
+                    throw new ZipException("Unexpected end of '" + file + "'");
+                }
+                this.crc.update(this.deflateBuffer, 0, read);
+                position += read;
+            }
+            writeParentDirectories(name, dosTime);
+            this.names.add(name);
+            byte[] encodedName = encodeName(name);
+            long offset = this.position;
+            long crc = this.crc.getValue();
+            writeLocalFileHeader(encodedName, 0, DependencyJar.STORED, dosTime, crc, size, size);
+            flush();
+            position = 0;
+            while (position < size) {
+                long transferred = source.transferTo(position, size - position, this.channel);
+                if (transferred <= 0) {
+                    throw new ZipException("Unexpected end of '" + file + "'");
+                }
+                position += transferred;
+            }
+            this.position += size;
+            writeCentralDirectoryRecord(encodedName, 0, DependencyJar.STORED, dosTime, crc, size, size,
+                    (UNIX_FILE_TYPE | mode) << 16, offset);
+            this.checksums.put(name, new Checksum(crc, size));
+        }
+        return true;
+    }
+
+    /**
+     * Writes an entry of a dependency jar by copying its data as it is stored in the
+     * jar.
+     *
+     * @param name the name of the entry in the archive that is written
+     * @param jar the jar that contains the entry
+     * @param entry the entry
+     * @param dosTime the date and time of the entry in MS-DOS format
+     * @param mode the Unix mode of the entry
+     * @return {@code true} if the entry was written
+     * @throws IOException if the entry cannot be written
+     */
+    boolean writeRawEntry(String name, DependencyJar jar, DependencyJar.Entry entry, int dosTime, int mode)
+            throws IOException {
+        if (contains(name)) {
+            return false;
+        }
+        checkSize(name, Math.max(entry.getSize(), entry.getCompressedSize()));
+        writePendingEntries();
+        writeParentDirectories(name, dosTime);
+        this.names.add(name);
+        byte[] encodedName = encodeName(name);
+        long offset = this.position;
+        writeLocalFileHeader(encodedName, 0, entry.getMethod(), dosTime, entry.getCrc(), entry.getCompressedSize(),
+                entry.getSize());
+        flush();
+        jar.transferRawTo(entry, this.channel);
+        this.position += entry.getCompressedSize();
+        writeCentralDirectoryRecord(encodedName, 0, entry.getMethod(), dosTime, entry.getCrc(),
+                entry.getCompressedSize(), entry.getSize(), (UNIX_FILE_TYPE | mode) << 16, offset);
+        this.checksums.put(name, new Checksum(entry.getCrc(), entry.getSize()));
+        return true;
+    }
+
+    /**
+     * Writes the given entries of a jar that was written by a writer without parent
+     * directories, by transferring their local headers and data in a single copy. The
+     * entries must be consecutive in the jar and must not have been written yet.
+     *
+     * @param jar the jar that contains the entries
+     * @param entries the entries, in the order of the jar
+     * @throws IOException if the entries cannot be written
+     */
+    void writeSplicedEntries(DependencyJar jar, List<DependencyJar.Entry> entries) throws IOException {
+        writePendingEntries();
+        for (DependencyJar.Entry entry : entries) {
+            if (contains(entry.getName())) {
+                throw new IllegalStateException("Entry '" + entry.getName() + "' has already been written");
+            }
+            writeParentDirectories(entry.getName(), entry.getDosTime());
+        }
+        long start = entries.get(0).getLocalHeaderOffset();
+        long end = jar.getDataEnd(entries.get(entries.size() - 1));
+        flush();
+        jar.transferTo(start, end - start, this.channel);
+        long offsetShift = this.position - start;
+        this.position += end - start;
+        for (DependencyJar.Entry entry : entries) {
+            String name = entry.getName();
+            this.names.add(name);
+            this.checksums.put(name, new Checksum(entry.getCrc(), entry.getSize()));
+            writeCentralDirectoryRecord(encodeName(name), 0, entry.getMethod(), entry.getDosTime(), entry.getCrc(),
+                    entry.getCompressedSize(), entry.getSize(), (UNIX_FILE_TYPE | getMode(entry)) << 16,
+                    entry.getLocalHeaderOffset() + offsetShift);
+        }
+    }
+
+    private int getMode(DependencyJar.Entry entry) {
+        int mode = entry.getUnixMode();
+        return (mode != -1) ? mode : SolonJarCopyAction.DEFAULT_FILE_MODE;
+    }
+
+    private void writeParentDirectories(String name, int dosTime) throws IOException {
+        if (!this.parentDirectories) {
+            return;
+        }
+        int end = name.lastIndexOf('/', name.length() - 2);
+        if (end > 0) {
+            String parent = name.substring(0, end + 1);
+            if (!contains(parent)) {
+                writeDirectory(parent, dosTime, SolonJarCopyAction.DEFAULT_DIRECTORY_MODE);
+            }
+        }
+    }
+
+    private void writeLocalFileHeader(byte[] name, int flags, int method, int dosTime, long crc, long compressedSize,
+                                      long size) throws IOException {
+        writeLocalFileHeader(name, flags, method, dosTime, crc, compressedSize, size, 1);
+    }
+
+    private void writeLocalFileHeader(byte[] name, int flags, int method, int dosTime, long crc, long compressedSize,
+                                      long size, int alignment) throws IOException {
+        int extraLength = 0;
+        if (alignment > 1) {
+            long dataStart = this.position + 30 + name.length + ALIGNMENT_EXTRA_SIZE;
+            extraLength = ALIGNMENT_EXTRA_SIZE + (int) ((alignment - dataStart % alignment) % alignment);
+        }
+        ensureCapacity(30 + name.length + extraLength);
+        this.buffer.putInt(LOCAL_FILE_HEADER_SIGNATURE);
+        this.buffer.putShort((short) VERSION_NEEDED);
+        this.buffer.putShort((short) (flags | nameFlags(name)));
+        this.buffer.putShort((short) method);
+        this.buffer.putInt(dosTime);
+        this.buffer.putInt((int) crc);
+        this.buffer.putInt((int) compressedSize);
+        this.buffer.putInt((int) size);
+        this.buffer.putShort((short) name.length);
+        this.buffer.putShort((short) extraLength);
+        this.buffer.put(name);
+        if (extraLength > 0) {
+            this.buffer.putShort((short) ALIGNMENT_EXTRA_ID);
+            this.buffer.putShort((short) (extraLength - 4));
+            this.buffer.putShort((short) alignment);
+            for (int i = ALIGNMENT_EXTRA_SIZE; i < extraLength; i++) {
+                this.buffer.put((byte) 0);
+            }
+        }
+        this.position += 30 + name.length + extraLength;
+    }
+
+    private void writeCentralDirectoryRecord(byte[] name, int flags, int method, int dosTime, long crc,
+                                             long compressedSize, long size, int externalAttributes, long offset) {
+        boolean zip64 = offset >= ZIP64_MAGIC;
+        ByteBuffer record = ByteBuffer.allocate(46 + name.length + (zip64 ? 12 : 0)).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(CENTRAL_DIRECTORY_SIGNATURE);
+        record.putShort((short) VERSION_MADE_BY_UNIX);
+        record.putShort((short) (zip64 ? VERSION_NEEDED_ZIP64 : VERSION_NEEDED));
+        record.putShort((short) (flags | nameFlags(name)));
+        record.putShort((short) method);
+        record.putInt(dosTime);
+        record.putInt((int) crc);
+        record.putInt((int) compressedSize);
+        record.putInt((int) size);
+        record.putShort((short) name.length);
+        record.putShort((short) (zip64 ? 12 : 0));
+        record.putShort((short) 0);
+        record.putShort((short) 0);
+        record.putShort((short) 0);
+        record.putInt(externalAttributes);
+        record.putInt((int) (zip64 ? ZIP64_MAGIC : offset));
+        record.put(name);
+        if (zip64) {
+            record.putShort((short) ZIP64_EXTRA_ID).putShort((short) 8).putLong(offset);
+        }
+        this.centralDirectory.write(record.array(), 0, record.position());
+        this.entryCount++;
+    }
+
+    private int nameFlags(byte[] name) {
+        for (byte b : name) {
+            if (b < 0) {
+                return UTF8_FLAG;
+            }
+        }
+        return 0;
+    }
+
+    private void deflate() throws IOException {
+        int length = this.deflater.deflate(this.deflateBuffer);
+        write(this.deflateBuffer, 0, length);
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!this.buffer.hasRemaining()) {
+                flush();
+            }
+            int chunk = Math.min(length, this.buffer.remaining());
+            this.buffer.put(bytes, offset, chunk);
+            this.position += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    private void ensureCapacity(int length) throws IOException {
+        if (this.buffer.remaining() < length) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    private void checkSize(String name, long size) throws ZipException {
+        if (size >= ZIP64_MAGIC) {
+            throw new ZipException("Entry '" + name + "' is too large to be written");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writePendingEntries();
+            writeEndOfCentralDirectory();
+            flush();
+        }
+        finally {
+            if (this.executor != null) {
+                this.executor.shutdownNow();
+                try {
+                    this.executor.awaitTermination(1, TimeUnit.MINUTES);
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                this.workerDeflaters.forEach(Deflater::end);
+            }
+            this.deflater.end();
+            this.channel.close();
+        }
+    }
+
+    private void writeEndOfCentralDirectory() throws IOException {
+        long directoryOffset = this.position;
+        long directorySize = this.centralDirectory.size();
+        flush();
+        this.centralDirectory.writeTo(this.storingStream);
+        boolean zip64 = this.entryCount >= 0xFFFF || directoryOffset >= ZIP64_MAGIC || directorySize >= ZIP64_MAGIC;
+        if (zip64) {
+            long zip64EndOffset = this.position;
+            ensureCapacity(56 + 20);
+            this.buffer.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            this.buffer.putLong(44);
+            this.buffer.putShort((short) VERSION_MADE_BY_UNIX);
+            this.buffer.putShort((short) VERSION_NEEDED_ZIP64);
+            this.buffer.putInt(0);
+            this.buffer.putInt(0);
+            this.buffer.putLong(this.entryCount);
+            this.buffer.putLong(this.entryCount);
+            this.buffer.putLong(directorySize);
+            this.buffer.putLong(directoryOffset);
+            this.buffer.putInt(ZIP64_LOCATOR_SIGNATURE);
+            this.buffer.putInt(0);
+            this.buffer.putLong(zip64EndOffset);
+            this.buffer.putInt(1);
+            this.position += 56 + 20;
+        }
+        ensureCapacity(22);
+        this.buffer.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        this.buffer.putShort((short) 0);
+        this.buffer.putShort((short) 0);
+        this.buffer.putShort((short) (zip64 ? 0xFFFF : this.entryCount));
+        this.buffer.putShort((short) (zip64 ? 0xFFFF : this.entryCount));
+        this.buffer.putInt((int) (zip64 ? ZIP64_MAGIC : directorySize));
+        this.buffer.putInt((int) (zip64 ? ZIP64_MAGIC : directoryOffset));
+        this.buffer.putShort((short) 0);
+        this.position += 22;
+    }
+
+    /**
+     * The content of an entry, which is written to the stream of the entry.
+     */
+    @FunctionalInterface
+    interface EntryContent {
+
+        void writeTo(OutputStream output) throws IOException;
+
+    }
+
+    /**
+     * An entry that has been added but not written yet: a directory or a file whose
+     * data is being deflated.
+     */
+    private static final class PendingEntry {
+
+        private final String name;
+
+        private final int dosTime;
+
+        private final int mode;
+
+        private final long crc;
+
+        private final long size;
+
+        private final Future<byte[]> deflated;
+
+        PendingEntry(String name, int dosTime, int mode, long crc, long size, Future<byte[]> deflated) {
+            this.name = name;
+            this.dosTime = dosTime;
+            this.mode = mode;
+            this.crc = crc;
+            this.size = size;
+            this.deflated = deflated;
+        }
+
+    }
+
+    /**
+     * The {@link ThreadFactory} of the daemon threads that deflate entries.
+     */
+    private static final class DeflaterThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "solon-jar-deflater-" + this.count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+    /**
+     * The CRC-32 and size of a file that has been written.
+     */
+    private static final class Checksum {
+
+        private final long crc;
+
+        private final long size;
+
+        Checksum(long crc, long size) {
+            this.crc = crc;
+            this.size = size;
+        }
+
+    }
+
+    /**
+     * The stream of a deflated entry.
+     */
+    private final class DeflatingOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            SolonJarWriter.this.crc.update(bytes, offset, length);
+            SolonJarWriter.this.deflater.setInput(bytes, offset, length);
+            while (!SolonJarWriter.this.deflater.needsInput()) {
+                deflate();
+            }
+        }
+
+    }
+
+    /**
+     * The stream of a stored entry.
+     */
+    private final class StoringOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            SolonJarWriter.this.write(bytes, offset, length);
+        }
+
+    }
+
+    /**
+     * Converts the given time to the MS-DOS format of zip entries, in the default time
+     * zone, with the date in the high and the time in the low 16 bits.
+     *
+     * @param time the time in milliseconds since the epoch
+     * @return the date and time in MS-DOS format
+     */
+    static int toDosTime(long time) {
+        LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        if (dateTime.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((dateTime.getYear() - 1980) << 25) | (dateTime.getMonthValue() << 21)
+                | (dateTime.getDayOfMonth() << 16) | (dateTime.getHour() << 11) | (dateTime.getMinute() << 5)
+                | (dateTime.getSecond() >> 1);
+    }
+
+    /**
+     * Converts the given date and time in the MS-DOS format of zip entries, in the
+     * default time zone, to a time in milliseconds since the epoch.
+     *
+     * @param dosTime the date and time in MS-DOS format
+     * @return the time in milliseconds since the epoch
+     */
+    static long toJavaTime(int dosTime) {
+        LocalDateTime dateTime = LocalDateTime.of(((dosTime >> 25) & 0x7F) + 1980, Math.max(1, (dosTime >> 21) & 0x0F),
+                Math.max(1, (dosTime >> 16) & 0x1F), (dosTime >> 11) & 0x1F, (dosTime >> 5) & 0x3F,
+                (dosTime << 1) & 0x3E);
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static byte[] encodeName(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * {@link EntryMerger} of the {@code META-INF/solon/*.properties} files of Solon plugins.
+ * The merged file has the properties of all files, sorted by key, and the files cannot
+ * be merged if they set the same property to different values.
+ */
+final class SolonPropertiesMerger implements EntryMerger {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String LOCATION = "META-INF/solon/";
+
+    @Override
+    public boolean canMerge(String name) {
+        return name.startsWith(LOCATION) && name.endsWith(".properties");
+    }
+
+    @Override
+    public byte[] merge(String name, List<byte[]> contents) throws IOException {
+        Map<String, String> merged = new TreeMap<>();
+        for (byte[] content : contents) {
+            Properties properties = new Properties();
+            try (InputStreamReader reader = new InputStreamReader(new ByteArrayInputStream(content),
+                    StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+            for (String key : properties.stringPropertyNames()) {
+                String value = properties.getProperty(key);
+                String existing = merged.putIfAbsent(key, value);
+                if (existing != null && !existing.equals(value)) {
+                    return null;
+                }
+            }
+        }
+        StringBuilder output = new StringBuilder();
+        for (Map.Entry<String, String> entry : merged.entrySet()) {
+            appendEscaped(output, entry.getKey(), true);
+            output.append('=');
+            appendEscaped(output, entry.getValue(), false);
+            output.append('\n');
+        }
+        return output.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void appendEscaped(StringBuilder output, String text, boolean key) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\':
+                    output.append("\\\\");
+                    break;
+                case '\n':
+                    output.append("\\n");
+                    break;
+                case '\r':
+                    output.append("\\r");
+                    break;
+                case '\t':
+                    output.append("\\t");
+                    break;
+                case '\f':
+                    output.append("\\f");
+                    break;
+                case ' ':
+                    output.append((key || i == 0) ? "\\ " : " ");
+                    break;
+                case '=':
+                case ':':
+                case '#':
+                case '!':
+                    output.append((key || i == 0) ? "\\" + c : String.valueOf(c));
+                    break;
+                default:
+                    output.append(c);
+            }
+        }
+    }
+
+}
@@ -1,12 +1,22 @@
 package org.noear.solon.gradle.tasks.bundling;
 
 import org.gradle.api.Project;
+import org.gradle.api.artifacts.result.ResolvedArtifactResult;
 import org.gradle.api.file.DuplicatesStrategy;
 import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.FileCopyDetails;
+import org.gradle.api.internal.file.copy.CopyAction;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.bundling.War;
 
+import java.io.File;
+import java.io.OutputStream;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 public abstract class SolonWar extends War implements SolonArchive {
 
@@ -16,15 +26,39 @@ public abstract class SolonWar extends War implements SolonArchive {
 
     private final Provider<Object> projectVersion;
 
+    private final ResolvedDependencies resolvedDependencies;
+
     private FileCollection providedClasspath;
 
+    private DuplicateEntries duplicateEntries;
+
+    private Map<String, FileCopyDetails> copiedEntries;
+
     public SolonWar() {
         this.support = new SolonArchiveSupport();
+        // Duplicates reach handleDuplicate, which drops or reports them
         setDuplicatesStrategy(DuplicatesStrategy.INCLUDE);
 
         Project project = getProject();
         this.projectName = project.provider(project::getName);
         this.projectVersion = project.provider(project::getVersion);
+        getDuplicateEntryPolicy().convention(DuplicateEntryPolicy.FIRST);
+        getDuplicateEntriesReport().convention(project.getLayout().getBuildDirectory()
+                .file("reports/" + getName() + "/duplicate-entries.txt"));
+        getCompositionReport().convention(project.getLayout().getBuildDirectory()
+                .file("reports/" + getName() + "/composition.json"));
+        getCompositionSummary().convention(project.getLayout().getBuildDirectory()
+                .file("reports/" + getName() + "/composition.txt"));
+        getCompressionLevel().convention(Deflater.DEFAULT_COMPRESSION);
+        getCompressionThreads().convention(Runtime.getRuntime().availableProcessors());
+        getStoredExtensions().convention(CompressionPolicy.DEFAULT_STORED_EXTENSIONS);
+        getRootSpec().eachFile(this::handleDuplicate);
+        this.resolvedDependencies = new ResolvedDependencies(project);
+    }
+
+    @Override
+    public void resolvedArtifacts(Provider<Set<ResolvedArtifactResult>> resolvedArtifacts) {
+        this.resolvedDependencies.resolvedArtifacts(resolvedArtifacts);
     }
 
     @Override
@@ -36,8 +70,100 @@ public abstract class SolonWar extends War implements SolonArchive {
                 this.projectName.get(),
                 this.projectVersion.get()
         );
-        
-        super.copy();
+        this.duplicateEntries = new DuplicateEntries(getDuplicateEntryPolicy().get(),
+                getDuplicateEntriesReport().get().getAsFile());
+        this.copiedEntries = new HashMap<>();
+        try {
+            super.copy();
+        }
+        finally {
+            this.copiedEntries = null;
+        }
+    }
+
+    /**
+     * Creates a {@link SolonJarCopyAction} that writes the war's files as they are,
+     * deflating them in parallel, storing those that are already compressed, such as the
+     * jars of {@code WEB-INF/lib}, and finishing the duplicate entries. The jars of
+     * {@code WEB-INF/lib} and {@code WEB-INF/lib-provided} are attributed to their
+     * artifacts in the composition of the war.
+     *
+     * @return the copy action
+     */
+    @Override
+    protected CopyAction createCopyAction() {
+        CompressionPolicy compressionPolicy = new CompressionPolicy(getEntryCompression(),
+                getCompressionLevel().get(), getCompressionThreads().get(), getStoredExtensions().get());
+        ArchiveComposition composition = this.support.createComposition(this);
+        addDependencyEntries(composition, getClasspath(), "WEB-INF/lib/");
+        addDependencyEntries(composition, this.providedClasspath, "WEB-INF/lib-provided/");
+        return SolonJarCopyAction.builder(getArchiveFile().get().getAsFile(), compressionPolicy,
+                        this.duplicateEntries, composition)
+                .preserveFileTimestamps(isPreserveFileTimestamps())
+                .build();
+    }
+
+    private void addDependencyEntries(ArchiveComposition composition, FileCollection classpath, String location) {
+        if (classpath == null) {
+            return;
+        }
+        for (File file : classpath) {
+            if (file.isFile()) {
+                composition.describe(file, this.resolvedDependencies.describe(file));
+                composition.addDependencyEntry(location + file.getName(), file);
+            }
+        }
+    }
+
+    /**
+     * Excludes a file whose path is the same as that of a file that has already been
+     * copied, recording whether their content is the same.
+     *
+     * @param details the file
+     */
+    private void handleDuplicate(FileCopyDetails details) {
+        if (this.copiedEntries == null) {
+            return;
+        }
+        String path = details.getRelativePath().getPathString();
+        FileCopyDetails kept = this.copiedEntries.putIfAbsent(path, details);
+        if (kept == null) {
+            return;
+        }
+        details.exclude();
+        if (kept.getSize() == details.getSize() && crc(kept) == crc(details)) {
+            this.duplicateEntries.identical(path, describe(kept), describe(details));
+        }
+        else {
+            this.duplicateEntries.conflict(path, describe(kept), describe(details));
+        }
+    }
+
+    private static long crc(FileCopyDetails details) {
+        CRC32 crc = new CRC32();
+        details.copyTo(new OutputStream() {
+
+            @Override
+            public void write(int b) {
+                crc.update(b);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                crc.update(bytes, offset, length);
+            }
+
+        });
+        return crc.getValue();
+    }
+
+    private static String describe(FileCopyDetails details) {
+        try {
+            return details.getFile().getPath();
+        }
+        catch (UnsupportedOperationException ex) {
+            return details.getPath();
+        }
     }
 
     /**
@@ -49,8 +175,8 @@ public abstract class SolonWar extends War implements SolonArchive {
      */
     public void providedClasspath(Object... classpath) {
         FileCollection existingClasspath = this.providedClasspath;
-        this.providedClasspath = getProject()
-                .files((existingClasspath != null) ? existingClasspath : Collections.emptyList(), classpath);
+        this.providedClasspath = getObjectFactory().fileCollection()
+                .from((existingClasspath != null) ? existingClasspath : Collections.emptyList(), classpath);
     }
 
 }
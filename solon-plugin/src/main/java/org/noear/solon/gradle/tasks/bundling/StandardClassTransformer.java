@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.TypePath;
+
+/**
+ * The {@link ClassTransformer ClassTransformers} that strip attributes. As enum
+ * constants, they serialize by name, so they key the cache of the transformed
+ * dependencies the same way from one build to the next.
+ */
+enum StandardClassTransformer implements ClassTransformer {
+
+    LOCAL_VARIABLES("stripLocalVariables") {
+
+        @Override
+        public ClassVisitor transform(ClassVisitor visitor) {
+            return new MethodTransformingVisitor(visitor) {
+
+                @Override
+                MethodVisitor transform(MethodVisitor visitor) {
+                    return new MethodVisitor(Opcodes.ASM9, visitor) {
+
+                        @Override
+                        public void visitLocalVariable(String name, String descriptor, String signature, Label start,
+                                                       Label end, int index) {
+                        }
+
+                        @Override
+                        public AnnotationVisitor visitLocalVariableAnnotation(int typeRef, TypePath typePath,
+                                Label[] start, Label[] end, int[] index, String descriptor, boolean visible) {
+                            return null;
+                        }
+
+                    };
+                }
+
+            };
+        }
+
+    },
+
+    SOURCE_DEBUG_EXTENSION("stripSourceDebugExtension") {
+
+        @Override
+        public ClassVisitor transform(ClassVisitor visitor) {
+            return new ClassVisitor(Opcodes.ASM9, visitor) {
+
+                @Override
+                public void visitSource(String source, String debug) {
+                    super.visitSource(source, null);
+                }
+
+            };
+        }
+
+    },
+
+    LINE_NUMBERS("stripLineNumbers") {
+
+        @Override
+        public ClassVisitor transform(ClassVisitor visitor) {
+            return new MethodTransformingVisitor(visitor) {
+
+                @Override
+                MethodVisitor transform(MethodVisitor visitor) {
+                    return new MethodVisitor(Opcodes.ASM9, visitor) {
+
+                        @Override
+                        public void visitLineNumber(int line, Label start) {
+                        }
+
+                    };
+                }
+
+            };
+        }
+
+    },
+
+    KOTLIN_METADATA("stripKotlinMetadata") {
+
+        @Override
+        public ClassVisitor transform(ClassVisitor visitor) {
+            return new ClassVisitor(Opcodes.ASM9, visitor) {
+
+                @Override
+                public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                    return KOTLIN_METADATA_DESCRIPTOR.equals(descriptor) ? null
+                            : super.visitAnnotation(descriptor, visible);
+                }
+
+            };
+        }
+
+    };
+
+    static final String KOTLIN_METADATA_DESCRIPTOR = "Lkotlin/Metadata;";
+
+    private final String name;
+
+    StandardClassTransformer(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+    /**
+     * A {@link ClassVisitor} that transforms each method of the class.
+     */
+    private abstract static class MethodTransformingVisitor extends ClassVisitor {
+
+        MethodTransformingVisitor(ClassVisitor visitor) {
+            super(Opcodes.ASM9, visitor);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                         String[] exceptions) {
+            MethodVisitor visitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+            return (visitor != null) ? transform(visitor) : null;
+        }
+
+        abstract MethodVisitor transform(MethodVisitor visitor);
+
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import org.gradle.api.file.FilePermissions;
+import org.gradle.api.file.UserClassFilePermissions;
+
+/**
+ * The {@link FilePermissions} of a Unix mode, such as the mode of an entry of a
+ * dependency jar.
+ */
+final class UnixFilePermissions implements FilePermissions {
+
+    private final int mode;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param mode the Unix mode, of which only the permission bits are used
+     */
+    UnixFilePermissions(int mode) {
+        this.mode = mode & 0777;
+    }
+
+    @Override
+    public UserClassFilePermissions getUser() {
+        return new Permissions(this.mode >> 6);
+    }
+
+    @Override
+    public UserClassFilePermissions getGroup() {
+        return new Permissions(this.mode >> 3);
+    }
+
+    @Override
+    public UserClassFilePermissions getOther() {
+        return new Permissions(this.mode);
+    }
+
+    @Override
+    public int toUnixNumeric() {
+        return this.mode;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%03o", this.mode);
+    }
+
+    /**
+     * The permissions of one class of users, from the low three bits of a mode.
+     */
+    private static final class Permissions implements UserClassFilePermissions {
+
+        private final int bits;
+
+        Permissions(int bits) {
+            this.bits = bits & 07;
+        }
+
+        @Override
+        public boolean getRead() {
+            return (this.bits & 04) != 0;
+        }
+
+        @Override
+        public boolean getWrite() {
+            return (this.bits & 02) != 0;
+        }
+
+        @Override
+        public boolean getExecute() {
+            return (this.bits & 01) != 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.bundling;
+
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link BuildService} that tells whether a file of a classpath is a zip file, from its
+ * header, for the files that the metadata of the resolved artifacts does not classify,
+ * such as those added with {@code files(...)}. The result is memoized for the duration of
+ * the build by the path, size and last modified time of the file, so each file is only
+ * read once however many tasks and projects have it on their classpath.
+ */
+public abstract class ZipFileDetector implements BuildService<BuildServiceParameters.None> {
+
+    /**
+     * The name with which the service is registered.
+     */
+    public static final String NAME = "solonZipFileDetector";
+
+    private static final byte[] ZIP_FILE_HEADER = new byte[]{'P', 'K', 3, 4};
+
+    private final Map<Key, Boolean> results = new ConcurrentHashMap<>();
+
+    /**
+     * Returns whether the given file is a zip file.
+     *
+     * @param file the file
+     * @return {@code true} if the file starts with the header of a zip file
+     */
+    public boolean isZip(File file) {
+        return this.results.computeIfAbsent(new Key(file), (key) -> readHeader(file));
+    }
+
+    private static boolean readHeader(File file) {
+        try (InputStream input = new FileInputStream(file)) {
+            for (byte headerByte : ZIP_FILE_HEADER) {
+                if (input.read() != headerByte) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * The key of a file's result, which changes when the file does.
+     */
+    private static final class Key {
+
+        private final String path;
+
+        private final long length;
+
+        private final long lastModified;
+
+        Key(File file) {
+            this.path = file.getAbsolutePath();
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return this.length == other.length && this.lastModified == other.lastModified
+                    && this.path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.path, this.length, this.lastModified);
+        }
+
+    }
+
+}
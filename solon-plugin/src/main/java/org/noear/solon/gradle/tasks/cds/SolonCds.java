@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.cds;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.Task;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.DisableCachingByDefault;
+import org.noear.solon.gradle.tasks.training.TrainingRun;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+
+/**
+ * {@link Task} that creates a dynamic class data sharing (AppCDS) archive of a
+ * {@link org.noear.solon.gradle.tasks.bundling.SolonJar}. The jar is launched in a
+ * {@link TrainingRun training run}, with {@code -XX:ArchiveClassesAtExit}. When it exits,
+ * the JVM writes the classes that it loaded to the archive, which later launches of the
+ * same jar with {@code -XX:SharedArchiveFile} map rather than load, parse and verify.
+ * <p>
+ * An archive is only used by the JVM with which it was created and for the class path
+ * from which it was created, so the archive is created with the configured toolchain and
+ * again whenever the jar changes. It should be kept next to the jar, with which it is
+ * deployed.
+ * <p>
+ * As the archive is written by an exit hook, a training run on Windows, where the
+ * application cannot be stopped gracefully, requires no ready pattern and an application
+ * that exits on its own.
+ */
+@DisableCachingByDefault(because = "The archive is specific to the location of the jar and to the JVM")
+public abstract class SolonCds extends TrainingRun {
+
+    private static final int MINIMUM_JAVA_VERSION = 13;
+
+    /**
+     * Returns the archive, by default next to the jar with the {@code .jsa} extension.
+     *
+     * @return the archive file
+     */
+    @OutputFile
+    public abstract RegularFileProperty getCdsArchiveFile();
+
+    @Override
+    protected boolean requiresExitHooks() {
+        return true;
+    }
+
+    @TaskAction
+    void createArchive() throws IOException {
+        int javaVersion = getJavaLauncher().get().getMetadata().getLanguageVersion().asInt();
+        if (javaVersion < MINIMUM_JAVA_VERSION) {
+            throw new GradleException("Dynamic class data sharing archives require Java " + MINIMUM_JAVA_VERSION
+                    + " or later but the toolchain of " + getPath() + " is Java " + javaVersion);
+        }
+        File jar = getArchiveFile().get().getAsFile();
+        File archive = getCdsArchiveFile().get().getAsFile();
+        Files.deleteIfExists(archive.toPath());
+        Files.createDirectories(archive.toPath().toAbsolutePath().getParent());
+        train(Collections.singletonList("-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath()), (line) -> false);
+        if (!archive.isFile()) {
+            throw new GradleException("The training run of " + jar + " did not create the archive " + archive
+                    + ". Run with --info for its output");
+        }
+        getLogger().lifecycle("Created class data sharing archive {}", archive);
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.training;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.Task;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.DisableCachingByDefault;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link Task} that records the order in which a
+ * {@link org.noear.solon.gradle.tasks.bundling.SolonJar} loads its classes, in a
+ * {@link TrainingRun training run} with {@code -verbose:class}. The file that it writes,
+ * with the name of the entry of each class that was loaded from the jar in load order, is
+ * an {@link org.noear.solon.gradle.tasks.bundling.SolonJar#getEntryOrder() entry order}
+ * of the jar, so that the jar that is built next has the classes that the application
+ * loads at startup first and contiguously.
+ * <p>
+ * Only the loading of classes is traced. Resources that the application reads at startup
+ * can be added to the file by hand. As the order should hold for the builds of other
+ * machines too, the file is meant to be kept under version control and recorded again
+ * when the startup of the application changes.
+ */
+@DisableCachingByDefault(because = "The order depends on the training run")
+public abstract class RecordClassLoadOrder extends TrainingRun {
+
+    /**
+     * The lines of {@code -verbose:class} with Java 9 and later, such as
+     * {@code [0.116s][info][class,load] com.example.App source: file:/app.jar}.
+     */
+    private static final Pattern UNIFIED_LOGGING_LINE = Pattern
+            .compile("\\[class,load\\s*] (\\S+) source: (\\S+)");
+
+    /**
+     * The lines of {@code -verbose:class} with Java 8, such as
+     * {@code [Loaded com.example.App from file:/app.jar]}.
+     */
+    private static final Pattern LEGACY_LINE = Pattern.compile("^\\[Loaded (\\S+) from (.+)]$");
+
+    /**
+     * Returns the file of the class load order.
+     *
+     * @return the class load order file
+     */
+    @OutputFile
+    public abstract RegularFileProperty getClassLoadOrderFile();
+
+    @TaskAction
+    void recordClassLoadOrder() throws IOException {
+        File jar = getArchiveFile().get().getAsFile();
+        File classLoadOrder = getClassLoadOrderFile().get().getAsFile();
+        Set<String> entries = Collections.synchronizedSet(new LinkedHashSet<>());
+        train(Collections.singletonList("-verbose:class"), (line) -> recordClass(line, entries));
+        List<String> lines = new ArrayList<>();
+        synchronized (entries) {
+            if (entries.isEmpty()) {
+                throw new GradleException("The training run of " + jar + " did not load any class from the jar. "
+                        + "Run with --info for its output");
+            }
+            lines.add("# The classes that " + jar.getName() + " loaded in the training run of " + getPath()
+                    + ", in load order");
+            lines.addAll(entries);
+        }
+        Files.createDirectories(classLoadOrder.toPath().toAbsolutePath().getParent());
+        Files.write(classLoadOrder.toPath(), lines, StandardCharsets.UTF_8);
+        getLogger().lifecycle("Recorded the load order of {} classes to {}", lines.size() - 1, classLoadOrder);
+    }
+
+    /**
+     * Records the class that the given line of the output reports the loading of, if it
+     * was loaded from a jar or a directory rather than from the JDK's runtime image or a
+     * class data sharing archive. Classes that were defined at runtime, such as those of
+     * lambdas, are not recorded.
+     *
+     * @param line the line of the output
+     * @param entries the names of the entries of the classes that were loaded
+     * @return whether the line reports the loading of a class
+     */
+    static boolean recordClass(String line, Set<String> entries) {
+        Matcher matcher = UNIFIED_LOGGING_LINE.matcher(line);
+        if (!matcher.find()) {
+            matcher = LEGACY_LINE.matcher(line);
+            if (!matcher.find()) {
+                return false;
+            }
+        }
+        String className = matcher.group(1);
+        String source = matcher.group(2);
+        if ((source.startsWith("file:") || source.startsWith("jar:")) && className.indexOf('/') == -1) {
+            entries.add(className.replace('.', '/') + ".class");
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tasks.training;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.Task;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.jvm.toolchain.JavaLauncher;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Base class of the {@link Task tasks} that launch a
+ * {@link org.noear.solon.gradle.tasks.bundling.SolonJar} in a training run and learn from
+ * it, for example which classes it loads. The jar runs until the application logs a line
+ * that matches the {@link #getReadyPattern() ready pattern}, at which point it is asked
+ * to stop, or until it exits on its own.
+ * <p>
+ * On Windows, a process cannot be asked to stop: it is terminated without running its
+ * exit hooks. A training run that {@link #requiresExitHooks() requires them} therefore
+ * fails up front there unless it has no ready pattern and the application exits on its
+ * own.
+ */
+public abstract class TrainingRun extends DefaultTask {
+
+    /**
+     * The default {@link #getReadyPattern() ready pattern}, which matches the line that
+     * Solon logs once the application has started.
+     */
+    public static final String DEFAULT_READY_PATTERN = "End loading elapsed=";
+
+    private static final boolean WINDOWS = System.getProperty("os.name", "")
+            .toLowerCase(Locale.ROOT)
+            .startsWith("windows");
+
+    protected TrainingRun() {
+        getReadyPattern().convention(DEFAULT_READY_PATTERN);
+        getTrainingTimeout().convention(Duration.ofMinutes(5));
+        getWorkingDirectory().convention(getProject().getLayout().getProjectDirectory());
+    }
+
+    /**
+     * Returns the jar that is run.
+     *
+     * @return the jar
+     */
+    @InputFile
+    @PathSensitive(PathSensitivity.ABSOLUTE)
+    public abstract RegularFileProperty getArchiveFile();
+
+    /**
+     * Returns the launcher of the JVM of the training run, which should be that with
+     * which the application is run. Defaults to the project's toolchain.
+     *
+     * @return the Java launcher
+     */
+    @Nested
+    public abstract Property<JavaLauncher> getJavaLauncher();
+
+    /**
+     * Returns the arguments of the JVM of the training run, such as system properties
+     * that point the application at a local configuration. Defaults to none.
+     *
+     * @return the JVM arguments
+     */
+    @Input
+    public abstract ListProperty<String> getTrainingJvmArgs();
+
+    /**
+     * Returns the arguments of the application in the training run. Defaults to none.
+     *
+     * @return the application arguments
+     */
+    @Input
+    public abstract ListProperty<String> getTrainingArgs();
+
+    /**
+     * Returns the regular expression of the line of the application's output after which
+     * the training run is stopped. Defaults to {@link #DEFAULT_READY_PATTERN}. When it is
+     * not set, the training run continues until the application exits.
+     *
+     * @return the ready pattern
+     */
+    @Input
+    @Optional
+    public abstract Property<String> getReadyPattern();
+
+    /**
+     * Returns how long the training run may take before it is stopped and the task fails.
+     * Defaults to 5 minutes.
+     *
+     * @return the timeout of the training run
+     */
+    @Internal
+    public abstract Property<Duration> getTrainingTimeout();
+
+    /**
+     * Returns the working directory of the training run. Defaults to the project
+     * directory.
+     *
+     * @return the working directory
+     */
+    @Internal
+    public abstract DirectoryProperty getWorkingDirectory();
+
+    /**
+     * Returns whether the training run relies on the exit hooks of its JVM, such as
+     * writing an archive of the classes that it loaded, which are only run when the
+     * application is stopped gracefully. Defaults to {@code false}.
+     *
+     * @return whether exit hooks are required
+     */
+    protected boolean requiresExitHooks() {
+        return false;
+    }
+
+    /**
+     * Runs the jar with the given JVM arguments, in addition to the
+     * {@link #getTrainingJvmArgs() training JVM arguments}, and passes each line of its
+     * output to the given handler.
+     *
+     * @param jvmArgs the JVM arguments of the task
+     * @param outputHandler the handler of the lines of the output, which returns whether
+     * it consumed the line, in which case it is not logged
+     * @throws IOException if the training run cannot be started
+     */
+    protected void train(List<String> jvmArgs, Predicate<String> outputHandler) throws IOException {
+        File jar = getArchiveFile().get().getAsFile();
+        if (WINDOWS && requiresExitHooks() && getReadyPattern().isPresent()) {
+            throw new GradleException("The training run of " + getPath() + " cannot be stopped gracefully on "
+                    + "Windows, where the application would be terminated without running its exit hooks. Set "
+                    + "readyPattern to null and make the application exit on its own once it has started");
+        }
+        List<String> command = new ArrayList<>();
+        command.add(getJavaLauncher().get().getExecutablePath().toString());
+        command.addAll(jvmArgs);
+        command.addAll(getTrainingJvmArgs().get());
+        command.add("-jar");
+        command.add(jar.getAbsolutePath());
+        command.addAll(getTrainingArgs().get());
+        getLogger().info("Starting the training run: {}", command);
+        Process process = new ProcessBuilder(command).directory(getWorkingDirectory().get().getAsFile())
+                .redirectErrorStream(true)
+                .start();
+        try {
+            boolean ready = train(process, outputHandler);
+            int exitCode = process.exitValue();
+            if (!ready && exitCode != 0) {
+                throw new GradleException("The training run of " + jar + " failed with exit code " + exitCode
+                        + ". Run with --info for its output");
+            }
+        }
+        finally {
+            if (process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * Runs the given training run until the application is ready, then stops it, or until
+     * it exits on its own.
+     *
+     * @param process the process of the training run
+     * @param outputHandler the handler of the lines of the output
+     * @return whether the application logged that it was ready
+     */
+    private boolean train(Process process, Predicate<String> outputHandler) {
+        String readyPattern = getReadyPattern().getOrNull();
+        Pattern pattern = (readyPattern != null) ? Pattern.compile(readyPattern) : null;
+        CountDownLatch ready = new CountDownLatch(1);
+        Thread output = new Thread(() -> readOutput(process, pattern, ready, outputHandler),
+                getName() + " output");
+        output.setDaemon(true);
+        output.start();
+        long deadline = System.nanoTime() + getTrainingTimeout().get().toNanos();
+        try {
+            while (!process.waitFor(100, TimeUnit.MILLISECONDS)) {
+                if (ready.getCount() == 0) {
+                    getLogger().info("The application is ready, stopping the training run");
+                    // Outside Windows, the JVM runs its exit hooks, such as writing an archive, after
+                    // the termination signal
+                    process.destroy();
+                    if (!process.waitFor(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)) {
+                        process.destroyForcibly();
+                        throw new GradleException("The training run did not stop within "
+                                + getTrainingTimeout().get() + ". Run with --info for its output");
+                    }
+                    break;
+                }
+                if (System.nanoTime() - deadline > 0) {
+                    throw new GradleException("The training run did not complete within "
+                            + getTrainingTimeout().get() + ". Run with --info for its output");
+                }
+            }
+            output.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while waiting for the training run", ex);
+        }
+        return ready.getCount() == 0;
+    }
+
+    private void readOutput(Process process, Pattern pattern, CountDownLatch ready,
+                            Predicate<String> outputHandler) {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), Charset.defaultCharset()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!outputHandler.test(line)) {
+                    getLogger().info(line);
+                }
+                if (pattern != null && pattern.matcher(line).find()) {
+                    ready.countDown();
+                }
+            }
+        }
+        catch (IOException ex) {
+            getLogger().debug("Failed to read the output of the training run", ex);
+        }
+    }
+
+}
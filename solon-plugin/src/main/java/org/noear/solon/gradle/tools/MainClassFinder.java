@@ -19,10 +19,20 @@ package org.noear.solon.gradle.tools;
 import org.objectweb.asm.*;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.zip.ZipException;
 
 /**
  * Finds any class with a {@code public static main} method by performing a breadth first
@@ -42,17 +52,20 @@ public abstract class MainClassFinder {
 
     private static final String MAIN_METHOD_NAME = "main";
 
-    private static final FileFilter CLASS_FILE_FILTER = MainClassFinder::isClassFile;
+    private static final byte[] MAIN_METHOD_NAME_BYTES = MAIN_METHOD_NAME.getBytes(StandardCharsets.UTF_8);
 
-    private static final FileFilter PACKAGE_DIRECTORY_FILTER = MainClassFinder::isPackageDirectory;
+    private static final byte[] MAIN_METHOD_DESCRIPTOR_BYTES = MAIN_METHOD_TYPE.getDescriptor()
+            .getBytes(StandardCharsets.UTF_8);
 
-    private static boolean isClassFile(File file) {
-        return file.isFile() && file.getName().endsWith(DOT_CLASS);
-    }
+    private static final int CLASS_FILE_BATCH_SIZE = 256;
 
-    private static boolean isPackageDirectory(File file) {
-        return file.isDirectory() && !file.getName().startsWith(".");
-    }
+    private static final BooleanSupplier NOT_CANCELLED = () -> false;
+
+    static final int NO_MAIN_METHOD = 0;
+
+    static final int MAIN_METHOD_POSSIBLE = 1;
+
+    static final int CONSTANT_POOL_INCOMPLETE = -1;
 
     /**
      * Find the main class from a given directory.
@@ -88,11 +101,107 @@ public abstract class MainClassFinder {
      * @throws IOException if the directory cannot be read
      */
     public static String findSingleMainClass(File rootDirectory, String annotationName) throws IOException {
-        SingleMainClassCallback callback = new SingleMainClassCallback(annotationName);
+        SingleMainClassCallback callback = new SingleMainClassCallback(annotationName, false);
         MainClassFinder.doWithMainClasses(rootDirectory, callback);
         return callback.getMainClassName();
     }
 
+    /**
+     * Find a single main class from the given {@code rootDirectory}, parsing class files
+     * concurrently on the given {@code pool}. Candidates are reported in the same order as
+     * a sequential scan, so the result is identical to
+     * {@link #findSingleMainClass(File, String)}.
+     *
+     * @param rootDirectory  the root directory to search
+     * @param annotationName the name of the annotation that may be present on the main
+     *                       class
+     * @param pool           the pool used to scan package directories, or {@code null} to
+     *                       scan on the calling thread
+     * @return the main class or {@code null}
+     * @throws IOException if the directory cannot be read
+     */
+    public static String findSingleMainClass(File rootDirectory, String annotationName, ForkJoinPool pool)
+            throws IOException {
+        return findSingleMainClass(rootDirectory, annotationName, SearchScope.ALL, pool, null);
+    }
+
+    /**
+     * Find a single main class within the given {@code scope} of the given
+     * {@code rootDirectory}, reusing the results recorded in the given {@code index} for
+     * class files that haven't changed since it was saved. The results for all scanned
+     * class files are recorded in the index.
+     * <p>
+     * When the scope is {@link SearchScope#isRestricted() restricted}, a main class
+     * annotated with the given {@code annotationName} ends the search.
+     *
+     * @param rootDirectory  the root directory to search
+     * @param annotationName the name of the annotation that may be present on the main
+     *                       class
+     * @param scope          the packages to search
+     * @param pool           the pool used to scan package directories, or {@code null} to
+     *                       scan on the calling thread
+     * @param index          the index of previous results, or {@code null} to parse every
+     *                       class file
+     * @return the main class or {@code null}
+     * @throws IOException if the directory cannot be read
+     */
+    public static String findSingleMainClass(File rootDirectory, String annotationName, SearchScope scope,
+                                             ForkJoinPool pool, MainClassIndex index) throws IOException {
+        return findSingleMainClass(rootDirectory, annotationName, scope, pool, index, NOT_CANCELLED);
+    }
+
+    /**
+     * Find a single main class within the given {@code scope} of the given
+     * {@code rootDirectory}, as {@link #findSingleMainClass(File, String, SearchScope,
+     * ForkJoinPool, MainClassIndex)} does, until the given {@code cancelled} condition
+     * becomes {@code true}. The condition is checked before each package directory and
+     * each class file is read.
+     *
+     * @param rootDirectory  the root directory to search
+     * @param annotationName the name of the annotation that may be present on the main
+     *                       class
+     * @param scope          the packages to search
+     * @param pool           the pool used to scan package directories, or {@code null} to
+     *                       scan on the calling thread
+     * @param index          the index of previous results, or {@code null} to parse every
+     *                       class file
+     * @param cancelled      whether the search should stop
+     * @return the main class or {@code null}
+     * @throws IOException           if the directory cannot be read
+     * @throws CancellationException if the search was stopped before it completed
+     */
+    public static String findSingleMainClass(File rootDirectory, String annotationName, SearchScope scope,
+                                             ForkJoinPool pool, MainClassIndex index, BooleanSupplier cancelled)
+            throws IOException {
+        SingleMainClassCallback callback = new SingleMainClassCallback(annotationName, scope.isRestricted());
+        MainClassFinder.doWithMainClasses(rootDirectory, callback, scope, pool, index, cancelled);
+        return callback.getMainClassName();
+    }
+
+    /**
+     * Returns whether the class with the given name in the given {@code rootDirectory}
+     * has a main method and, if an {@code annotationName} is given, is annotated with it.
+     *
+     * @param rootDirectory  the root directory containing the class
+     * @param className      the name of the class
+     * @param annotationName the name of the annotation that must be present on the class,
+     *                       or {@code null}
+     * @return {@code true} if the class exists and is a main class
+     * @throws IOException if the class file cannot be read
+     */
+    public static boolean isMainClass(File rootDirectory, String className, String annotationName)
+            throws IOException {
+        File file = new File(rootDirectory, className.replace('.', '/') + DOT_CLASS);
+        BasicFileAttributes attributes = readAttributes(file.toPath());
+        if (attributes == null || !attributes.isRegularFile()) {
+            return false;
+        }
+        MainClass mainClass = readMainClass(new ClassFile(file, attributes), rootDirectory.getAbsolutePath() + "/",
+                null);
+        return mainClass != null
+                && (annotationName == null || mainClass.getAnnotationNames().contains(annotationName));
+    }
+
     /**
      * Perform the given callback operation on all main classes from the given root
      * directory.
@@ -104,6 +213,11 @@ public abstract class MainClassFinder {
      * @throws IOException in case of I/O errors
      */
     static <T> T doWithMainClasses(File rootDirectory, MainClassCallback<T> callback) throws IOException {
+        return doWithMainClasses(rootDirectory, callback, SearchScope.ALL, null, null, NOT_CANCELLED);
+    }
+
+    private static <T> T doWithMainClasses(File rootDirectory, MainClassCallback<T> callback, SearchScope scope,
+                                           MainClassIndex index, BooleanSupplier cancelled) throws IOException {
         if (!rootDirectory.exists()) {
             return null; // nothing to do
         }
@@ -114,31 +228,133 @@ public abstract class MainClassFinder {
         Deque<File> stack = new ArrayDeque<>();
         stack.push(rootDirectory);
         while (!stack.isEmpty()) {
-            File file = stack.pop();
-            if (file.isFile()) {
-                try (InputStream inputStream = Files.newInputStream(file.toPath())) {
-                    ClassDescriptor classDescriptor = createClassDescriptor(inputStream);
-                    if (classDescriptor != null && classDescriptor.isMainMethodFound()) {
-                        String className = convertToClassName(file.getAbsolutePath(), prefix);
-                        T result = callback.doWith(new MainClass(className, classDescriptor.getAnnotationNames()));
-                        if (result != null) {
-                            return result;
-                        }
+            File directory = stack.pop();
+            String path = getRelativePath(directory, prefix);
+            if (!scope.includesDirectory(path)) {
+                continue;
+            }
+            checkCancelled(cancelled);
+            DirectoryListing listing = DirectoryListing.of(directory, scope.includesPackage(path));
+            for (ClassFile classFile : listing.getClassFiles()) {
+                checkCancelled(cancelled);
+                MainClass mainClass = readMainClass(classFile, prefix, index);
+                if (mainClass != null) {
+                    T result = callback.doWith(mainClass);
+                    if (result != null) {
+                        return result;
                     }
                 }
             }
-            if (file.isDirectory()) {
-                pushAllSorted(stack, file.listFiles(PACKAGE_DIRECTORY_FILTER));
-                pushAllSorted(stack, file.listFiles(CLASS_FILE_FILTER));
+            List<File> packageDirectories = listing.getPackageDirectories();
+            for (int i = packageDirectories.size() - 1; i >= 0; i--) {
+                stack.push(packageDirectories.get(i));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Perform the given callback operation on all main classes within the given
+     * {@code scope} of the given root directory. When a {@code pool} is given, package
+     * directories are scanned concurrently. Main classes are then passed to the callback
+     * in the same order as a sequential scan would pass them, once the scan has
+     * completed. A main class that {@link MainClassCallback#endsSearch(MainClass) ends the
+     * search} stops the scanning of every class that a sequential scan would have reached
+     * after it.
+     *
+     * @param <T>           the result type
+     * @param rootDirectory the root directory
+     * @param callback      the callback
+     * @param scope         the packages to scan
+     * @param pool          the pool to scan on, or {@code null} to scan on the calling
+     *                      thread
+     * @param index         the index of previous results, or {@code null}
+     * @param cancelled     whether the scan should stop
+     * @return the first callback result or {@code null}
+     * @throws IOException           in case of I/O errors
+     * @throws CancellationException if the scan was stopped before it completed
+     */
+    static <T> T doWithMainClasses(File rootDirectory, MainClassCallback<T> callback, SearchScope scope,
+                                   ForkJoinPool pool, MainClassIndex index, BooleanSupplier cancelled)
+            throws IOException {
+        if (pool == null) {
+            return doWithMainClasses(rootDirectory, callback, scope, index, cancelled);
+        }
+        if (!rootDirectory.exists()) {
+            return null; // nothing to do
+        }
+        if (!rootDirectory.isDirectory()) {
+            throw new IllegalArgumentException("Invalid root directory '" + rootDirectory + "'");
+        }
+        String prefix = rootDirectory.getAbsolutePath() + "/";
+        List<MainClass> mainClasses;
+        try {
+            mainClasses = pool.invoke(new DirectoryScanTask(rootDirectory, new int[0], prefix, scope, index,
+                    cancelled, new SearchEnd(callback)));
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        for (MainClass mainClass : mainClasses) {
+            T result = callback.doWith(mainClass);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private static void checkCancelled(BooleanSupplier cancelled) {
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException("Main class search was cancelled");
+        }
+    }
+
+    private static MainClass readMainClass(ClassFile classFile, String prefix, MainClassIndex index)
+            throws IOException {
+        if (index != null) {
+            return readMainClassUsingIndex(classFile, prefix, index);
+        }
+        ClassDescriptor classDescriptor = createClassDescriptor(Files.readAllBytes(classFile.getFile().toPath()));
+        if (classDescriptor != null && classDescriptor.isMainMethodFound()) {
+            String className = convertToClassName(classFile.getFile().getAbsolutePath(), prefix);
+            return new MainClass(className, classDescriptor.getAnnotationNames());
+        }
+        return null;
+    }
+
+    private static MainClass readMainClassUsingIndex(ClassFile classFile, String prefix, MainClassIndex index)
+            throws IOException {
+        String path = classFile.getFile().getAbsolutePath();
+        long lastModified = classFile.getLastModified();
+        MainClassIndex.Entry entry = index.get(path, classFile.getSize(), lastModified);
+        if (entry == null) {
+            byte[] bytes = Files.readAllBytes(classFile.getFile().toPath());
+            entry = index.get(path, lastModified, bytes);
+            if (entry == null) {
+                ClassDescriptor classDescriptor = createClassDescriptor(bytes);
+                boolean mainMethodFound = classDescriptor != null && classDescriptor.isMainMethodFound();
+                entry = index.put(path, mainMethodFound,
+                        mainMethodFound ? classDescriptor.getAnnotationNames() : Collections.emptySet(),
+                        lastModified, bytes);
             }
         }
+        if (entry.isMainMethodFound()) {
+            return new MainClass(convertToClassName(path, prefix), entry.getAnnotationNames());
+        }
         return null;
     }
 
-    private static void pushAllSorted(Deque<File> stack, File[] files) {
-        Arrays.sort(files, Comparator.comparing(File::getName));
-        for (File file : files) {
-            stack.push(file);
+    private static String getRelativePath(File directory, String prefix) {
+        String path = directory.getAbsolutePath().replace(File.separatorChar, '/');
+        return (path.length() < prefix.length()) ? "" : path.substring(prefix.length());
+    }
+
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException ex) {
+            // deleted since it was listed or not readable, as if it wasn't there
+            return null;
         }
     }
 
@@ -180,8 +396,27 @@ public abstract class MainClassFinder {
      */
     public static String findSingleMainClass(JarFile jarFile, String classesLocation, String annotationName)
             throws IOException {
-        SingleMainClassCallback callback = new SingleMainClassCallback(annotationName);
-        MainClassFinder.doWithMainClasses(jarFile, classesLocation, callback);
+        return findSingleMainClass(jarFile, classesLocation, annotationName, SearchScope.ALL);
+    }
+
+    /**
+     * Find a single main class within the given {@code scope} of a jar file. A main class
+     * annotated with an annotation with the given {@code annotationName} will be preferred
+     * over a main class with no such annotation and, when the scope is
+     * {@link SearchScope#isRestricted() restricted}, ends the search.
+     *
+     * @param jarFile         the jar file to search
+     * @param classesLocation the location within the jar containing classes
+     * @param annotationName  the name of the annotation that may be present on the main
+     *                        class
+     * @param scope           the packages to search
+     * @return the main class or {@code null}
+     * @throws IOException if the jar file cannot be read
+     */
+    public static String findSingleMainClass(JarFile jarFile, String classesLocation, String annotationName,
+                                             SearchScope scope) throws IOException {
+        SingleMainClassCallback callback = new SingleMainClassCallback(annotationName, scope.isRestricted());
+        MainClassFinder.doWithMainClasses(jarFile, classesLocation, scope, callback);
         return callback.getMainClassName();
     }
 
@@ -197,11 +432,82 @@ public abstract class MainClassFinder {
      */
     static <T> T doWithMainClasses(JarFile jarFile, String classesLocation, MainClassCallback<T> callback)
             throws IOException {
-        List<JarEntry> classEntries = getClassEntries(jarFile, classesLocation);
+        return doWithMainClasses(jarFile, classesLocation, SearchScope.ALL, callback);
+    }
+
+    /**
+     * Find a single main class within the given {@code scope} of the jar file at the
+     * given location, as {@link #findSingleMainClass(JarFile, String, String, SearchScope)}
+     * does. Rather than being opened as a {@link JarFile}, the jar is memory mapped and
+     * its class entries are only inflated as far as is needed to decide whether they may
+     * declare a main method. A jar that cannot be mapped, and any entry that cannot be
+     * read from the mapping, is read with a {@code JarFile} instead.
+     *
+     * @param jar             the jar file to search
+     * @param classesLocation the location within the jar containing classes
+     * @param annotationName  the name of the annotation that may be present on the main
+     *                        class
+     * @param scope           the packages to search
+     * @return the main class or {@code null}
+     * @throws IOException if the jar file cannot be read
+     */
+    public static String findSingleMainClassInJar(File jar, String classesLocation, String annotationName,
+                                                  SearchScope scope) throws IOException {
+        SingleMainClassCallback callback = new SingleMainClassCallback(annotationName, scope.isRestricted());
+        MainClassFinder.doWithMainClassesInJar(jar, classesLocation, scope, callback);
+        return callback.getMainClassName();
+    }
+
+    private static <T> T doWithMainClassesInJar(File jar, String classesLocation, SearchScope scope,
+                                                MainClassCallback<T> callback) throws IOException {
+        MappedJarFile mappedJarFile;
+        List<MappedJarFile.Entry> mappedEntries;
+        try {
+            mappedJarFile = MappedJarFile.open(jar);
+            mappedEntries = mappedJarFile.getClassEntries(classesLocation);
+        } catch (ZipException ex) {
+            try (JarFile jarFile = new JarFile(jar)) {
+                return doWithMainClasses(jarFile, classesLocation, scope, callback);
+            }
+        }
+        int prefixLength = (classesLocation != null) ? classesLocation.length() : 0;
+        JarFile jarFile = null;
+        try (MappedJarFile.EntryReader reader = mappedJarFile.newReader()) {
+            for (MappedJarFile.Entry entry : mappedEntries) {
+                if (!scope.includesClass(entry.getName().substring(prefixLength))) {
+                    continue;
+                }
+                ClassDescriptor classDescriptor;
+                try {
+                    classDescriptor = reader.readIfMayDeclareMainMethod(entry)
+                            ? createClassDescriptor(reader.getBytes(), reader.getLength()) : null;
+                } catch (ZipException ex) {
+                    jarFile = (jarFile != null) ? jarFile : new JarFile(jar);
+                    classDescriptor = createClassDescriptor(jarFile, entry.getName());
+                }
+                if (classDescriptor != null && classDescriptor.isMainMethodFound()) {
+                    String className = convertToClassName(entry.getName(), classesLocation);
+                    T result = callback.doWith(new MainClass(className, classDescriptor.getAnnotationNames()));
+                    if (result != null) {
+                        return result;
+                    }
+                }
+            }
+        } finally {
+            if (jarFile != null) {
+                jarFile.close();
+            }
+        }
+        return null;
+    }
+
+    private static <T> T doWithMainClasses(JarFile jarFile, String classesLocation, SearchScope scope,
+                                           MainClassCallback<T> callback) throws IOException {
+        List<JarEntry> classEntries = getClassEntries(jarFile, classesLocation, scope);
         classEntries.sort(new ClassEntryComparator());
         for (JarEntry entry : classEntries) {
-            try (InputStream inputStream = new BufferedInputStream(jarFile.getInputStream(entry))) {
-                ClassDescriptor classDescriptor = createClassDescriptor(inputStream);
+            try (InputStream inputStream = jarFile.getInputStream(entry)) {
+                ClassDescriptor classDescriptor = createClassDescriptor(inputStream, entry.getSize());
                 if (classDescriptor != null && classDescriptor.isMainMethodFound()) {
                     String className = convertToClassName(entry.getName(), classesLocation);
                     T result = callback.doWith(new MainClass(className, classDescriptor.getAnnotationNames()));
@@ -214,6 +520,23 @@ public abstract class MainClassFinder {
         return null;
     }
 
+    /**
+     * Returns the depth of the jar entry with the given name, that is the number of its
+     * {@code /} separated segments.
+     *
+     * @param name the entry name
+     * @return the depth
+     */
+    static int getDepth(String name) {
+        int depth = 1;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
     private static String convertToClassName(String name, String prefix) {
         name = name.replace('/', '.');
         name = name.replace('\\', '.');
@@ -224,45 +547,412 @@ public abstract class MainClassFinder {
         return name;
     }
 
-    private static List<JarEntry> getClassEntries(JarFile source, String classesLocation) {
+    private static List<JarEntry> getClassEntries(JarFile source, String classesLocation, SearchScope scope) {
         classesLocation = (classesLocation != null) ? classesLocation : "";
         Enumeration<JarEntry> sourceEntries = source.entries();
         List<JarEntry> classEntries = new ArrayList<>();
         while (sourceEntries.hasMoreElements()) {
             JarEntry entry = sourceEntries.nextElement();
-            if (entry.getName().startsWith(classesLocation) && entry.getName().endsWith(DOT_CLASS)) {
+            if (entry.getName().startsWith(classesLocation) && entry.getName().endsWith(DOT_CLASS)
+                    && scope.includesClass(entry.getName().substring(classesLocation.length()))) {
                 classEntries.add(entry);
             }
         }
         return classEntries;
     }
 
-    private static ClassDescriptor createClassDescriptor(InputStream inputStream) {
+    private static ClassDescriptor createClassDescriptor(JarFile jarFile, String name) throws IOException {
+        JarEntry entry = jarFile.getJarEntry(name);
+        if (entry == null) {
+            return null;
+        }
+        try (InputStream inputStream = jarFile.getInputStream(entry)) {
+            return createClassDescriptor(inputStream, entry.getSize());
+        }
+    }
+
+    private static ClassDescriptor createClassDescriptor(InputStream inputStream, long size) {
         try {
-            ClassReader classReader = new ClassReader(inputStream);
-            ClassDescriptor classDescriptor = new ClassDescriptor();
-            classReader.accept(classDescriptor, ClassReader.SKIP_CODE);
-            return classDescriptor;
+            return createClassDescriptor(readAllBytes(inputStream, size));
         } catch (IOException ex) {
             return null;
         }
     }
 
+    private static ClassDescriptor createClassDescriptor(byte[] bytes) {
+        if (!mayDeclareMainMethod(bytes, bytes.length)) {
+            return null;
+        }
+        return createClassDescriptor(bytes, bytes.length);
+    }
+
+    private static ClassDescriptor createClassDescriptor(byte[] bytes, int length) {
+        ClassReader classReader = new ClassReader(bytes, 0, length);
+        ClassDescriptor classDescriptor = new ClassDescriptor();
+        classReader.accept(classDescriptor, ClassReader.SKIP_CODE);
+        return classDescriptor;
+    }
+
+    private static byte[] readAllBytes(InputStream inputStream, long size) throws IOException {
+        byte[] bytes = new byte[(size > 0 && size < Integer.MAX_VALUE) ? (int) size : 4096];
+        int length = 0;
+        int read;
+        while ((read = inputStream.read(bytes, length, bytes.length - length)) != -1) {
+            length += read;
+            if (length == bytes.length) {
+                int next = inputStream.read();
+                if (next == -1) {
+                    return bytes;
+                }
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                bytes[length++] = (byte) next;
+            }
+        }
+        return (length == bytes.length) ? bytes : Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * Checks the constant pool of the given class file for the {@code main} name and the
+     * {@code ([Ljava/lang/String;)V} descriptor. A class without both entries cannot
+     * declare a main method, so it doesn't need to be parsed. Anything that doesn't look
+     * like a well-formed class file is left for {@link ClassReader} to deal with.
+     *
+     * @param bytes  the class file bytes
+     * @param length the number of valid bytes
+     * @return {@code false} if the class certainly has no main method
+     */
+    static boolean mayDeclareMainMethod(byte[] bytes, int length) {
+        return scanConstantPool(bytes, length) != NO_MAIN_METHOD;
+    }
+
+    /**
+     * Scans the constant pool of a possibly incomplete class file, as with
+     * {@link #mayDeclareMainMethod(byte[], int)}.
+     *
+     * @param bytes  the class file bytes read so far
+     * @param length the number of valid bytes
+     * @return {@link #NO_MAIN_METHOD}, {@link #MAIN_METHOD_POSSIBLE} or
+     * {@link #CONSTANT_POOL_INCOMPLETE} if more bytes are needed to decide
+     */
+    static int scanConstantPool(byte[] bytes, int length) {
+        if (length < 10) {
+            return CONSTANT_POOL_INCOMPLETE;
+        }
+        if (readInt(bytes, 0) != 0xCAFEBABE) {
+            return MAIN_METHOD_POSSIBLE;
+        }
+        int count = readUnsignedShort(bytes, 8);
+        int offset = 10;
+        boolean nameFound = false;
+        boolean descriptorFound = false;
+        for (int index = 1; index < count; index++) {
+            if (offset + 3 > length) {
+                return CONSTANT_POOL_INCOMPLETE;
+            }
+            switch (bytes[offset]) {
+                case 1: // Utf8
+                    int utf8Length = readUnsignedShort(bytes, offset + 1);
+                    int start = offset + 3;
+                    if (start + utf8Length > length) {
+                        return CONSTANT_POOL_INCOMPLETE;
+                    }
+                    nameFound = nameFound || regionMatches(bytes, start, utf8Length, MAIN_METHOD_NAME_BYTES);
+                    descriptorFound = descriptorFound
+                            || regionMatches(bytes, start, utf8Length, MAIN_METHOD_DESCRIPTOR_BYTES);
+                    if (nameFound && descriptorFound) {
+                        return MAIN_METHOD_POSSIBLE;
+                    }
+                    offset = start + utf8Length;
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    offset += 3;
+                    break;
+                case 15: // MethodHandle
+                    offset += 4;
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    offset += 5;
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    offset += 9;
+                    index++;
+                    break;
+                default:
+                    return MAIN_METHOD_POSSIBLE;
+            }
+        }
+        return NO_MAIN_METHOD;
+    }
+
+    private static boolean regionMatches(byte[] bytes, int offset, int length, byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[offset + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readUnsignedShort(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (readUnsignedShort(bytes, offset) << 16) | readUnsignedShort(bytes, offset + 2);
+    }
+
     private static class ClassEntryComparator implements Comparator<JarEntry> {
 
         @Override
         public int compare(JarEntry o1, JarEntry o2) {
-            Integer d1 = getDepth(o1);
-            Integer d2 = getDepth(o2);
-            int depthCompare = d1.compareTo(d2);
+            int depthCompare = Integer.compare(getDepth(o1.getName()), getDepth(o2.getName()));
             if (depthCompare != 0) {
                 return depthCompare;
             }
             return o1.getName().compareTo(o2.getName());
         }
 
-        private int getDepth(JarEntry entry) {
-            return entry.getName().split("/").length;
+    }
+
+    /**
+     * The class files and package directories of a single directory, read with one
+     * directory stream and one attribute read per entry. Both lists are in descending
+     * name order.
+     */
+    private static final class DirectoryListing {
+
+        private static final Comparator<ClassFile> CLASS_FILE_ORDER = Comparator
+                .comparing((ClassFile classFile) -> classFile.getFile().getName()).reversed();
+
+        private static final Comparator<File> PACKAGE_DIRECTORY_ORDER = Comparator.comparing(File::getName)
+                .reversed();
+
+        private final List<ClassFile> classFiles;
+
+        private final List<File> packageDirectories;
+
+        private DirectoryListing(List<ClassFile> classFiles, List<File> packageDirectories) {
+            this.classFiles = classFiles;
+            this.packageDirectories = packageDirectories;
+        }
+
+        static DirectoryListing of(File directory, boolean includeClassFiles) throws IOException {
+            List<ClassFile> classFiles = new ArrayList<>();
+            List<File> packageDirectories = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory.toPath())) {
+                for (Path entry : entries) {
+                    String name = entry.getFileName().toString();
+                    boolean classFileName = name.endsWith(DOT_CLASS);
+                    if ((!classFileName || !includeClassFiles) && name.startsWith(".")) {
+                        continue;
+                    }
+                    BasicFileAttributes attributes = readAttributes(entry);
+                    if (attributes == null) {
+                        continue;
+                    }
+                    if (attributes.isRegularFile()) {
+                        if (classFileName && includeClassFiles) {
+                            classFiles.add(new ClassFile(entry.toFile(), attributes));
+                        }
+                    } else if (attributes.isDirectory() && !name.startsWith(".")) {
+                        packageDirectories.add(entry.toFile());
+                    }
+                }
+            }
+            classFiles.sort(CLASS_FILE_ORDER);
+            packageDirectories.sort(PACKAGE_DIRECTORY_ORDER);
+            return new DirectoryListing(classFiles, packageDirectories);
+        }
+
+        List<ClassFile> getClassFiles() {
+            return this.classFiles;
+        }
+
+        List<File> getPackageDirectories() {
+            return this.packageDirectories;
+        }
+
+    }
+
+    /**
+     * A class file along with the attributes that were read when it was listed.
+     */
+    private static final class ClassFile {
+
+        private final File file;
+
+        private final long size;
+
+        private final long lastModified;
+
+        ClassFile(File file, BasicFileAttributes attributes) {
+            this.file = file;
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+        }
+
+        File getFile() {
+            return this.file;
+        }
+
+        long getSize() {
+            return this.size;
+        }
+
+        long getLastModified() {
+            return this.lastModified;
+        }
+
+    }
+
+    /**
+     * Scans a package directory: its own class files first, then each sub-package in
+     * turn. This matches the order in which the stack based scan pops entries, that is
+     * class files and sub-packages both in descending name order.
+     */
+    private static final class DirectoryScanTask extends RecursiveTask<List<MainClass>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final File directory;
+
+        private final int[] position;
+
+        private final String prefix;
+
+        private final SearchScope scope;
+
+        private final MainClassIndex index;
+
+        private final BooleanSupplier cancelled;
+
+        private final SearchEnd end;
+
+        DirectoryScanTask(File directory, int[] position, String prefix, SearchScope scope, MainClassIndex index,
+                          BooleanSupplier cancelled, SearchEnd end) {
+            this.directory = directory;
+            this.position = position;
+            this.prefix = prefix;
+            this.scope = scope;
+            this.index = index;
+            this.cancelled = cancelled;
+            this.end = end;
+        }
+
+        @Override
+        protected List<MainClass> compute() {
+            String path = getRelativePath(this.directory, this.prefix);
+            if (!this.scope.includesDirectory(path) || this.end.isBefore(this.position)) {
+                return Collections.emptyList();
+            }
+            checkCancelled(this.cancelled);
+            DirectoryListing listing;
+            try {
+                listing = DirectoryListing.of(this.directory, this.scope.includesPackage(path));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            List<File> packageDirectories = listing.getPackageDirectories();
+            List<DirectoryScanTask> subtasks = new ArrayList<>(packageDirectories.size());
+            for (int i = 0; i < packageDirectories.size(); i++) {
+                DirectoryScanTask subtask = new DirectoryScanTask(packageDirectories.get(i),
+                        SearchEnd.position(this.position, 1, i), this.prefix, this.scope, this.index,
+                        this.cancelled, this.end);
+                subtask.fork();
+                subtasks.add(subtask);
+            }
+            List<ClassFile> classFiles = listing.getClassFiles();
+            List<MainClass> mainClasses = new ArrayList<>(new ClassFilesScanTask(classFiles, 0, classFiles.size(),
+                    this.position, this.prefix, this.index, this.cancelled, this.end).compute());
+            for (DirectoryScanTask subtask : subtasks) {
+                mainClasses.addAll(subtask.join());
+            }
+            return mainClasses;
+        }
+
+    }
+
+    /**
+     * Parses a range of the class files of a single package directory, splitting large
+     * packages into batches that are parsed concurrently.
+     */
+    private static final class ClassFilesScanTask extends RecursiveTask<List<MainClass>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<ClassFile> classFiles;
+
+        private final int from;
+
+        private final int to;
+
+        private final int[] position;
+
+        private final String prefix;
+
+        private final MainClassIndex index;
+
+        private final BooleanSupplier cancelled;
+
+        private final SearchEnd end;
+
+        ClassFilesScanTask(List<ClassFile> classFiles, int from, int to, int[] position, String prefix,
+                           MainClassIndex index, BooleanSupplier cancelled, SearchEnd end) {
+            this.classFiles = classFiles;
+            this.from = from;
+            this.to = to;
+            this.position = position;
+            this.prefix = prefix;
+            this.index = index;
+            this.cancelled = cancelled;
+            this.end = end;
+        }
+
+        @Override
+        protected List<MainClass> compute() {
+            if (this.to - this.from > CLASS_FILE_BATCH_SIZE) {
+                int middle = (this.from + this.to) >>> 1;
+                ClassFilesScanTask tail = new ClassFilesScanTask(this.classFiles, middle, this.to, this.position,
+                        this.prefix, this.index, this.cancelled, this.end);
+                tail.fork();
+                List<MainClass> mainClasses = new ArrayList<>(new ClassFilesScanTask(this.classFiles, this.from,
+                        middle, this.position, this.prefix, this.index, this.cancelled, this.end).compute());
+                mainClasses.addAll(tail.join());
+                return mainClasses;
+            }
+            List<MainClass> mainClasses = new ArrayList<>();
+            for (int i = this.from; i < this.to; i++) {
+                int[] position = SearchEnd.position(this.position, 0, i);
+                if (this.end.isBefore(position)) {
+                    break;
+                }
+                checkCancelled(this.cancelled);
+                try {
+                    MainClass mainClass = readMainClass(this.classFiles.get(i), this.prefix, this.index);
+                    if (mainClass != null) {
+                        mainClasses.add(mainClass);
+                        this.end.offer(mainClass, position);
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            return mainClasses;
         }
 
     }
@@ -311,6 +1001,65 @@ public abstract class MainClassFinder {
 
     }
 
+    /**
+     * Tracks the earliest main class, in sequential scan order, that ends the search.
+     * Positions identify a class file or a package directory by the index of each package
+     * directory on the way to it from the root, each preceded by {@code 1}, followed by
+     * {@code 0} and the index of the class file within its directory. Comparing positions
+     * element by element therefore matches the order of a sequential scan.
+     */
+    private static final class SearchEnd {
+
+        private final MainClassCallback<?> callback;
+
+        private final AtomicReference<int[]> earliest = new AtomicReference<>();
+
+        SearchEnd(MainClassCallback<?> callback) {
+            this.callback = callback;
+        }
+
+        /**
+         * Returns whether a main class that ends the search comes before the given
+         * position, so the class file or package directory at it needn't be scanned.
+         *
+         * @param position the position of a class file or package directory
+         * @return {@code true} if the position comes after the end of the search
+         */
+        boolean isBefore(int[] position) {
+            int[] earliest = this.earliest.get();
+            return earliest != null && compare(earliest, position) < 0;
+        }
+
+        void offer(MainClass mainClass, int[] position) {
+            if (!this.callback.endsSearch(mainClass)) {
+                return;
+            }
+            int[] earliest = this.earliest.get();
+            while ((earliest == null || compare(position, earliest) < 0)
+                    && !this.earliest.compareAndSet(earliest, position)) {
+                earliest = this.earliest.get();
+            }
+        }
+
+        static int[] position(int[] parent, int kind, int index) {
+            int[] position = Arrays.copyOf(parent, parent.length + 2);
+            position[parent.length] = kind;
+            position[parent.length + 1] = index;
+            return position;
+        }
+
+        private static int compare(int[] a, int[] b) {
+            int length = Math.min(a.length, b.length);
+            for (int i = 0; i < length; i++) {
+                if (a[i] != b[i]) {
+                    return Integer.compare(a[i], b[i]);
+                }
+            }
+            return Integer.compare(a.length, b.length);
+        }
+
+    }
+
     /**
      * Callback for handling {@link MainClass MainClasses}.
      *
@@ -326,6 +1075,19 @@ public abstract class MainClassFinder {
          */
         T doWith(MainClass mainClass);
 
+        /**
+         * Returns whether the specified main class ends processing, whatever main classes
+         * were handled before it. A concurrent scan stops scanning the classes that come
+         * after such a main class.
+         *
+         * @param mainClass the main class
+         * @return {@code true} if {@link #doWith(MainClass)} returns a non-null value for
+         * the main class
+         */
+        default boolean endsSearch(MainClass mainClass) {
+            return false;
+        }
+
     }
 
     /**
@@ -387,7 +1149,8 @@ public abstract class MainClassFinder {
 
     /**
      * Find a single main class, throwing an {@link IllegalStateException} if multiple
-     * candidates exist.
+     * candidates exist. Optionally, the first main class with the preferred annotation
+     * ends the search.
      */
     private static final class SingleMainClassCallback implements MainClassCallback<Object> {
 
@@ -395,14 +1158,23 @@ public abstract class MainClassFinder {
 
         private final String annotationName;
 
-        private SingleMainClassCallback(String annotationName) {
+        private final boolean stopAtAnnotatedMainClass;
+
+        private SingleMainClassCallback(String annotationName, boolean stopAtAnnotatedMainClass) {
             this.annotationName = annotationName;
+            this.stopAtAnnotatedMainClass = stopAtAnnotatedMainClass;
         }
 
         @Override
         public Object doWith(MainClass mainClass) {
             this.mainClasses.add(mainClass);
-            return null;
+            return endsSearch(mainClass) ? mainClass : null;
+        }
+
+        @Override
+        public boolean endsSearch(MainClass mainClass) {
+            return this.stopAtAnnotatedMainClass && this.annotationName != null
+                    && mainClass.getAnnotationNames().contains(this.annotationName);
         }
 
         private String getMainClassName() {
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tools;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A persistent index of the per-class results of a {@link MainClassFinder} scan. Each
+ * class file is keyed by its path, size and a hash of its content so that only class
+ * files that have actually changed since the previous scan have to be parsed again.
+ *
+ * <p>The index is safe to use from the threads of a parallel scan.
+ */
+public final class MainClassIndex {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    /**
+     * The length of an entry with an empty path, hash and annotation list, which bounds
+     * the number of entries that a file of a given length can hold.
+     */
+    private static final int MINIMUM_ENTRY_LENGTH = 2 + 8 + 8 + 1 + 1 + 2;
+
+    private final Map<String, Entry> previous;
+
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+
+    private MainClassIndex(Map<String, Entry> previous) {
+        this.previous = previous;
+    }
+
+    /**
+     * Creates a new, empty index.
+     *
+     * @return the index
+     */
+    public static MainClassIndex empty() {
+        return new MainClassIndex(Collections.emptyMap());
+    }
+
+    /**
+     * Loads the index from the given file. A missing, unreadable, corrupt or outdated file
+     * results in an empty index.
+     *
+     * @param file the file to load
+     * @return the index
+     */
+    public static MainClassIndex load(File file) {
+        if (!file.isFile()) {
+            return empty();
+        }
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (input.readInt() != FORMAT_VERSION) {
+                return empty();
+            }
+            int count = input.readInt();
+            if (count < 0 || count > file.length() / MINIMUM_ENTRY_LENGTH) {
+                return empty();
+            }
+            Map<String, Entry> entries = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                String path = input.readUTF();
+                long size = input.readLong();
+                long lastModified = input.readLong();
+                byte[] hash = new byte[input.readUnsignedByte()];
+                input.readFully(hash);
+                boolean mainMethodFound = input.readBoolean();
+                int annotationCount = input.readUnsignedShort();
+                Set<String> annotationNames = new LinkedHashSet<>();
+                for (int j = 0; j < annotationCount; j++) {
+                    annotationNames.add(input.readUTF());
+                }
+                entries.put(path, new Entry(size, lastModified, hash, mainMethodFound, annotationNames));
+            }
+            return new MainClassIndex(entries);
+        } catch (IOException | RuntimeException ex) {
+            return empty();
+        }
+    }
+
+    /**
+     * Saves the entries of the classes seen since this index was loaded to the given
+     * file. Entries from the previous scan that were not seen again are kept for as long
+     * as their class file still exists.
+     *
+     * @param file the file to save to
+     * @throws IOException if the file cannot be written
+     */
+    public void save(File file) throws IOException {
+        Map<String, Entry> entries = new TreeMap<>(this.current);
+        this.previous.forEach((path, entry) -> {
+            if (!entries.containsKey(path) && new File(path).isFile()) {
+                entries.put(path, entry);
+            }
+        });
+        file.getParentFile().mkdirs();
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(file.toPath())))) {
+            output.writeInt(FORMAT_VERSION);
+            output.writeInt(entries.size());
+            for (Map.Entry<String, Entry> indexed : entries.entrySet()) {
+                Entry entry = indexed.getValue();
+                output.writeUTF(indexed.getKey());
+                output.writeLong(entry.size);
+                output.writeLong(entry.lastModified);
+                output.writeByte(entry.hash.length);
+                output.write(entry.hash);
+                output.writeBoolean(entry.mainMethodFound);
+                output.writeShort(entry.annotationNames.size());
+                for (String annotationName : entry.annotationNames) {
+                    output.writeUTF(annotationName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the entry for the class file with the given path, provided that the file
+     * has not been touched since it was indexed.
+     *
+     * @param path         the absolute path of the class file
+     * @param size         the current size of the class file
+     * @param lastModified the current modification time of the class file
+     * @return the entry or {@code null}
+     */
+    Entry get(String path, long size, long lastModified) {
+        Entry entry = this.previous.get(path);
+        if (entry == null || entry.size != size || entry.lastModified != lastModified) {
+            return null;
+        }
+        this.current.put(path, entry);
+        return entry;
+    }
+
+    /**
+     * Returns the entry for the class file with the given path and content, typically
+     * after {@link #get(String, long, long)} missed because the file was rewritten.
+     *
+     * @param path         the absolute path of the class file
+     * @param lastModified the current modification time of the class file
+     * @param bytes        the current content of the class file
+     * @return the entry or {@code null}
+     */
+    Entry get(String path, long lastModified, byte[] bytes) {
+        Entry entry = this.previous.get(path);
+        if (entry == null || entry.size != bytes.length) {
+            return null;
+        }
+        byte[] hash = hash(bytes);
+        if (!Arrays.equals(entry.hash, hash)) {
+            return null;
+        }
+        return put(path, new Entry(entry.size, lastModified, hash, entry.mainMethodFound, entry.annotationNames));
+    }
+
+    /**
+     * Records the scan result for the class file with the given path and content.
+     *
+     * @param path            the absolute path of the class file
+     * @param mainMethodFound whether the class declares a main method
+     * @param annotationNames the names of the annotations on the class
+     * @param lastModified    the modification time of the class file
+     * @param bytes           the content of the class file
+     * @return the new entry
+     */
+    Entry put(String path, boolean mainMethodFound, Set<String> annotationNames, long lastModified, byte[] bytes) {
+        return put(path, new Entry(bytes.length, lastModified, hash(bytes), mainMethodFound,
+                mainMethodFound ? annotationNames : Collections.emptySet()));
+    }
+
+    private Entry put(String path, Entry entry) {
+        this.current.put(path, entry);
+        return entry;
+    }
+
+    private static byte[] hash(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM).digest(bytes);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * The indexed scan result of a single class file.
+     */
+    static final class Entry {
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final byte[] hash;
+
+        private final boolean mainMethodFound;
+
+        private final Set<String> annotationNames;
+
+        private Entry(long size, long lastModified, byte[] hash, boolean mainMethodFound,
+                      Set<String> annotationNames) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.mainMethodFound = mainMethodFound;
+            this.annotationNames = annotationNames;
+        }
+
+        boolean isMainMethodFound() {
+            return this.mainMethodFound;
+        }
+
+        Set<String> getAnnotationNames() {
+            return this.annotationNames;
+        }
+
+    }
+
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tools;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only view of a jar file that reads its central directory once from a memory
+ * mapped {@link FileChannel}, rather than going through {@link java.util.jar.JarFile}.
+ * Class entries are only inflated as far as is needed to decide whether they may declare
+ * a main method.
+ *
+ * <p>Jars larger than 2GB, jars that use features this reader doesn't understand and
+ * all jars on Windows, where a mapped file cannot be deleted until the mapping is garbage
+ * collected, are rejected with a {@link ZipException} so that the caller can fall back
+ * to {@code JarFile}. So is an entry whose data is shorter than the size that the central
+ * directory records for it, so that a partial class is never parsed.
+ */
+final class MappedJarFile {
+
+    private static final boolean MAPPING_SUPPORTED = !System.getProperty("os.name", "")
+            .toLowerCase(Locale.ROOT)
+            .startsWith("windows");
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+
+    private static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+    private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+
+    private static final int STORED = 0;
+
+    private static final int DEFLATED = 8;
+
+    private static final long UNSIGNED_INT_MAX = 0xFFFFFFFFL;
+
+    private static final byte[] DOT_CLASS = ".class".getBytes(StandardCharsets.UTF_8);
+
+    private static final int INITIAL_INFLATE_CHUNK = 1024;
+
+    private static final Comparator<Entry> DEPTH_THEN_NAME_ORDER = Comparator.comparingInt(Entry::getDepth)
+            .thenComparing(Entry::getName);
+
+    private final File file;
+
+    private final ByteBuffer buffer;
+
+    private final long baseOffset;
+
+    private final int centralDirectoryOffset;
+
+    private final long entryCount;
+
+    private MappedJarFile(File file, ByteBuffer buffer, long baseOffset, int centralDirectoryOffset,
+                          long entryCount) {
+        this.file = file;
+        this.buffer = buffer;
+        this.baseOffset = baseOffset;
+        this.centralDirectoryOffset = centralDirectoryOffset;
+        this.entryCount = entryCount;
+    }
+
+    /**
+     * Maps the given jar file and locates its central directory.
+     *
+     * @param file the jar file
+     * @return the mapped jar file
+     * @throws ZipException if the file cannot be read by this class
+     * @throws IOException  if the file cannot be read
+     */
+    static MappedJarFile open(File file) throws IOException {
+        if (!MAPPING_SUPPORTED) {
+            throw new ZipException("Memory mapped jar files are not supported on this platform");
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new ZipException("Jar file '" + file + "' is too large to be mapped");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int endOfCentralDirectory = findEndOfCentralDirectory(buffer);
+        if (endOfCentralDirectory < 0) {
+            throw new ZipException("Jar file '" + file + "' has no end of central directory record");
+        }
+        long entryCount = unsignedShort(buffer, endOfCentralDirectory + 10);
+        long centralDirectorySize = unsignedInt(buffer, endOfCentralDirectory + 12);
+        long centralDirectoryOffset = unsignedInt(buffer, endOfCentralDirectory + 16);
+        int centralDirectoryEnd = endOfCentralDirectory;
+        if (entryCount == 0xFFFF || centralDirectorySize == UNSIGNED_INT_MAX
+                || centralDirectoryOffset == UNSIGNED_INT_MAX) {
+            int locator = endOfCentralDirectory - 20;
+            if (locator < 0 || buffer.getInt(locator) != ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE) {
+                throw new ZipException("Jar file '" + file + "' has an invalid zip64 locator");
+            }
+            int zip64EndOfCentralDirectory = checkedOffset(buffer.getLong(locator + 8), buffer);
+            if (buffer.getInt(zip64EndOfCentralDirectory) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                throw new ZipException("Jar file '" + file + "' has an invalid zip64 end of central directory");
+            }
+            entryCount = buffer.getLong(zip64EndOfCentralDirectory + 32);
+            centralDirectorySize = buffer.getLong(zip64EndOfCentralDirectory + 40);
+            centralDirectoryOffset = buffer.getLong(zip64EndOfCentralDirectory + 48);
+            centralDirectoryEnd = zip64EndOfCentralDirectory;
+        }
+        // Data may have been prepended to the archive, such as a launch script
+        long centralDirectoryStart = centralDirectoryEnd - centralDirectorySize;
+        long baseOffset = centralDirectoryStart - centralDirectoryOffset;
+        if (centralDirectoryStart < 0 || baseOffset < 0) {
+            throw new ZipException("Jar file '" + file + "' has an invalid central directory");
+        }
+        return new MappedJarFile(file, buffer, baseOffset, (int) centralDirectoryStart, entryCount);
+    }
+
+    private static int findEndOfCentralDirectory(ByteBuffer buffer) {
+        int last = buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE;
+        int first = Math.max(0, last - 0xFFFF);
+        for (int position = last; position >= first; position--) {
+            if (buffer.getInt(position) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                int commentLength = unsignedShort(buffer, position + 20);
+                if (position + END_OF_CENTRAL_DIRECTORY_SIZE + commentLength == buffer.limit()) {
+                    return position;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the class entries beneath the given location, sorted by depth and then by
+     * name. Names are only decoded for entries whose name ends with {@code .class}.
+     *
+     * @param classesLocation the location within the jar containing classes, or
+     *                        {@code null}
+     * @return the class entries
+     * @throws ZipException if the central directory is malformed
+     */
+    List<Entry> getClassEntries(String classesLocation) throws ZipException {
+        String prefix = (classesLocation != null) ? classesLocation : "";
+        List<Entry> entries = new ArrayList<>();
+        int position = this.centralDirectoryOffset;
+        for (long i = 0; i < this.entryCount; i++) {
+            if (position + 46 > this.buffer.limit()
+                    || this.buffer.getInt(position) != CENTRAL_DIRECTORY_HEADER_SIGNATURE) {
+                throw new ZipException("Jar file '" + this.file + "' has an invalid central directory entry");
+            }
+            int flags = unsignedShort(this.buffer, position + 8);
+            int method = unsignedShort(this.buffer, position + 10);
+            long compressedSize = unsignedInt(this.buffer, position + 20);
+            long size = unsignedInt(this.buffer, position + 24);
+            int nameLength = unsignedShort(this.buffer, position + 28);
+            int extraLength = unsignedShort(this.buffer, position + 30);
+            int commentLength = unsignedShort(this.buffer, position + 32);
+            long localHeaderOffset = unsignedInt(this.buffer, position + 42);
+            int nameStart = position + 46;
+            if (endsWith(this.buffer, nameStart, nameLength, DOT_CLASS)) {
+                String name = decode(this.buffer, nameStart, nameLength);
+                if (name.startsWith(prefix)) {
+                    if ((flags & 1) != 0 || (method != STORED && method != DEFLATED)) {
+                        throw new ZipException("Entry '" + name + "' uses an unsupported encryption or method");
+                    }
+                    int extra = nameStart + nameLength;
+                    int extraEnd = extra + extraLength;
+                    while (extra + 4 <= extraEnd) {
+                        int id = unsignedShort(this.buffer, extra);
+                        int dataSize = unsignedShort(this.buffer, extra + 2);
+                        if (id == ZIP64_EXTRA_FIELD_ID) {
+                            int field = extra + 4;
+                            if (size == UNSIGNED_INT_MAX) {
+                                size = this.buffer.getLong(field);
+                                field += 8;
+                            }
+                            if (compressedSize == UNSIGNED_INT_MAX) {
+                                compressedSize = this.buffer.getLong(field);
+                                field += 8;
+                            }
+                            if (localHeaderOffset == UNSIGNED_INT_MAX) {
+                                localHeaderOffset = this.buffer.getLong(field);
+                            }
+                        }
+                        extra += 4 + dataSize;
+                    }
+                    if (size > Integer.MAX_VALUE || compressedSize > Integer.MAX_VALUE) {
+                        throw new ZipException("Entry '" + name + "' is too large");
+                    }
+                    entries.add(new Entry(name, method, (int) compressedSize, (int) size,
+                            checkedOffset(this.baseOffset + localHeaderOffset, this.buffer)));
+                }
+            }
+            position = nameStart + nameLength + extraLength + commentLength;
+        }
+        entries.sort(DEPTH_THEN_NAME_ORDER);
+        return entries;
+    }
+
+    /**
+     * Creates a new reader for the entries of this jar. Readers reuse their inflater and
+     * buffers from one entry to the next and must not be shared between threads.
+     *
+     * @return the reader
+     */
+    EntryReader newReader() {
+        return new EntryReader(this.buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    private static boolean endsWith(ByteBuffer buffer, int start, int length, byte[] suffix) {
+        if (length < suffix.length) {
+            return false;
+        }
+        int offset = start + length - suffix.length;
+        for (int i = 0; i < suffix.length; i++) {
+            if (buffer.get(offset + i) != suffix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String decode(ByteBuffer buffer, int start, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int unsignedShort(ByteBuffer buffer, int position) {
+        return buffer.getShort(position) & 0xFFFF;
+    }
+
+    private static long unsignedInt(ByteBuffer buffer, int position) {
+        return buffer.getInt(position) & UNSIGNED_INT_MAX;
+    }
+
+    private static int checkedOffset(long offset, ByteBuffer buffer) throws ZipException {
+        if (offset < 0 || offset >= buffer.limit()) {
+            throw new ZipException("Invalid offset " + offset);
+        }
+        return (int) offset;
+    }
+
+    /**
+     * A class entry of a {@link MappedJarFile}.
+     */
+    static final class Entry {
+
+        private final String name;
+
+        private final int depth;
+
+        private final int method;
+
+        private final int compressedSize;
+
+        private final int size;
+
+        private final int localHeaderOffset;
+
+        private Entry(String name, int method, int compressedSize, int size, int localHeaderOffset) {
+            this.name = name;
+            this.depth = MainClassFinder.getDepth(name);
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        String getName() {
+            return this.name;
+        }
+
+        int getDepth() {
+            return this.depth;
+        }
+
+    }
+
+    /**
+     * Reads the content of {@link Entry entries} into a reused buffer.
+     */
+    final class EntryReader implements Closeable {
+
+        private final ByteBuffer buffer;
+
+        private final Inflater inflater = new Inflater(true);
+
+        private byte[] input = new byte[8192];
+
+        private byte[] output = new byte[8192];
+
+        private int length;
+
+        private EntryReader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * Reads the given class entry unless its constant pool shows that it cannot
+         * declare a main method. Inflation stops as soon as that can be decided.
+         *
+         * @param entry the entry to read
+         * @return {@code true} if the entry was read completely and may declare a main
+         * method
+         * @throws ZipException if the entry is malformed or its data is shorter than its
+         * size, in which case its content is unknown and it should be read another way
+         */
+        boolean readIfMayDeclareMainMethod(Entry entry) throws ZipException {
+            int localHeader = entry.localHeaderOffset;
+            if (localHeader + 30 > this.buffer.limit()
+                    || this.buffer.getInt(localHeader) != LOCAL_FILE_HEADER_SIGNATURE) {
+                throw new ZipException("Entry '" + entry.name + "' has an invalid local header");
+            }
+            int dataStart = localHeader + 30 + unsignedShort(this.buffer, localHeader + 26)
+                    + unsignedShort(this.buffer, localHeader + 28);
+            if (dataStart + (long) entry.compressedSize > this.buffer.limit()) {
+                throw new ZipException("Entry '" + entry.name + "' is truncated");
+            }
+            if (this.output.length < entry.size) {
+                this.output = new byte[Math.max(entry.size, this.output.length * 2)];
+            }
+            this.buffer.position(dataStart);
+            if (entry.method == STORED) {
+                if (entry.size != entry.compressedSize) {
+                    throw new ZipException("Stored entry '" + entry.name + "' has a size of " + entry.size
+                            + " but a compressed size of " + entry.compressedSize);
+                }
+                this.buffer.get(this.output, 0, entry.size);
+                this.length = entry.size;
+                return MainClassFinder.mayDeclareMainMethod(this.output, this.length);
+            }
+            return inflate(entry);
+        }
+
+        private boolean inflate(Entry entry) throws ZipException {
+            if (this.input.length < entry.compressedSize + 1) {
+                this.input = new byte[Math.max(entry.compressedSize + 1, this.input.length * 2)];
+            }
+            this.buffer.get(this.input, 0, entry.compressedSize);
+            // The inflater may need an extra dummy byte when the zlib header is omitted
+            this.input[entry.compressedSize] = 0;
+            this.inflater.reset();
+            this.inflater.setInput(this.input, 0, entry.compressedSize + 1);
+            this.length = 0;
+            int chunk = INITIAL_INFLATE_CHUNK;
+            boolean decided = false;
+            try {
+                while (this.length < entry.size) {
+                    int inflated = this.inflater.inflate(this.output, this.length,
+                            Math.min(chunk, entry.size - this.length));
+                    if (inflated == 0 && (this.inflater.finished() || this.inflater.needsInput()
+                            || this.inflater.needsDictionary())) {
+                        break;
+                    }
+                    this.length += inflated;
+                    if (!decided) {
+                        int result = MainClassFinder.scanConstantPool(this.output, this.length);
+                        if (result == MainClassFinder.NO_MAIN_METHOD) {
+                            return false;
+                        }
+                        decided = result == MainClassFinder.MAIN_METHOD_POSSIBLE;
+                        chunk = decided ? entry.size : chunk * 2;
+                    }
+                }
+            } catch (DataFormatException ex) {
+                ZipException zipException = new ZipException("Entry '" + entry.name + "' is malformed");
+                zipException.initCause(ex);
+                throw zipException;
+            }
+            if (this.length < entry.size) {
+                throw new ZipException("Entry '" + entry.name + "' inflated to " + this.length + " bytes rather than "
+                        + entry.size);
+            }
+            return true;
+        }
+
+        byte[] getBytes() {
+            return this.output;
+        }
+
+        int getLength() {
+            return this.length;
+        }
+
+        @Override
+        public void close() {
+            this.inflater.end();
+        }
+
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012-present the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.noear.solon.gradle.tools;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The packages that {@link MainClassFinder} searches for a main class. A scope is made
+ * of base packages, which are searched along with their sub-packages, and a maximum
+ * depth below each base package. Directories and jar entries outside the scope are not
+ * read at all.
+ */
+public final class SearchScope {
+
+    /**
+     * A scope that includes every package.
+     */
+    public static final SearchScope ALL = new SearchScope(Collections.emptyList(), -1);
+
+    private final List<String> basePaths;
+
+    private final int maxDepth;
+
+    private SearchScope(List<String> basePaths, int maxDepth) {
+        this.basePaths = basePaths;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Creates a new scope.
+     *
+     * @param basePackages the names of the packages to search, or an empty collection to
+     *                     search from the root package
+     * @param maxDepth     how many levels of sub-packages below each base package should be
+     *                     searched, {@code 0} meaning the base package only, or {@code null}
+     *                     for no limit
+     * @return the scope
+     * @throws IllegalArgumentException if {@code maxDepth} is negative
+     */
+    public static SearchScope of(Collection<String> basePackages, Integer maxDepth) {
+        if (maxDepth != null && maxDepth < 0) {
+            throw new IllegalArgumentException("Max depth must not be negative, but was " + maxDepth);
+        }
+        List<String> basePaths = new ArrayList<>();
+        for (String basePackage : basePackages) {
+            String basePath = basePackage.trim().replace('.', '/');
+            while (basePath.endsWith("/")) {
+                basePath = basePath.substring(0, basePath.length() - 1);
+            }
+            if (basePath.isEmpty()) {
+                // the root package includes everything else
+                basePaths.clear();
+                break;
+            }
+            basePaths.add(basePath);
+        }
+        if (basePaths.isEmpty() && maxDepth == null) {
+            return ALL;
+        }
+        return new SearchScope(Collections.unmodifiableList(basePaths), (maxDepth != null) ? maxDepth : -1);
+    }
+
+    /**
+     * Returns whether this scope excludes any package.
+     *
+     * @return {@code true} unless this scope includes every package
+     */
+    public boolean isRestricted() {
+        return !this.basePaths.isEmpty() || this.maxDepth >= 0;
+    }
+
+    /**
+     * Returns whether the package directory with the given path has to be searched,
+     * either because it is in scope or because a package in scope is beneath it.
+     *
+     * @param path the {@code /} separated path of the directory relative to the root,
+     *             {@code ""} being the root itself
+     * @return {@code true} if the directory should be searched
+     */
+    boolean includesDirectory(String path) {
+        if (this.basePaths.isEmpty()) {
+            return withinDepth(path, "");
+        }
+        for (String basePath : this.basePaths) {
+            if (path.isEmpty() || basePath.equals(path) || basePath.startsWith(path + "/")) {
+                return true;
+            }
+            if (path.startsWith(basePath + "/") && withinDepth(path, basePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the classes in the package directory with the given path are in
+     * scope.
+     *
+     * @param path the {@code /} separated path of the directory relative to the root,
+     *             {@code ""} being the root itself
+     * @return {@code true} if the directory's classes are in scope
+     */
+    boolean includesPackage(String path) {
+        if (this.basePaths.isEmpty()) {
+            return withinDepth(path, "");
+        }
+        for (String basePath : this.basePaths) {
+            if (basePath.equals(path) || (path.startsWith(basePath + "/") && withinDepth(path, basePath))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the class file with the given path is in scope.
+     *
+     * @param path the {@code /} separated path of the class file relative to the root
+     * @return {@code true} if the class is in scope
+     */
+    public boolean includesClass(String path) {
+        int lastSlash = path.lastIndexOf('/');
+        return includesPackage((lastSlash != -1) ? path.substring(0, lastSlash) : "");
+    }
+
+    private boolean withinDepth(String path, String basePath) {
+        if (this.maxDepth < 0) {
+            return true;
+        }
+        if (path.length() == basePath.length()) {
+            return true;
+        }
+        String relativePath = basePath.isEmpty() ? path : path.substring(basePath.length() + 1);
+        return MainClassFinder.getDepth(relativePath) <= this.maxDepth;
+    }
+
+}
@@ -0,0 +1,128 @@
+package org.noear.gradle.plugin
+
+import org.gradle.testkit.runner.BuildResult
+import org.gradle.testkit.runner.GradleRunner
+import org.gradle.testkit.runner.TaskOutcome
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/**
+ * Checks that the configuration of the plugin's tasks is stored in the configuration
+ * cache, without problems, and reused by the next build.
+ */
+class ConfigurationCacheTest {
+
+    @get:Rule
+    val projectDir = TemporaryFolder()
+
+    @Test
+    fun `solonJar reuses the configuration cache`() {
+        writeProject("")
+
+        val first = build("solonJar", "extractSolonJarLayers")
+        assertStored(first)
+        assertEquals(TaskOutcome.SUCCESS, first.task(":resolveMainClassName")?.outcome)
+        assertEquals(TaskOutcome.SUCCESS, first.task(":solonJar")?.outcome)
+
+        val second = build("solonJar", "extractSolonJarLayers")
+        assertReused(second)
+        assertEquals(TaskOutcome.UP_TO_DATE, second.task(":solonJar")?.outcome)
+        assertTrue(File(projectDir.root, "build/libs/demo.jar").isFile)
+    }
+
+    @Test
+    fun `solonJar with the nested layout reuses the configuration cache`() {
+        writeProject(
+            """
+            solonJar {
+                layout = "NESTED"
+                duplicateEntryPolicy = "WARN"
+                maximumArchiveSize = 100L * 1024 * 1024
+            }
+            """
+        )
+
+        assertStored(build("solonJar"))
+        File(projectDir.root, "build/libs/demo.jar").delete()
+
+        val second = build("solonJar")
+        assertReused(second)
+        assertEquals(TaskOutcome.SUCCESS, second.task(":solonJar")?.outcome)
+        assertTrue(File(projectDir.root, "build/reports/solonJar/composition.json").isFile)
+    }
+
+    @Test
+    fun `solonWar reuses the configuration cache`() {
+        writeProject("apply plugin: 'war'")
+
+        assertStored(build("solonWar"))
+
+        val second = build("solonWar")
+        assertReused(second)
+        assertEquals(TaskOutcome.UP_TO_DATE, second.task(":solonWar")?.outcome)
+        assertTrue(File(projectDir.root, "build/libs/demo.war").isFile)
+    }
+
+    @Test
+    fun `processAot reuses the configuration cache`() {
+        writeProject("apply plugin: org.noear.solon.gradle.plugin.SolonAotPlugin")
+
+        assertStored(build("processAot", "--dry-run"))
+        assertReused(build("processAot", "--dry-run"))
+    }
+
+    private fun writeProject(configuration: String) {
+        projectDir.newFile("settings.gradle").writeText("rootProject.name = 'demo'\n")
+        projectDir.newFile("build.gradle").writeText(
+            """
+            plugins {
+                id 'java'
+                id 'org.noear.solon'
+            }
+
+            solon {
+                mainClass = "com.example.App"
+            }
+
+            $configuration
+            """.trimIndent()
+        )
+        val source = File(projectDir.root, "src/main/java/com/example/App.java")
+        source.parentFile.mkdirs()
+        source.writeText(
+            """
+            package com.example;
+
+            public class App {
+
+                public static void main(String[] args) {
+                    System.out.println("Hello");
+                }
+
+            }
+            """.trimIndent()
+        )
+    }
+
+    private fun build(vararg tasks: String): BuildResult = GradleRunner.create()
+        .withProjectDir(projectDir.root)
+        .withPluginClasspath()
+        .withArguments(*tasks, "--configuration-cache", "--stacktrace")
+        .forwardOutput()
+        .build()
+
+    private fun assertStored(result: BuildResult) {
+        assertTrue(result.output.contains("Configuration cache entry stored"), result.output)
+        assertFalse(result.output.contains("problems were found"), result.output)
+    }
+
+    private fun assertReused(result: BuildResult) {
+        assertTrue(result.output.contains("Configuration cache entry reused"), result.output)
+    }
+
+}
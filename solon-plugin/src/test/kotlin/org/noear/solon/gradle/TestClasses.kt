@@ -0,0 +1,73 @@
+package org.noear.solon.gradle
+
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Opcodes
+import org.objectweb.asm.Type
+
+/**
+ * Generates small class files for tests.
+ */
+object TestClasses {
+
+    /**
+     * Returns a public class with the given dotted [name] and a default constructor.
+     * Optionally, the class has a `main` method and is annotated with [annotation].
+     * Each of the [references] is loaded as a class literal and each of the [strings] as
+     * a string constant by a static `references` method.
+     */
+    fun generate(
+        name: String,
+        mainMethod: Boolean = false,
+        annotation: String? = null,
+        references: List<String> = emptyList(),
+        strings: List<String> = emptyList()
+    ): ByteArray {
+        val writer = ClassWriter(ClassWriter.COMPUTE_MAXS)
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC or Opcodes.ACC_SUPER, internalName(name), null,
+            "java/lang/Object", null)
+        if (annotation != null) {
+            writer.visitAnnotation("L${internalName(annotation)};", true).visitEnd()
+        }
+        val init = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null)
+        init.visitCode()
+        init.visitVarInsn(Opcodes.ALOAD, 0)
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false)
+        init.visitInsn(Opcodes.RETURN)
+        init.visitMaxs(0, 0)
+        init.visitEnd()
+        if (mainMethod) {
+            val main = writer.visitMethod(Opcodes.ACC_PUBLIC or Opcodes.ACC_STATIC, "main",
+                "([Ljava/lang/String;)V", null, null)
+            main.visitCode()
+            main.visitInsn(Opcodes.RETURN)
+            main.visitMaxs(0, 0)
+            main.visitEnd()
+        }
+        if (references.isNotEmpty() || strings.isNotEmpty()) {
+            val method = writer.visitMethod(Opcodes.ACC_PUBLIC or Opcodes.ACC_STATIC, "references", "()V", null,
+                null)
+            method.visitCode()
+            for (reference in references) {
+                method.visitLdcInsn(Type.getObjectType(internalName(reference)))
+                method.visitInsn(Opcodes.POP)
+            }
+            for (string in strings) {
+                method.visitLdcInsn(string)
+                method.visitInsn(Opcodes.POP)
+            }
+            method.visitInsn(Opcodes.RETURN)
+            method.visitMaxs(0, 0)
+            method.visitEnd()
+        }
+        writer.visitEnd()
+        return writer.toByteArray()
+    }
+
+    /**
+     * Returns the name of the class file of the class with the given dotted [name].
+     */
+    fun path(name: String): String = internalName(name) + ".class"
+
+    private fun internalName(name: String): String = name.replace('.', '/')
+
+}
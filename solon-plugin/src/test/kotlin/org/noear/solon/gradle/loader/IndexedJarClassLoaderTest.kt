@@ -0,0 +1,67 @@
+package org.noear.solon.gradle.loader
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.noear.solon.gradle.TestClasses
+import org.noear.solon.gradle.tasks.bundling.TestArchives
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.net.URLClassLoader
+import java.util.Collections
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+
+/**
+ * Tests for [IndexedJarClassLoader].
+ */
+class IndexedJarClassLoaderTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `only the classes and resources of the index are looked up in the jar`() {
+        val loader = classLoader(listOf("com/example/App.class", "com/example/app.properties"))
+
+        assertSame(loader, loader.loadClass("com.example.App").classLoader)
+        assertFailsWith<ClassNotFoundException> { loader.loadClass("com.example.Unlisted") }
+        assertNotNull(loader.getResource("com/example/app.properties"))
+        assertNull(loader.getResource("com/example/unlisted.properties"))
+        assertNull(loader.getResource("org/"))
+        assertEquals(emptyList(), Collections.list(loader.getResources("com/example/unlisted.properties")))
+    }
+
+    @Test
+    fun `application shares the launcher's package index`() {
+        val loader = classLoader(listOf("com/example/App.class", PACKAGE_INDEX_CLASS))
+        val application = URLClassLoader(arrayOf(), loader)
+
+        assertSame(PackageIndex::class.java, loader.loadClass(PackageIndex::class.java.name))
+        assertSame(loader.packageIndex, PackageIndex.load(loader))
+        assertSame(loader.packageIndex, PackageIndex.load(application))
+        assertEquals(listOf("com/example/App.class"), PackageIndex.load(application).getFiles("com/", true))
+    }
+
+    private fun classLoader(indexed: List<String>): IndexedJarClassLoader {
+        val entries = linkedMapOf(
+            "com/example/App.class" to TestClasses.generate("com.example.App"),
+            "com/example/Unlisted.class" to TestClasses.generate("com.example.Unlisted"),
+            "com/example/app.properties" to "name=app".toByteArray(),
+            "com/example/unlisted.properties" to "name=unlisted".toByteArray(),
+            PACKAGE_INDEX_CLASS to javaClass.classLoader.getResourceAsStream(PACKAGE_INDEX_CLASS)!!
+                .use { it.readBytes() }
+        )
+        val jar = TestArchives.dependency(File(temp.root, "app.jar"), entries)
+        val index = PackageIndex.read(ByteArrayInputStream(TestArchives.packageIndex(indexed)))
+        return IndexedJarClassLoader(jar.toURI().toURL(), index, ClassLoader.getSystemClassLoader().parent)
+    }
+
+    companion object {
+        private val PACKAGE_INDEX_CLASS = PackageIndex::class.java.name.replace('.', '/') + ".class"
+    }
+
+}
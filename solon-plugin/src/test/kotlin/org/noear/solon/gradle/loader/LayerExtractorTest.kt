@@ -0,0 +1,91 @@
+package org.noear.solon.gradle.loader
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.noear.solon.gradle.tasks.bundling.TestArchives
+import java.io.File
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/**
+ * Tests for [LayerExtractor].
+ */
+class LayerExtractorTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `directory of the index holds only the files below it`() {
+        val destination = extract(linkedMapOf(
+            JarLauncher.LAYERS_INDEX to INDEX.toByteArray(),
+            "lib/a/A.class" to "A".toByteArray(),
+            "lib/a/nested/B.class" to "B".toByteArray(),
+            "lib/ab/C.class" to "C".toByteArray(),
+            "lib/a" to "D".toByteArray(),
+            "com/example/App.class" to "App".toByteArray(),
+            "app.properties" to "name=app".toByteArray()
+        ))
+
+        assertEquals(mapOf(
+            "dependencies/lib/a/A.class" to "A",
+            "dependencies/lib/a/nested/B.class" to "B",
+            "snapshot-dependencies/lib/a" to "D",
+            "application/lib/ab/C.class" to "C",
+            "application/com/example/App.class" to "App",
+            "resources/app.properties" to "name=app",
+            "application/" + JarLauncher.LAYERS_INDEX to INDEX
+        ), files(destination))
+    }
+
+    @Test
+    fun `entry outside of its layer directory is rejected`() {
+        val destination = temp.newFolder()
+        val jar = TestArchives.dependency(File(temp.root, "app.jar"), linkedMapOf(
+            JarLauncher.LAYERS_INDEX to INDEX.toByteArray(),
+            "../../escaped.txt" to "escaped".toByteArray()
+        ))
+
+        val ex = assertFailsWith<IllegalStateException> { LayerExtractor.extract(jar, destination) }
+
+        assertTrue(ex.message!!.contains("'../../escaped.txt' is outside of the layer directory"), ex.message)
+        assertFalse(File(temp.root, "escaped.txt").exists())
+        assertFalse(File(destination, "escaped.txt").exists())
+    }
+
+    @Test
+    fun `jar without a layers index is rejected`() {
+        val jar = TestArchives.dependency(File(temp.root, "app.jar"), linkedMapOf("app.properties" to ByteArray(0)))
+
+        val ex = assertFailsWith<IllegalStateException> { LayerExtractor.extract(jar, temp.newFolder()) }
+
+        assertTrue(ex.message!!.contains("Is the jar layered?"), ex.message)
+    }
+
+    private fun extract(entries: Map<String, ByteArray>): File {
+        val destination = temp.newFolder()
+        LayerExtractor.extract(TestArchives.dependency(File(temp.root, "app.jar"), entries), destination)
+        return destination
+    }
+
+    private fun files(directory: File): Map<String, String> = directory.walkTopDown().filter { it.isFile }
+        .associate { it.relativeTo(directory).invariantSeparatorsPath to it.readText() }
+
+    companion object {
+        private val INDEX = """
+            - "dependencies":
+              - "lib/a/"
+            - "snapshot-dependencies":
+              - "lib/a"
+            - "resources":
+              - "app.properties"
+            - "application":
+              - "com/"
+
+        """.trimIndent()
+    }
+
+}
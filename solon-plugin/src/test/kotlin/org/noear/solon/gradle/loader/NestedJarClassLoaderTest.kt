@@ -0,0 +1,187 @@
+package org.noear.solon.gradle.loader
+
+import org.junit.Assume.assumeTrue
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.noear.solon.gradle.TestClasses
+import org.noear.solon.gradle.tasks.bundling.TestArchives
+import java.io.File
+import java.net.JarURLConnection
+import java.net.URL
+import java.util.Collections
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+/**
+ * Tests for [NestedJarClassLoader] with jars that have the nested layout.
+ */
+class NestedJarClassLoaderTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `class and resource are loaded through the directory index`() {
+        val loader = classLoader(nestedJar())
+
+        val app = loader.loadClass("com.example.App")
+        assertSame(loader, app.classLoader)
+        assertSame(loader, loader.loadClass("com.lib.A").classLoader)
+        val resource = assertNotNull(loader.getResource("app.properties"))
+        assertEquals("name=app", resource.openStream().use { String(it.readBytes()) })
+    }
+
+    @Test
+    fun `resources of all lib jars are found in class path order`() {
+        val loader = classLoader(nestedJar())
+
+        val urls = Collections.list(loader.getResources("shared/data.txt"))
+        assertEquals(listOf("a", "b"), urls.map { url -> url.openStream().use { String(it.readBytes()) } })
+        assertTrue(urls[0].toString().endsWith("!/SOLON-INF/lib/a.jar!/shared/data.txt"), urls[0].toString())
+    }
+
+    @Test
+    fun `jar url connection lists the entries of a nested jar`() {
+        val loader = classLoader(nestedJar())
+
+        val connection = assertNotNull(loader.getResource("com/lib/A.class")).openConnection() as JarURLConnection
+        assertEquals("com/lib/A.class", connection.entryName)
+        val names = Collections.list(connection.jarFile.entries()).map { it.name }
+        assertTrue(names.containsAll(listOf("com/lib/A.class", "shared/data.txt")), names.toString())
+        assertFalse(names.contains("app.properties"), names.toString())
+    }
+
+    @Test
+    fun `miss costs a single directory index lookup`() {
+        val jar = nestedJar()
+        val content = ZipContent.open(FileData(jar))
+        val lookups = ArrayList<Any?>()
+        val index = object : HashMap<String, IntArray>(JarLauncher.readDirectoryIndex(content)) {
+            override fun get(key: String): IntArray? {
+                lookups.add(key)
+                return super.get(key)
+            }
+        }
+        val loader = NestedJarClassLoader(JarLauncher.readClassPath(content, NestedJarURLStreamHandler()), index,
+            null)
+        lookups.clear()
+
+        assertFailsWith<ClassNotFoundException> { loader.loadClass("com.missing.Missing") }
+        assertNull(loader.getResource("missing/data.txt"))
+
+        assertEquals(listOf<Any?>("com/missing/", "missing/"), lookups)
+    }
+
+    @Test
+    fun `classes of a multi-release jar are loaded from the versioned entries`() {
+        assumeTrue(System.getProperty("java.specification.version").let { !it.startsWith("1.") })
+        val lib = TestArchives.dependency(File(temp.root, "mr.jar"), linkedMapOf(
+            "META-INF/MANIFEST.MF" to "Manifest-Version: 1.0\r\nMulti-Release: true\r\n\r\n".toByteArray(),
+            "com/mr/Versioned.class" to TestClasses.generate("com.mr.Versioned"),
+            "META-INF/versions/9/com/mr/Versioned.class" to TestClasses.generate("com.mr.Versioned", mainMethod = true),
+            "META-INF/versions/9/com/mr/internal/Only.class" to TestClasses.generate("com.mr.internal.Only")
+        ))
+        val loader = classLoader(nestedJar(listOf(lib)))
+
+        val versioned = loader.loadClass("com.mr.Versioned")
+        assertNotNull(versioned.getMethod("main", Array<String>::class.java))
+        assertSame(loader, loader.loadClass("com.mr.internal.Only").classLoader)
+    }
+
+    @Test
+    fun `url created from its external form is opened once the handler is the default`() {
+        val jar = nestedJar()
+        val content = ZipContent.open(FileData(jar))
+        val handler = NestedJarURLStreamHandler()
+        val loader = NestedJarClassLoader(JarLauncher.readClassPath(content, handler),
+            JarLauncher.readDirectoryIndex(content), null)
+        assumeTrue("A URLStreamHandlerFactory is already set", handler.registerAsDefault())
+
+        val url = assertNotNull(loader.getResource("shared/data.txt"))
+        assertEquals("a", URL(url.toExternalForm()).openStream().use { String(it.readBytes()) })
+        assertEquals("a", url.toURI().toURL().openStream().use { String(it.readBytes()) })
+        val plain = URL("jar:" + jar.toURI() + "!/SOLON-INF/classes/app.properties")
+        assertEquals("name=app", plain.openStream().use { String(it.readBytes()) })
+    }
+
+    private fun classLoader(jar: File): NestedJarClassLoader {
+        val content = ZipContent.open(FileData(jar))
+        return NestedJarClassLoader(JarLauncher.readClassPath(content, NestedJarURLStreamHandler()),
+            JarLauncher.readDirectoryIndex(content), null)
+    }
+
+    /**
+     * Writes a jar with the nested layout, with the application's classes and the given
+     * [libs], which by default are two jars that both have `shared/data.txt`.
+     */
+    private fun nestedJar(libs: List<File> = defaultLibs()): File {
+        val classes = linkedMapOf(
+            "com/example/App.class" to TestClasses.generate("com.example.App", mainMethod = true),
+            "app.properties" to "name=app".toByteArray()
+        )
+        val classPath = mutableListOf(JarLauncher.CLASSES_LOCATION)
+        val directories = sortedMapOf<String, MutableList<Int>>()
+        classes.keys.forEach { addToDirectoryIndex(directories, 0, it) }
+        val jar = File(temp.root, "app.jar")
+        ZipOutputStream(jar.outputStream().buffered()).use { zip ->
+            for ((name, content) in classes) {
+                zip.putNextEntry(ZipEntry(JarLauncher.CLASSES_LOCATION + name))
+                zip.write(content)
+            }
+            for (lib in libs) {
+                val location = JarLauncher.LIB_LOCATION + lib.name
+                val content = lib.readBytes()
+                val entry = ZipEntry(location)
+                entry.method = ZipEntry.STORED
+                entry.size = content.size.toLong()
+                entry.crc = TestArchives.crc(content)
+                zip.putNextEntry(entry)
+                zip.write(content)
+                ZipFile(lib).use { libJar ->
+                    libJar.entries().toList().forEach { addToDirectoryIndex(directories, classPath.size, it.name) }
+                }
+                classPath.add(location)
+            }
+            zip.putNextEntry(ZipEntry(JarLauncher.CLASSPATH_INDEX))
+            zip.write(classPath.joinToString("\n", postfix = "\n").toByteArray())
+            zip.putNextEntry(ZipEntry(JarLauncher.DIRECTORY_INDEX))
+            zip.write(directories.entries.joinToString("") { "${it.key}=${it.value.joinToString(",")}\n" }
+                .toByteArray())
+        }
+        return jar
+    }
+
+    private fun defaultLibs(): List<File> = listOf(
+        TestArchives.dependency(File(temp.root, "a.jar"), linkedMapOf(
+            "com/lib/A.class" to TestClasses.generate("com.lib.A"),
+            "shared/data.txt" to "a".toByteArray()
+        )),
+        TestArchives.dependency(File(temp.root, "b.jar"), linkedMapOf(
+            "shared/data.txt" to "b".toByteArray()
+        ))
+    )
+
+    private fun addToDirectoryIndex(directories: MutableMap<String, MutableList<Int>>, position: Int, name: String) {
+        var directory = name.substring(0, name.lastIndexOf('/') + 1)
+        while (true) {
+            val positions = directories.getOrPut(directory) { mutableListOf() }
+            if (positions.lastOrNull() != position) {
+                positions.add(position)
+            }
+            if (directory.isEmpty()) {
+                return
+            }
+            directory = directory.substring(0, directory.lastIndexOf('/', directory.length - 2) + 1)
+        }
+    }
+
+}
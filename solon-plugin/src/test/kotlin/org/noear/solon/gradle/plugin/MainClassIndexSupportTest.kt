@@ -0,0 +1,69 @@
+package org.noear.solon.gradle.plugin
+
+import org.junit.Assume.assumeTrue
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.noear.solon.gradle.processing.SolonMainIndexProcessor
+import java.io.File
+import java.util.jar.JarFile
+import javax.tools.ToolProvider
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ * Tests for the processor jar that [MainClassIndexSupport] adds to annotation processor
+ * configurations.
+ */
+class MainClassIndexSupportTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `processor jar holds only the processor and its registrations`() {
+        val jar = MainClassIndexSupport.processorJar(temp.root)
+
+        val names = JarFile(jar).use { file -> file.entries().toList().map { it.name } }
+        assertEquals(listOf("META-INF/MANIFEST.MF", "org/noear/solon/gradle/processing/SolonMainIndexProcessor.class",
+            "META-INF/services/javax.annotation.processing.Processor",
+            "META-INF/gradle/incremental.annotation.processors"), names)
+        JarFile(jar).use { file ->
+            val registration = file.getInputStream(file.getEntry("META-INF/gradle/incremental.annotation.processors"))
+                .use { String(it.readBytes()) }
+            assertEquals(SolonMainIndexProcessor::class.java.name + ",aggregating\n", registration)
+        }
+    }
+
+    @Test
+    fun `processor jar is written once`() {
+        val jar = MainClassIndexSupport.processorJar(temp.root)
+        jar.setLastModified(0)
+
+        assertEquals(jar, MainClassIndexSupport.processorJar(temp.root))
+        assertEquals(0, jar.lastModified())
+        assertEquals(listOf(jar.name), jar.parentFile.list()!!.toList())
+    }
+
+    @Test
+    fun `processor is discovered on the processor path`() {
+        val compiler = ToolProvider.getSystemJavaCompiler()
+        assumeTrue("A Java compiler is required", compiler != null)
+        val jar = MainClassIndexSupport.processorJar(temp.newFolder("cache"))
+        val sources = temp.newFolder("src")
+        val app = File(sources, "com/example/App.java")
+        app.parentFile.mkdirs()
+        app.writeText("package com.example;\n@org.noear.solon.annotation.SolonMain\npublic class App {\n}\n")
+        val annotation = File(sources, "org/noear/solon/annotation/SolonMain.java")
+        annotation.parentFile.mkdirs()
+        annotation.writeText("package org.noear.solon.annotation;\npublic @interface SolonMain {\n}\n")
+        val classes = temp.newFolder("classes")
+
+        val result = compiler.run(null, null, null, "-d", classes.path, "-processorpath", jar.path, app.path,
+            annotation.path)
+
+        assertEquals(0, result)
+        assertTrue(File(classes, SolonMainIndexProcessor.INDEX_LOCATION).readText().contains("com.example.App"))
+    }
+
+}
@@ -0,0 +1,83 @@
+package org.noear.solon.gradle.plugin
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.noear.solon.gradle.TestClasses
+import org.noear.solon.gradle.processing.SolonMainIndexProcessor
+import org.noear.solon.gradle.tools.SearchScope
+import java.io.File
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+/**
+ * Tests for the use of the main class index by [ResolveMainClassName].
+ */
+class ResolveMainClassNameTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `indexed main class within the scope is used`() {
+        val classes = classes("com.example.App")
+
+        assertEquals("com.example.App", ResolveMainClassName.findIndexedMainClass(listOf(classes),
+            SearchScope.of(listOf("com.example"), null)))
+        assertEquals("com.example.App", ResolveMainClassName.findIndexedMainClass(listOf(classes), SearchScope.ALL))
+    }
+
+    @Test
+    fun `indexed main class outside the scope is ignored`() {
+        val classes = classes("com.other.App")
+
+        assertNull(ResolveMainClassName.findIndexedMainClass(listOf(classes),
+            SearchScope.of(listOf("com.example"), null)))
+    }
+
+    @Test
+    fun `indexed main class deeper than the maximum depth is ignored`() {
+        val classes = classes("com.example.app.App")
+
+        assertNull(ResolveMainClassName.findIndexedMainClass(listOf(classes),
+            SearchScope.of(listOf("com.example"), 0)))
+    }
+
+    @Test
+    fun `indexed class that is no longer an annotated main class is ignored`() {
+        val classes = classes("com.example.App")
+        write(classes, "com.example.App", TestClasses.generate("com.example.App", mainMethod = true))
+
+        assertNull(ResolveMainClassName.findIndexedMainClass(listOf(classes), SearchScope.ALL))
+    }
+
+    @Test
+    fun `index that records several main classes is ignored`() {
+        val classes = classes("com.example.App", "com.example.Other")
+
+        assertNull(ResolveMainClassName.findIndexedMainClass(listOf(classes), SearchScope.ALL))
+    }
+
+    /**
+     * Writes a class directory with an annotated main class for each of the given
+     * [indexed] classes and an index that records them.
+     */
+    private fun classes(vararg indexed: String): File {
+        val classes = temp.newFolder()
+        for (name in indexed) {
+            write(classes, name, TestClasses.generate(name, mainMethod = true,
+                annotation = SolonMainIndexProcessor.SOLON_MAIN_ANNOTATION_NAME))
+        }
+        val index = File(classes, SolonMainIndexProcessor.INDEX_LOCATION)
+        index.parentFile.mkdirs()
+        index.writeText(indexed.joinToString("\n", postfix = "\n"))
+        return classes
+    }
+
+    private fun write(classes: File, name: String, content: ByteArray) {
+        val file = File(classes, TestClasses.path(name))
+        file.parentFile.mkdirs()
+        file.writeBytes(content)
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.noear.solon.gradle.processing
+
+import org.junit.Assume.assumeTrue
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import javax.annotation.processing.Processor
+import javax.tools.ToolProvider
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/**
+ * Tests for [SolonMainIndexProcessor] that compile sources with the system Java compiler.
+ */
+class SolonMainIndexProcessorTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `annotated classes are recorded by binary name in order`() {
+        val classes = compile(listOf(SolonMainIndexProcessor()), mapOf(
+            "com/example/App.java" to """
+                package com.example;
+                @org.noear.solon.annotation.SolonMain
+                public class App {
+                    @org.noear.solon.annotation.SolonMain
+                    public static class Nested {
+                    }
+                }
+            """,
+            "com/another/Main.java" to """
+                package com.another;
+                @org.noear.solon.annotation.SolonMain
+                public class Main {
+                }
+            """,
+            "com/example/Library.java" to """
+                package com.example;
+                public class Library {
+                }
+            """
+        ))
+
+        assertEquals("com.another.Main\ncom.example.App\ncom.example.App\$Nested\n",
+            File(classes, SolonMainIndexProcessor.INDEX_LOCATION).readText())
+    }
+
+    @Test
+    fun `no index is written without an annotated class`() {
+        val classes = compile(listOf(SolonMainIndexProcessor()), mapOf(
+            "com/example/Library.java" to """
+                package com.example;
+                public class Library {
+                }
+            """
+        ))
+
+        assertTrue(File(classes, "com/example/Library.class").isFile)
+        assertFalse(File(classes, SolonMainIndexProcessor.INDEX_LOCATION).exists())
+    }
+
+    /**
+     * Compiles the given [sources], by path, with the `SolonMain` annotation and the given
+     * [processors], and returns the class output directory.
+     */
+    private fun compile(processors: List<Processor>, sources: Map<String, String>): File {
+        val compiler = ToolProvider.getSystemJavaCompiler()
+        assumeTrue("A Java compiler is required", compiler != null)
+        val sourceDirectory = temp.newFolder("src")
+        val files = (sources + (ANNOTATION_PATH to ANNOTATION_SOURCE)).map { (path, source) ->
+            val file = File(sourceDirectory, path)
+            file.parentFile.mkdirs()
+            file.writeText(source.trimIndent())
+            file
+        }
+        val classes = temp.newFolder("classes")
+        compiler.getStandardFileManager(null, null, null).use { fileManager ->
+            val task = compiler.getTask(null, fileManager, null, listOf("-d", classes.path), null,
+                fileManager.getJavaFileObjectsFromFiles(files))
+            task.setProcessors(processors)
+            assertTrue(task.call(), "Compilation failed")
+        }
+        return classes
+    }
+
+    companion object {
+
+        const val ANNOTATION_PATH = "org/noear/solon/annotation/SolonMain.java"
+
+        val ANNOTATION_SOURCE = """
+            package org.noear.solon.annotation;
+            @java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.RUNTIME)
+            @java.lang.annotation.Target(java.lang.annotation.ElementType.TYPE)
+            public @interface SolonMain {
+            }
+        """
+
+    }
+
+}
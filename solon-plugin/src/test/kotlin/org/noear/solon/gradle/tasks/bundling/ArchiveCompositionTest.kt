@@ -0,0 +1,93 @@
+package org.noear.solon.gradle.tasks.bundling
+
+import org.gradle.api.GradleException
+import org.gradle.api.tasks.bundling.ZipEntryCompression
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.noear.solon.gradle.tasks.bundling.TestArchives.dependency
+import org.noear.solon.gradle.tasks.bundling.TestArchives.projectFile
+import org.noear.solon.gradle.tasks.bundling.TestArchives.stream
+import java.io.File
+import kotlin.test.Test
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/**
+ * Tests for [ArchiveComposition] with the jars that a [SolonJarCopyAction] writes.
+ */
+class ArchiveCompositionTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `dependencies with the same file name are separate sources`() {
+        val one = dependency(File(temp.root, "one/foo.jar"), linkedMapOf("one/data.txt" to "one".toByteArray()))
+        val two = dependency(File(temp.root, "two/foo.jar"), linkedMapOf("two/data.txt" to "two".toByteArray()))
+
+        write(listOf(one, two), ArchiveComposition(report(), summary(), null, null))
+
+        val report = report().readText()
+        assertTrue(report.contains("\"name\": \"foo.jar\""), report)
+        assertTrue(report.contains("\"name\": " + quote("foo.jar (" + two.path + ")")), report)
+        assertTrue(report.contains("\"file\": " + quote(one.absolutePath)), report)
+        assertTrue(report.contains("\"file\": " + quote(two.absolutePath)), report)
+    }
+
+    @Test
+    fun `archive that exceeds its size budget is deleted`() {
+        val lib = dependency(File(temp.root, "lib.jar"), linkedMapOf("lib/data.txt" to "lib".toByteArray()))
+        val output = File(temp.root, "app.jar")
+
+        val ex = assertFailsWith<GradleException> {
+            write(listOf(lib), ArchiveComposition(report(), summary(), 16L, null))
+        }
+
+        assertTrue(ex.message!!.contains("exceeds its size budget"), ex.message)
+        assertFalse(output.exists())
+        assertTrue(summary().readText().contains("Size budget exceeded:"))
+    }
+
+    @Test
+    fun `archive within its size budget is kept`() {
+        val lib = dependency(File(temp.root, "lib.jar"), linkedMapOf("lib/data.txt" to "lib".toByteArray()))
+
+        write(listOf(lib), ArchiveComposition(report(), summary(), 1024L * 1024L, 1024L))
+
+        assertTrue(File(temp.root, "app.jar").isFile)
+    }
+
+    @Test
+    fun `composition is reported before conflicting entries fail the build`() {
+        val lib = dependency(File(temp.root, "lib.jar"), linkedMapOf("app.properties" to "name=lib".toByteArray()))
+
+        assertFailsWith<GradleException> {
+            write(listOf(lib), ArchiveComposition(report(), summary(), null, null), DuplicateEntryPolicy.FAIL)
+        }
+
+        assertTrue(File(temp.root, "duplicates.txt").isFile)
+        assertTrue(report().readText().contains("\"name\": \"lib.jar\""), report().readText())
+        assertTrue(summary().isFile)
+    }
+
+    private fun write(
+        dependencies: List<File>,
+        composition: ArchiveComposition,
+        policy: DuplicateEntryPolicy = DuplicateEntryPolicy.FIRST
+    ) {
+        SolonJarCopyAction.builder(File(temp.root, "app.jar"),
+            CompressionPolicy(ZipEntryCompression.DEFLATED, -1, 1, emptySet()),
+            DuplicateEntries(policy, File(temp.root, "duplicates.txt")), composition)
+            .dependencies(dependencies, { true }, temp.newFolder())
+            .build()
+            .execute(stream(projectFile("app.properties", "name=app".toByteArray())))
+    }
+
+    private fun report() = File(temp.root, "composition.json")
+
+    private fun summary() = File(temp.root, "composition.txt")
+
+    private fun quote(value: String) = "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\""
+
+}
@@ -0,0 +1,94 @@
+package org.noear.solon.gradle.tasks.bundling
+
+import org.gradle.api.tasks.bundling.ZipEntryCompression
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.noear.solon.gradle.TestClasses
+import org.noear.solon.gradle.tasks.bundling.TestArchives.dependency
+import org.noear.solon.gradle.tasks.bundling.TestArchives.projectFile
+import org.noear.solon.gradle.tasks.bundling.TestArchives.readEntries
+import org.noear.solon.gradle.tasks.bundling.TestArchives.stream
+import java.io.File
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/**
+ * Tests for [ClassShrinker] with the jars that a [SolonJarCopyAction] writes.
+ */
+class ClassShrinkerTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `unreachable class is removed`() {
+        val names = shrink()
+
+        assertTrue("com/lib/Used.class" in names, names.toString())
+        assertFalse("com/lib/Unused.class" in names, names.toString())
+        assertTrue(File(temp.root, "shrink.txt").readText().contains("lib.jar: removed "))
+    }
+
+    @Test
+    fun `class named in a service file is kept`() {
+        val names = shrink()
+
+        assertTrue("com/lib/spi/Impl.class" in names, names.toString())
+        assertTrue("com/lib/spi/ImplHelper.class" in names, names.toString())
+        assertTrue("META-INF/services/com.lib.Spi" in names, names.toString())
+    }
+
+    @Test
+    fun `class named by a string constant is kept`() {
+        val names = shrink()
+
+        assertTrue("com/lib/ByName.class" in names, names.toString())
+    }
+
+    @Test
+    fun `classes that match a keep rule are kept`() {
+        val names = shrink(listOf("com.example.**"))
+
+        assertTrue("com/example/scan/Component.class" in names, names.toString())
+        assertTrue("com/example/scan/sub/Deep.class" in names, names.toString())
+        assertFalse("com/other/Scanned.class" in names, names.toString())
+    }
+
+    @Test
+    fun `classes that are only found by package scanning are removed without a keep rule`() {
+        val names = shrink()
+
+        assertFalse("com/example/scan/Component.class" in names, names.toString())
+        assertEquals(listOf("com/example/App.class"), names.filter { it.startsWith("com/example/") })
+    }
+
+    private fun shrink(keepRules: List<String> = emptyList()): Set<String> {
+        val lib = dependency(File(temp.root, "lib.jar"), linkedMapOf(
+            "com/lib/Used.class" to TestClasses.generate("com.lib.Used", strings = listOf("com.lib.ByName")),
+            "com/lib/Unused.class" to TestClasses.generate("com.lib.Unused"),
+            "com/lib/ByName.class" to TestClasses.generate("com.lib.ByName"),
+            "com/lib/spi/Impl.class" to TestClasses.generate("com.lib.spi.Impl",
+                references = listOf("com.lib.spi.ImplHelper")),
+            "com/lib/spi/ImplHelper.class" to TestClasses.generate("com.lib.spi.ImplHelper"),
+            "META-INF/services/com.lib.Spi" to "# Implementations\ncom.lib.spi.Impl\n".toByteArray(),
+            "com/example/scan/Component.class" to TestClasses.generate("com.example.scan.Component"),
+            "com/example/scan/sub/Deep.class" to TestClasses.generate("com.example.scan.sub.Deep"),
+            "com/other/Scanned.class" to TestClasses.generate("com.other.Scanned")
+        ))
+        val output = File(temp.root, "app.jar")
+        val shrinker = ClassShrinker("com.example.App", keepRules, emptySet(), File(temp.root, "shrink.txt"))
+        SolonJarCopyAction.builder(output,
+            CompressionPolicy(ZipEntryCompression.DEFLATED, -1, 1, emptySet()),
+            DuplicateEntries(DuplicateEntryPolicy.FIRST, File(temp.root, "duplicates.txt")),
+            ArchiveComposition(File(temp.root, "composition.json"), File(temp.root, "composition.txt"), null, null))
+            .dependencies(listOf(lib), { true }, temp.newFolder())
+            .shrinker(shrinker)
+            .build()
+            .execute(stream(projectFile("com/example/App.class",
+                TestClasses.generate("com.example.App", mainMethod = true, references = listOf("com.lib.Used")))))
+        return readEntries(output).keys
+    }
+
+}
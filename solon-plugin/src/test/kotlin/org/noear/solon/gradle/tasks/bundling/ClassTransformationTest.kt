@@ -0,0 +1,316 @@
+package org.noear.solon.gradle.tasks.bundling
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.noear.solon.gradle.TestClasses
+import org.objectweb.asm.AnnotationVisitor
+import org.objectweb.asm.Attribute
+import org.objectweb.asm.ByteVector
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.ClassVisitor
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Label
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes
+import java.io.File
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/**
+ * Tests for [ClassTransformation] with the [StandardClassTransformer]s.
+ */
+class ClassTransformationTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `local variables are stripped`() {
+        val transformed = transform(generate(), ClassTransformer.stripLocalVariables())
+
+        assertEquals(Contents(localVariables = 0, localVariableSignatures = 0), Contents.of(transformed))
+        assertLoads(transformed)
+    }
+
+    @Test
+    fun `source debug extension is stripped`() {
+        val transformed = transform(generate(), ClassTransformer.stripSourceDebugExtension())
+
+        assertEquals(Contents(sourceDebugExtension = null), Contents.of(transformed))
+        assertLoads(transformed)
+    }
+
+    @Test
+    fun `line numbers are stripped`() {
+        val transformed = transform(generate(), ClassTransformer.stripLineNumbers())
+
+        assertEquals(Contents(lineNumbers = 0), Contents.of(transformed))
+        assertLoads(transformed)
+    }
+
+    @Test
+    fun `kotlin metadata is stripped`() {
+        val transformed = transform(generate(), ClassTransformer.stripKotlinMetadata())
+
+        assertEquals(Contents(annotations = listOf(KEPT_DESCRIPTOR)), Contents.of(transformed))
+        assertLoads(transformed)
+    }
+
+    @Test
+    fun `transformers are applied together`() {
+        val transformed = transform(generate(), *ALL.toTypedArray())
+
+        assertEquals(Contents(localVariables = 0, localVariableSignatures = 0, sourceDebugExtension = null,
+            lineNumbers = 0, annotations = listOf(KEPT_DESCRIPTOR)), Contents.of(transformed))
+        assertLoads(transformed)
+    }
+
+    @Test
+    fun `class with an unknown attribute keeps its constant pool`() {
+        val original = generate(marker = "a value that only the attribute refers to")
+
+        val transformed = transform(original, ClassTransformer.stripLineNumbers(),
+            ClassTransformer.stripLocalVariables())
+
+        assertEquals(Contents(localVariables = 0, localVariableSignatures = 0, lineNumbers = 0,
+            marker = "a value that only the attribute refers to"), Contents.of(transformed))
+        assertEquals(constantPoolCount(original), constantPoolCount(transformed))
+        assertLoads(transformed)
+    }
+
+    @Test
+    fun `class without an unknown attribute gets a new constant pool`() {
+        val original = generate()
+
+        val transformed = transform(original, ClassTransformer.stripLocalVariables())
+
+        assertTrue(constantPoolCount(transformed) < constantPoolCount(original))
+    }
+
+    @Test
+    fun `class that does not get smaller is left as it is`() {
+        val transformation = ClassTransformation(ALL, report())
+
+        assertNull(transformation.transform("com/example/App.class", TestClasses.generate("com.example.App")))
+    }
+
+    @Test
+    fun `class that cannot be read is left as it is`() {
+        val transformation = ClassTransformation(ALL, report())
+
+        assertNull(transformation.transform("com/example/App.class", byteArrayOf(0xCA.toByte(), 0xFE.toByte())))
+    }
+
+    @Test
+    fun `module descriptors are not transformed`() {
+        val transformation = ClassTransformation(ALL, report())
+
+        assertTrue(transformation.canTransform("com/example/App.class"))
+        assertFalse(transformation.canTransform("module-info.class"))
+        assertFalse(transformation.canTransform("META-INF/versions/11/module-info.class"))
+        assertFalse(transformation.canTransform("META-INF/MANIFEST.MF"))
+    }
+
+    @Test
+    fun `key changes with the transformers`() {
+        val lineNumbers = listOf(ClassTransformer.stripLineNumbers())
+        val both = listOf(ClassTransformer.stripLineNumbers(), ClassTransformer.stripLocalVariables())
+
+        assertEquals(key(lineNumbers), key(listOf(ClassTransformer.stripLineNumbers())))
+        assertEquals(key(ALL), key(ALL.toList()))
+        val keys = listOf(key(emptyList()), key(lineNumbers), key(both), key(both.reversed()), key(ALL))
+        assertEquals(keys.size, keys.toSet().size, keys.toString())
+        assertNotEquals(key(lineNumbers), key(listOf(ClassTransformer.stripLocalVariables())))
+    }
+
+    private fun transform(classFile: ByteArray, vararg transformers: ClassTransformer): ByteArray {
+        val transformed = assertNotNull(ClassTransformation(transformers.toList(), report())
+            .transform(TestClasses.path(CLASS_NAME), classFile))
+        assertTrue(transformed.size < classFile.size)
+        return transformed
+    }
+
+    private fun key(transformers: List<ClassTransformer>) = ClassTransformation(transformers, report()).getKey()
+
+    private fun report() = File(temp.root, "class-transforms.txt")
+
+    /**
+     * Defines the given class, which verifies it, and calls its method.
+     */
+    private fun assertLoads(classFile: ByteArray) {
+        val loader = object : ClassLoader(null) {
+            fun define(): Class<*> = defineClass(CLASS_NAME, classFile, 0, classFile.size)
+        }
+        val type = loader.define()
+        assertEquals(5, type.getMethod("add", Int::class.java, Int::class.java).invoke(null, 2, 3))
+        assertEquals(3, type.getMethod("size", List::class.java).invoke(null, listOf("a", "b", "c")))
+    }
+
+    private fun constantPoolCount(classFile: ByteArray): Int =
+        ((classFile[8].toInt() and 0xFF) shl 8) or (classFile[9].toInt() and 0xFF)
+
+    /**
+     * Generates a class with the debug information that the transformers strip, a
+     * `kotlin.Metadata` annotation, another annotation, and, if a [marker] is given, an
+     * attribute that ASM does not know and that refers to the [marker] in the constant
+     * pool.
+     */
+    private fun generate(marker: String? = null): ByteArray {
+        val writer = ClassWriter(ClassWriter.COMPUTE_MAXS)
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC or Opcodes.ACC_SUPER, INTERNAL_NAME, null,
+            "java/lang/Object", null)
+        writer.visitSource("Transformed.kt", SOURCE_DEBUG_EXTENSION)
+        val metadata = writer.visitAnnotation(StandardClassTransformer.KOTLIN_METADATA_DESCRIPTOR, true)
+        metadata.visit("mv", intArrayOf(1, 8, 0))
+        metadata.visit("k", 1)
+        val data = metadata.visitArray("d2")
+        for (i in 0 until 20) {
+            data.visit(null, "Lcom/example/Declaration$i;")
+        }
+        data.visitEnd()
+        metadata.visitEnd()
+        writer.visitAnnotation(KEPT_DESCRIPTOR, false).visitEnd()
+        if (marker != null) {
+            writer.visitAttribute(Marker(marker))
+        }
+        method(writer, "add", "(II)I", listOf("a" to "I", "b" to "I"), null) { method ->
+            method.visitVarInsn(Opcodes.ILOAD, 0)
+            method.visitVarInsn(Opcodes.ILOAD, 1)
+            method.visitInsn(Opcodes.IADD)
+            method.visitInsn(Opcodes.IRETURN)
+        }
+        method(writer, "size", "(Ljava/util/List;)I", listOf("list" to "Ljava/util/List;"),
+            "Ljava/util/List<Ljava/lang/String;>;") { method ->
+            method.visitVarInsn(Opcodes.ALOAD, 0)
+            method.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/List", "size", "()I", true)
+            method.visitInsn(Opcodes.IRETURN)
+        }
+        writer.visitEnd()
+        return writer.toByteArray()
+    }
+
+    private fun method(
+        writer: ClassWriter,
+        name: String,
+        descriptor: String,
+        parameters: List<Pair<String, String>>,
+        signature: String?,
+        code: (MethodVisitor) -> Unit
+    ) {
+        val method = writer.visitMethod(Opcodes.ACC_PUBLIC or Opcodes.ACC_STATIC, name, descriptor, null, null)
+        method.visitCode()
+        val start = Label()
+        val end = Label()
+        method.visitLabel(start)
+        method.visitLineNumber(10, start)
+        code(method)
+        method.visitLabel(end)
+        for ((index, parameter) in parameters.withIndex()) {
+            method.visitLocalVariable(parameter.first, parameter.second, signature, start, end, index)
+        }
+        method.visitMaxs(0, 0)
+        method.visitEnd()
+    }
+
+    /**
+     * The parts of a class that the transformers strip, with the values that [generate]
+     * gives them.
+     */
+    private data class Contents(
+        val localVariables: Int = 3,
+        val localVariableSignatures: Int = 1,
+        val sourceDebugExtension: String? = SOURCE_DEBUG_EXTENSION,
+        val lineNumbers: Int = 2,
+        val annotations: List<String> = listOf(StandardClassTransformer.KOTLIN_METADATA_DESCRIPTOR, KEPT_DESCRIPTOR),
+        val marker: String? = null
+    ) {
+
+        companion object {
+
+            fun of(classFile: ByteArray): Contents {
+                var localVariables = 0
+                var localVariableSignatures = 0
+                var sourceDebugExtension: String? = null
+                var lineNumbers = 0
+                val annotations = ArrayList<String>()
+                var marker: String? = null
+                ClassReader(classFile).accept(object : ClassVisitor(Opcodes.ASM9) {
+
+                    override fun visitSource(source: String?, debug: String?) {
+                        sourceDebugExtension = debug
+                    }
+
+                    override fun visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor? {
+                        annotations.add(descriptor)
+                        return null
+                    }
+
+                    override fun visitAttribute(attribute: Attribute) {
+                        marker = (attribute as Marker).value
+                    }
+
+                    override fun visitMethod(access: Int, name: String, descriptor: String, signature: String?,
+                                             exceptions: Array<out String>?): MethodVisitor {
+                        return object : MethodVisitor(Opcodes.ASM9) {
+
+                            override fun visitLineNumber(line: Int, start: Label) {
+                                lineNumbers++
+                            }
+
+                            override fun visitLocalVariable(name: String, descriptor: String, signature: String?,
+                                                            start: Label, end: Label, index: Int) {
+                                localVariables++
+                                if (signature != null) {
+                                    localVariableSignatures++
+                                }
+                            }
+
+                        }
+                    }
+
+                }, arrayOf(Marker(null)), 0)
+                return Contents(localVariables, localVariableSignatures, sourceDebugExtension, lineNumbers,
+                    annotations, marker)
+            }
+
+        }
+
+    }
+
+    /**
+     * An attribute whose content is the index of a string in the constant pool.
+     */
+    private class Marker(val value: String?) : Attribute("com.example.Marker") {
+
+        override fun read(classReader: ClassReader, offset: Int, length: Int, charBuffer: CharArray,
+                          codeAttributeOffset: Int, labels: Array<out Label>?): Attribute {
+            return Marker(classReader.readUTF8(offset, charBuffer))
+        }
+
+        override fun write(classWriter: ClassWriter, code: ByteArray?, codeLength: Int, maxStack: Int,
+                           maxLocals: Int): ByteVector {
+            return ByteVector().putShort(classWriter.newUTF8(this.value))
+        }
+
+    }
+
+    companion object {
+        private const val CLASS_NAME = "com.example.Transformed"
+
+        private const val INTERNAL_NAME = "com/example/Transformed"
+
+        private const val KEPT_DESCRIPTOR = "Lcom/example/Kept;"
+
+        private const val SOURCE_DEBUG_EXTENSION = "SMAP\nTransformed.kt\nKotlin\n*S Kotlin\n*F\n+ 1 Transformed.kt\n" +
+            "com/example/Transformed\n*L\n1#1,20:1\n*E\n"
+
+        private val ALL = listOf(ClassTransformer.stripLocalVariables(), ClassTransformer.stripSourceDebugExtension(),
+            ClassTransformer.stripLineNumbers(), ClassTransformer.stripKotlinMetadata())
+    }
+
+}
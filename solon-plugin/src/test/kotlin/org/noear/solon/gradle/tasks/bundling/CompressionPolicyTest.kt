@@ -0,0 +1,74 @@
+package org.noear.solon.gradle.tasks.bundling
+
+import org.gradle.api.tasks.bundling.ZipEntryCompression
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/**
+ * Tests for [CompressionPolicy].
+ */
+class CompressionPolicyTest {
+
+    @Test
+    fun `files with a stored extension are stored whatever its case`() {
+        val policy = CompressionPolicy(ZipEntryCompression.DEFLATED, -1, 1, setOf("PNG"))
+
+        assertTrue(policy.isStored("static/logo.png"))
+        assertTrue(policy.isStored("static/LOGO.Png"))
+        assertFalse(policy.isStored("static/app.js"))
+        assertFalse(policy.isStored("static.png/app"))
+    }
+
+    @Test
+    fun `all files are stored when the compression is stored`() {
+        val policy = CompressionPolicy(ZipEntryCompression.STORED, -1, 1, emptySet())
+
+        assertTrue(policy.isStored("app.properties"))
+    }
+
+    @Test
+    fun `stored groups select classes, large resources and native libraries`() {
+        val policy = CompressionPolicy(ZipEntryCompression.DEFLATED, -1, 1, emptySet(),
+            setOf(EntryGroup.CLASSES, EntryGroup.LARGE_RESOURCES, EntryGroup.NATIVE_LIBRARIES), 4096)
+
+        assertTrue(policy.isInStoredGroup("com/example/App.class", 100, true))
+        assertFalse(policy.isInStoredGroup("com/lib/Lib.class", 100, false))
+        assertTrue(policy.isInStoredGroup("data/model.bin", 1024 * 1024, true))
+        assertFalse(policy.isInStoredGroup("data/small.bin", 1024, true))
+        assertTrue(policy.isInStoredGroup("lib/native.so", 100, false))
+    }
+
+    @Test
+    fun `native libraries are not stored unless their group is`() {
+        val policy = CompressionPolicy(ZipEntryCompression.DEFLATED, -1, 1, emptySet(),
+            setOf(EntryGroup.LARGE_RESOURCES), 4096)
+
+        assertFalse(policy.isInStoredGroup("lib/native.so", 2 * 1024 * 1024, true))
+    }
+
+    @Test
+    fun `files smaller than the alignment are not aligned`() {
+        val policy = CompressionPolicy(ZipEntryCompression.DEFLATED, -1, 1, emptySet(),
+            setOf(EntryGroup.CLASSES), 4096)
+
+        assertEquals(1, policy.getAlignment(4095))
+        assertEquals(4096, policy.getAlignment(4096))
+    }
+
+    @Test
+    fun `invalid settings are rejected`() {
+        assertFailsWith<IllegalArgumentException> {
+            CompressionPolicy(ZipEntryCompression.DEFLATED, 10, 1, emptySet())
+        }
+        assertFailsWith<IllegalArgumentException> {
+            CompressionPolicy(ZipEntryCompression.DEFLATED, -1, 0, emptySet())
+        }
+        assertFailsWith<IllegalArgumentException> {
+            CompressionPolicy(ZipEntryCompression.DEFLATED, -1, 1, emptySet(), emptySet(), 3000)
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+package org.noear.solon.gradle.tasks.bundling
+
+import org.gradle.api.tasks.bundling.ZipEntryCompression
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.noear.solon.gradle.tasks.bundling.TestArchives.dependency
+import org.noear.solon.gradle.tasks.bundling.TestArchives.readEntries
+import java.io.File
+import java.util.Properties
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/**
+ * Tests for [DependencyEntryCache].
+ */
+class DependencyEntryCacheTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `unchanged dependency is not hashed again`() {
+        val lib = library("lib.jar", "one")
+        val directory = temp.newFolder()
+        val cached = cache(directory).use { it.get(lib) }
+
+        // Same length and last modified time, but a different content that is not hashed
+        val lastModified = lib.lastModified()
+        library("lib.jar", "two")
+        lib.setLastModified(lastModified)
+
+        assertEquals(cached, cache(directory).use { it.get(lib) })
+    }
+
+    @Test
+    fun `dependency with a different length is hashed again`() {
+        val lib = library("lib.jar", "one")
+        val directory = temp.newFolder()
+        val cached = cache(directory).use { it.get(lib) }
+
+        val lastModified = lib.lastModified()
+        library("lib.jar", "three")
+        lib.setLastModified(lastModified)
+
+        val recached = cache(directory).use { it.get(lib) }
+        assertNotEquals(cached, recached)
+        assertEquals("three", String(readEntries(recached).getValue("lib/data.txt")))
+    }
+
+    @Test
+    fun `dependency with a different last modified time is hashed again`() {
+        val lib = library("lib.jar", "one")
+        val directory = temp.newFolder()
+        val cached = cache(directory).use { it.get(lib) }
+
+        val lastModified = lib.lastModified()
+        library("lib.jar", "two")
+        lib.setLastModified(lastModified + 2000)
+
+        val recached = cache(directory).use { it.get(lib) }
+        assertNotEquals(cached, recached)
+        assertEquals("two", String(readEntries(recached).getValue("lib/data.txt")))
+    }
+
+    @Test
+    fun `dependency is cached again when the settings change`() {
+        val lib = library("lib.jar", "one")
+        val directory = temp.newFolder()
+        val deflated = cache(directory).use { it.get(lib) }
+
+        val stored = cache(directory, ZipEntryCompression.STORED).use { it.get(lib) }
+
+        assertNotEquals(deflated, stored)
+        ZipFile(stored).use { assertEquals(ZipEntry.STORED, it.getEntry("lib/data.txt").method) }
+        val stamps = Properties()
+        File(directory, "stamps.properties").inputStream().use { stamps.load(it) }
+        assertTrue(stamps.getProperty(lib.absolutePath).contains(":STORED:"), stamps.toString())
+    }
+
+    @Test
+    fun `retain used deletes the cached jars of dependencies that are no longer used`() {
+        val one = library("one.jar", "one")
+        val two = library("two.jar", "two")
+        val directory = temp.newFolder()
+        val cachedOne = cache(directory).use { it.get(one) }
+        val cachedTwo = cache(directory).use {
+            it.get(one)
+            it.get(two)
+        }
+
+        assertEquals(cachedOne, cache(directory).use { it.get(one) })
+
+        assertTrue(cachedOne.isFile)
+        assertFalse(cachedTwo.exists())
+        val stamps = Properties()
+        File(directory, "stamps.properties").inputStream().use { stamps.load(it) }
+        assertNotNull(stamps.getProperty(one.absolutePath))
+        assertNull(stamps.getProperty(two.absolutePath))
+    }
+
+    @Test
+    fun `spliced entries resolve to their local headers when the jar is reopened`() {
+        val content = linkedMapOf(
+            "lib/a/one.txt" to "one".repeat(50).toByteArray(),
+            "lib/b/two.txt" to "two".toByteArray(),
+            "lib/b/three.txt" to "three".repeat(50).toByteArray()
+        )
+        val lib = dependency(File(temp.root, "lib.jar"), content, stored = setOf("lib/b/two.txt"))
+        val cached = cache(temp.newFolder()).use { it.get(lib) }
+        val output = File(temp.root, "app.jar")
+
+        SolonJarWriter(output).use { writer ->
+            writer.writeDeflatedFile("app.properties", SolonJarWriter.CONSTANT_DOS_TIME,
+                SolonJarCopyAction.DEFAULT_FILE_MODE, "name=app".toByteArray())
+            DependencyJar.open(cached).use { jar -> writer.writeSplicedEntries(jar, jar.entries) }
+        }
+
+        ZipFile(output).use { zip ->
+            for ((name, bytes) in content) {
+                val entry = assertNotNull(zip.getEntry(name), name)
+                assertContentEquals(bytes, zip.getInputStream(entry).use { it.readBytes() }, name)
+            }
+            assertNotNull(zip.getEntry("lib/b/"))
+        }
+        assertEquals(listOf("app.properties") + content.keys, readEntries(output).keys.toList())
+    }
+
+    private fun library(name: String, data: String): File =
+        dependency(File(temp.root, name), linkedMapOf(
+            "META-INF/MANIFEST.MF" to "Manifest-Version: 1.0\r\n\r\n".toByteArray(),
+            "lib/data.txt" to data.toByteArray()
+        ))
+
+    private fun cache(directory: File,
+                      compression: ZipEntryCompression = ZipEntryCompression.DEFLATED): RetainingCache =
+        RetainingCache(DependencyEntryCache(directory, compression, true, null))
+
+    /**
+     * A cache that retains the jars that were used once it is closed, as a task does
+     * once its jar is written.
+     */
+    private class RetainingCache(private val cache: DependencyEntryCache) : AutoCloseable {
+
+        fun get(dependency: File): File = this.cache.get(dependency)
+
+        override fun close() = this.cache.retainUsed()
+
+    }
+
+}
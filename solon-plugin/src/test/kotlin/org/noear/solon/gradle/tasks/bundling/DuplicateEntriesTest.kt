@@ -0,0 +1,80 @@
+package org.noear.solon.gradle.tasks.bundling
+
+import org.gradle.api.GradleException
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/**
+ * Tests for [DuplicateEntries].
+ */
+class DuplicateEntriesTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `module descriptors and license and notice files are expected conflicts`() {
+        for (name in listOf("module-info.class", "META-INF/versions/11/module-info.class", "META-INF/LICENSE",
+                "META-INF/LICENSE.txt", "META-INF/license.md", "META-INF/NOTICE", "META-INF/NOTICE.txt")) {
+            assertTrue(DuplicateEntries.isExpectedConflict(name), name)
+        }
+        for (name in listOf("com/example/module-info.class", "META-INF/licenses/LICENSE", "LICENSE",
+                "META-INF/solon/NOTICE.properties", "META-INF/versions/11/com/example/App.class")) {
+            assertFalse(DuplicateEntries.isExpectedConflict(name), name)
+        }
+    }
+
+    @Test
+    fun `expected conflicts are reported without failing`() {
+        val duplicates = DuplicateEntries(DuplicateEntryPolicy.FAIL, report())
+        duplicates.conflict("module-info.class", "a.jar", "b.jar")
+        duplicates.conflict("META-INF/LICENSE", "a.jar", "b.jar")
+        duplicates.conflict("META-INF/LICENSE", "a.jar", "c.jar")
+
+        duplicates.writeReport()
+        duplicates.finish()
+
+        assertEquals("""
+            Conflicting entries, of which the first was kept (0):
+
+            Expected conflicting entries, of which the first was kept (2):
+              META-INF/LICENSE
+                a.jar
+                b.jar
+                c.jar
+              module-info.class
+                a.jar
+                b.jar
+
+            Merged entries (0):
+
+            Identical entries, of which the first was kept (0):
+
+
+        """.trimIndent(), report().readText())
+    }
+
+    @Test
+    fun `other conflicts fail the build`() {
+        val duplicates = DuplicateEntries(DuplicateEntryPolicy.FAIL, report())
+        duplicates.conflict("module-info.class", "a.jar", "b.jar")
+        duplicates.conflict("app.properties", "project", "a.jar")
+
+        duplicates.writeReport()
+        val ex = assertFailsWith<GradleException> { duplicates.finish() }
+
+        assertTrue(ex.message!!.contains("1 entries have the same name but a different content: [app.properties]"),
+            ex.message)
+        assertTrue(report().readText().startsWith("Conflicting entries, of which the first was kept (1):\n"
+                + "  app.properties\n    project\n    a.jar\n"), report().readText())
+    }
+
+    private fun report() = File(temp.root, "duplicates.txt")
+
+}
@@ -0,0 +1,157 @@
+package org.noear.solon.gradle.tasks.bundling
+
+import org.gradle.api.internal.file.copy.FileCopyDetailsInternal
+import org.gradle.api.tasks.bundling.ZipEntryCompression
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.noear.solon.gradle.tasks.bundling.TestArchives.dependency
+import org.noear.solon.gradle.tasks.bundling.TestArchives.projectFile
+import org.noear.solon.gradle.tasks.bundling.TestArchives.readEntries
+import org.noear.solon.gradle.tasks.bundling.TestArchives.stream
+import java.io.File
+import java.io.StringReader
+import java.util.Properties
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+import kotlin.test.fail
+
+/**
+ * Tests for the [EntryMerger] implementations and for the merging of entries by
+ * [SolonJarCopyAction].
+ */
+class EntryMergerTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `service file merger merges only the files of the services location`() {
+        val merger = EntryMerger.serviceFiles()
+
+        assertTrue(merger.canMerge("META-INF/services/com.example.Service"))
+        assertFalse(merger.canMerge("META-INF/services/"))
+        assertFalse(merger.canMerge("META-INF/services/nested/com.example.Service"))
+        assertFalse(merger.canMerge("META-INF/solon/plugin.properties"))
+    }
+
+    @Test
+    fun `service file merger lists each provider once in the order of the files`() {
+        val merged = EntryMerger.serviceFiles().merge("META-INF/services/com.example.Service", listOf(
+            "# Providers of a\ncom.example.B\ncom.example.A # the default\n\n".toByteArray(),
+            "com.example.C\r\n  com.example.A\r\n#com.example.D\r\n".toByteArray(),
+            "com.example.B".toByteArray()
+        ))
+
+        assertEquals("com.example.B\ncom.example.A\ncom.example.C\n", String(merged))
+    }
+
+    @Test
+    fun `properties merger merges only the properties of the solon location`() {
+        val merger = EntryMerger.solonProperties()
+
+        assertTrue(merger.canMerge("META-INF/solon/plugin.properties"))
+        assertTrue(merger.canMerge("META-INF/solon/nested/plugin.properties"))
+        assertFalse(merger.canMerge("META-INF/solon/plugin.txt"))
+        assertFalse(merger.canMerge("META-INF/services/plugin.properties"))
+    }
+
+    @Test
+    fun `properties merger keeps a property that files set to the same value`() {
+        val merged = EntryMerger.solonProperties().merge("META-INF/solon/plugin.properties", listOf(
+            "solon.plugin=com.example.A\nsolon.plugin.priority=1\n".toByteArray(),
+            "# Same priority\nsolon.plugin.priority = 1\nkey\\ with\\:separators=#value with = and :\n".toByteArray()
+        ))
+
+        assertEquals("key\\ with\\:separators=\\#value with = and :\nsolon.plugin=com.example.A\n"
+                + "solon.plugin.priority=1\n", String(merged))
+        val properties = Properties()
+        properties.load(StringReader(String(merged)))
+        assertEquals(mapOf("solon.plugin" to "com.example.A", "solon.plugin.priority" to "1",
+            "key with:separators" to "#value with = and :"), properties.toMap())
+    }
+
+    @Test
+    fun `properties merger cannot merge files that set a property to different values`() {
+        assertNull(EntryMerger.solonProperties().merge("META-INF/solon/plugin.properties", listOf(
+            "solon.plugin=com.example.A\n".toByteArray(),
+            "solon.plugin=com.example.B\n".toByteArray()
+        )))
+    }
+
+    @Test
+    fun `service files of the project and dependencies are merged`() {
+        val one = dependency(File(temp.root, "one.jar"), linkedMapOf(SERVICE to "com.lib.One\ncom.example.App\n"
+            .toByteArray()))
+        val two = dependency(File(temp.root, "two.jar"), linkedMapOf(SERVICE to "# Two\ncom.lib.Two\n".toByteArray()))
+
+        val entries = write(listOf(one, two), listOf(EntryMerger.serviceFiles()),
+            projectFile(SERVICE, "com.example.App\n".toByteArray()))
+
+        assertEquals("com.example.App\ncom.lib.One\ncom.lib.Two\n", String(entries.getValue(SERVICE)))
+        assertTrue(report().contains("Merged entries (1):\n  $SERVICE\n    the project\n    one.jar\n    two.jar\n"),
+            report())
+    }
+
+    @Test
+    fun `properties that cannot be merged are handled as conflicts`() {
+        val lib = dependency(File(temp.root, "lib.jar"), linkedMapOf(PLUGIN to "solon.plugin=com.lib.B\n"
+            .toByteArray()))
+
+        val entries = write(listOf(lib), listOf(EntryMerger.solonProperties()),
+            projectFile(PLUGIN, "solon.plugin=com.example.A\n".toByteArray()))
+
+        assertEquals("solon.plugin=com.example.A\n", String(entries.getValue(PLUGIN)))
+        assertTrue(report().contains("Conflicting entries, of which the first was kept (1):\n  $PLUGIN\n"
+                + "    the project\n    lib.jar\n"), report())
+    }
+
+    @Test
+    fun `entries with identical contents are not merged`() {
+        val content = "com.example.App\n".toByteArray()
+        val one = dependency(File(temp.root, "one.jar"), linkedMapOf(SERVICE to content))
+        val two = dependency(File(temp.root, "two.jar"), linkedMapOf(SERVICE to content))
+
+        val entries = write(listOf(one, two), listOf(FailingMerger()))
+
+        assertEquals("com.example.App\n", String(entries.getValue(SERVICE)))
+        assertTrue(report().contains("Merged entries (0):\n"), report())
+        assertTrue(report().contains("Identical entries, of which the first was kept (1):\n  $SERVICE\n"
+                + "    one.jar\n    two.jar\n"), report())
+    }
+
+    private fun write(
+        dependencies: List<File>,
+        mergers: List<EntryMerger>,
+        vararg projectFiles: FileCopyDetailsInternal
+    ): Map<String, ByteArray> {
+        val output = File(temp.root, "app.jar")
+        SolonJarCopyAction.builder(output, CompressionPolicy(ZipEntryCompression.DEFLATED, -1, 1, emptySet()),
+            DuplicateEntries(DuplicateEntryPolicy.FIRST, File(temp.root, "duplicates.txt")),
+            ArchiveComposition(File(temp.root, "composition.json"), File(temp.root, "composition.txt"), null, null))
+            .dependencies(dependencies, { true }, temp.newFolder())
+            .mergers(mergers)
+            .build()
+            .execute(stream(*projectFiles))
+        return readEntries(output)
+    }
+
+    private fun report() = File(temp.root, "duplicates.txt").readText()
+
+    private class FailingMerger : EntryMerger {
+
+        override fun canMerge(name: String) = name == SERVICE
+
+        override fun merge(name: String, contents: List<ByteArray>): ByteArray = fail("$name was merged")
+
+    }
+
+    companion object {
+        private const val SERVICE = "META-INF/services/com.example.Service"
+
+        private const val PLUGIN = "META-INF/solon/plugin.properties"
+    }
+
+}
@@ -0,0 +1,93 @@
+package org.noear.solon.gradle.tasks.bundling
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.noear.solon.gradle.loader.JarLauncher
+import org.noear.solon.gradle.loader.LayerExtractor
+import java.io.ByteArrayOutputStream
+import java.io.File
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+/**
+ * Tests for [LayersIndex] and for extracting the jars that it indexes.
+ */
+class LayersIndexTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `directory whose files are in one layer is listed once`() {
+        assertEquals("""
+            - "dependencies":
+              - "lib/a/"
+              - "lib/b/C.class"
+            - "snapshot-dependencies":
+              - "lib/b/Snapshot.class"
+            - "resources":
+              - "app.properties"
+            - "application":
+              - "META-INF/"
+              - "com/"
+
+        """.trimIndent(), String(index(FILES)))
+    }
+
+    @Test
+    fun `layer without files is listed without names`() {
+        assertEquals("""
+            - "dependencies":
+            - "snapshot-dependencies":
+            - "resources":
+            - "application":
+              - "com/"
+
+        """.trimIndent(), String(index(mapOf("com/example/App.class" to LayersIndex.APPLICATION,
+            "com/example/Other.class" to LayersIndex.APPLICATION))))
+    }
+
+    @Test
+    fun `extracted files are in the layer that the index assigns them to`() {
+        val entries = LinkedHashMap<String, ByteArray>()
+        entries[JarLauncher.LAYERS_INDEX] = index(FILES)
+        for (name in FILES.keys) {
+            entries[name] = name.toByteArray()
+        }
+        val jar = TestArchives.dependency(File(temp.root, "app.jar"), entries)
+        val destination = temp.newFolder()
+
+        LayerExtractor.extract(jar, destination)
+
+        val extracted = destination.walkTopDown().filter { it.isFile }
+            .associate { it.relativeTo(destination).invariantSeparatorsPath to it.readText() }
+        val expected = FILES.entries.associate { (name, layer) -> "$layer/$name" to name }
+            .plus("${LayersIndex.APPLICATION}/${JarLauncher.LAYERS_INDEX}" to String(index(FILES)))
+        assertEquals(expected, extracted)
+        assertEquals(LayersIndex.LAYERS.toSet(), destination.list()!!.toSet())
+    }
+
+    private fun index(files: Map<String, String>): ByteArray {
+        val index = LayersIndex()
+        for ((name, layer) in files) {
+            index.add(name, layer)
+        }
+        val output = ByteArrayOutputStream()
+        index.writeTo(output)
+        return output.toByteArray()
+    }
+
+    companion object {
+        private val FILES = linkedMapOf(
+            "META-INF/MANIFEST.MF" to LayersIndex.APPLICATION,
+            "app.properties" to LayersIndex.RESOURCES,
+            "com/example/App.class" to LayersIndex.APPLICATION,
+            "com/example/web/Controller.class" to LayersIndex.APPLICATION,
+            "lib/a/A.class" to LayersIndex.DEPENDENCIES,
+            "lib/a/nested/B.class" to LayersIndex.DEPENDENCIES,
+            "lib/b/C.class" to LayersIndex.DEPENDENCIES,
+            "lib/b/Snapshot.class" to LayersIndex.SNAPSHOT_DEPENDENCIES
+        )
+    }
+
+}
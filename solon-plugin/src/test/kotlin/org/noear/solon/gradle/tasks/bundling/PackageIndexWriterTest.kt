@@ -0,0 +1,111 @@
+package org.noear.solon.gradle.tasks.bundling
+
+import org.noear.solon.gradle.loader.PackageIndex
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/**
+ * Tests for reading the index that a [PackageIndexWriter] writes with [PackageIndex].
+ */
+class PackageIndexWriterTest {
+
+    @Test
+    fun `index contains the files that were added`() {
+        val index = read(write(FILES))
+
+        for (name in FILES.filter { !it.endsWith("/") }) {
+            assertTrue(index.contains(name), name)
+        }
+        for (name in listOf("com/example/Missing.class", "com/example", "com/App.class", "com-x/Other.class",
+                "com/example/web/", "App.class", "com/example/Ä.class")) {
+            assertFalse(index.contains(name), name)
+        }
+    }
+
+    @Test
+    fun `directory is found by prefix`() {
+        val index = read(write(FILES))
+
+        for (name in listOf("", "com/", "com/example/", "com/example/web/", "com-x/", "META-INF/", "naïve/")) {
+            assertTrue(index.hasDirectory(name), name)
+        }
+        for (name in listOf("co/", "com/ex/", "com-/", "com/example/web/api/", "org/", "com-x/y/")) {
+            assertFalse(index.hasDirectory(name), name)
+        }
+        assertEquals(listOf("", "META-INF/", "com-x/", "com/example/", "com/example/web/", "naïve/"),
+            index.getDirectories())
+    }
+
+    @Test
+    fun `files of a directory are listed with or without those of its subdirectories`() {
+        val index = read(write(FILES))
+
+        assertEquals(listOf("com/example/App.class", "com/example/Other.class", "com/example/Ü.class"),
+            index.getFiles("com/example/", false))
+        assertEquals(listOf("com/example/App.class", "com/example/Other.class", "com/example/Ü.class",
+            "com/example/web/Controller.class"), index.getFiles("com/example/", true))
+        assertEquals(listOf("com/example/App.class", "com/example/Other.class", "com/example/Ü.class",
+            "com/example/web/Controller.class"), index.getFiles("com/", true))
+        assertEquals(emptyList(), index.getFiles("com/", false))
+        assertEquals(listOf("com-x/App.class"), index.getFiles("com-x/", true))
+        assertEquals(emptyList(), index.getFiles("org/", true))
+        assertEquals(listOf("app.properties"), index.getFiles("", false))
+        assertEquals(8, index.getFiles("", true).size)
+    }
+
+    @Test
+    fun `empty index contains nothing`() {
+        val index = read(write(emptyList()))
+
+        assertFalse(index.contains("App.class"))
+        assertFalse(index.hasDirectory(""))
+        assertEquals(emptyList(), index.getFiles("", true))
+    }
+
+    @Test
+    fun `truncated index is rejected`() {
+        val bytes = write(FILES)
+
+        for (length in listOf(0, 3, 8, 15, 16, bytes.size / 2, bytes.size - 1)) {
+            val ex = assertFailsWith<IOException> { read(bytes.copyOf(length)) }
+            assertTrue(ex.message!!.endsWith("is truncated"), "$length: ${ex.message}")
+        }
+    }
+
+    @Test
+    fun `index with another magic number or version is rejected`() {
+        val magic = write(FILES)
+        ByteBuffer.wrap(magic).putInt(0, 0x504B0304)
+        val version = write(FILES)
+        ByteBuffer.wrap(version).putInt(4, PackageIndex.VERSION + 1)
+
+        assertTrue(assertFailsWith<IOException> { read(magic) }.message!!.endsWith("is not a package index"))
+        assertTrue(assertFailsWith<IOException> { read(version) }.message!!.startsWith("Unsupported version 2"))
+    }
+
+    private fun write(names: List<String>) = TestArchives.packageIndex(names)
+
+    private fun read(bytes: ByteArray) = PackageIndex.read(ByteArrayInputStream(bytes))
+
+    companion object {
+        private val FILES = listOf(
+            "META-INF/MANIFEST.MF",
+            "app.properties",
+            "com/",
+            "com/example/",
+            "com/example/Other.class",
+            "com/example/App.class",
+            "com/example/Ü.class",
+            "com/example/web/Controller.class",
+            "com-x/App.class",
+            "naïve/data.txt"
+        )
+    }
+
+}
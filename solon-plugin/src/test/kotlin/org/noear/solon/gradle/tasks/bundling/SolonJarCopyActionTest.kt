@@ -0,0 +1,328 @@
+package org.noear.solon.gradle.tasks.bundling
+
+import org.gradle.api.GradleException
+import org.gradle.api.tasks.bundling.ZipEntryCompression
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.noear.solon.gradle.tasks.bundling.TestArchives.crc
+import org.noear.solon.gradle.tasks.bundling.TestArchives.dependency
+import org.noear.solon.gradle.tasks.bundling.TestArchives.projectFile
+import org.noear.solon.gradle.tasks.bundling.TestArchives.readEntries
+import org.noear.solon.gradle.tasks.bundling.TestArchives.stream
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.jar.JarFile
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/**
+ * Tests for [SolonJarCopyAction] that build a jar and read it back.
+ */
+class SolonJarCopyActionTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `project files are followed by dependency entries with their CRCs`() {
+        val lib = dependency(File(temp.root, "lib.jar"), linkedMapOf(
+            "lib/a.txt" to "a".repeat(100).toByteArray(),
+            "lib/b.txt" to "b".toByteArray()
+        ))
+        val output = File(temp.root, "app.jar")
+
+        copyAction(output).dependencies(listOf(lib), { true }, temp.newFolder()).build().execute(stream(
+            projectFile("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n\r\n".toByteArray()),
+            projectFile("app.properties", "name=app".toByteArray())
+        ))
+
+        val entries = readEntries(output)
+        assertEquals(listOf("META-INF/MANIFEST.MF", "app.properties", "lib/a.txt", "lib/b.txt"), entries.keys.toList())
+        JarFile(output).use { jar ->
+            assertEquals("1.0", assertNotNull(jar.manifest).mainAttributes.getValue("Manifest-Version"))
+            for ((name, content) in entries) {
+                val entry = assertNotNull(jar.getJarEntry(name))
+                assertEquals(crc(content), entry.crc, name)
+                assertEquals(content.size.toLong(), entry.size, name)
+                assertContentEquals(content, jar.getInputStream(entry).use { it.readBytes() }, name)
+            }
+        }
+    }
+
+    @Test
+    fun `first of entries with the same name is written once`() {
+        val first = dependency(File(temp.root, "first.jar"), linkedMapOf(
+            "app.properties" to "name=app".toByteArray(),
+            "lib/c.txt" to "first".toByteArray()
+        ))
+        val second = dependency(File(temp.root, "second.jar"), linkedMapOf(
+            "lib/c.txt" to "second".toByteArray()
+        ))
+        val output = File(temp.root, "app.jar")
+
+        copyAction(output).dependencies(listOf(first, second), { true }, temp.newFolder()).build()
+            .execute(stream(projectFile("app.properties", "name=app".toByteArray())))
+
+        val entries = readEntries(output)
+        assertEquals(listOf("app.properties", "lib/c.txt"), entries.keys.toList())
+        assertEquals("first", String(entries.getValue("lib/c.txt")))
+        ZipFile(output).use { zip -> assertEquals(2, zip.stream().filter { !it.isDirectory }.count()) }
+        val report = File(temp.root, "duplicates.txt").readText()
+        assertTrue(report.contains("Conflicting entries, of which the first was kept (1):\n  lib/c.txt\n"), report)
+        assertTrue(report.contains("Identical entries, of which the first was kept (1):\n  app.properties\n"), report)
+    }
+
+    @Test
+    fun `dependency entry filter sees the mode of each entry`() {
+        val lib = dependency(File(temp.root, "lib.jar"), linkedMapOf(
+            "lib/a.txt" to "a".toByteArray(),
+            "lib/b.txt" to "b".toByteArray()
+        ))
+        val output = File(temp.root, "app.jar")
+        val modes = LinkedHashMap<String, String>()
+
+        copyAction(output).dependencies(listOf(lib), { element ->
+            modes[element.path] = element.permissions.toString()
+            assertTrue(element.permissions.user.read && element.permissions.user.write, element.path)
+            assertFalse(element.permissions.other.execute, element.path)
+            element.name != "b.txt"
+        }, temp.newFolder()).build().execute(stream(projectFile("app.properties", "name=app".toByteArray())))
+
+        assertEquals(mapOf("lib/a.txt" to "644", "lib/b.txt" to "644"), modes)
+        assertEquals(listOf("app.properties", "lib/a.txt"), readEntries(output).keys.toList())
+    }
+
+    @Test
+    fun `conflicting entries fail the build after the jar is written when the policy is fail`() {
+        val lib = dependency(File(temp.root, "lib.jar"), linkedMapOf("app.properties" to "name=lib".toByteArray()))
+        val output = File(temp.root, "app.jar")
+
+        assertFailsWith<GradleException> {
+            copyAction(output, policy = DuplicateEntryPolicy.FAIL)
+                .dependencies(listOf(lib), { true }, temp.newFolder()).build()
+                .execute(stream(projectFile("app.properties", "name=app".toByteArray())))
+        }
+        assertEquals("name=app", String(readEntries(output).getValue("app.properties")))
+    }
+
+    @Test
+    fun `entries of the entry order are written contiguously and in order`() {
+        val one = dependency(File(temp.root, "one.jar"), linkedMapOf(
+            "lib/A.class" to "one A".toByteArray(),
+            "lib/B.class" to "B".toByteArray(),
+            "lib/C.class" to "C".toByteArray(),
+            "shared.txt" to "one".toByteArray()
+        ))
+        val two = dependency(File(temp.root, "two.jar"), linkedMapOf(
+            "lib/A.class" to "two A".toByteArray(),
+            "lib/D.class" to "D".toByteArray()
+        ))
+        val output = File(temp.root, "app.jar")
+
+        copyAction(output).dependencies(listOf(one, two), { true }, temp.newFolder())
+            .entryOrder(listOf("lib/C.class", "com/example/App.class", "lib/A.class", "shared.txt", "lib/D.class",
+                "com/example/Missing.class"))
+            .build()
+            .execute(stream(
+                projectFile("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n\r\n".toByteArray()),
+                projectFile("app.properties", "name=app".toByteArray()),
+                projectFile("com/example/App.class", "App".toByteArray()),
+                projectFile("com/example/Other.class", "Other".toByteArray()),
+                projectFile("shared.txt", "project".toByteArray())
+            ))
+
+        val entries = readEntries(output)
+        assertEquals(listOf("META-INF/MANIFEST.MF", "app.properties", "com/example/Other.class",
+            "lib/C.class", "com/example/App.class", "lib/A.class", "shared.txt", "lib/D.class",
+            "lib/B.class"), entries.keys.toList())
+        assertEquals("one A", String(entries.getValue("lib/A.class")))
+        assertEquals("project", String(entries.getValue("shared.txt")))
+        val report = File(temp.root, "duplicates.txt").readText()
+        assertTrue(report.contains("  lib/A.class\n    one.jar\n    two.jar\n"), report)
+        assertTrue(report.contains("  shared.txt\n    the project\n    one.jar\n"), report)
+    }
+
+    @Test
+    fun `jar with more than 65535 entries is written with zip64 records`() {
+        val count = 70_000
+        val entries = LinkedHashMap<String, ByteArray>()
+        for (i in 0 until count) {
+            entries["lib/e$i.txt"] = i.toString().toByteArray()
+        }
+        val lib = dependency(File(temp.root, "lib.jar"), entries)
+        val output = File(temp.root, "app.jar")
+
+        copyAction(output).dependencies(listOf(lib), { true }, temp.newFolder()).build()
+            .execute(stream(projectFile("app.properties", "name=app".toByteArray())))
+
+        ZipFile(output).use { zip ->
+            assertEquals(count + 1L, zip.stream().filter { !it.isDirectory }.count())
+            assertEquals("69999", String(zip.getInputStream(zip.getEntry("lib/e69999.txt")).use { it.readBytes() }))
+        }
+        assertEquals(count + 1, readEntries(output).size)
+        RandomAccessFile(output, "r").use { file ->
+            file.seek(file.length() - 22)
+            assertEquals(0x06054b50, Integer.reverseBytes(file.readInt()))
+            file.seek(file.length() - 22 - 20)
+            assertEquals(0x07064b50, Integer.reverseBytes(file.readInt()), "zip64 end of central directory locator")
+        }
+    }
+
+    @Test
+    fun `dependency with a prepended launch script is flattened`() {
+        val lib = dependency(File(temp.root, "lib.jar"), linkedMapOf(
+            "lib/a.txt" to "a".repeat(100).toByteArray(),
+            "lib/b.txt" to "b".toByteArray()
+        ), stored = setOf("lib/b.txt"), launchScript = "#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n")
+        val output = File(temp.root, "app.jar")
+
+        copyAction(output).dependencies(listOf(lib), { true }, temp.newFolder()).build().execute(stream())
+
+        val entries = readEntries(output)
+        assertEquals(listOf("lib/a.txt", "lib/b.txt"), entries.keys.toList())
+        assertEquals("a".repeat(100), String(entries.getValue("lib/a.txt")))
+        assertEquals("b", String(entries.getValue("lib/b.txt")))
+    }
+
+    @Test
+    fun `stored and deflated sources are written with the task's compression`() {
+        val content = "x".repeat(1000).toByteArray()
+        val lib = dependency(File(temp.root, "lib.jar"), linkedMapOf(
+            "lib/stored.txt" to content,
+            "lib/deflated.txt" to content
+        ), stored = setOf("lib/stored.txt"))
+
+        val deflated = File(temp.root, "deflated/app.jar")
+        copyAction(deflated).dependencies(listOf(lib), { true }, temp.newFolder()).build().execute(stream(
+            projectFile("app.txt", content),
+            projectFile("app.png", content)
+        ))
+        assertMethods(deflated, content, mapOf(
+            "app.txt" to ZipEntry.DEFLATED,
+            "app.png" to ZipEntry.STORED,
+            "lib/stored.txt" to ZipEntry.STORED,
+            "lib/deflated.txt" to ZipEntry.DEFLATED
+        ))
+
+        val stored = File(temp.root, "stored/app.jar")
+        copyAction(stored, ZipEntryCompression.STORED).dependencies(listOf(lib), { true }, temp.newFolder())
+            .build().execute(stream(
+                projectFile("app.txt", content),
+                projectFile("app.png", content)
+            ))
+        assertMethods(stored, content, mapOf(
+            "app.txt" to ZipEntry.STORED,
+            "app.png" to ZipEntry.STORED,
+            "lib/stored.txt" to ZipEntry.STORED,
+            "lib/deflated.txt" to ZipEntry.STORED
+        ))
+    }
+
+    @Test
+    fun `stored entries of the stored groups are aligned`() {
+        val alignment = 4096
+        val large = ByteArray(alignment + 100) { it.toByte() }
+        val lib = dependency(File(temp.root, "lib.jar"), linkedMapOf(
+            "lib/Lib.class" to large,
+            "lib/native/libdep.so" to large,
+            "lib/native/libsmall.so" to ByteArray(100)
+        ))
+        val output = File(temp.root, "app.jar")
+
+        copyAction(output, storedGroups = setOf(EntryGroup.CLASSES, EntryGroup.NATIVE_LIBRARIES), alignment = alignment)
+            .dependencies(listOf(lib), { true }, temp.newFolder()).build().execute(stream(
+                projectFile("app.properties", "name=app".toByteArray()),
+                projectFile("com/example/App.class", large),
+                projectFile("com/example/Other.class", large),
+                projectFile("native/libapp.so", large)
+            ))
+
+        val entries = readLocalEntries(output)
+        for (name in listOf("com/example/App.class", "com/example/Other.class", "native/libapp.so",
+                "lib/native/libdep.so")) {
+            val entry = assertNotNull(entries[name], name)
+            assertEquals(ZipEntry.STORED, entry.method, name)
+            assertEquals(0xD935, entry.extraId, name)
+            assertEquals(0L, entry.dataOffset % alignment, name)
+        }
+        assertEquals(ZipEntry.DEFLATED, entries.getValue("lib/Lib.class").method)
+        assertEquals(ZipEntry.STORED, entries.getValue("lib/native/libsmall.so").method)
+        assertNull(entries.getValue("lib/native/libsmall.so").extraId)
+        assertEquals(listOf("app.properties", "com/example/App.class", "com/example/Other.class",
+            "native/libapp.so", "lib/Lib.class", "lib/native/libdep.so", "lib/native/libsmall.so"),
+            readEntries(output).keys.toList())
+    }
+
+    /**
+     * Reads the file entries of the given jar from its central directory and their local
+     * headers.
+     */
+    private fun readLocalEntries(jar: File): Map<String, LocalEntry> {
+        val bytes = ByteBuffer.wrap(jar.readBytes()).order(ByteOrder.LITTLE_ENDIAN)
+        val end = bytes.limit() - 22
+        assertEquals(0x06054b50, bytes.getInt(end))
+        val count = bytes.getShort(end + 10).toInt() and 0xFFFF
+        var record = bytes.getInt(end + 16)
+        val entries = LinkedHashMap<String, LocalEntry>()
+        repeat(count) {
+            assertEquals(0x02014b50, bytes.getInt(record))
+            val method = bytes.getShort(record + 10).toInt()
+            val nameLength = bytes.getShort(record + 28).toInt()
+            val extraLength = bytes.getShort(record + 30).toInt()
+            val commentLength = bytes.getShort(record + 32).toInt()
+            val localHeader = bytes.getInt(record + 42)
+            val name = String(bytes.array(), record + 46, nameLength)
+            assertEquals(0x04034b50, bytes.getInt(localHeader), name)
+            val localNameLength = bytes.getShort(localHeader + 26).toInt()
+            val localExtraLength = bytes.getShort(localHeader + 28).toInt()
+            val extraId = if (localExtraLength > 0)
+                bytes.getShort(localHeader + 30 + localNameLength).toInt() and 0xFFFF else null
+            if (!name.endsWith("/")) {
+                entries[name] = LocalEntry(method, localHeader + 30L + localNameLength + localExtraLength, extraId)
+            }
+            record += 46 + nameLength + extraLength + commentLength
+        }
+        return entries
+    }
+
+    private class LocalEntry(val method: Int, val dataOffset: Long, val extraId: Int?)
+
+    private fun copyAction(
+        output: File,
+        compression: ZipEntryCompression = ZipEntryCompression.DEFLATED,
+        policy: DuplicateEntryPolicy = DuplicateEntryPolicy.FIRST,
+        storedGroups: Set<EntryGroup> = emptySet(),
+        alignment: Int = 1
+    ): SolonJarCopyAction.Builder {
+        val reports = output.parentFile
+        reports.mkdirs()
+        return SolonJarCopyAction.builder(output,
+            CompressionPolicy(compression, -1, 1, setOf("png"), storedGroups, alignment),
+            DuplicateEntries(policy, File(reports, "duplicates.txt")),
+            ArchiveComposition(File(reports, "composition.json"), File(reports, "composition.txt"), null, null))
+    }
+
+    private fun assertMethods(jar: File, content: ByteArray, methods: Map<String, Int>) {
+        val entries = readEntries(jar)
+        assertEquals(methods.keys.toList(), entries.keys.toList())
+        ZipFile(jar).use { zip ->
+            for ((name, method) in methods) {
+                val entry = assertNotNull(zip.getEntry(name))
+                assertEquals(method, entry.method, name)
+                assertEquals(crc(content), entry.crc, name)
+                assertContentEquals(content, entries.getValue(name), name)
+            }
+        }
+    }
+
+}
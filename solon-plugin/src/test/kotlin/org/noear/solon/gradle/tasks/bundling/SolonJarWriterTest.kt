@@ -0,0 +1,97 @@
+package org.noear.solon.gradle.tasks.bundling
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.noear.solon.gradle.tasks.bundling.TestArchives.crc
+import org.noear.solon.gradle.tasks.bundling.TestArchives.readEntries
+import java.io.File
+import java.io.IOException
+import java.util.Random
+import java.util.zip.Deflater
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+/**
+ * Tests for [SolonJarWriter].
+ */
+class SolonJarWriterTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `files deflated in parallel are written as they are by a single thread`() {
+        val contents = contents()
+        val single = write(File(temp.root, "single.jar"), 1, contents)
+        val parallel = write(File(temp.root, "parallel.jar"), 4, contents)
+
+        assertContentEquals(single.readBytes(), parallel.readBytes())
+        val entries = readEntries(parallel)
+        assertEquals(contents.keys.toList(), entries.keys.toList())
+        ZipFile(parallel).use { zip ->
+            for ((name, content) in contents) {
+                val entry = zip.getEntry(name)
+                assertEquals(ZipEntry.DEFLATED, entry.method, name)
+                assertEquals(crc(content), entry.crc, name)
+                assertEquals(content.size.toLong(), entry.size, name)
+                assertContentEquals(content, entries.getValue(name), name)
+            }
+        }
+    }
+
+    @Test
+    fun `failure of a deflating thread fails the writer`() {
+        val writer = SolonJarWriter(File(temp.root, "app.jar"), true, Deflater.DEFAULT_COMPRESSION, 2)
+        // Make every deflating thread fail to get its deflater
+        val workerDeflater = SolonJarWriter::class.java.getDeclaredField("workerDeflater")
+        workerDeflater.isAccessible = true
+        workerDeflater.set(writer, ThreadLocal.withInitial<Deflater> { throw IllegalStateException("No deflater") })
+
+        val ex = assertFailsWith<IOException> {
+            writer.use {
+                it.writeDeflatedFile("app.properties", SolonJarWriter.CONSTANT_DOS_TIME,
+                    SolonJarCopyAction.DEFAULT_FILE_MODE, "name=app".toByteArray())
+            }
+        }
+
+        assertEquals("Failed to deflate 'app.properties'", ex.message)
+        assertTrue(ex.cause is IllegalStateException, ex.cause.toString())
+    }
+
+    private fun write(file: File, threads: Int, contents: Map<String, ByteArray>): File {
+        SolonJarWriter(file, true, Deflater.DEFAULT_COMPRESSION, threads).use { writer ->
+            for ((name, content) in contents) {
+                writer.writeDeflatedFile(name, SolonJarWriter.CONSTANT_DOS_TIME, SolonJarCopyAction.DEFAULT_FILE_MODE,
+                    content)
+            }
+        }
+        return file
+    }
+
+    /**
+     * Returns enough contents of varied sizes and compressibility for the writer to
+     * have to wait for pending entries more than once.
+     */
+    private fun contents(): Map<String, ByteArray> {
+        val random = Random(42)
+        val contents = LinkedHashMap<String, ByteArray>()
+        for (i in 0 until 200) {
+            val content = ByteArray(random.nextInt(64 * 1024))
+            if (i % 2 == 0) {
+                random.nextBytes(content)
+            }
+            else {
+                content.fill(i.toByte())
+            }
+            contents["com/example/p${i % 7}/Entry$i.class"] = content
+        }
+        contents["large/model.bin"] = ByteArray(40 * 1024 * 1024) { (it % 251).toByte() }
+        return contents
+    }
+
+}
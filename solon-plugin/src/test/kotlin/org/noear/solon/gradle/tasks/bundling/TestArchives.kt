@@ -0,0 +1,134 @@
+package org.noear.solon.gradle.tasks.bundling
+
+import org.gradle.api.file.RelativePath
+import org.gradle.api.internal.file.CopyActionProcessingStreamAction
+import org.gradle.api.internal.file.copy.CopyActionProcessingStream
+import org.gradle.api.internal.file.copy.FileCopyDetailsInternal
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.OutputStream
+import java.lang.reflect.Proxy
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipInputStream
+import java.util.zip.ZipOutputStream
+
+/**
+ * Creates the dependency jars and project files of the jars that tests build with a
+ * [SolonJarCopyAction], and reads the jars back.
+ */
+object TestArchives {
+
+    /**
+     * The last modified time of project files and dependency entries, 2020-01-01T00:00
+     * in the default time zone, which is exactly representable in MS-DOS format.
+     */
+    val LAST_MODIFIED: Long = SolonJarWriter.toJavaTime((40 shl 25) or (1 shl 21) or (1 shl 16))
+
+    /**
+     * Writes a dependency jar with the given [entries], in order. The entries named in
+     * [stored] are stored and the others are deflated. The jar is preceded by the
+     * [launchScript], if any, as a fully executable jar is.
+     */
+    fun dependency(
+        file: File,
+        entries: Map<String, ByteArray>,
+        stored: Set<String> = emptySet(),
+        launchScript: String? = null
+    ): File {
+        file.parentFile.mkdirs()
+        file.outputStream().buffered().use { output ->
+            if (launchScript != null) {
+                output.write(launchScript.toByteArray())
+            }
+            val zip = ZipOutputStream(output)
+            for ((name, content) in entries) {
+                val entry = ZipEntry(name)
+                entry.time = LAST_MODIFIED
+                if (name in stored) {
+                    entry.method = ZipEntry.STORED
+                    entry.size = content.size.toLong()
+                    entry.crc = crc(content)
+                }
+                zip.putNextEntry(entry)
+                zip.write(content)
+                zip.closeEntry()
+            }
+            zip.finish()
+        }
+        return file
+    }
+
+    /**
+     * Returns the details of a project file with the given [path] and [content], as a
+     * copy spec provides them to a copy action.
+     */
+    fun projectFile(path: String, content: ByteArray): FileCopyDetailsInternal {
+        val mode = SolonJarCopyAction.DEFAULT_FILE_MODE
+        return Proxy.newProxyInstance(TestArchives::class.java.classLoader,
+            arrayOf(FileCopyDetailsInternal::class.java)) { _, method, args ->
+            when (method.name) {
+                "getRelativePath" -> RelativePath.parse(true, path)
+                "getPath" -> path
+                "getName" -> path.substringAfterLast('/')
+                "isDirectory" -> false
+                "getSize" -> content.size.toLong()
+                "getLastModified" -> LAST_MODIFIED
+                "getMode" -> mode
+                "getPermissions" -> UnixFilePermissions(mode)
+                "open" -> ByteArrayInputStream(content)
+                "copyTo" -> if (args[0] is OutputStream) (args[0] as OutputStream).write(content)
+                    else throw UnsupportedOperationException("copyTo(File)")
+                "toString" -> path
+                else -> throw UnsupportedOperationException(method.name)
+            }
+        } as FileCopyDetailsInternal
+    }
+
+    /**
+     * Returns a stream of the given project [files].
+     */
+    fun stream(vararg files: FileCopyDetailsInternal): CopyActionProcessingStream =
+        CopyActionProcessingStream { action: CopyActionProcessingStreamAction -> files.forEach(action::processFile) }
+
+    /**
+     * Reads the file entries of the given jar sequentially, from their local headers,
+     * which verifies their CRCs and sizes, and returns their content by name, in order.
+     */
+    fun readEntries(jar: File): Map<String, ByteArray> {
+        val entries = LinkedHashMap<String, ByteArray>()
+        ZipInputStream(jar.inputStream().buffered()).use { zip ->
+            while (true) {
+                val entry = zip.nextEntry ?: break
+                if (!entry.isDirectory) {
+                    val content = ByteArrayOutputStream()
+                    zip.copyTo(content)
+                    check(entries.put(entry.name, content.toByteArray()) == null) { "Duplicate ${entry.name}" }
+                }
+            }
+        }
+        return entries
+    }
+
+    /**
+     * Returns the package index of a jar with the given entry [names], as a
+     * [PackageIndexWriter] writes it.
+     */
+    fun packageIndex(names: List<String>): ByteArray {
+        val writer = PackageIndexWriter()
+        for (name in names) {
+            writer.add(name)
+        }
+        val output = ByteArrayOutputStream()
+        writer.writeTo(output)
+        return output.toByteArray()
+    }
+
+    fun crc(content: ByteArray): Long {
+        val crc = CRC32()
+        crc.update(content)
+        return crc.value
+    }
+
+}
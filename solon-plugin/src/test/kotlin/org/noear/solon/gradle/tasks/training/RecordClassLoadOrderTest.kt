@@ -0,0 +1,64 @@
+package org.noear.solon.gradle.tasks.training
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/**
+ * Tests for recording the classes that [RecordClassLoadOrder] reads from the output of
+ * `-verbose:class`.
+ */
+class RecordClassLoadOrderTest {
+
+    @Test
+    fun `classes loaded from the jar are recorded from unified logging lines`() {
+        val entries = record(
+            "[0.012s][info][class,load] java.lang.Object source: shared objects file",
+            "[0.015s][info][class,load] java.lang.Thread source: jrt:/java.base",
+            "[0.116s][info][class,load] com.example.App source: file:/opt/app/app.jar",
+            "[0.120s][info][class,load] com.example.App\$Inner source: jar:file:/opt/app/app.jar!/",
+            "[0.121s][info][class,load] com.example.App\$\$Lambda/0x0000000801001200 source: com.example.App",
+            "[0.122s][info][class,load ] org.noear.solon.Solon source: file:/opt/app/app.jar",
+            "[0.130s][info][class,load] com.example.Cached source: shared objects file (top)",
+            "[0.131s][info][class,load] com.example.App source: file:/opt/app/app.jar"
+        )
+
+        assertEquals(listOf("com/example/App.class", "com/example/App\$Inner.class", "org/noear/solon/Solon.class"),
+            entries.toList())
+    }
+
+    @Test
+    fun `classes loaded from the jar are recorded from legacy lines`() {
+        val entries = record(
+            "[Opened /usr/lib/jvm/java-8/jre/lib/rt.jar]",
+            "[Loaded java.lang.Object from shared objects file]",
+            "[Loaded java.lang.Thread from /usr/lib/jvm/java-8/jre/lib/rt.jar]",
+            "[Loaded com.example.App from file:/opt/app/app.jar]",
+            "[Loaded com.example.App\$\$Lambda\$1/1234567 from com.example.App]"
+        )
+
+        assertEquals(listOf("com/example/App.class"), entries.toList())
+    }
+
+    @Test
+    fun `only lines about loaded classes are consumed`() {
+        val entries = LinkedHashSet<String>()
+
+        assertTrue(RecordClassLoadOrder.recordClass("[Loaded java.lang.Object from shared objects file]", entries))
+        assertTrue(RecordClassLoadOrder.recordClass(
+            "[0.012s][info][class,load] java.lang.Object source: shared objects file", entries))
+        assertFalse(RecordClassLoadOrder.recordClass("End loading elapsed=1234ms", entries))
+        assertFalse(RecordClassLoadOrder.recordClass("[Opened /usr/lib/jvm/java-8/jre/lib/rt.jar]", entries))
+        assertTrue(entries.isEmpty())
+    }
+
+    private fun record(vararg lines: String): Set<String> {
+        val entries = LinkedHashSet<String>()
+        for (line in lines) {
+            RecordClassLoadOrder.recordClass(line, entries)
+        }
+        return entries
+    }
+
+}
@@ -0,0 +1,172 @@
+package org.noear.solon.gradle.tools
+
+import org.noear.solon.gradle.TestClasses
+import org.objectweb.asm.ClassReader
+import org.objectweb.asm.ClassVisitor
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.ConstantDynamic
+import org.objectweb.asm.Handle
+import org.objectweb.asm.MethodVisitor
+import org.objectweb.asm.Opcodes
+import org.objectweb.asm.Type
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/**
+ * Tests for the constant pool pre-filter of [MainClassFinder].
+ */
+class ConstantPoolPrefilterTest {
+
+    @Test
+    fun `class without a main method is rejected`() {
+        assertRejected(TestClasses.generate("com.example.Library"))
+    }
+
+    @Test
+    fun `class with a main method is accepted`() {
+        assertAccepted(TestClasses.generate("com.example.App", mainMethod = true))
+    }
+
+    @Test
+    fun `class with main name but another descriptor is rejected`() {
+        assertRejected(generate(Opcodes.V1_8) { writer ->
+            val method = writer.visitMethod(Opcodes.ACC_PUBLIC or Opcodes.ACC_STATIC, "main", "()V", null, null)
+            method.visitCode()
+            method.visitInsn(Opcodes.RETURN)
+            method.visitMaxs(0, 0)
+            method.visitEnd()
+        })
+    }
+
+    @Test
+    fun `long and double constants take two entries of the constant pool`() {
+        val constants: (ClassWriter) -> Unit = { writer ->
+            code(writer) { method ->
+                method.visitLdcInsn(0x0101010101010101L)
+                method.visitInsn(Opcodes.POP2)
+                method.visitLdcInsn(Double.fromBits(0x0101010101010101L))
+                method.visitInsn(Opcodes.POP2)
+            }
+        }
+
+        assertRejected(generate(Opcodes.V1_8, block = constants))
+        assertAccepted(generate(Opcodes.V1_8, mainMethod = true, block = constants))
+    }
+
+    @Test
+    fun `dynamic and invoke dynamic constants are skipped`() {
+        val bootstrap = Handle(Opcodes.H_INVOKESTATIC, "com/example/Bootstrap", "bootstrap",
+            "(Ljava/lang/invoke/MethodHandles\$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;", false)
+        val constants: (ClassWriter) -> Unit = { writer ->
+            code(writer) { method ->
+                method.visitLdcInsn(ConstantDynamic("constant", "Ljava/lang/Object;", bootstrap))
+                method.visitInsn(Opcodes.POP)
+                method.visitInvokeDynamicInsn("run", "()Ljava/lang/Runnable;", bootstrap)
+                method.visitInsn(Opcodes.POP)
+                method.visitLdcInsn(Type.getMethodType("()V"))
+                method.visitInsn(Opcodes.POP)
+            }
+        }
+
+        assertRejected(generate(Opcodes.V11, block = constants))
+        assertAccepted(generate(Opcodes.V11, mainMethod = true, block = constants))
+    }
+
+    @Test
+    fun `module and package constants are skipped`() {
+        val writer = ClassWriter(0)
+        writer.visit(Opcodes.V9, Opcodes.ACC_MODULE, "module-info", null, null, null)
+        val module = writer.visitModule("com.example", 0, null)
+        module.visitRequire("java.base", Opcodes.ACC_MANDATED, null)
+        module.visitExport("com/example/api", 0)
+        module.visitPackage("com/example/internal")
+        module.visitEnd()
+        writer.visitEnd()
+        val bytes = writer.toByteArray()
+
+        assertRejected(bytes)
+    }
+
+    @Test
+    fun `incomplete class file needs more bytes`() {
+        val bytes = generate(Opcodes.V1_8) { writer ->
+            code(writer) { method ->
+                method.visitLdcInsn(1L)
+                method.visitInsn(Opcodes.POP2)
+                method.visitLdcInsn("a string constant")
+                method.visitInsn(Opcodes.POP)
+            }
+        }
+        val complete = MainClassFinder.scanConstantPool(bytes, bytes.size)
+
+        for (length in 0 until bytes.size) {
+            val result = MainClassFinder.scanConstantPool(bytes, length)
+            assertTrue(result == MainClassFinder.CONSTANT_POOL_INCOMPLETE || result == complete, "$length: $result")
+        }
+        assertEquals(MainClassFinder.CONSTANT_POOL_INCOMPLETE, MainClassFinder.scanConstantPool(bytes, 9))
+        assertEquals(MainClassFinder.CONSTANT_POOL_INCOMPLETE, MainClassFinder.scanConstantPool(bytes, 12))
+    }
+
+    @Test
+    fun `file that is not a class file is left to the class reader`() {
+        val bytes = "not a class file".toByteArray()
+
+        assertTrue(MainClassFinder.mayDeclareMainMethod(bytes, bytes.size))
+    }
+
+    private fun assertRejected(bytes: ByteArray) {
+        assertEquals(MainClassFinder.NO_MAIN_METHOD, MainClassFinder.scanConstantPool(bytes, bytes.size))
+        assertFalse(hasMainMethod(bytes))
+    }
+
+    private fun assertAccepted(bytes: ByteArray) {
+        assertEquals(MainClassFinder.MAIN_METHOD_POSSIBLE, MainClassFinder.scanConstantPool(bytes, bytes.size))
+        assertTrue(hasMainMethod(bytes))
+    }
+
+    private fun hasMainMethod(bytes: ByteArray): Boolean {
+        var found = false
+        ClassReader(bytes).accept(object : ClassVisitor(Opcodes.ASM9) {
+            override fun visitMethod(access: Int, name: String, descriptor: String, signature: String?,
+                                     exceptions: Array<out String>?): MethodVisitor? {
+                found = found || (name == "main" && descriptor == "([Ljava/lang/String;)V")
+                return null
+            }
+        }, ClassReader.SKIP_CODE)
+        return found
+    }
+
+    /**
+     * Generates a class with the given [version], whose constant pool is filled by the
+     * [block] before the main method, if any, is added, so that the main method's
+     * entries come after those of the [block].
+     */
+    private fun generate(version: Int, mainMethod: Boolean = false, block: (ClassWriter) -> Unit): ByteArray {
+        val writer = ClassWriter(ClassWriter.COMPUTE_MAXS)
+        writer.visit(version, Opcodes.ACC_PUBLIC or Opcodes.ACC_SUPER, "com/example/Generated", null,
+            "java/lang/Object", null)
+        block(writer)
+        if (mainMethod) {
+            val main = writer.visitMethod(Opcodes.ACC_PUBLIC or Opcodes.ACC_STATIC, "main",
+                "([Ljava/lang/String;)V", null, null)
+            main.visitCode()
+            main.visitInsn(Opcodes.RETURN)
+            main.visitMaxs(0, 0)
+            main.visitEnd()
+        }
+        writer.visitEnd()
+        return writer.toByteArray()
+    }
+
+    private fun code(writer: ClassWriter, instructions: (MethodVisitor) -> Unit) {
+        val method = writer.visitMethod(Opcodes.ACC_PUBLIC or Opcodes.ACC_STATIC, "constants", "()V", null, null)
+        method.visitCode()
+        instructions(method)
+        method.visitInsn(Opcodes.RETURN)
+        method.visitMaxs(0, 0)
+        method.visitEnd()
+    }
+
+}
@@ -0,0 +1,76 @@
+package org.noear.solon.gradle.tools
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.noear.solon.gradle.TestClasses
+import org.objectweb.asm.ClassReader
+import java.io.File
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ * Tests for finding the main class of a class directory concurrently.
+ */
+class MainClassFinderTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `concurrent scan of a restricted scope stops at the annotated main class`() {
+        val classes = temp.newFolder("classes")
+        write(classes, TestClasses.generate("com.example.App", mainMethod = true, annotation = SOLON_MAIN))
+        for (i in 0 until 100) {
+            write(classes, TestClasses.generate("com.example.lib.Library$i"))
+        }
+        val scope = SearchScope.of(listOf("com.example"), null)
+        val reads = AtomicInteger()
+        val pool = ForkJoinPool(1)
+        try {
+            val mainClass = MainClassFinder.findSingleMainClass(classes, SOLON_MAIN, scope, pool, null) {
+                reads.incrementAndGet()
+                false
+            }
+            assertEquals("com.example.App", mainClass)
+        } finally {
+            pool.shutdown()
+        }
+        assertTrue(reads.get() < 10, "Expected the library classes to be skipped, but ${reads.get()} were read")
+    }
+
+    @Test
+    fun `concurrent scan finds the same annotated main class as a sequential scan`() {
+        val classes = temp.newFolder("classes")
+        for (pkg in listOf("a", "m", "z")) {
+            for (i in 0 until 300) {
+                write(classes, TestClasses.generate("com.example.$pkg.Type$i"))
+            }
+            write(classes, TestClasses.generate("com.example.$pkg.App", mainMethod = true, annotation = SOLON_MAIN))
+        }
+        val scope = SearchScope.of(listOf("com.example"), null)
+        val expected = MainClassFinder.findSingleMainClass(classes, SOLON_MAIN, scope, null, null)
+        val pool = ForkJoinPool(4)
+        try {
+            for (i in 0 until 20) {
+                assertEquals(expected, MainClassFinder.findSingleMainClass(classes, SOLON_MAIN, scope, pool, null))
+            }
+        } finally {
+            pool.shutdown()
+        }
+    }
+
+    private fun write(root: File, bytes: ByteArray) {
+        val name = ClassReader(bytes).className
+        val file = File(root, "$name.class")
+        file.parentFile.mkdirs()
+        file.writeBytes(bytes)
+    }
+
+    companion object {
+        private const val SOLON_MAIN = "org.noear.solon.annotation.SolonMain"
+    }
+
+}
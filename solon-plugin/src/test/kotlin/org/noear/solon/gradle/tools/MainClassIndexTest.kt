@@ -0,0 +1,73 @@
+package org.noear.solon.gradle.tools
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import java.io.DataOutputStream
+import java.io.File
+import java.io.RandomAccessFile
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/**
+ * Tests for [MainClassIndex].
+ */
+class MainClassIndexTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `saved entries are loaded`() {
+        val file = File(temp.root, "index")
+        savedIndex(file)
+
+        val entry = assertNotNull(MainClassIndex.load(file).get("/classes/App.class", 4, 1000))
+        assertTrue(entry.isMainMethodFound)
+        assertEquals(setOf(SOLON_MAIN), entry.annotationNames)
+    }
+
+    @Test
+    fun `negative entry count loads as an empty index`() {
+        val file = File(temp.root, "index")
+        DataOutputStream(file.outputStream()).use {
+            it.writeInt(1)
+            it.writeInt(-1)
+        }
+
+        assertNull(MainClassIndex.load(file).get("/classes/App.class", 4, 1000))
+    }
+
+    @Test
+    fun `entry count larger than the file loads as an empty index`() {
+        val file = File(temp.root, "index")
+        DataOutputStream(file.outputStream()).use {
+            it.writeInt(1)
+            it.writeInt(Int.MAX_VALUE)
+        }
+
+        assertNull(MainClassIndex.load(file).get("/classes/App.class", 4, 1000))
+    }
+
+    @Test
+    fun `truncated index loads as an empty index`() {
+        val file = File(temp.root, "index")
+        savedIndex(file)
+        RandomAccessFile(file, "rw").use { it.setLength(it.length() - 10) }
+
+        assertNull(MainClassIndex.load(file).get("/classes/App.class", 4, 1000))
+    }
+
+    private fun savedIndex(file: File) {
+        val index = MainClassIndex.empty()
+        index.put("/classes/App.class", true, setOf(SOLON_MAIN), 1000, byteArrayOf(1, 2, 3, 4))
+        index.save(file)
+    }
+
+    companion object {
+        private const val SOLON_MAIN = "org.noear.solon.annotation.SolonMain"
+    }
+
+}
@@ -0,0 +1,127 @@
+package org.noear.solon.gradle.tools
+
+import org.junit.Rule
+import org.junit.rules.TemporaryFolder
+import org.noear.solon.gradle.TestClasses
+import java.io.File
+import java.io.RandomAccessFile
+import java.util.jar.JarFile
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipException
+import java.util.zip.ZipOutputStream
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+/**
+ * Tests for finding the main class of a jar through a [MappedJarFile].
+ */
+class MappedJarFileTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun `mapped jar and jar file find the same main class`() {
+        for (stored in listOf(false, true)) {
+            val jar = jar(stored)
+
+            assertEquals("com.example.App", MainClassFinder.findSingleMainClassInJar(jar, "", SOLON_MAIN,
+                SearchScope.ALL))
+            JarFile(jar).use { jarFile ->
+                assertEquals("com.example.App", MainClassFinder.findSingleMainClass(jarFile, "", SOLON_MAIN,
+                    SearchScope.ALL))
+            }
+        }
+    }
+
+    @Test
+    fun `jar with a prepended launch script is mapped`() {
+        val jar = jar(false, launchScript = "#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n")
+
+        MappedJarFile.open(jar).let { mapped ->
+            mapped.newReader().use { reader ->
+                val entry = mapped.getClassEntries("").first { it.name == "com/example/App.class" }
+                assertTrue(reader.readIfMayDeclareMainMethod(entry))
+            }
+        }
+        assertEquals("com.example.App", MainClassFinder.findSingleMainClassInJar(jar, "", SOLON_MAIN,
+            SearchScope.ALL))
+    }
+
+    @Test
+    fun `entry that inflates to less than its size is read with a jar file`() {
+        val jar = jar(false)
+        growCentralDirectorySize(jar, "com/example/App.class", 64)
+
+        MappedJarFile.open(jar).let { mapped ->
+            mapped.newReader().use { reader ->
+                val entry = mapped.getClassEntries("").first { it.name == "com/example/App.class" }
+                assertFailsWith<ZipException> { reader.readIfMayDeclareMainMethod(entry) }
+            }
+        }
+        assertEquals("com.example.App", MainClassFinder.findSingleMainClassInJar(jar, "", SOLON_MAIN,
+            SearchScope.ALL))
+    }
+
+    private fun jar(stored: Boolean, launchScript: String? = null): File {
+        val classes = linkedMapOf(
+            "com/example/App.class" to TestClasses.generate("com.example.App", mainMethod = true,
+                annotation = SOLON_MAIN),
+            "com/example/Other.class" to TestClasses.generate("com.example.Other", mainMethod = true),
+            "com/example/lib/Library.class" to TestClasses.generate("com.example.lib.Library")
+        )
+        val jar = temp.newFile()
+        jar.outputStream().buffered().use { output ->
+            if (launchScript != null) {
+                output.write(launchScript.toByteArray())
+            }
+            val zip = ZipOutputStream(output)
+            for ((name, content) in classes) {
+                val entry = ZipEntry(name)
+                if (stored) {
+                    val crc = CRC32()
+                    crc.update(content)
+                    entry.method = ZipEntry.STORED
+                    entry.size = content.size.toLong()
+                    entry.crc = crc.value
+                }
+                zip.putNextEntry(entry)
+                zip.write(content)
+                zip.closeEntry()
+            }
+            zip.finish()
+        }
+        return jar
+    }
+
+    /**
+     * Adds [extra] bytes to the size that the central directory records for the entry
+     * with the given [name].
+     */
+    private fun growCentralDirectorySize(jar: File, name: String, extra: Int) {
+        val bytes = jar.readBytes()
+        val header = (0 until bytes.size - 46).first { position ->
+            readInt(bytes, position) == 0x02014b50 && String(bytes, position + 46,
+                readShort(bytes, position + 28)) == name
+        }
+        RandomAccessFile(jar, "rw").use { file ->
+            val size = readInt(bytes, header + 24) + extra
+            file.seek(header + 24L)
+            file.write(byteArrayOf(size.toByte(), (size shr 8).toByte(), (size shr 16).toByte(), (size shr 24).toByte()))
+        }
+    }
+
+    private fun readShort(bytes: ByteArray, position: Int): Int =
+        (bytes[position].toInt() and 0xFF) or ((bytes[position + 1].toInt() and 0xFF) shl 8)
+
+    private fun readInt(bytes: ByteArray, position: Int): Int =
+        readShort(bytes, position) or (readShort(bytes, position + 2) shl 16)
+
+    companion object {
+        private const val SOLON_MAIN = "org.noear.solon.annotation.SolonMain"
+    }
+
+}